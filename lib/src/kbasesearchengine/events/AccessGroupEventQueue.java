@@ -7,6 +7,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
@@ -21,6 +23,9 @@ import kbasesearchengine.tools.Utils;
  * entire queue once it is in the ready or processing state, while object level events can
  * run independently subject to the {@link ObjectEventQueue} rules.
  * 
+ * Object level events that are superseded by later events are removed from the queue and are
+ * available from {@link #removeSuperseded()}.
+ * 
  * The queue never changes the state of the {@link StoredStatusEvent}s submitted to it.
  * 
  * Note that the calling code is responsible for ensuring that IDs for events added to this queue
@@ -59,6 +64,8 @@ public class AccessGroupEventQueue {
     // this contains only access group level events. Object level events are handled by their
     // respective queues.
     private Set<StatusEventID> containedEvents = new HashSet<>();
+    // object level events superseded since the last call to removeSuperseded()
+    private final List<StoredStatusEvent> superseded = new LinkedList<>();
     
     /* should maybe initialize with an access group id and reject events that don't match */
     
@@ -196,6 +203,13 @@ public class AccessGroupEventQueue {
     
     private void addMoveToReady(final ObjectEventQueue oq, final Set<StoredStatusEvent> ret) {
         add(q -> q.moveToReady(), oq, ret);
+        addSuperseded(oq);
+    }
+    
+    private void addSuperseded(final ObjectEventQueue oq) {
+        final List<StoredStatusEvent> events = oq.removeSuperseded();
+        superseded.addAll(events);
+        size -= events.size();
     }
     
     private void addGetReady(final ObjectEventQueue oq, final Set<StoredStatusEvent> ret) {
@@ -245,9 +259,10 @@ public class AccessGroupEventQueue {
      * events into the ready state.
      * This function implicitly calls {@link #moveToReady()}.
      * @param event the event to remove from the queue.
+     * @return the events that were moved to the ready state.
      * @throws NoSuchEventException if there is no event with the given ID in processing state.
      */
-    public void setProcessingComplete(final StoredStatusEvent event) {
+    public Set<StoredStatusEvent> setProcessingComplete(final StoredStatusEvent event) {
         Utils.nonNull(event, "event");
         if (processing != null) {
             if (event.getID().equals(processing.getID())) {
@@ -257,7 +272,7 @@ public class AccessGroupEventQueue {
                 for (final ObjectEventQueue oq: objectQueues.values()) {
                     oq.removeBlock();
                 }
-                moveToReady();
+                return moveToReady();
             } else {
                 throw new NoSuchEventException(event);
             }
@@ -267,15 +282,28 @@ public class AccessGroupEventQueue {
                 throw new NoSuchEventException(event);
             }
             final ObjectEventQueue q = objectQueues.get(objID);
-            q.setProcessingComplete(event);
+            final Set<StoredStatusEvent> ret = new HashSet<>();
+            add(oq -> oq.setProcessingComplete(event), q, ret);
+            addSuperseded(q);
             if (q.isEmpty()) {
                 objectQueues.remove(objID);
             }
             size--;
-            moveToReady();
+            ret.addAll(moveToReady());
+            return Collections.unmodifiableSet(ret);
         }
     }
     
+    /** Get the object level events that were superseded by later events and removed from the
+     * queue since the last call to this method. The events should not be processed.
+     * @return the superseded events.
+     */
+    public List<StoredStatusEvent> removeSuperseded() {
+        final List<StoredStatusEvent> ret = new LinkedList<>(superseded);
+        superseded.clear();
+        return ret;
+    }
+    
     /** Get the number of events in the queue.
      * @return the queue size.
      */
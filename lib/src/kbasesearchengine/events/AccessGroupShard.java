@@ -0,0 +1,147 @@
+package kbasesearchengine.events;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/** A range of access group hash buckets owned by one {@link
+ * kbasesearchengine.main.IndexerCoordinator}. Access group IDs are hashed into a fixed number
+ * of buckets, and a shard is a contiguous range of those buckets. Since all the events for an
+ * access group fall into the same shard, the ordering guarantees of the {@link EventQueue} hold
+ * when each shard is processed by a different coordinator.
+ *
+ */
+public class AccessGroupShard {
+
+    /** The number of buckets into which access group IDs are hashed. */
+    public static final int BUCKETS = 1024;
+
+    /** A shard containing all access groups. */
+    public static final AccessGroupShard ALL = new AccessGroupShard(0, BUCKETS);
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final int start;
+    private final int end;
+
+    /** Create a shard.
+     * @param start the first bucket in the shard, inclusive.
+     * @param end the last bucket in the shard, exclusive.
+     */
+    public AccessGroupShard(final int start, final int end) {
+        if (start < 0) {
+            throw new IllegalArgumentException("start must be at least 0");
+        }
+        if (end <= start) {
+            throw new IllegalArgumentException("end must be greater than start");
+        }
+        if (end > BUCKETS) {
+            throw new IllegalArgumentException("end must be at most " + BUCKETS);
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    /** Get one of a number of equally sized shards that together contain all the buckets.
+     * @param shard the index of the shard, starting at 0.
+     * @param shardCount the total number of shards.
+     * @return the shard.
+     */
+    public static AccessGroupShard getShard(final int shard, final int shardCount) {
+        if (shardCount < 1 || shardCount > BUCKETS) {
+            throw new IllegalArgumentException("shardCount must be between 1 and " + BUCKETS);
+        }
+        if (shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException(
+                    "shard must be at least 0 and less than shardCount");
+        }
+        return new AccessGroupShard(shard * BUCKETS / shardCount,
+                (shard + 1) * BUCKETS / shardCount);
+    }
+
+    /** Get the bucket for an access group ID.
+     * @param accessGroupID the access group ID.
+     * @return the bucket.
+     */
+    public static int getBucket(final int accessGroupID) {
+        return Math.floorMod(HASH.hashInt(accessGroupID).asInt(), BUCKETS);
+    }
+
+    /** Get the first bucket in the shard.
+     * @return the bucket, inclusive.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /** Get the last bucket in the shard.
+     * @return the bucket, exclusive.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /** Check whether this shard contains all the buckets.
+     * @return true if the shard contains all the buckets.
+     */
+    public boolean isAll() {
+        return start == 0 && end == BUCKETS;
+    }
+
+    /** Check whether an access group falls into this shard.
+     * @param accessGroupID the access group ID.
+     * @return true if the access group's bucket is in this shard.
+     */
+    public boolean contains(final int accessGroupID) {
+        final int bucket = getBucket(accessGroupID);
+        return bucket >= start && bucket < end;
+    }
+
+    /** Check whether this shard shares any buckets with another shard.
+     * @param other the other shard.
+     * @return true if the shards overlap.
+     */
+    public boolean overlaps(final AccessGroupShard other) {
+        return start < other.end && other.start < end;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + end;
+        result = prime * result + start;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        AccessGroupShard other = (AccessGroupShard) obj;
+        if (end != other.end) {
+            return false;
+        }
+        if (start != other.start) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("AccessGroupShard [start=");
+        builder.append(start);
+        builder.append(", end=");
+        builder.append(end);
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -1,14 +1,13 @@
 package kbasesearchengine.events;
 
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import kbasesearchengine.events.exceptions.NoSuchEventException;
 import kbasesearchengine.tools.Utils;
@@ -26,6 +25,14 @@ import kbasesearchengine.tools.Utils;
  * Currently the queue can only process events with an access group id. Attempting to process
  * an event without an ID is an error.
  * 
+ * Events that are superseded by later events for the same object are removed from the queue
+ * and are available from {@link #removeSuperseded()}. See {@link ObjectEventQueue}.
+ * 
+ * The queue keeps indexes of the ready and processing events and tracks which access group
+ * queues have had events loaded since the last call to {@link #moveToReady()}, so the cost of
+ * each operation is proportional to the number of events and access groups that changed rather
+ * than to the size of the queue.
+ * 
  * This class is not thread safe.
  * @author gaprice@lbl.gov
  *
@@ -34,7 +41,18 @@ public class EventQueue {
     
     private final Map<Integer, AccessGroupEventQueue> queues = new HashMap<>();
     
+    // access groups with events loaded since the last call to moveToReady()
+    private final Set<Integer> dirty = new HashSet<>();
+    private final Set<StoredStatusEvent> ready = new HashSet<>();
+    private final Set<StoredStatusEvent> processing = new HashSet<>();
+    // the events passed to setProcessingComplete() may not be the same as those in the queue
+    private final Map<StatusEventID, StoredStatusEvent> processingByID = new HashMap<>();
+    // events superseded since the last call to removeSuperseded()
+    private final List<StoredStatusEvent> superseded = new LinkedList<>();
+    
     private int size = 0; // record size rather than checking all queues
+    private final Map<StatusEventPriority, Integer> prioritySizes =
+            new EnumMap<>(StatusEventPriority.class);
     
     /** Create an empty queue. */
     public EventQueue() {}
@@ -59,9 +77,19 @@ public class EventQueue {
             events.get(accgrpID).add(e);
         }
         for (final int accgrpID: events.keySet()) {
-            queues.put(accgrpID, new AccessGroupEventQueue(events.get(accgrpID)));
+            final AccessGroupEventQueue q = new AccessGroupEventQueue(events.get(accgrpID));
+            queues.put(accgrpID, q);
+            ready.addAll(q.getReadyForProcessing());
+            addProcessing(q.getProcessing());
         }
         this.size = initialLoad.size();
+        for (final StoredStatusEvent e: initialLoad) {
+            changeSize(e.getPriority(), 1);
+        }
+    }
+    
+    private void changeSize(final StatusEventPriority priority, final int delta) {
+        prioritySizes.put(priority, size(priority) + delta);
     }
     
     /** Get the number of events in the queue.
@@ -71,6 +99,15 @@ public class EventQueue {
         return size;
     }
     
+    /** Get the number of events with a particular priority in the queue.
+     * @param priority the priority of the events.
+     * @return the number of events.
+     */
+    public int size(final StatusEventPriority priority) {
+        final Integer s = prioritySizes.get(priority);
+        return s == null ? 0 : s;
+    }
+    
     /** Return true if the queue is empty, false otherwise.
      * @return true if the queue is empty.
      */
@@ -88,14 +125,20 @@ public class EventQueue {
      * Before any loaded events are added to the ready or processing states,
      * {@link #moveToReady()} must be called.
      * @param event the event to add.
+     * @return true if the event was added to the queue, false if it was already present.
      */
-    public void load(final StoredStatusEvent event) {
+    public boolean load(final StoredStatusEvent event) {
         final int accgrpID = getAGID(event);
         if (!queues.containsKey(accgrpID)) {
             queues.put(accgrpID, new AccessGroupEventQueue());
         }
         final boolean loaded = queues.get(accgrpID).load(event);
-        size += loaded ? 1: 0;
+        if (loaded) {
+            size++;
+            changeSize(event.getPriority(), 1);
+            dirty.add(accgrpID);
+        }
+        return loaded;
     }
     
     /** Remove a processed event from the queue and update the queue state, potentially moving
@@ -110,10 +153,39 @@ public class EventQueue {
             throw new NoSuchEventException(event);
         }
         final AccessGroupEventQueue q = queues.get(id);
-        q.setProcessingComplete(event);
+        ready.addAll(q.setProcessingComplete(event));
+        processing.remove(processingByID.remove(event.getID()));
         size--;
+        changeSize(event.getPriority(), -1);
+        addSuperseded(q);
         if (q.isEmpty()) {
             queues.remove(id);
+            dirty.remove(id);
+        }
+    }
+    
+    private void addSuperseded(final AccessGroupEventQueue q) {
+        for (final StoredStatusEvent e: q.removeSuperseded()) {
+            superseded.add(e);
+            size--;
+            changeSize(e.getPriority(), -1);
+        }
+    }
+    
+    /** Get the events that were superseded by later events and removed from the queue since
+     * the last call to this method. The events should not be processed.
+     * @return the superseded events.
+     */
+    public List<StoredStatusEvent> removeSuperseded() {
+        final List<StoredStatusEvent> ret = new LinkedList<>(superseded);
+        superseded.clear();
+        return ret;
+    }
+    
+    private void addProcessing(final Set<StoredStatusEvent> events) {
+        for (final StoredStatusEvent e: events) {
+            processing.add(e);
+            processingByID.put(e.getID(), e);
         }
     }
     
@@ -123,14 +195,25 @@ public class EventQueue {
      * @return the events that were moved to the ready state.
      */
     public Set<StoredStatusEvent> moveToReady() {
-        return gather(q -> q.moveToReady().stream());
+        // events can only become ready in other access groups when processing completes, and
+        // those are moved to ready in setProcessingComplete()
+        final Set<StoredStatusEvent> ret = new HashSet<>();
+        for (final int accgrpID: dirty) {
+            final AccessGroupEventQueue q = queues.get(accgrpID);
+            ret.addAll(q.moveToReady());
+            addSuperseded(q);
+        }
+        dirty.clear();
+        ready.addAll(ret);
+        return Collections.unmodifiableSet(ret);
     }
     
-    /** Get the set of events in the ready state.
+    /** Get the set of events in the ready state. The returned set is a read only view of the
+     * queue state and changes as the queue changes.
      * @return the events that are ready for processing.
      */
     public Set<StoredStatusEvent> getReadyForProcessing() {
-        return gather(q -> q.getReadyForProcessing().stream());
+        return Collections.unmodifiableSet(ready);
     }
     
     /** Move any events in the ready state to the processing state and return the modified
@@ -138,19 +221,24 @@ public class EventQueue {
      * @return the events that were moved to the processing state.
      */
     public Set<StoredStatusEvent> moveReadyToProcessing() {
-        return gather(q -> q.moveReadyToProcessing().stream());
+        final Set<Integer> accgrpIDs = new HashSet<>();
+        for (final StoredStatusEvent e: ready) {
+            accgrpIDs.add(getAGID(e));
+        }
+        final Set<StoredStatusEvent> ret = new HashSet<>();
+        for (final int accgrpID: accgrpIDs) {
+            ret.addAll(queues.get(accgrpID).moveReadyToProcessing());
+        }
+        ready.clear();
+        addProcessing(ret);
+        return Collections.unmodifiableSet(ret);
     }
     
-    /** Get the set of events in the processing state.
+    /** Get the set of events in the processing state. The returned set is a read only view of
+     * the queue state and changes as the queue changes.
      * @return the events that are in the processing state.
      */
     public Set<StoredStatusEvent> getProcessing() {
-        return gather(q -> q.getProcessing().stream());
-    }
-    
-    private Set<StoredStatusEvent> gather(
-            final Function<AccessGroupEventQueue, Stream<StoredStatusEvent>> func) {
-        return Collections.unmodifiableSet(queues.values().stream()
-                .flatMap(func).collect(Collectors.toSet()));
+        return Collections.unmodifiableSet(processing);
     }
 }
@@ -4,15 +4,26 @@ import java.time.Instant;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import kbasesearchengine.events.exceptions.NoSuchEventException;
 import kbasesearchengine.tools.Utils;
 
 /** An event queue on the level of an object.
+ * 
+ * When an event is moved to the ready state, the queue coalesces it with the events that
+ * follow it. If the following event makes processing the event redundant - for example, a
+ * rename followed by another rename - the event is superseded and the following event is
+ * considered instead. Superseded events are removed from the queue and are available from
+ * {@link #removeSuperseded()}.
  * 
  * The queue never changes the state of the {@link StoredStatusEvent}s submitted to it.
  * 
@@ -39,6 +50,33 @@ public class ObjectEventQueue {
             StatusEventType.UNPUBLISH_ALL_VERSIONS,
             StatusEventType.NEW_VERSION));
     
+    /* The event types that make processing an earlier event of a type redundant when they
+     * immediately follow the earlier event. Each of these events sets the state of the object
+     * regardless of its prior state. A new version event is also superseded by an identical
+     * new version event - see isSupersededBy().
+     */
+    private static final Map<StatusEventType, Set<StatusEventType>> SUPERSEDED_BY =
+            ImmutableMap.<StatusEventType, Set<StatusEventType>>builder()
+                    .put(StatusEventType.RENAME_ALL_VERSIONS,
+                            ImmutableSet.of(StatusEventType.RENAME_ALL_VERSIONS))
+                    .put(StatusEventType.PUBLISH_ALL_VERSIONS, ImmutableSet.of(
+                            StatusEventType.PUBLISH_ALL_VERSIONS,
+                            StatusEventType.UNPUBLISH_ALL_VERSIONS))
+                    .put(StatusEventType.UNPUBLISH_ALL_VERSIONS, ImmutableSet.of(
+                            StatusEventType.PUBLISH_ALL_VERSIONS,
+                            StatusEventType.UNPUBLISH_ALL_VERSIONS))
+                    .put(StatusEventType.DELETE_ALL_VERSIONS, ImmutableSet.of(
+                            StatusEventType.DELETE_ALL_VERSIONS,
+                            StatusEventType.UNDELETE_ALL_VERSIONS))
+                    .put(StatusEventType.UNDELETE_ALL_VERSIONS, ImmutableSet.of(
+                            StatusEventType.DELETE_ALL_VERSIONS,
+                            StatusEventType.UNDELETE_ALL_VERSIONS))
+                    .put(StatusEventType.NEW_ALL_VERSIONS,
+                            ImmutableSet.of(StatusEventType.NEW_ALL_VERSIONS))
+                    .put(StatusEventType.NEW_VERSION,
+                            ImmutableSet.of(StatusEventType.NEW_ALL_VERSIONS))
+                    .build();
+    
     private final PriorityQueue<StoredStatusEvent> queue = new PriorityQueue<StoredStatusEvent>(
             new Comparator<StoredStatusEvent>() {
                 
@@ -52,6 +90,8 @@ public class ObjectEventQueue {
     private StoredStatusEvent processing = null;
     private Instant blockTime = null;
     private Set<StatusEventID> containedEvents = new HashSet<>();
+    // events superseded since the last call to removeSuperseded()
+    private final List<StoredStatusEvent> superseded = new LinkedList<>();
     
     // could require an access group id and object id and reject any events that don't match
     
@@ -93,6 +133,27 @@ public class ObjectEventQueue {
     public static boolean isObjectLevelEvent(final StatusEvent event) {
         return OBJ_LVL_EVENTS.contains(event.getEventType());
     }
+    
+    /** Check whether processing an event is redundant if it is immediately followed by another
+     * event for the same object.
+     * @param event the earlier event.
+     * @param next the event immediately following the earlier event.
+     * @return true if the earlier event does not need to be processed.
+     */
+    public static boolean isSupersededBy(final StatusEvent event, final StatusEvent next) {
+        Utils.nonNull(event, "event");
+        Utils.nonNull(next, "next");
+        if (!event.getStorageCode().equals(next.getStorageCode())) {
+            return false;
+        }
+        if (event.getEventType().equals(StatusEventType.NEW_VERSION) &&
+                next.getEventType().equals(StatusEventType.NEW_VERSION)) {
+            // the same version was saved twice, e.g. by the event generator
+            return event.getVersion().equals(next.getVersion());
+        }
+        final Set<StatusEventType> types = SUPERSEDED_BY.get(event.getEventType());
+        return types != null && types.contains(next.getEventType());
+    }
 
     /** Add a new {@link StatusEventProcessingState#UNPROC} event to the queue.
      * Events that already exist in the queue as determined by the event id are ignored.
@@ -154,15 +215,16 @@ public class ObjectEventQueue {
      * an event to the ready state.
      * This function implicitly calls {@link #moveToReady()}.
      * @param event the event to remove.
+     * @return the event that was moved to the ready state, if any.
      * @throws NoSuchEventException if there is no event with the given ID in the processing
      * state.
      */
-    public void setProcessingComplete(final StoredStatusEvent event) {
+    public Optional<StoredStatusEvent> setProcessingComplete(final StoredStatusEvent event) {
         Utils.nonNull(event, "event");
         if (processing != null && event.getID().equals(processing.getID())) {
             containedEvents.remove(processing.getID());
             processing = null;
-            moveToReady();
+            return moveToReady();
         } else {
             throw new NoSuchEventException(event);
         }
@@ -213,13 +275,31 @@ public class ObjectEventQueue {
         if (ready != null || processing != null) {
             return Optional.absent();
         }
-        final StoredStatusEvent next = queue.peek();
+        StoredStatusEvent next = queue.peek();
         if (next != null && !isBlockActive(next)) {
-            ready = next;
             queue.remove();
+            // events are never coalesced across a block, which is an access group level event
+            while (!queue.isEmpty() && !isBlockActive(queue.peek()) &&
+                    isSupersededBy(next.getEvent(), queue.peek().getEvent())) {
+                superseded.add(next);
+                containedEvents.remove(next.getID());
+                next = queue.remove();
+            }
+            ready = next;
         }
         return Optional.fromNullable(ready);
     }
+    
+    /** Get the events that were superseded by later events and removed from the queue since
+     * the last call to this method. The events are no longer part of the queue, and should
+     * not be processed.
+     * @return the superseded events, oldest first.
+     */
+    public List<StoredStatusEvent> removeSuperseded() {
+        final List<StoredStatusEvent> ret = new LinkedList<>(superseded);
+        superseded.clear();
+        return ret;
+    }
 
     private boolean isBlockActive(final StoredStatusEvent next) {
         return blockTime != null && blockTime.isBefore(next.getEvent().getTimestamp());
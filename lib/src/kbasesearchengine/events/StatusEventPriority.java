@@ -0,0 +1,16 @@
+package kbasesearchengine.events;
+
+/** The priority of a status event. Events in each priority are loaded and claimed separately,
+ * so that a large number of low priority events does not delay high priority events.
+ *
+ */
+public enum StatusEventPriority {
+    
+    /** Events resulting from user actions, which should be searchable as soon as possible. This
+     * is the priority of events with no recorded priority.
+     */
+    INTERACTIVE,
+    
+    /** Events generated in bulk, for example when reindexing. */
+    BACKFILL;
+}
@@ -22,5 +22,8 @@ public enum StatusEventProcessingState {
     UNINDX,
     
     /** indexed */
-    INDX;
+    INDX,
+    
+    /** Skipped without processing, since a later event made processing the event redundant */
+    SKIP;
 }
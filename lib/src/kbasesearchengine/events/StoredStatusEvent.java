@@ -27,6 +27,7 @@ public class StoredStatusEvent implements StatusEventWithId {
     private final Optional<String> errorCode;
     private final Optional<String> errorMessage;
     private final Optional<String> errorStackTrace;
+    private final StatusEventPriority priority;
     
     private StoredStatusEvent(
             final StatusEvent event,
@@ -39,7 +40,8 @@ public class StoredStatusEvent implements StatusEventWithId {
             final Optional<Instant> storeTime,
             final String errorCode,
             final String errorMessage,
-            final String errorStackTrace) {
+            final String errorStackTrace,
+            final StatusEventPriority priority) {
         this.event = event;
         this.id = id;
         this.state = state;
@@ -51,6 +53,7 @@ public class StoredStatusEvent implements StatusEventWithId {
         this.errorCode = Optional.fromNullable(errorCode);
         this.errorMessage = Optional.fromNullable(errorMessage);
         this.errorStackTrace = Optional.fromNullable(errorStackTrace);
+        this.priority = priority;
     }
 
     @Override
@@ -132,6 +135,13 @@ public class StoredStatusEvent implements StatusEventWithId {
         return errorStackTrace;
     }
     
+    /** Get the priority of the event.
+     * @return the priority.
+     */
+    public StatusEventPriority getPriority() {
+        return priority;
+    }
+    
     @Override
     public String toString() {
         StringBuilder builder2 = new StringBuilder();
@@ -157,6 +167,8 @@ public class StoredStatusEvent implements StatusEventWithId {
         builder2.append(errorMessage);
         builder2.append(", errorStackTrace=");
         builder2.append(errorStackTrace);
+        builder2.append(", priority=");
+        builder2.append(priority);
         builder2.append("]");
         return builder2.toString();
     }
@@ -173,6 +185,7 @@ public class StoredStatusEvent implements StatusEventWithId {
                 + ((errorStackTrace == null) ? 0 : errorStackTrace.hashCode());
         result = prime * result + ((event == null) ? 0 : event.hashCode());
         result = prime * result + ((id == null) ? 0 : id.hashCode());
+        result = prime * result + ((priority == null) ? 0 : priority.hashCode());
         result = prime * result + ((state == null) ? 0 : state.hashCode());
         result = prime * result
                 + ((storeTime == null) ? 0 : storeTime.hashCode());
@@ -233,6 +246,9 @@ public class StoredStatusEvent implements StatusEventWithId {
         } else if (!id.equals(other.id)) {
             return false;
         }
+        if (priority != other.priority) {
+            return false;
+        }
         if (state != other.state) {
             return false;
         }
@@ -304,6 +320,7 @@ public class StoredStatusEvent implements StatusEventWithId {
         private String errorCode = null;
         private String errorMessage = null;
         private String errorStackTrace = null;
+        private StatusEventPriority priority = StatusEventPriority.INTERACTIVE;
         
         private Builder(
                 final StatusEvent event,
@@ -390,12 +407,23 @@ public class StoredStatusEvent implements StatusEventWithId {
             return this;
         }
         
+        /** Set the priority of the event. The default is
+         * {@link StatusEventPriority#INTERACTIVE}.
+         * @param priority the priority.
+         * @return this builder.
+         */
+        public Builder withPriority(final StatusEventPriority priority) {
+            Utils.nonNull(priority, "priority");
+            this.priority = priority;
+            return this;
+        }
+        
         /** Build the {@link StoredStatusEvent}.
          * @return the event.
          */
         public StoredStatusEvent build() {
             return new StoredStatusEvent(event, id, state, updateTime, updater, workerCodes,
-                    storedBy, storeTime, errorCode, errorMessage, errorStackTrace);
+                    storedBy, storeTime, errorCode, errorMessage, errorStackTrace, priority);
         }
     }
 }
@@ -84,6 +84,16 @@ public interface EventHandler {
     Set<ResolvedReference> resolveReferences(List<GUID> refpath, Set<GUID> refsToResolve)
             throws IndexingException, RetriableIndexingException;
 
+    /** Determine which of a set of objects are deleted, with as few calls to the remote
+     * source as possible.
+     * @param objects the objects to check. The version and sub object fields are ignored.
+     * @return the objects that are deleted, with no version or sub object fields.
+     * @throws IndexingException if an error occurred checking the objects.
+     * @throws RetriableIndexingException if a retriable error occurred checking the objects.
+     */
+    Set<GUID> getDeletedObjects(Set<GUID> objects)
+            throws IndexingException, RetriableIndexingException;
+
     /** Returns whether an event is expandable into multiple individual events.
      * @param parentEvent the event to check.
      * @return true if the event is expandable, false otherwise.
@@ -6,6 +6,7 @@ import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -14,9 +15,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import kbasesearchengine.events.AccessGroupEventQueue;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -93,15 +106,106 @@ public class WorkspaceEventHandler implements EventHandler, WorkspaceInfoProvide
                     new TypeReference<Tuple9<Long, String, String, String, Long, String, String,
                             String,Map<String,String>>>() {};
     
+    /** The default number of seconds the search tags for a workspace are cached. */
+    public static final int DEFAULT_TAG_CACHE_LIFETIME_SEC = 300;
+    
+    /** The default maximum number of workspaces for which search tags are cached. */
+    public static final int DEFAULT_TAG_CACHE_SIZE = 10_000;
+    
+    /** The default maximum number of references resolved in one call to the workspace. */
+    public static final int DEFAULT_REF_BATCH_SIZE = 1000;
+    
+    /** The default maximum number of reference batches resolved concurrently. */
+    public static final int DEFAULT_REF_CONCURRENCY = 1;
+    
     private final CloneableWorkspaceClient ws;
     
-    /** Create a handler.
+    // the search tags for each workspace, shared by all the events loaded by this handler
+    private final Cache<Long, List<String>> tagCache;
+    
+    private final int refBatchSize;
+    // null if reference batches are resolved one at a time in the calling thread
+    private final ExecutorService refExecutor;
+    
+    /** Create a handler with the default tag cache and reference resolution settings.
      * @param clonableWorkspaceClient a workspace client to use when contacting the workspace
      * service.
      */
     public WorkspaceEventHandler(final CloneableWorkspaceClient clonableWorkspaceClient) {
+        this(clonableWorkspaceClient, DEFAULT_TAG_CACHE_LIFETIME_SEC, DEFAULT_TAG_CACHE_SIZE,
+                DEFAULT_REF_BATCH_SIZE, DEFAULT_REF_CONCURRENCY);
+    }
+    
+    /** Create a handler.
+     * @param clonableWorkspaceClient a workspace client to use when contacting the workspace
+     * service.
+     * @param tagCacheLifeTimeInSec the number of seconds the search tags for a workspace should
+     * remain in the cache.
+     * @param tagCacheSizeInWorkspaces the maximum number of workspaces for which search tags are
+     * stored in the cache.
+     * @param refBatchSize the maximum number of references resolved in one call to the
+     * workspace.
+     * @param refConcurrency the maximum number of reference batches resolved concurrently,
+     * across all the callers of this handler.
+     */
+    public WorkspaceEventHandler(
+            final CloneableWorkspaceClient clonableWorkspaceClient,
+            final int tagCacheLifeTimeInSec,
+            final int tagCacheSizeInWorkspaces,
+            final int refBatchSize,
+            final int refConcurrency) {
+        this(clonableWorkspaceClient, tagCacheLifeTimeInSec, tagCacheSizeInWorkspaces,
+                refBatchSize, refConcurrency, Ticker.systemTicker());
+    }
+    
+    /** Create a handler for testing purposes.
+     * @param clonableWorkspaceClient a workspace client to use when contacting the workspace
+     * service.
+     * @param tagCacheLifeTimeInSec the number of seconds the search tags for a workspace should
+     * remain in the cache.
+     * @param tagCacheSizeInWorkspaces the maximum number of workspaces for which search tags are
+     * stored in the cache.
+     * @param refBatchSize the maximum number of references resolved in one call to the
+     * workspace.
+     * @param refConcurrency the maximum number of reference batches resolved concurrently,
+     * across all the callers of this handler.
+     * @param ticker a ticker implementation that allows controlling cache expiration with the
+     * provided ticker rather than waiting for the system clock. This is exposed for testing
+     * purposes.
+     */
+    public WorkspaceEventHandler(
+            final CloneableWorkspaceClient clonableWorkspaceClient,
+            final int tagCacheLifeTimeInSec,
+            final int tagCacheSizeInWorkspaces,
+            final int refBatchSize,
+            final int refConcurrency,
+            final Ticker ticker) {
         Utils.nonNull(clonableWorkspaceClient, "clonableWorkspaceClient");
+        Utils.nonNull(ticker, "ticker");
+        if (tagCacheLifeTimeInSec < 1) {
+            throw new IllegalArgumentException("cache lifetime must be at least one second");
+        }
+        if (tagCacheSizeInWorkspaces < 1) {
+            throw new IllegalArgumentException("cache size must be at least one");
+        }
+        if (refBatchSize < 1) {
+            throw new IllegalArgumentException("refBatchSize must be at least 1");
+        }
+        if (refConcurrency < 1) {
+            throw new IllegalArgumentException("refConcurrency must be at least 1");
+        }
         ws = clonableWorkspaceClient;
+        tagCache = CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(tagCacheLifeTimeInSec, TimeUnit.SECONDS)
+                .maximumSize(tagCacheSizeInWorkspaces)
+                .build();
+        this.refBatchSize = refBatchSize;
+        refExecutor = refConcurrency < 2 ? null : Executors.newFixedThreadPool(refConcurrency,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ws-ref-resolver-%d")
+                        .setDaemon(true)
+                        .build());
     }
     
     @Override
@@ -164,7 +268,21 @@ public class WorkspaceEventHandler implements EventHandler, WorkspaceInfoProvide
 
     private List<String> getTags(final ObjectData objectdata)
             throws RetriableIndexingException, IndexingException {
-        final String tags = getWorkspaceInfoInternal(objectdata.getInfo().getE7()).getE9()
+        final long workspaceID = objectdata.getInfo().getE7();
+        try {
+            return tagCache.get(workspaceID, () -> loadTags(workspaceID));
+        } catch (ExecutionException e) {
+            // these are the only checked exceptions thrown by loadTags
+            if (e.getCause() instanceof RetriableIndexingException) {
+                throw (RetriableIndexingException) e.getCause();
+            }
+            throw (IndexingException) e.getCause();
+        }
+    }
+    
+    private List<String> loadTags(final long workspaceID)
+            throws RetriableIndexingException, IndexingException {
+        final String tags = getWorkspaceInfoInternal(workspaceID).getE9()
                 .get(META_SEARCH_TAGS);
         final List<String> ret = new LinkedList<>();
         if (tags != null) {
@@ -175,7 +293,16 @@ public class WorkspaceEventHandler implements EventHandler, WorkspaceInfoProvide
                 }
             }
         }
-        return ret;
+        return Collections.unmodifiableList(ret);
+    }
+    
+    /* Access group level events may change the workspace metadata, e.g. a copied workspace, so
+     * the tags are fetched again on the next load.
+     */
+    private void invalidateTags(final StatusEvent event) {
+        if (event.getAccessGroupId().isPresent()) {
+            tagCache.invalidate((long) event.getAccessGroupId().get());
+        }
     }
     
     /** Parse a date emitted from the workspace to epoch millis.
@@ -377,16 +504,59 @@ public class WorkspaceEventHandler implements EventHandler, WorkspaceInfoProvide
         return refs.stream().collect(Collectors.toMap(r -> r, r -> refPrefix + r.toRefString()));
     }
     
+    /* The references are split into batches of at most refBatchSize, and if there's more than
+     * one batch and a reference executor, the batches are resolved concurrently.
+     */
     @Override
     public Set<ResolvedReference> resolveReferences(
             final List<GUID> refpath,
             final Set<GUID> refs)
             throws RetriableIndexingException, IndexingException {
-        // may need to split into batches 
         final String refPrefix = buildRefPrefix(refpath);
-        
-        final List<GUID> orderedRefs = new ArrayList<>(refs);
-        
+        final List<List<GUID>> batches = Lists.partition(new ArrayList<>(refs), refBatchSize);
+        final Set<ResolvedReference> ret = new HashSet<>();
+        if (refExecutor == null || batches.size() < 2) {
+            for (final List<GUID> batch: batches) {
+                ret.addAll(resolveReferences(refPrefix, batch));
+            }
+            return ret;
+        }
+        final List<Future<Set<ResolvedReference>>> futures = new LinkedList<>();
+        try {
+            for (final List<GUID> batch: batches) {
+                futures.add(refExecutor.submit(() -> resolveReferences(refPrefix, batch)));
+            }
+            for (final Future<Set<ResolvedReference>> f: futures) {
+                ret.addAll(f.get());
+            }
+        } catch (InterruptedException e) {
+            // the retrier will throw the interrupted exception when it next waits
+            Thread.currentThread().interrupt();
+            throw new RetriableIndexingException(ErrorType.OTHER,
+                    "Interrupted while resolving references", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RetriableIndexingException) {
+                throw (RetriableIndexingException) cause;
+            } else if (cause instanceof IndexingException) {
+                throw (IndexingException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw (RuntimeException) cause; // no other checked exceptions are thrown
+            }
+        } finally {
+            for (final Future<Set<ResolvedReference>> f: futures) {
+                f.cancel(false); // no-op for completed batches
+            }
+        }
+        return ret;
+    }
+    
+    private Set<ResolvedReference> resolveReferences(
+            final String refPrefix,
+            final List<GUID> orderedRefs)
+            throws RetriableIndexingException, IndexingException {
         final List<ObjectSpecification> getInfoInput = orderedRefs.stream().map(
                 ref -> new ObjectSpecification().withRef(refPrefix + ref.toRefString())).collect(
                         Collectors.toList());
@@ -439,25 +609,22 @@ public class WorkspaceEventHandler implements EventHandler, WorkspaceInfoProvide
     private static final Set<StatusEventType> EXPANDABLES = new HashSet<>(Arrays.asList(
             StatusEventType.NEW_ALL_VERSIONS,
             StatusEventType.COPY_ACCESS_GROUP,
-            StatusEventType.DELETE_ACCESS_GROUP,
-            StatusEventType.PUBLISH_ACCESS_GROUP,
-            StatusEventType.UNPUBLISH_ACCESS_GROUP));
+            StatusEventType.DELETE_ACCESS_GROUP));
     
     @Override
     public Iterable<ChildStatusEvent> expand(final StoredStatusEvent eventWID)
             throws IndexingException, RetriableIndexingException {
         checkStorageCode(eventWID);
         final StatusEvent event = eventWID.getEvent();
+        if (!ObjectEventQueue.isObjectLevelEvent(event)) {
+            invalidateTags(event);
+        }
         if (StatusEventType.NEW_ALL_VERSIONS.equals(event.getEventType())) {
             return handleNewAllVersions(eventWID);
         } else if (StatusEventType.COPY_ACCESS_GROUP.equals(event.getEventType())) {
             return handleNewAccessGroup(eventWID);
         } else if (StatusEventType.DELETE_ACCESS_GROUP.equals(event.getEventType())) {
             return handleDeletedAccessGroup(eventWID);
-        } else if (StatusEventType.PUBLISH_ACCESS_GROUP.equals(event.getEventType())) {
-            return handlePublishAccessGroup(eventWID, StatusEventType.PUBLISH_ALL_VERSIONS);
-        } else if (StatusEventType.UNPUBLISH_ACCESS_GROUP.equals(event.getEventType())) {
-            return handlePublishAccessGroup(eventWID, StatusEventType.UNPUBLISH_ALL_VERSIONS);
         } else {
             throw new IllegalArgumentException("Unexpandable event type: " + event.getEventType());
         }
@@ -474,30 +641,6 @@ public class WorkspaceEventHandler implements EventHandler, WorkspaceInfoProvide
         }
     }
 
-    private Iterable<ChildStatusEvent> handlePublishAccessGroup(
-            final StoredStatusEvent event,
-            final StatusEventType newType)
-            throws RetriableIndexingException, IndexingException {
-
-        final long workspaceId = (long) event.getEvent().getAccessGroupId().get();
-        
-        final long objcount;
-        try {
-            objcount = getWorkspaceInfo(workspaceId).getE5();
-        } catch (IOException e) {
-            throw handleException(e);
-        } catch (JsonClientException e) {
-            throw handleException(e);
-        }
-        return new Iterable<ChildStatusEvent>() {
-            
-            @Override
-            public Iterator<ChildStatusEvent> iterator() {
-                return new StupidWorkspaceObjectIterator(event, objcount, newType);
-            }
-        };
-    }
-
     private Iterable<ChildStatusEvent> handleDeletedAccessGroup(final StoredStatusEvent event) {
         
         return new Iterable<ChildStatusEvent>() {
@@ -754,44 +897,79 @@ public class WorkspaceEventHandler implements EventHandler, WorkspaceInfoProvide
         final long objid = Long.valueOf(ev.getAccessGroupObjectId().get()).longValue();
 
         // check if object is permanently deleted or marked as deleted
-        final Map<String, Object> command;
-        command = new HashMap<>();
+        if (listObjectIDs(wsid, objid, objid).isEmpty()) {
+            return StatusEvent.
+                    getBuilder(ev.getStorageCode(),
+                            ev.getTimestamp(),
+                            StatusEventType.DELETE_ALL_VERSIONS).
+                    withNullableAccessGroupID(wsid).
+                    withNullableObjectID(Long.toString(objid)).build();
+        }
+        return ev;
+    }
+
+    @Override
+    public Set<GUID> getDeletedObjects(final Set<GUID> objects)
+            throws IndexingException, RetriableIndexingException {
+        Utils.nonNull(objects, "objects");
+        Utils.noNulls(objects, "null item in objects");
+        final Map<Integer, TreeSet<Long>> wsToObjIDs = new TreeMap<>();
+        for (final GUID g: objects) {
+            if (!g.getStorageCode().equals(STORAGE_CODE)) {
+                throw new IllegalArgumentException(String.format(
+                        "GUID %s is not a workspace object", g));
+            }
+            wsToObjIDs.computeIfAbsent(g.getAccessGroupId(), k -> new TreeSet<>())
+                    .add(Long.parseLong(g.getAccessGroupObjectId()));
+        }
+        final Set<GUID> deleted = new HashSet<>();
+        for (final int wsid: wsToObjIDs.keySet()) {
+            final TreeSet<Long> objids = wsToObjIDs.get(wsid);
+            // the workspace returns at most WS_BATCH_SIZE objects per call, so each listing
+            // covers a range of object IDs no larger than that
+            while (!objids.isEmpty()) {
+                final long min = objids.first();
+                final Set<Long> range = objids.headSet(min + WS_BATCH_SIZE);
+                final Set<Long> extant = listObjectIDs(wsid, min, min + WS_BATCH_SIZE - 1);
+                for (final long objid: range) {
+                    if (!extant.contains(objid)) {
+                        deleted.add(new GUID(STORAGE_CODE, wsid, Long.toString(objid),
+                                null, null, null));
+                    }
+                }
+                range.clear();
+            }
+        }
+        return deleted;
+    }
+
+    /* Returns the IDs of the objects in a range of object IDs in a workspace that are not
+     * deleted. If the workspace is deleted or doesn't exist, no objects are returned.
+     */
+    private Set<Long> listObjectIDs(final int wsid, final long minObjID, final long maxObjID)
+            throws IndexingException, RetriableIndexingException {
+        final Map<String, Object> command = new HashMap<>();
         command.put("command", "listObjects");
         command.put("params", new ListObjectsParams().
                 withIds(Arrays.asList((long)wsid)).
-                withMinObjectID(objid).
-                withMaxObjectID(objid));
+                withMinObjectID(minObjID).
+                withMaxObjectID(maxObjID));
         try {
-            final List<List> objList = ws.getClient().administer(new UObject(command))
-                    .asClassInstance(List.class);
-
-            if (objList.isEmpty()) {
-                return StatusEvent.
-                        getBuilder(ev.getStorageCode(),
-                                ev.getTimestamp(),
-                                StatusEventType.DELETE_ALL_VERSIONS).
-                        withNullableAccessGroupID(wsid).
-                        withNullableObjectID(Long.toString(objid)).build();
-            }
+            return ws.getClient().administer(new UObject(command))
+                    .asClassInstance(OBJ_TYPEREF)
+                    .stream().map(o -> o.getE1()).collect(Collectors.toSet());
         } catch (IOException ex) {
             throw handleException(ex);
         } catch (JsonClientException ex) {
             String msg = ex.getMessage();
             if (msg.contains("Workspace "+wsid+" is deleted") ||
                     msg.contains("No workspace with id "+wsid+" exists")) {
-                return StatusEvent.
-                        getBuilder(ev.getStorageCode(),
-                                ev.getTimestamp(),
-                                StatusEventType.DELETE_ALL_VERSIONS).
-                        withNullableAccessGroupID(wsid).
-                        withNullableObjectID(Long.toString(objid)).build();
+                return Collections.emptySet();
             }
             else {
                 throw handleException(ex);
             }
         }
-
-        return ev;
     }
 
     private String getLatestName(StatusEvent ev)
@@ -837,6 +1015,7 @@ public class WorkspaceEventHandler implements EventHandler, WorkspaceInfoProvide
 
         // only object level events are updated below
         if (!ObjectEventQueue.isObjectLevelEvent(ev)) {
+            invalidateTags(ev);
             return ev;
         }
 
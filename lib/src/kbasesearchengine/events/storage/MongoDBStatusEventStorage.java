@@ -2,9 +2,11 @@ package kbasesearchengine.events.storage;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.time.Clock;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -13,23 +15,32 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import com.mongodb.MongoException;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.UpdateResult;
 
+import kbasesearchengine.events.AccessGroupShard;
 import kbasesearchengine.events.ChildStatusEvent;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredChildStatusEvent;
@@ -52,13 +63,15 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     
     /* Note that general mongoexceptions are more or less impossible to test. */
     
-    /* No need for a worker code index at the moment I think. The query for
-     * setAndGetProcessingState should run down all the events in the target state in order of
-     * timestamp until it finds one with an appropriate code.
-     * Look into adding one if we start seeing long queries.
+    /* The schema version is stored in the config collection. Version 1 is the schema before
+     * the config collection existed.
+     * To change the schema, increment the version, add the new indexes to getIndexSpecs(), and
+     * add any indexes that are no longer needed to OBSOLETE_INDEXES. The migration runs while
+     * other instances continue to use the database - the indexes are built in the background
+     * and the obsolete indexes are only dropped once the new indexes exist.
      */
+    private static final int SCHEMA_VERSION = 2;
     
-    //TODO DB add schema ver code
     
     private static final List<String> DEFAULT_WORKER_CODES_LIST = Collections.unmodifiableList(
             Arrays.asList(StatusEventStorage.DEFAULT_WORKER_CODE));
@@ -69,10 +82,19 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     private static final int MAX_ERR_CODE_LEN = 20;
     private static final int TRUNC_ERR_MSG_LEN = 1000;
     private static final int TRUNC_ERR_TRACE_LEN = 100_000;
+    private static final int ARCHIVE_BATCH_SIZE = 1000;
+    
+    // states of events that are never processed again. Child events are always archived.
+    private static final List<String> ARCHIVE_STATES = Arrays.asList(
+            StatusEventProcessingState.INDX.toString(),
+            StatusEventProcessingState.UNINDX.toString(),
+            StatusEventProcessingState.SKIP.toString());
     
     private static final String FLD_STATUS = "status";
     private static final String FLD_STORAGE_CODE = "strcde";
     private static final String FLD_ACCESS_GROUP_ID = "accgrp";
+    // the hash bucket of the access group ID, see AccessGroupShard
+    private static final String FLD_ACCESS_GROUP_BUCKET = "agbkt";
     private static final String FLD_OBJECT_ID = "objid";
     private static final String FLD_VERSION = "ver";
     private static final String FLD_TIMESTAMP = "time";
@@ -85,18 +107,46 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     private static final String FLD_UPDATE_TIME = "updte";
     // the ID, if any, of the operator that last changed the event status. Arbitrary string.
     private static final String FLD_UPDATER = "updtr";
+    // the ID of the claim with which the event was claimed, until its state next changes
+    private static final String FLD_CLAIM = "claim";
     // the ID, if any, of the entity that stored the event. Arbitrary string.
     private static final String FLD_STORED_BY = "stby";
     private static final String FLD_STORED_TIME = "sttime";
+    // events stored without a priority, e.g. by the workspace, are interactive
+    private static final String FLD_PRIORITY = "prio";
     
     private static final String FLD_PARENT_ID = "parid";
     
     private static final String FLD_ERR_CODE = "errcde";
     private static final String FLD_ERR_MSG = "errmsg";
     private static final String FLD_ERR_TRACE = "errtrce";
+    // the hash of the stack trace for archived events
+    private static final String FLD_ERR_TRACE_HASH = "errtrcehash";
+    // when an archived event or stack trace will be deleted
+    private static final String FLD_ARCHIVE_EXPIRES = "arcexp";
+    private static final String FLD_TRACE = "trace";
+    
+    private static final String FLD_CONFIG_KEY = "config";
+    private static final String FLD_CONFIG_VALUE = "config";
+    private static final String FLD_SCHEMA_VERSION = "schemaver";
+    private static final String FLD_IN_UPDATE = "inupdate";
+    
+    private static final String FLD_SHARD_START = "start";
+    private static final String FLD_SHARD_END = "end";
+    private static final String FLD_SHARD_OWNER = "owner";
+    private static final String FLD_SHARD_EXPIRES = "expires";
     
     private static final String COL_EVENT = "searchEvents";
     private static final String COL_CHILD = "childEvents";
+    private static final String COL_SHARD = "coordinatorShards";
+    private static final String COL_CONFIG = "config";
+    private static final String COL_EVENT_ARCHIVE = "searchEventsArchive";
+    private static final String COL_CHILD_ARCHIVE = "childEventsArchive";
+    private static final String COL_ERR_TRACE = "errorTraces";
+    
+    // indexes that have been replaced by other indexes, by collection. No released schema
+    // has had an index replaced yet.
+    private static final Map<String, List<String>> OBSOLETE_INDEXES = ImmutableMap.of();
     
     private Map<String, List<IndexSpecification>> getIndexSpecs() {
         // should probably rework this and the index spec class
@@ -107,16 +157,40 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         final LinkedList<IndexSpecification> event = new LinkedList<>();
         //find events by status and time stamp
         event.add(idxSpec(FLD_STATUS, 1, FLD_TIMESTAMP, 1, null));
+        // claim events by status and worker code in time stamp order. The query has one
+        // clause per worker code, each of which can use the index for the sort.
+        event.add(idxSpec(FLD_STATUS, 1, FLD_WORKER_CODES, 1, FLD_TIMESTAMP, 1, null));
+        // find events by status, priority and time stamp, optionally in a shard. The bucket is
+        // last so the sort by time stamp uses the index.
+        event.add(idxSpec(FLD_STATUS, 1, FLD_PRIORITY, 1, FLD_TIMESTAMP, 1,
+                FLD_ACCESS_GROUP_BUCKET, 1, null));
+        // find events by status, priority and access group in time stamp order
+        event.add(idxSpec(FLD_STATUS, 1, FLD_PRIORITY, 1, FLD_ACCESS_GROUP_ID, 1,
+                FLD_TIMESTAMP, 1, null));
         // find events by status and store time
         event.add(idxSpec(FLD_STORED_TIME, 1, FLD_STATUS, 1, null));
+        // find events claimed in a batch
+        event.add(idxSpec(FLD_CLAIM, 1, new IndexOptions().sparse(true)));
         indexes.put(COL_EVENT, event);
         
         // child event indexes
         final LinkedList<IndexSpecification> child = new LinkedList<>();
         // find events by status and store time
         child.add(idxSpec(FLD_STORED_TIME, 1, FLD_STATUS, 1, null));
+        // find the children of an event
+        child.add(idxSpec(FLD_PARENT_ID, 1, null));
         indexes.put(COL_CHILD, child);
         
+        // archive indexes. The archived documents have their own expiration times.
+        for (final String col: Arrays.asList(
+                COL_EVENT_ARCHIVE, COL_CHILD_ARCHIVE, COL_ERR_TRACE)) {
+            final LinkedList<IndexSpecification> archive = new LinkedList<>();
+            // expire archived documents
+            archive.add(idxSpec(FLD_ARCHIVE_EXPIRES, 1,
+                    new IndexOptions().expireAfter(0L, TimeUnit.SECONDS)));
+            indexes.put(col, archive);
+        }
+        
         return indexes;
     }
     
@@ -131,7 +205,6 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     }
     
     // 1 for ascending sort, -1 for descending
-    @SuppressWarnings("unused")
     private static IndexSpecification idxSpec(
             final String field, final int ascendingSort,
             final IndexOptions options) {
@@ -147,7 +220,6 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                 new Document(field1, ascendingSort1).append(field2, ascendingSort2), options);
     }
 
-    @SuppressWarnings("unused")
     private static IndexSpecification idxSpec(
             final String field1, final int ascendingSort1,
             final String field2, final int ascendingSort2,
@@ -160,19 +232,31 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                 options);
     }
     
+    private static IndexSpecification idxSpec(
+            final String field1, final int ascendingSort1,
+            final String field2, final int ascendingSort2,
+            final String field3, final int ascendingSort3,
+            final String field4, final int ascendingSort4,
+            final IndexOptions options) {
+        return new IndexSpecification(
+                new Document(field1, ascendingSort1)
+                    .append(field2, ascendingSort2)
+                    .append(field3, ascendingSort3)
+                    .append(field4, ascendingSort4),
+                options);
+    }
+    
     private void ensureIndexes() throws StorageInitException {
         final Map<String, List<IndexSpecification>> indexes = getIndexSpecs();
         for (final String col: indexes.keySet()) {
             for (IndexSpecification idx: indexes.get(col)) {
                 final Document index = idx.index;
-                final IndexOptions opts = idx.options;
+                // build in the background so other instances can use the db during migrations
+                final IndexOptions opts = (idx.options == null ? new IndexOptions() : idx.options)
+                        .background(true);
                 final MongoCollection<Document> dbcol = db.getCollection(col);
                 try {
-                    if (opts == null) {
-                        dbcol.createIndex(index);
-                    } else {
-                        dbcol.createIndex(index, opts);
-                    }
+                    dbcol.createIndex(index, opts);
                 } catch (MongoException me) {
                     throw new StorageInitException(
                             "Failed to create index: " + me.getMessage(), me);
@@ -180,6 +264,85 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             }
         }
     }
+    
+    /* Checks the schema version, updates the schema if the database version is older than
+     * this code, and ensures the indexes exist.
+     */
+    private void checkSchema() throws StorageInitException {
+        final MongoCollection<Document> col = db.getCollection(COL_CONFIG);
+        final Document key = new Document(FLD_CONFIG_KEY, FLD_CONFIG_VALUE);
+        final Document config;
+        try {
+            // there's only one config document
+            col.createIndex(new Document(FLD_CONFIG_KEY, 1), new IndexOptions().unique(true));
+            // databases without a config document are version 1
+            col.updateOne(key, new Document("$setOnInsert", new Document(FLD_SCHEMA_VERSION, 1)
+                    .append(FLD_IN_UPDATE, false)), new UpdateOptions().upsert(true));
+            config = col.find(key).first();
+        } catch (MongoException me) {
+            throw new StorageInitException(
+                    "Failed to read the config document: " + me.getMessage(), me);
+        }
+        final int version = config.getInteger(FLD_SCHEMA_VERSION);
+        if (config.getBoolean(FLD_IN_UPDATE)) {
+            throw new StorageInitException(String.format(
+                    "The database is being updated from schema version %s to %s by another " +
+                    "process. If that process failed, set %s to false in the %s collection " +
+                    "and restart.", version, SCHEMA_VERSION, FLD_IN_UPDATE, COL_CONFIG));
+        }
+        if (version > SCHEMA_VERSION) {
+            throw new StorageInitException(String.format(
+                    "Incompatible database schema. Database is version %s, expected %s or less.",
+                    version, SCHEMA_VERSION));
+        }
+        if (version == SCHEMA_VERSION) {
+            ensureIndexes();
+            return;
+        }
+        try {
+            final UpdateResult res = col.updateOne(
+                    new Document(key).append(FLD_SCHEMA_VERSION, version)
+                            .append(FLD_IN_UPDATE, false),
+                    new Document("$set", new Document(FLD_IN_UPDATE, true)));
+            if (res.getModifiedCount() != 1) {
+                throw new StorageInitException(
+                        "The database schema was updated by another process while checking " +
+                        "the schema version. Please restart.");
+            }
+        } catch (MongoException me) {
+            throw new StorageInitException(
+                    "Failed to update the config document: " + me.getMessage(), me);
+        }
+        ensureIndexes();
+        dropObsoleteIndexes();
+        try {
+            col.updateOne(key, new Document("$set", new Document(FLD_SCHEMA_VERSION,
+                    SCHEMA_VERSION).append(FLD_IN_UPDATE, false)));
+        } catch (MongoException me) {
+            throw new StorageInitException(
+                    "Failed to update the config document: " + me.getMessage(), me);
+        }
+    }
+    
+    private void dropObsoleteIndexes() throws StorageInitException {
+        for (final String col: OBSOLETE_INDEXES.keySet()) {
+            final MongoCollection<Document> dbcol = db.getCollection(col);
+            try {
+                final Set<String> existing = new HashSet<>();
+                for (final Document index: dbcol.listIndexes()) {
+                    existing.add(index.getString("name"));
+                }
+                for (final String index: OBSOLETE_INDEXES.get(col)) {
+                    if (existing.contains(index)) {
+                        dbcol.dropIndex(index);
+                    }
+                }
+            } catch (MongoException me) {
+                throw new StorageInitException(
+                        "Failed to drop index: " + me.getMessage(), me);
+            }
+        }
+    }
 
     private final MongoDatabase db;
     private final Clock clock;
@@ -203,7 +366,7 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             throws StorageInitException {
         Utils.nonNull(db, "db");
         this.db = db;
-        ensureIndexes();
+        checkSchema();
         this.clock = clock;
     }
     
@@ -211,11 +374,23 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     public StoredStatusEvent store(
             final StatusEvent newEvent,
             final StatusEventProcessingState state,
-            Set<String> workerCodes,
+            final Set<String> workerCodes,
             final String storedBy)
             throws FatalRetriableIndexingException {
+        return store(newEvent, state, workerCodes, storedBy, StatusEventPriority.INTERACTIVE);
+    }
+    
+    @Override
+    public StoredStatusEvent store(
+            final StatusEvent newEvent,
+            final StatusEventProcessingState state,
+            Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority)
+            throws FatalRetriableIndexingException {
         Utils.nonNull(newEvent, "newEvent");
         Utils.nonNull(state, "state");
+        Utils.nonNull(priority, "priority");
         Utils.notNullOrEmpty(storedBy, "storedBy cannot be null or whitespace only");
         if (workerCodes == null || workerCodes.isEmpty()) {
             workerCodes = DEFAULT_WORKER_CODES_SET;
@@ -226,13 +401,18 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             }
         }
         final Instant now = clock.instant();
+        final Optional<Integer> accgrp = newEvent.getAccessGroupId();
         final Document doc = toStorageDocument(newEvent, state, now)
+                .append(FLD_ACCESS_GROUP_BUCKET, accgrp.isPresent() ?
+                        AccessGroupShard.getBucket(accgrp.get()) : null)
                 .append(FLD_WORKER_CODES, workerCodes)
-                .append(FLD_STORED_BY, storedBy);
+                .append(FLD_STORED_BY, storedBy)
+                .append(FLD_PRIORITY, priority.toString());
         final StatusEventID newID = insertOne(COL_EVENT, doc);
         final StoredStatusEvent.Builder b = StoredStatusEvent.getBuilder(newEvent, newID, state)
                 .withNullableStoredBy(storedBy)
-                .withNullableStoreTime(now);
+                .withNullableStoreTime(now)
+                .withPriority(priority);
         for (final String code: workerCodes) {
             b.withWorkerCode(code);
         }
@@ -328,6 +508,32 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         return Optional.of(toStoredStatusEvent(event));
     }
 
+    @Override
+    public Map<StatusEventID, StoredStatusEvent> get(final Set<StatusEventID> ids)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(ids, "ids");
+        Utils.noNulls(ids, "null item in ids");
+        final Map<StatusEventID, StoredStatusEvent> ret = new HashMap<>();
+        if (ids.isEmpty()) {
+            return ret;
+        }
+        final List<ObjectId> oids = new LinkedList<>();
+        for (final StatusEventID id: ids) {
+            oids.add(new ObjectId(id.getId()));
+        }
+        try {
+            for (final Document event: db.getCollection(COL_EVENT).find(
+                    new Document("_id", new Document("$in", oids)))) {
+                final StoredStatusEvent sse = toStoredStatusEvent(event);
+                ret.put(sse.getID(), sse);
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, "Failed getting events: " + e.getMessage(), e);
+        }
+        return ret;
+    }
+
     @Override
     public Optional<StoredChildStatusEvent> getChild(final StatusEventID id)
             throws FatalRetriableIndexingException {
@@ -364,6 +570,7 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     private StoredStatusEvent toStoredStatusEvent(final Document event) {
         final Date updateTime = event.getDate(FLD_UPDATE_TIME);
         final Date storeTime = event.getDate(FLD_STORED_TIME);
+        final String priority = event.getString(FLD_PRIORITY);
         @SuppressWarnings("unchecked")
         List<String> workerCodes = (List<String>) event.get(FLD_WORKER_CODES);
         if (workerCodes == null || workerCodes.isEmpty()) {
@@ -380,7 +587,9 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                 .withNullableError(
                         event.getString(FLD_ERR_CODE),
                         event.getString(FLD_ERR_MSG),
-                        event.getString(FLD_ERR_TRACE));
+                        event.getString(FLD_ERR_TRACE))
+                .withPriority(priority == null ?
+                        StatusEventPriority.INTERACTIVE : StatusEventPriority.valueOf(priority));
         for (final String code: workerCodes) {
             b2.withWorkerCode(code);
         }
@@ -412,9 +621,82 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     
     // note returns in order of time stamp, oldest first (e.g FIFO)
     @Override
-    public List<StoredStatusEvent> get(final StatusEventProcessingState state, int limit)
+    public List<StoredStatusEvent> get(final StatusEventProcessingState state, final int limit)
+            throws FatalRetriableIndexingException {
+        return get(state, limit, AccessGroupShard.ALL);
+    }
+    
+    @Override
+    public List<StoredStatusEvent> get(
+            final StatusEventProcessingState state,
+            final int limit,
+            final AccessGroupShard shard)
+            throws FatalRetriableIndexingException {
+        return getEvents(state, limit, shard, null);
+    }
+    
+    @Override
+    public List<StoredStatusEvent> get(
+            final StatusEventProcessingState state,
+            final int limit,
+            final AccessGroupShard shard,
+            final StatusEventPriority priority)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(priority, "priority");
+        return getEvents(state, limit, shard, priority);
+    }
+    
+    /* Each clause of the $or can use the status, priority, access group and time stamp index,
+     * and the results are merged in time stamp order.
+     */
+    @Override
+    public List<StoredStatusEvent> get(
+            final StatusEventProcessingState state,
+            final int limit,
+            final Map<Integer, Instant> before,
+            final StatusEventPriority priority)
             throws FatalRetriableIndexingException {
         Utils.nonNull(state, "state");
+        Utils.nonNull(before, "before");
+        Utils.noNulls(before.keySet(), "null access group ID in before");
+        Utils.noNulls(before.values(), "null time stamp in before");
+        Utils.nonNull(priority, "priority");
+        if (before.isEmpty()) {
+            return new LinkedList<>();
+        }
+        final List<Document> accessGroups = new LinkedList<>();
+        for (final Map.Entry<Integer, Instant> e: before.entrySet()) {
+            accessGroups.add(new Document(FLD_ACCESS_GROUP_ID, e.getKey())
+                    .append(FLD_TIMESTAMP, new Document("$lt", Date.from(e.getValue()))));
+        }
+        final Document query = addPriority(
+                new Document(FLD_STATUS, state.toString()), priority)
+                .append("$or", accessGroups);
+        return getEvents(query, limit);
+    }
+    
+    // note returns in order of time stamp, oldest first (e.g FIFO)
+    // priority may be null for all priorities
+    private List<StoredStatusEvent> getEvents(
+            final StatusEventProcessingState state,
+            final int limit,
+            final AccessGroupShard shard,
+            final StatusEventPriority priority)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(state, "state");
+        Utils.nonNull(shard, "shard");
+        final Document query = addPriority(
+                new Document(FLD_STATUS, state.toString()), priority);
+        if (!shard.isAll()) {
+            query.append(FLD_ACCESS_GROUP_BUCKET, new Document("$gte", shard.getStart())
+                    .append("$lt", shard.getEnd()));
+        }
+        return getEvents(query, limit);
+    }
+    
+    // note returns in order of time stamp, oldest first (e.g FIFO)
+    private List<StoredStatusEvent> getEvents(final Document query, int limit)
+            throws FatalRetriableIndexingException {
         if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
             limit = MAX_RETURNED_EVENTS;
         }
@@ -422,7 +704,7 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         try {
             // tested query in mongo & ensured it uses indexes - e.g. no in memory sort
             final FindIterable<Document> iter = db.getCollection(COL_EVENT)
-                    .find(new Document(FLD_STATUS, state.toString()))
+                    .find(query)
                     .sort(new Document(FLD_TIMESTAMP, 1))
                     .limit(limit);
             for (final Document event: iter) {
@@ -455,6 +737,37 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         return setProcessingState(id, oldState, StatusEventProcessingState.FAIL, errorCode, error);
     }
 
+    @Override
+    public int setProcessingState(
+            final Collection<StatusEventID> ids,
+            final StatusEventProcessingState oldState,
+            final StatusEventProcessingState newState)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(ids, "ids");
+        Utils.noNulls(ids, "null item in ids");
+        Utils.nonNull(newState, "newState");
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        final List<ObjectId> oids = new LinkedList<>();
+        for (final StatusEventID id: ids) {
+            oids.add(new ObjectId(id.getId()));
+        }
+        final Document query = new Document("_id", new Document("$in", oids));
+        if (oldState != null) {
+            query.append(FLD_STATUS, oldState.toString());
+        }
+        try {
+            final UpdateResult res = db.getCollection(COL_EVENT).updateMany(query,
+                    toStateUpdate(new Document(FLD_STATUS, newState.toString())
+                            .append(FLD_UPDATE_TIME, Date.from(clock.instant()))));
+            return (int) res.getMatchedCount();
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, "Failed setting event states: " + e.getMessage(), e);
+        }
+    }
+
     private boolean setProcessingState(
             final StatusEventID id,
             final StatusEventProcessingState oldState,
@@ -475,7 +788,7 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         }
         try {
             final UpdateResult res = db.getCollection(COL_EVENT).updateOne(query, 
-                    new Document("$set", update));
+                    toStateUpdate(update));
             return res.getMatchedCount() == 1;
         } catch (MongoException e) {
             throw new FatalRetriableIndexingException(
@@ -483,6 +796,23 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         }
     }
 
+    // a claim ID only identifies the events claimed together until their state changes again
+    private Document toStateUpdate(final Document set) {
+        return new Document("$set", set).append("$unset", new Document(FLD_CLAIM, ""));
+    }
+
+    // modifies query in place. null priority means any priority
+    private Document addPriority(final Document query, final StatusEventPriority priority) {
+        if (StatusEventPriority.INTERACTIVE.equals(priority)) {
+            // matches missing & null fields as well
+            query.append(FLD_PRIORITY, new Document("$in", Arrays.asList(
+                    null, StatusEventPriority.INTERACTIVE.toString())));
+        } else if (priority != null) {
+            query.append(FLD_PRIORITY, priority.toString());
+        }
+        return query;
+    }
+    
     @Override
     public Optional<StoredStatusEvent> setAndGetProcessingState(
             final StatusEventProcessingState oldState,
@@ -490,9 +820,57 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             final StatusEventProcessingState newState,
             final String updater)
             throws FatalRetriableIndexingException {
+        return setAndGetProcessingState(oldState, workerCodes, newState, updater, null);
+    }
+    
+    @Override
+    public Optional<StoredStatusEvent> setAndGetProcessingState(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventPriority priority,
+            final StatusEventProcessingState newState,
+            final String updater)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(priority, "priority");
+        return setAndGetProcessingState(oldState, workerCodes, newState, updater, priority);
+    }
+    
+    private Optional<StoredStatusEvent> setAndGetProcessingState(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String updater,
+            final StatusEventPriority priority)
+            throws FatalRetriableIndexingException {
         Utils.nonNull(oldState, "oldState");
         Utils.nonNull(newState, "newState");
         Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
+        final Document query = toClaimQuery(oldState, workerCodes, priority);
+        final Document innerUpdate = new Document(FLD_STATUS, newState.toString())
+                .append(FLD_UPDATE_TIME, Date.from(clock.instant()))
+                .append(FLD_UPDATER, updater);
+        final Document ret;
+        try {
+            ret = db.getCollection(COL_EVENT).findOneAndUpdate(
+                     query,
+                     toStateUpdate(innerUpdate),
+                     new FindOneAndUpdateOptions()
+                             .sort(new Document(FLD_TIMESTAMP, 1))
+                             .returnDocument(ReturnDocument.AFTER));
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, "Failed setting event state: " + e.getMessage(), e);
+        }
+        if (ret == null) {
+            return Optional.absent();
+        }
+        return Optional.of(toStoredStatusEvent(ret));
+    }
+    
+    private Document toClaimQuery(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventPriority priority) {
         final List<Document> codeQuery = new LinkedList<>();
         final Set<String> codeSet = new HashSet<>();
         if (workerCodes == null || workerCodes.isEmpty() ||
@@ -507,26 +885,105 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             codeSet.addAll(workerCodes);
         }
         codeQuery.add(new Document(FLD_WORKER_CODES, new Document("$in", codeSet)));
-        
-        final Document innerUpdate = new Document(FLD_STATUS, newState.toString())
-                .append(FLD_UPDATE_TIME, Date.from(clock.instant()))
-                .append(FLD_UPDATER, updater);
-        final Document ret;
+        return addPriority(new Document(FLD_STATUS, oldState.toString()), priority)
+                .append("$or", codeQuery);
+    }
+    
+    /* Claims events with the caller's claim ID. If any events are already marked with the
+     * ID, the claim was made by an earlier attempt that failed after the update, and those
+     * events are returned. Otherwise the candidate events are found, then all the
+     * candidates that are still in the old state are updated in one operation and marked with
+     * the ID. Any candidates claimed by another caller in between don't match the update.
+     * The events marked with the ID are then fetched. Each event is claimed atomically, so
+     * an event is never claimed by two callers.
+     */
+    @Override
+    public List<StoredStatusEvent> claimBatch(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String updater,
+            final String claimID,
+            final int max)
+            throws FatalRetriableIndexingException {
+        return claimBatch(oldState, workerCodes, newState, updater, claimID, max, null);
+    }
+    
+    @Override
+    public List<StoredStatusEvent> claimBatch(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventPriority priority,
+            final StatusEventProcessingState newState,
+            final String updater,
+            final String claimID,
+            final int max)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(priority, "priority");
+        return claimBatch(oldState, workerCodes, newState, updater, claimID, max, priority);
+    }
+    
+    private List<StoredStatusEvent> claimBatch(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String updater,
+            final String claimID,
+            int max,
+            final StatusEventPriority priority)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(oldState, "oldState");
+        Utils.nonNull(newState, "newState");
+        Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
+        Utils.notNullOrEmpty(claimID, "claimID cannot be null or whitespace");
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be at least 1");
+        }
+        if (max > MAX_RETURNED_EVENTS) {
+            max = MAX_RETURNED_EVENTS;
+        }
+        final Document claimQuery = toClaimQuery(oldState, workerCodes, priority);
         try {
-            ret = db.getCollection(COL_EVENT).findOneAndUpdate(
-                     new Document(FLD_STATUS, oldState.toString()).append("$or", codeQuery),
-                     new Document("$set", innerUpdate),
-                     new FindOneAndUpdateOptions()
-                             .sort(new Document(FLD_TIMESTAMP, 1))
-                             .returnDocument(ReturnDocument.AFTER));
+            final MongoCollection<Document> col = db.getCollection(COL_EVENT);
+            final List<StoredStatusEvent> claimed = getClaimed(col, claimID);
+            if (!claimed.isEmpty()) {
+                return claimed;
+            }
+            final List<ObjectId> candidates = new LinkedList<>();
+            for (final Document event: col.find(claimQuery)
+                    .sort(new Document(FLD_TIMESTAMP, 1))
+                    .limit(max)
+                    .projection(new Document("_id", 1))) {
+                candidates.add(event.getObjectId("_id"));
+            }
+            if (candidates.isEmpty()) {
+                return claimed;
+            }
+            final UpdateResult res = col.updateMany(
+                    claimQuery.append("_id", new Document("$in", candidates)),
+                    new Document("$set", new Document(FLD_STATUS, newState.toString())
+                            .append(FLD_UPDATE_TIME, Date.from(clock.instant()))
+                            .append(FLD_UPDATER, updater)
+                            .append(FLD_CLAIM, claimID)));
+            if (res.getModifiedCount() < 1) {
+                return claimed;
+            }
+            return getClaimed(col, claimID);
         } catch (MongoException e) {
             throw new FatalRetriableIndexingException(
                     ErrorType.OTHER, "Failed setting event state: " + e.getMessage(), e);
         }
-        if (ret == null) {
-            return Optional.absent();
+    }
+    
+    private List<StoredStatusEvent> getClaimed(
+            final MongoCollection<Document> col,
+            final String claimID) {
+        final List<StoredStatusEvent> ret = new LinkedList<>();
+        for (final Document event: col.find(new Document(FLD_CLAIM, claimID))
+                .sort(new Document(FLD_TIMESTAMP, 1))) {
+            ret.add(toStoredStatusEvent(event));
         }
-        return Optional.of(toStoredStatusEvent(ret));
+        return ret;
     }
 
     @Override
@@ -536,7 +993,7 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         try {
             db.getCollection(COL_EVENT).
                 updateMany(eq(FLD_STATUS,StatusEventProcessingState.FAIL.toString()),
-                              new Document("$set",
+                              toStateUpdate(
                                   new Document("status",
                                           StatusEventProcessingState.UNPROC.toString())));
         } catch (MongoException ex) {
@@ -544,4 +1001,173 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                     "Failed to reset failed events: " + ex.getMessage(), ex);
         }
     }
+    
+    /* Events are copied into the archive in batches and then deleted from the live
+     * collection. The copies are upserts, so if archiving fails part way through it can
+     * be run again.
+     * Stack traces are stored once per distinct trace, keyed by the hash of the trace, and
+     * expire with the last archived event that refers to them.
+     */
+    @Override
+    public long archiveEvents(final Instant storedBefore, final Instant expires)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(storedBefore, "storedBefore");
+        Utils.nonNull(expires, "expires");
+        final Document storedQuery = new Document(FLD_STORED_TIME,
+                new Document("$lt", Date.from(storedBefore)));
+        /* events written directly to the collection, e.g. by the workspace listener, have no
+         * stored time. An event in a state that is never processed again was stored before
+         * its last update, so the update time is used instead.
+         */
+        final Document eventQuery = new Document(FLD_STATUS, new Document("$in", ARCHIVE_STATES))
+                .append("$or", Arrays.asList(storedQuery, new Document(FLD_STORED_TIME, null)
+                        .append(FLD_UPDATE_TIME, new Document("$lt", Date.from(storedBefore)))));
+        try {
+            return archiveEvents(COL_EVENT, COL_EVENT_ARCHIVE, eventQuery, Date.from(expires)) +
+                    archiveEvents(COL_CHILD, COL_CHILD_ARCHIVE, storedQuery, Date.from(expires));
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, "Failed archiving events: " + e.getMessage(), e);
+        }
+    }
+    
+    private long archiveEvents(
+            final String collection,
+            final String archiveCollection,
+            final Document query,
+            final Date expires) {
+        final MongoCollection<Document> col = db.getCollection(collection);
+        long count = 0;
+        while (true) {
+            final List<ObjectId> ids = new LinkedList<>();
+            final List<WriteModel<Document>> archive = new LinkedList<>();
+            final Map<String, String> traces = new HashMap<>();
+            for (final Document event: col.find(query).limit(ARCHIVE_BATCH_SIZE)) {
+                final ObjectId id = event.getObjectId("_id");
+                ids.add(id);
+                final String trace = (String) event.remove(FLD_ERR_TRACE);
+                if (trace != null) {
+                    final String hash = Hashing.sha256()
+                            .hashString(trace, StandardCharsets.UTF_8).toString();
+                    traces.put(hash, trace);
+                    event.append(FLD_ERR_TRACE_HASH, hash);
+                }
+                event.append(FLD_ARCHIVE_EXPIRES, expires);
+                archive.add(new ReplaceOneModel<>(new Document("_id", id), event,
+                        new UpdateOptions().upsert(true)));
+            }
+            if (ids.isEmpty()) {
+                return count;
+            }
+            if (!traces.isEmpty()) {
+                final List<WriteModel<Document>> traceUpdates = new LinkedList<>();
+                for (final String hash: traces.keySet()) {
+                    traceUpdates.add(new UpdateOneModel<>(new Document("_id", hash),
+                            new Document("$setOnInsert", new Document(FLD_TRACE, traces.get(hash)))
+                                    .append("$max", new Document(FLD_ARCHIVE_EXPIRES, expires)),
+                            new UpdateOptions().upsert(true)));
+                }
+                db.getCollection(COL_ERR_TRACE).bulkWrite(traceUpdates);
+            }
+            db.getCollection(archiveCollection).bulkWrite(archive);
+            count += col.deleteMany(new Document(query).append("_id", new Document("$in", ids)))
+                    .getDeletedCount();
+        }
+    }
+    
+    /* Shard claims are stored as one document per claim. A claim is made by removing any
+     * expired claims and the owner's own claims that overlap the shard, checking no unexpired
+     * overlapping claims remain, and inserting the new claim. Two owners may insert
+     * overlapping claims concurrently, so the claim is checked again after insertion and
+     * withdrawn if another owner holds an overlapping claim. In that case both owners may
+     * withdraw, and the claim must be retried.
+     */
+    @Override
+    public boolean claimShard(
+            final AccessGroupShard shard,
+            final String owner,
+            final Instant expires)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(shard, "shard");
+        Utils.notNullOrEmpty(owner, "owner cannot be null or whitespace only");
+        Utils.nonNull(expires, "expires");
+        final Date now = Date.from(clock.instant());
+        try {
+            final MongoCollection<Document> col = db.getCollection(COL_SHARD);
+            final UpdateResult res = col.updateOne(
+                    new Document(FLD_SHARD_START, shard.getStart())
+                            .append(FLD_SHARD_END, shard.getEnd())
+                            .append(FLD_SHARD_OWNER, owner),
+                    new Document("$set", new Document(FLD_SHARD_EXPIRES, Date.from(expires))));
+            if (res.getMatchedCount() == 1) {
+                // claims are only removed by other owners once expired, so still owned
+                return true;
+            }
+            col.deleteMany(overlappingShards(shard).append("$or", Arrays.asList(
+                    new Document(FLD_SHARD_OWNER, owner),
+                    new Document(FLD_SHARD_EXPIRES, new Document("$lt", now)))));
+            if (col.count(overlappingShards(shard)
+                    .append(FLD_SHARD_EXPIRES, new Document("$gte", now))) > 0) {
+                return false;
+            }
+            final Document claim = new Document(FLD_SHARD_START, shard.getStart())
+                    .append(FLD_SHARD_END, shard.getEnd())
+                    .append(FLD_SHARD_OWNER, owner)
+                    .append(FLD_SHARD_EXPIRES, Date.from(expires));
+            col.insertOne(claim);
+            if (col.count(overlappingShards(shard)
+                    .append(FLD_SHARD_OWNER, new Document("$ne", owner))
+                    .append(FLD_SHARD_EXPIRES, new Document("$gte", now))) > 0) {
+                col.deleteOne(new Document("_id", claim.getObjectId("_id")));
+                return false;
+            }
+            assignBuckets();
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, "Failed claiming shard: " + e.getMessage(), e);
+        }
+        return true;
+    }
+    
+    private Document overlappingShards(final AccessGroupShard shard) {
+        return new Document(FLD_SHARD_START, new Document("$lt", shard.getEnd()))
+                .append(FLD_SHARD_END, new Document("$gt", shard.getStart()));
+    }
+    
+    /* Events stored before the bucket field existed have no bucket and so would never be
+     * returned for a shard. Assign buckets to any such events that are still to be processed.
+     */
+    private void assignBuckets() {
+        final MongoCollection<Document> col = db.getCollection(COL_EVENT);
+        final List<String> states = Arrays.asList(
+                StatusEventProcessingState.UNPROC.toString(),
+                StatusEventProcessingState.READY.toString(),
+                StatusEventProcessingState.PROC.toString());
+        for (final Integer accgrp: col.distinct(FLD_ACCESS_GROUP_ID, new Document(
+                FLD_STATUS, new Document("$in", states))
+                .append(FLD_ACCESS_GROUP_BUCKET, null), Integer.class)) {
+            if (accgrp != null) {
+                col.updateMany(new Document(FLD_STATUS, new Document("$in", states))
+                        .append(FLD_ACCESS_GROUP_ID, accgrp)
+                        .append(FLD_ACCESS_GROUP_BUCKET, null),
+                        new Document("$set", new Document(
+                                FLD_ACCESS_GROUP_BUCKET, AccessGroupShard.getBucket(accgrp))));
+            }
+        }
+    }
+    
+    @Override
+    public void releaseShard(final AccessGroupShard shard, final String owner)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(shard, "shard");
+        Utils.notNullOrEmpty(owner, "owner cannot be null or whitespace only");
+        try {
+            db.getCollection(COL_SHARD).deleteOne(new Document(FLD_SHARD_START, shard.getStart())
+                    .append(FLD_SHARD_END, shard.getEnd())
+                    .append(FLD_SHARD_OWNER, owner));
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, "Failed releasing shard: " + e.getMessage(), e);
+        }
+    }
 }
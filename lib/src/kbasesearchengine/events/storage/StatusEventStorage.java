@@ -1,13 +1,18 @@
 package kbasesearchengine.events.storage;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Optional;
 
+import kbasesearchengine.events.AccessGroupShard;
 import kbasesearchengine.events.ChildStatusEvent;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StoredChildStatusEvent;
 import kbasesearchengine.events.StoredStatusEvent;
@@ -25,7 +30,7 @@ public interface StatusEventStorage {
      */
     public static final String DEFAULT_WORKER_CODE = "default";
 
-    /** Store a new event.
+    /** Store a new event with {@link StatusEventPriority#INTERACTIVE} priority.
      * @param newEvent the event.
      * @param state the current processing state of the event.
      * @param workerCodes a set of codes for the event that designate the workers that may process
@@ -42,6 +47,25 @@ public interface StatusEventStorage {
             String storedBy)
             throws FatalRetriableIndexingException;
     
+    /** Store a new event.
+     * @param newEvent the event.
+     * @param state the current processing state of the event.
+     * @param workerCodes a set of codes for the event that designate the workers that may process
+     * the event. If the list is null or empty the event will get the {@link #DEFAULT_WORKER_CODE}
+     * code.
+     * @param storedBy an arbitrary string indicating the entity that stored the event.
+     * @param priority the priority of the event.
+     * @return a stored status event.
+     * @throws FatalRetriableIndexingException if an error occurs while storing the event.
+     */
+    StoredStatusEvent store(
+            StatusEvent newEvent,
+            StatusEventProcessingState state,
+            Set<String> workerCodes,
+            String storedBy,
+            StatusEventPriority priority)
+            throws FatalRetriableIndexingException;
+    
     /** Store a status event that resulted in an error and that is a child of another status event.
      * Child status events are immutable once stored. Note that no checking is done on the
      * validity of the parent event's ID.
@@ -64,6 +88,15 @@ public interface StatusEventStorage {
      */
     Optional<StoredStatusEvent> get(StatusEventID id) throws FatalRetriableIndexingException;
     
+    /** Get a set of events by their IDs in one operation on the storage system.
+     * @param ids the ids.
+     * @return the events, keyed by their ids. Ids that do not exist in the storage system
+     * are omitted.
+     * @throws FatalRetriableIndexingException if an error occurs while getting the events.
+     */
+    Map<StatusEventID, StoredStatusEvent> get(Set<StatusEventID> ids)
+            throws FatalRetriableIndexingException;
+    
     /** Get a child event by its ID.
      * @param id the id.
      * @return the child event or absent if the id does not exist in the storage system.
@@ -82,6 +115,78 @@ public interface StatusEventStorage {
     List<StoredStatusEvent> get(StatusEventProcessingState state, int limit)
             throws FatalRetriableIndexingException;
 
+    /** Get list of events, by processing state, for the access groups in a shard. Otherwise
+     * identical to {@link #get(StatusEventProcessingState, int)}.
+     * Events without an access group are only returned if the shard contains all the buckets.
+     * @param state the processing state of the events to be returned.
+     * @param limit the maximum number of events to return. If < 1 or > 10000 is set to 10000.
+     * @param shard the shard containing the access groups of the events.
+     * @return the list of events.
+     * @throws FatalRetriableIndexingException if an error occurs while getting the events.
+     */
+    List<StoredStatusEvent> get(
+            StatusEventProcessingState state,
+            int limit,
+            AccessGroupShard shard)
+            throws FatalRetriableIndexingException;
+    
+    /** Get list of events, by processing state and priority, for the access groups in a shard.
+     * Otherwise identical to {@link #get(StatusEventProcessingState, int, AccessGroupShard)}.
+     * @param state the processing state of the events to be returned.
+     * @param limit the maximum number of events to return. If < 1 or > 10000 is set to 10000.
+     * @param shard the shard containing the access groups of the events.
+     * @param priority the priority of the events to be returned.
+     * @return the list of events.
+     * @throws FatalRetriableIndexingException if an error occurs while getting the events.
+     */
+    List<StoredStatusEvent> get(
+            StatusEventProcessingState state,
+            int limit,
+            AccessGroupShard shard,
+            StatusEventPriority priority)
+            throws FatalRetriableIndexingException;
+
+    /** Get list of events, by processing state and priority, for a set of access groups,
+     * where each access group has a time stamp before which its events are returned. The
+     * events for all the access groups are returned together, oldest first, up to the limit.
+     * Otherwise identical to {@link #get(StatusEventProcessingState, int)}.
+     * @param state the processing state of the events to be returned.
+     * @param limit the maximum number of events to return. If < 1 or > 10000 is set to 10000.
+     * @param before a map of the IDs of the access groups of the events to the time stamp
+     * for each access group. Only events with a time stamp earlier than the time stamp for
+     * their access group are returned.
+     * @param priority the priority of the events to be returned.
+     * @return the list of events.
+     * @throws FatalRetriableIndexingException if an error occurs while getting the events.
+     */
+    List<StoredStatusEvent> get(
+            StatusEventProcessingState state,
+            int limit,
+            Map<Integer, Instant> before,
+            StatusEventPriority priority)
+            throws FatalRetriableIndexingException;
+
+    /** Claim or renew ownership of a shard. Ownership is granted if no other owner holds
+     * an unexpired claim on a shard that overlaps the requested shard. Expired or overlapping
+     * claims held by the same owner are replaced.
+     * @param shard the shard to claim.
+     * @param owner an arbitrary string identifying the owner, typically a coordinator ID.
+     * @param expires the time at which the claim expires unless renewed.
+     * @return true if the shard is owned by the owner, false if another owner holds the shard
+     * or part of it.
+     * @throws FatalRetriableIndexingException if an error occurs while claiming the shard.
+     */
+    boolean claimShard(AccessGroupShard shard, String owner, Instant expires)
+            throws FatalRetriableIndexingException;
+
+    /** Release ownership of a shard. Does nothing if the owner does not own the shard.
+     * @param shard the shard to release.
+     * @param owner the owner of the shard.
+     * @throws FatalRetriableIndexingException if an error occurs while releasing the shard.
+     */
+    void releaseShard(AccessGroupShard shard, String owner)
+            throws FatalRetriableIndexingException;
+
     /** Simultaneously find an event with a particular processing state and set a new state.
      * This is often used to switch an event from {@link StatusEventProcessingState#READY} to
      * {@link StatusEventProcessingState#PROC}.
@@ -103,6 +208,88 @@ public interface StatusEventStorage {
             String updater)
             throws FatalRetriableIndexingException;
     
+    /** Simultaneously find an event with a particular processing state and priority and set a
+     * new state. Otherwise identical to
+     * {@link #setAndGetProcessingState(StatusEventProcessingState, Set,
+     * StatusEventProcessingState, String)}.
+     * @param oldState the state of the event to find.
+     * @param workerCodes the permissible worker codes for the event. A null or empty list
+     * implies the default code.
+     * @param priority the priority of the event to find.
+     * @param newState the state to which the event will be updated.
+     * @param updater an optional (e.g. nullable) id or name to associate with the state change.
+     * Only the most recent state change is recorded.
+     * @return the updated event or absent if no events are in the requested state.
+     * @throws FatalRetriableIndexingException if an error occurs while claiming the event.
+     */
+    Optional<StoredStatusEvent> setAndGetProcessingState(
+            StatusEventProcessingState oldState,
+            Set<String> workerCodes,
+            StatusEventPriority priority,
+            StatusEventProcessingState newState,
+            String updater)
+            throws FatalRetriableIndexingException;
+    
+    /** Find up to a maximum number of events with a particular processing state and set a new
+     * state on each of them, in as few operations on the storage system as possible. This is
+     * the batch equivalent of
+     * {@link #setAndGetProcessingState(StatusEventProcessingState, Set,
+     * StatusEventProcessingState, String)}.
+     * Events are claimed oldest first. Each event is only returned to one caller, even if
+     * multiple callers are claiming events concurrently, and so fewer than the maximum
+     * number of events may be returned even if more are available.
+     * The claimed events are marked with a claim ID, so that a claim that fails part way
+     * through can be retried with the same ID. If any events are marked with the ID, those
+     * events are returned and no further events are claimed. The mark is removed when the
+     * state of an event next changes.
+     * @param oldState the state of the events to find.
+     * @param workerCodes the permissible worker codes for the events. A null or empty list
+     * implies the default code.
+     * @param newState the state to which the events will be updated.
+     * @param updater an id or name to associate with the state change.
+     * Only the most recent state change is recorded.
+     * @param claimID a unique ID for the claim.
+     * @param max the maximum number of events to claim. If > 10000 is set to 10000.
+     * @return the updated events, ordered by the event timestamp such that the events with the
+     * earliest timestamp are first in the list.
+     * @throws FatalRetriableIndexingException if an error occurs while claiming the events.
+     */
+    List<StoredStatusEvent> claimBatch(
+            StatusEventProcessingState oldState,
+            Set<String> workerCodes,
+            StatusEventProcessingState newState,
+            String updater,
+            String claimID,
+            int max)
+            throws FatalRetriableIndexingException;
+    
+    /** Find up to a maximum number of events with a particular processing state and priority
+     * and set a new state on each of them. Otherwise identical to
+     * {@link #claimBatch(StatusEventProcessingState, Set, StatusEventProcessingState, String,
+     * String, int)}.
+     * @param oldState the state of the events to find.
+     * @param workerCodes the permissible worker codes for the events. A null or empty list
+     * implies the default code.
+     * @param priority the priority of the events to find.
+     * @param newState the state to which the events will be updated.
+     * @param updater an id or name to associate with the state change.
+     * Only the most recent state change is recorded.
+     * @param claimID a unique ID for the claim.
+     * @param max the maximum number of events to claim. If > 10000 is set to 10000.
+     * @return the updated events, ordered by the event timestamp such that the events with the
+     * earliest timestamp are first in the list.
+     * @throws FatalRetriableIndexingException if an error occurs while claiming the events.
+     */
+    List<StoredStatusEvent> claimBatch(
+            StatusEventProcessingState oldState,
+            Set<String> workerCodes,
+            StatusEventPriority priority,
+            StatusEventProcessingState newState,
+            String updater,
+            String claimID,
+            int max)
+            throws FatalRetriableIndexingException;
+    
     /** Mark an event with a processing state.
      * @param id the id of the event to modify.
      * @param oldState the expected state of the event. If non-null, an event is only modified
@@ -117,6 +304,20 @@ public interface StatusEventStorage {
             StatusEventProcessingState oldState,
             StatusEventProcessingState newState)
             throws FatalRetriableIndexingException;
+    
+    /** Mark a set of events with a processing state in one operation on the storage system.
+     * @param ids the ids of the events to modify.
+     * @param oldState the expected state of the events. If non-null, an event is only modified
+     * if both the id and the oldState match.
+     * @param newState the processing state to set on the events.
+     * @return the number of events that were updated.
+     * @throws FatalRetriableIndexingException if an error occurs while setting the states.
+     */
+    int setProcessingState(
+            Collection<StatusEventID> ids,
+            StatusEventProcessingState oldState,
+            StatusEventProcessingState newState)
+            throws FatalRetriableIndexingException;
 
 
     /**
@@ -126,6 +327,21 @@ public interface StatusEventStorage {
     void resetFailedEvents()
             throws FatalRetriableIndexingException;
 
+    /** Move events that were stored before a cutoff and will not be processed again out of the
+     * live event storage and into the archive. Events in the
+     * {@link StatusEventProcessingState#INDX}, {@link StatusEventProcessingState#UNINDX}, and
+     * {@link StatusEventProcessingState#SKIP} states and all child events are archived.
+     * Archived events are no longer returned by the other methods of this interface, and are
+     * deleted from the archive once they expire.
+     * Identical error stack traces may be stored only once in the archive.
+     * @param storedBefore events stored before this time are archived.
+     * @param expires the time at which the archived events expire.
+     * @return the number of events archived, including child events.
+     * @throws FatalRetriableIndexingException if an error occurs while archiving the events.
+     */
+    long archiveEvents(Instant storedBefore, Instant expires)
+            throws FatalRetriableIndexingException;
+
 
     /** Mark an event as a {@link StatusEventProcessingState.FAIL} with error information.
      * If the error message or stack trace are long, they will be silently truncated.
@@ -0,0 +1,70 @@
+package kbasesearchengine.main;
+
+/** Determines how long an indexer should wait before starting its next cycle.
+ *
+ * While the indexer finds work the interval stays at the minimum. Each cycle in which the indexer
+ * finds no work doubles the interval, up to the maximum.
+ *
+ * This class is not thread safe.
+ *
+ */
+public class CycleInterval {
+
+    private final int minIntervalMS;
+    private final int maxIntervalMS;
+    private int intervalMS;
+
+    /** Create the interval.
+     * @param minIntervalMS the interval in milliseconds after a cycle in which the indexer found
+     * work.
+     * @param maxIntervalMS the maximum interval in milliseconds when the indexer is idle.
+     */
+    public CycleInterval(final int minIntervalMS, final int maxIntervalMS) {
+        checkIntervals(minIntervalMS, maxIntervalMS);
+        this.minIntervalMS = minIntervalMS;
+        this.maxIntervalMS = maxIntervalMS;
+        this.intervalMS = minIntervalMS;
+    }
+
+    /** Check that a pair of intervals is valid.
+     * @param minIntervalMS the minimum interval in milliseconds.
+     * @param maxIntervalMS the maximum interval in milliseconds.
+     */
+    public static void checkIntervals(final int minIntervalMS, final int maxIntervalMS) {
+        if (minIntervalMS < 1) {
+            throw new IllegalArgumentException("minIntervalMS must be at least 1");
+        }
+        if (maxIntervalMS < minIntervalMS) {
+            throw new IllegalArgumentException(
+                    "maxIntervalMS must be at least minIntervalMS");
+        }
+    }
+
+    /** Get the minimum interval.
+     * @return the minimum interval in milliseconds.
+     */
+    public int getMinIntervalMS() {
+        return minIntervalMS;
+    }
+
+    /** Get the maximum interval.
+     * @return the maximum interval in milliseconds.
+     */
+    public int getMaxIntervalMS() {
+        return maxIntervalMS;
+    }
+
+    /** Get the interval to wait before the next cycle.
+     * @param foundWork true if the indexer found work in the cycle that just finished.
+     * @return the interval in milliseconds.
+     */
+    public int next(final boolean foundWork) {
+        if (foundWork) {
+            intervalMS = minIntervalMS;
+        } else {
+            // avoid overflow for large maximums
+            intervalMS = (int) Math.min((long) intervalMS * 2, maxIntervalMS);
+        }
+        return intervalMS;
+    }
+}
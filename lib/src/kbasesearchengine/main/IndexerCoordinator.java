@@ -4,23 +4,37 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
+import kbasesearchengine.events.AccessGroupShard;
 import kbasesearchengine.events.EventQueue;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventWithId;
 import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.ErrorType;
 import kbasesearchengine.events.exceptions.FatalIndexingException;
 import kbasesearchengine.events.exceptions.IndexingException;
 import kbasesearchengine.events.exceptions.RetriableIndexingException;
@@ -32,7 +46,20 @@ import kbasesearchengine.tools.Utils;
  * {@link EventQueue}. The responsibility of the coordinator is to periodically update the event
  * state in the {@link StatusEventStorage} such that the workers process the correct events.
  * 
- * Only one indexer coordinator should run at one time.
+ * Unprocessed events are loaded separately for each {@link StatusEventPriority}, and
+ * {@link StatusEventPriority#BACKFILL} events may not fill the part of the queue reserved for
+ * {@link StatusEventPriority#INTERACTIVE} events, so a large backfill does not delay interactive
+ * events. The events for an access group are still loaded in time stamp order across both
+ * priorities.
+ * 
+ * Queued events that are superseded by later events for the same object are set to
+ * {@link StatusEventProcessingState#SKIP} rather than being processed. See
+ * {@link kbasesearchengine.events.ObjectEventQueue}.
+ * 
+ * Only one indexer coordinator should run at one time, unless the coordinators are sharded
+ * by access group. In that case one coordinator should run per {@link AccessGroupShard}, and
+ * the shards should together cover all the access groups. Sharded and unsharded coordinators
+ * must not run at the same time.
  * 
  * This class is not thread safe.
  * @author gaprice@lbl.gov
@@ -44,6 +71,12 @@ public class IndexerCoordinator implements Stoppable {
     private static final int RETRY_SLEEP_MS = 1000;
     private static final List<Integer> RETRY_FATAL_BACKOFF_MS_DEFAULT = Arrays.asList(
             1000, 2000, 4000, 8000, 16000);
+    private static final int MIN_INTERVAL_MS_DEFAULT = 100;
+    private static final int MAX_INTERVAL_MS_DEFAULT = 1000;
+    private static final Duration SHARD_LEASE = Duration.ofMinutes(5);
+    private static final Duration SHARD_RENEWAL_INTERVAL = Duration.ofMinutes(1);
+    // the percentage of the queue that backfill events may not occupy
+    private static final int INTERACTIVE_RESERVE_PERCENT = 10;
     
     private final Cache<StatusEventID, Instant> cache;
     
@@ -53,8 +86,13 @@ public class IndexerCoordinator implements Stoppable {
     private final EventQueue queue;
     private final Clock clock;
     private final SignalMonitor signalMonitor;
+    private final CycleInterval interval;
+    private final Optional<AccessGroupShard> shard;
+    private final String coordinatorID = UUID.randomUUID().toString();
+    private Instant shardRenewed;
     
     private final int maxQueueSize;
+    private final int maxBackfillQueueSize;
     private int continuousCycles = 0;
     private boolean stopRunner = false;
     
@@ -77,11 +115,70 @@ public class IndexerCoordinator implements Stoppable {
             final LineLogger logger,
             final int maximumQueueSize)
             throws InterruptedException, IndexingException {
+        this(storage, logger, maximumQueueSize, MIN_INTERVAL_MS_DEFAULT, MAX_INTERVAL_MS_DEFAULT);
+    }
+    
+    /** Create the indexer coordinator. Only one coordinator should run at one time.
+     * 
+     * The coordinator starts a new cycle immediately as long as the previous cycle made
+     * progress, e.g. loaded new events or changed the state of events. Otherwise it waits for
+     * the minimum interval, doubling the wait for each further idle cycle up to the maximum
+     * interval.
+     * @param storage the storage system containing events.
+     * @param logger a logger.
+     * @param maximumQueueSize the maximum number of events in the internal in-memory queue.
+     * @param minIntervalMS the minimum time in milliseconds between idle cycles.
+     * @param maxIntervalMS the maximum time in milliseconds between idle cycles.
+     * @throws InterruptedException if the thread is interrupted while attempting to initialize
+     * the coordinator.
+     * @throws IndexingException if an exception occurs while trying to initialize the
+     * coordinator.
+     */
+    public IndexerCoordinator(
+            final StatusEventStorage storage,
+            final LineLogger logger,
+            final int maximumQueueSize,
+            final int minIntervalMS,
+            final int maxIntervalMS)
+            throws InterruptedException, IndexingException {
+        this(storage, logger, maximumQueueSize, minIntervalMS, maxIntervalMS,
+                Optional.absent());
+    }
+    
+    /** Create an indexer coordinator that processes the events for the access groups in a
+     * shard of the access group ID space, or for all access groups.
+     * 
+     * Ownership of the shard is claimed in the storage system when the coordinator is created
+     * and renewed while the coordinator runs. Creation fails if another coordinator owns the
+     * shard or part of it. The shard is released when the coordinator is stopped, or if the
+     * coordinator dies, may be claimed by another coordinator once the ownership expires.
+     * @param storage the storage system containing events.
+     * @param logger a logger.
+     * @param maximumQueueSize the maximum number of events in the internal in-memory queue.
+     * @param minIntervalMS the minimum time in milliseconds between idle cycles.
+     * @param maxIntervalMS the maximum time in milliseconds between idle cycles.
+     * @param shard the shard to process, or absent to process all the access groups.
+     * @throws InterruptedException if the thread is interrupted while attempting to initialize
+     * the coordinator.
+     * @throws IndexingException if an exception occurs while trying to initialize the
+     * coordinator.
+     */
+    public IndexerCoordinator(
+            final StatusEventStorage storage,
+            final LineLogger logger,
+            final int maximumQueueSize,
+            final int minIntervalMS,
+            final int maxIntervalMS,
+            final Optional<AccessGroupShard> shard)
+            throws InterruptedException, IndexingException {
         this(
                 storage,
                 logger,
                 new SignalMonitor(),
                 maximumQueueSize,
+                minIntervalMS,
+                maxIntervalMS,
+                shard,
                 Executors.newSingleThreadScheduledExecutor(),
                 RETRY_FATAL_BACKOFF_MS_DEFAULT,
                 Ticker.systemTicker(), Clock.systemDefaultZone());
@@ -93,6 +190,9 @@ public class IndexerCoordinator implements Stoppable {
      * @param logger a logger.
      * @param signalMonitor a monitor for detecting an internal shutdown.
      * @param maximumQueueSize the maximum number of events in the internal in-memory queue.
+     * @param minIntervalMS the minimum time in milliseconds between idle cycles.
+     * @param maxIntervalMS the maximum time in milliseconds between idle cycles.
+     * @param shard the shard to process, or absent to process all the access groups.
      * @param testExecutor a single thread executor for testing purposes, usually a mock.
      * @param retryFatalBackoffMS a list of times in milliseconds since the epoch. Starting with
      * the first item, any retriable commands, if failed, will wait for the specified number of
@@ -112,6 +212,9 @@ public class IndexerCoordinator implements Stoppable {
             final LineLogger logger,
             final SignalMonitor signalMonitor,
             final int maximumQueueSize,
+            final int minIntervalMS,
+            final int maxIntervalMS,
+            final Optional<AccessGroupShard> shard,
             final ScheduledExecutorService testExecutor,
             final List<Integer> retryFatalBackoffMS,
             final Ticker ticker,
@@ -120,29 +223,74 @@ public class IndexerCoordinator implements Stoppable {
         Utils.nonNull(storage, "storage");
         Utils.nonNull(logger, "logger");
         Utils.nonNull(signalMonitor, "signalMonitor");
+        Utils.nonNull(shard, "shard");
         if (maximumQueueSize < 1) {
             throw new IllegalArgumentException("maximumQueueSize must be at least 1");
         }
+        interval = new CycleInterval(minIntervalMS, maxIntervalMS);
         this.signalMonitor = signalMonitor;
         this.maxQueueSize = maximumQueueSize;
+        // always allow at least one backfill event so backfills progress with tiny queues
+        this.maxBackfillQueueSize = Math.max(1,
+                maxQueueSize - maxQueueSize * INTERACTIVE_RESERVE_PERCENT / 100);
         this.logger = logger;
         this.storage = storage;
+        this.shard = shard;
+        this.clock = clock;
         final List<StoredStatusEvent> all = new LinkedList<>();
         retrier = new Retrier(RETRY_COUNT, RETRY_SLEEP_MS, retryFatalBackoffMS,
                 (retrycount, event, except) -> logError(retrycount, event, except));
-        all.addAll(retrier.retryFunc(
-                s -> s.get(StatusEventProcessingState.READY, maxQueueSize), storage, null));
-        all.addAll(retrier.retryFunc(
-                s -> s.get(StatusEventProcessingState.PROC, maxQueueSize), storage, null));
+        if (shard.isPresent()) {
+            if (!claimShard()) {
+                throw new FatalIndexingException(ErrorType.OTHER, String.format(
+                        "Buckets %s-%s are owned by another coordinator",
+                        shard.get().getStart(), shard.get().getEnd()));
+            }
+            logger.logInfo(String.format("Coordinator %s claimed buckets %s-%s",
+                    coordinatorID, shard.get().getStart(), shard.get().getEnd()));
+        }
+        all.addAll(getEvents(StatusEventProcessingState.READY, maxQueueSize));
+        all.addAll(getEvents(StatusEventProcessingState.PROC, maxQueueSize));
         queue = new EventQueue(all);
         executor = testExecutor;
-        this.clock = clock;
         cache = CacheBuilder.newBuilder()
                 .ticker(ticker)
                 .expireAfterWrite(1, TimeUnit.HOURS)
                 .build();
     }
     
+    private List<StoredStatusEvent> getEvents(
+            final StatusEventProcessingState state,
+            final int limit)
+            throws InterruptedException, IndexingException {
+        if (shard.isPresent()) {
+            return retrier.retryFunc(s -> s.get(state, limit, shard.get()), storage, null);
+        }
+        return retrier.retryFunc(s -> s.get(state, limit), storage, null);
+    }
+    
+    // returns false if another coordinator owns the shard
+    private boolean claimShard() throws InterruptedException, IndexingException {
+        final Instant now = clock.instant();
+        final boolean claimed = retrier.retryFunc(s -> s.claimShard(
+                shard.get(), coordinatorID, now.plus(SHARD_LEASE)), storage, null);
+        if (claimed) {
+            shardRenewed = now;
+        }
+        return claimed;
+    }
+    
+    private void renewShard() throws InterruptedException, IndexingException {
+        if (shard.isPresent() &&
+                !clock.instant().isBefore(shardRenewed.plus(SHARD_RENEWAL_INTERVAL))) {
+            if (!claimShard()) {
+                throw new FatalIndexingException(ErrorType.OTHER, String.format(
+                        "Coordinator %s lost ownership of buckets %s-%s", coordinatorID,
+                        shard.get().getStart(), shard.get().getEnd()));
+            }
+        }
+    }
+    
     @Override
     public void awaitShutdown() throws InterruptedException {
         signalMonitor.awaitSignal();
@@ -157,23 +305,31 @@ public class IndexerCoordinator implements Stoppable {
     /** Start the indexer. */
     public void startIndexer() {
         stopRunner = false;
-        // may want to make this configurable
-        executor.scheduleAtFixedRate(new IndexerRunner(), 0, 1000, TimeUnit.MILLISECONDS);
+        executor.schedule(new IndexerRunner(), 0, TimeUnit.MILLISECONDS);
     }
     
     private class IndexerRunner implements Runnable {
 
         @Override
         public void run() {
+            boolean foundWork = false;
             try {
-                runOneCycle();
+                foundWork = runOneCycle();
             } catch (InterruptedException | FatalIndexingException e) {
                 logError(true, e);
                 executor.shutdown();
                 signalMonitor.signal();
+                return;
             } catch (Throwable e) {
                 logError(false, e);
             }
+            if (!stopRunner) {
+                try {
+                    executor.schedule(this, interval.next(foundWork), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // the coordinator was stopped while the cycle was running
+                }
+            }
         }
     }
     
@@ -185,6 +341,14 @@ public class IndexerCoordinator implements Stoppable {
         stopRunner = true;
         executor.shutdown();
         executor.awaitTermination(millisToWait, TimeUnit.MILLISECONDS);
+        if (shard.isPresent()) {
+            try {
+                storage.releaseShard(shard.get(), coordinatorID);
+            } catch (RetriableIndexingException e) {
+                // the ownership expires in any case
+                logError("Failed to release shard", e);
+            }
+        }
     }
     
     private void logError(final boolean fatal, final Throwable e) {
@@ -214,82 +378,229 @@ public class IndexerCoordinator implements Stoppable {
         logError(msg, e);
     }
     
-    private void runOneCycle() throws InterruptedException, IndexingException {
-        /* some of the operations in the submethods could be batched if they prove to be a
-         * bottleneck
-         * but the mongo client keeps a connection open so it's not that expensive to 
-         * run one at a time
-         * also the bottleneck is almost assuredly the workers
-         */
+    // returns true if any cycle made progress
+    private boolean runOneCycle() throws InterruptedException, IndexingException {
         continuousCycles = 0;
-        boolean noWait = true;
-        while (!stopRunner && noWait) {
+        boolean foundWork = false;
+        boolean progress = true;
+        while (!stopRunner && progress) {
+            renewShard();
             final boolean loadedEvents = loadEventsIntoQueue();
             queue.moveToReady();
-            setEventsAsReadyInStorage();
+            final boolean skipped = skipSupersededEvents();
+            final boolean setReady = setEventsAsReadyInStorage();
             // so we don't run through the same events again next loop
             queue.moveReadyToProcessing();
-            checkOnEventsInProcess();
-            // start the cycle immediately if there were events in storage and the queue isn't full
-            noWait = loadedEvents && queue.size() < maxQueueSize;
-            
-            /* 18/2/21: the next line is a Q&D fix to stop a fast loop.
-             * https://github.com/kbase/KBaseSearchEngine/pull/189 stopped the queue from
-             * filling with duplicate events, but it means that if there are any unprocessed
-             * events, they'll be loaded every cycle, which means that this loop continuously runs.
-             * 
-             * This change means the loop only runs 1/sec, period. When the coordinator is
-             * smarter about loading only events that aren't in memory (or maybe not even
-             * keeping unprocessed events in memory or something more drastic) the fast loop
-             * behavior can be restored.
-             * 
+            final boolean completed = checkOnEventsInProcess();
+            /* Start the next cycle immediately only if this cycle changed something.
+             * Unprocessed events that are blocked in the queue are loaded from storage every
+             * cycle, so only events that were not already in the queue count as loaded
+             * events. Otherwise a blocked event would make the coordinator loop continuously.
              */
-            noWait = false;
+            progress = (loadedEvents && queue.size() < maxQueueSize) || skipped || setReady ||
+                    completed;
+            foundWork = foundWork || progress;
             continuousCycles++;
         }
+        return foundWork;
     }
     
-
+    /* Returns true if any events were added to the queue.
+     * The events from both lanes are loaded in time stamp order. An event is only loaded if
+     * all the older events for its access group in the other lane are loaded, since otherwise
+     * a newer event for an object could be processed before an older one. The older backfill
+     * events for the access group of an interactive event are loaded along with the
+     * interactive event, even if the backfill part of the queue is full. Other backfill events
+     * leave space in the queue for the interactive events and the events loaded along with
+     * them. If an event can't be loaded, the later events for its access group are held until
+     * a later cycle.
+     */
     private boolean loadEventsIntoQueue() throws InterruptedException, IndexingException {
-        final boolean loaded;
         final int loadSize = maxQueueSize - queue.size();
-        if (loadSize > 0) {
-            final List<StoredStatusEvent> events = retrier.retryFunc(
-                    s -> s.get(StatusEventProcessingState.UNPROC, loadSize), storage, null);
-            events.stream().forEach(e -> queue.load(e));
-            loaded = !events.isEmpty();
-        } else {
-            loaded = false;
+        if (loadSize < 1) {
+            return false;
+        }
+        final List<StoredStatusEvent> interactive =
+                getUnprocessed(StatusEventPriority.INTERACTIVE, loadSize);
+        // interactive events take precedence for the free space in the queue
+        final int backfillLoadSize = Math.min(loadSize - interactive.size(),
+                maxBackfillQueueSize - queue.size(StatusEventPriority.BACKFILL));
+        final List<StoredStatusEvent> backfill =
+                getUnprocessed(StatusEventPriority.BACKFILL, backfillLoadSize);
+        final Instant interactiveLoadedTo = getLoadedTo(interactive, loadSize);
+        final Instant backfillLoadedTo = getLoadedTo(backfill, backfillLoadSize);
+        
+        final List<StoredStatusEvent> events = new ArrayList<>(interactive);
+        final Set<StatusEventID> ids = backfill.stream().map(e -> e.getID())
+                .collect(Collectors.toSet());
+        events.addAll(backfill);
+        /* older backfill events for the access groups of interactive events. The events for
+         * all the access groups are loaded with one query, so the number of queries per
+         * cycle doesn't depend on the number of access groups.
+         */
+        final Map<Integer, Instant> newest = new HashMap<>();
+        for (final Entry<Integer, Instant> n: getNewest(interactive).entrySet()) {
+            if (n.getValue().isAfter(backfillLoadedTo)) {
+                newest.put(n.getKey(), n.getValue());
+            }
+        }
+        final Set<StatusEventID> pulled = new HashSet<>();
+        final Map<Integer, Instant> backfillLoadedToByAccessGroup = new HashMap<>();
+        if (!newest.isEmpty()) {
+            final List<StoredStatusEvent> older = retrier.retryFunc(
+                    s -> s.get(StatusEventProcessingState.UNPROC, loadSize, newest,
+                            StatusEventPriority.BACKFILL),
+                    storage, null);
+            for (final StoredStatusEvent e: older) {
+                pulled.add(e.getID());
+                if (ids.add(e.getID())) {
+                    events.add(e);
+                }
+            }
+            // all the events for every access group up to this time stamp were loaded
+            final Instant olderLoadedTo = getLoadedTo(older, loadSize);
+            for (final Entry<Integer, Instant> n: newest.entrySet()) {
+                final Instant loadedTo = olderLoadedTo.isBefore(n.getValue()) ?
+                        olderLoadedTo : n.getValue();
+                if (loadedTo.isAfter(backfillLoadedTo)) {
+                    backfillLoadedToByAccessGroup.put(n.getKey(), loadedTo);
+                }
+            }
+        }
+        events.sort((e1, e2) -> e1.getEvent().getTimestamp().compareTo(
+                e2.getEvent().getTimestamp()));
+        
+        boolean loaded = false;
+        int reserved = interactive.size() + pulled.size();
+        final Set<Integer> held = new HashSet<>();
+        for (final StoredStatusEvent e: events) {
+            final int accessGroupID = e.getEvent().getAccessGroupId().get();
+            final boolean isInteractive = e.getPriority().equals(StatusEventPriority.INTERACTIVE);
+            final boolean isPriority = isInteractive || pulled.contains(e.getID());
+            if (isPriority) {
+                reserved--;
+            }
+            final Instant otherLoadedTo = isInteractive ? backfillLoadedToByAccessGroup
+                    .getOrDefault(accessGroupID, backfillLoadedTo) : interactiveLoadedTo;
+            final boolean space = isPriority ? queue.size() < maxQueueSize :
+                    queue.size() + reserved < maxQueueSize &&
+                    queue.size(StatusEventPriority.BACKFILL) < maxBackfillQueueSize;
+            if (held.contains(accessGroupID) || !space ||
+                    e.getEvent().getTimestamp().isAfter(otherLoadedTo)) {
+                held.add(accessGroupID);
+            } else {
+                loaded = queue.load(e) || loaded;
+            }
         }
         return loaded;
     }
+    
+    private List<StoredStatusEvent> getUnprocessed(
+            final StatusEventPriority priority,
+            final int loadSize)
+            throws InterruptedException, IndexingException {
+        if (loadSize < 1) {
+            return Collections.emptyList();
+        }
+        return retrier.retryFunc(
+                s -> s.get(StatusEventProcessingState.UNPROC, loadSize,
+                        shard.or(AccessGroupShard.ALL), priority),
+                storage, null);
+    }
+    
+    /* Get the time stamp up to which all the unprocessed events in a lane are in a list of
+     * events returned from the storage system.
+     */
+    private static Instant getLoadedTo(final List<StoredStatusEvent> events, final int limit) {
+        if (events.size() < limit) {
+            return Instant.MAX;
+        }
+        return events.isEmpty() ? Instant.MIN :
+                events.get(events.size() - 1).getEvent().getTimestamp();
+    }
+    
+    // expects the events to be in time stamp order
+    private static Map<Integer, Instant> getNewest(final List<StoredStatusEvent> events) {
+        final Map<Integer, Instant> ret = new LinkedHashMap<>();
+        for (final StoredStatusEvent e: events) {
+            ret.put(e.getEvent().getAccessGroupId().get(), e.getEvent().getTimestamp());
+        }
+        return ret;
+    }
 
-    private void setEventsAsReadyInStorage() throws InterruptedException, IndexingException {
+    // returns true if any events were skipped
+    private boolean skipSupersededEvents() throws InterruptedException, IndexingException {
+        // includes events superseded when processing completed in the last cycle
+        final List<StoredStatusEvent> skip = queue.removeSuperseded();
+        if (skip.isEmpty()) {
+            return false;
+        }
+        // the first event identifies the storage operation in the retry logs
+        final List<StatusEventID> ids = skip.stream().map(e -> e.getID())
+                .collect(Collectors.toList());
+        retrier.retryCons(i -> storage.setProcessingState(i,
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.SKIP),
+                ids, skip.get(0));
+        for (final StoredStatusEvent sse: skip) {
+            logger.logInfo(String.format("Skipped event %s %s %s superseded by a later event",
+                    sse.getID().getId(), sse.getEvent().getEventType(),
+                    sse.getEvent().toGUID()));
+        }
+        return true;
+    }
+    
+    // returns true if any events were set to ready
+    private boolean setEventsAsReadyInStorage()
+            throws InterruptedException, IndexingException {
+        final List<StoredStatusEvent> toSet = new LinkedList<>();
         for (final StoredStatusEvent sse: queue.getReadyForProcessing()) {
             // since the queue doesn't mutate the state, if the state is not UNPROC
             // it's not in that state in the DB either
             if (sse.getState().equals(StatusEventProcessingState.UNPROC)) {
-                retrier.retryCons(e -> storage.setProcessingState(e.getID(),
-                        StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY),
-                        sse, sse);
-                logger.logInfo(String.format("Moved event %s %s %s from %s to %s",
-                        sse.getID().getId(), sse.getEvent().getEventType(),
-                        sse.getEvent().toGUID(), StatusEventProcessingState.UNPROC,
-                        StatusEventProcessingState.READY));
+                toSet.add(sse);
             }
         }
+        if (toSet.isEmpty()) {
+            return false;
+        }
+        // all the events are moved in one storage operation. The first event identifies the
+        // operation in the retry logs.
+        final List<StatusEventID> ids = toSet.stream().map(e -> e.getID())
+                .collect(Collectors.toList());
+        retrier.retryCons(i -> storage.setProcessingState(i,
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY),
+                ids, toSet.get(0));
+        for (final StoredStatusEvent sse: toSet) {
+            logger.logInfo(String.format("Moved event %s %s %s from %s to %s",
+                    sse.getID().getId(), sse.getEvent().getEventType(),
+                    sse.getEvent().toGUID(), StatusEventProcessingState.UNPROC,
+                    StatusEventProcessingState.READY));
+        }
+        return true;
     }
     
-    private void checkOnEventsInProcess() throws InterruptedException, IndexingException {
-        for (final StoredStatusEvent sse: queue.getProcessing()) {
-            final Optional<StoredStatusEvent> fromStorage =
-                    retrier.retryFunc(s -> s.get(sse.getID()), storage, sse);
-            if (fromStorage.isPresent()) {
-                final StoredStatusEvent e = fromStorage.get();
+    // returns true if any events completed processing
+    private boolean checkOnEventsInProcess() throws InterruptedException, IndexingException {
+        // copy the events since the queue's view changes as events complete
+        final List<StoredStatusEvent> processing = new ArrayList<>(queue.getProcessing());
+        if (processing.isEmpty()) {
+            return false;
+        }
+        boolean completed = false;
+        // all the events in process are checked with one storage operation. The first event
+        // identifies the operation in the retry logs.
+        final Set<StatusEventID> ids = processing.stream().map(e -> e.getID())
+                .collect(Collectors.toSet());
+        final Map<StatusEventID, StoredStatusEvent> fromStorage =
+                retrier.retryFunc(s -> s.get(ids), storage, processing.get(0));
+        for (final StoredStatusEvent sse: processing) {
+            if (fromStorage.containsKey(sse.getID())) {
+                final StoredStatusEvent e = fromStorage.get(sse.getID());
                 final StatusEventProcessingState state = e.getState();
                 if (!state.equals(StatusEventProcessingState.PROC) &&
                         !state.equals(StatusEventProcessingState.READY)) {
                     queue.setProcessingComplete(e);
+                    completed = true;
                     logger.logInfo(String.format(
                             "Event %s %s %s completed processing with state %s on worker %s",
                             e.getID().getId(), e.getEvent().getEventType(),
@@ -301,8 +612,10 @@ public class IndexerCoordinator implements Stoppable {
                 logger.logError(String.format("Event %s is in the in-memory queue but not " +
                         "in the storage system. Removing from queue", sse.getID().getId()));
                 queue.setProcessingComplete(sse);
+                completed = true;
             }
         }
+        return completed;
     }
 
     private void logDelayedEvent(final StoredStatusEvent e) {
@@ -332,6 +645,14 @@ public class IndexerCoordinator implements Stoppable {
         return continuousCycles;
     }
     
+    /** Get the ID of this coordinator, which identifies the coordinator as the owner of its
+     * shard in the storage system.
+     * @return the coordinator ID.
+     */
+    public String getCoordinatorID() {
+        return coordinatorID;
+    }
+    
     /** Returns the current size of the queue.
      * @return the queue size.
      */
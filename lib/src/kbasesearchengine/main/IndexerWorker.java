@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -14,21 +15,35 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.Striped;
 
 import kbasesearchengine.common.FileUtil;
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.common.GUIDTooLongException;
 import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.ObjectEventQueue;
 import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StatusEventWithId;
 import kbasesearchengine.events.StoredStatusEvent;
 import kbasesearchengine.events.exceptions.ErrorType;
@@ -44,16 +59,20 @@ import kbasesearchengine.events.handler.EventHandler;
 import kbasesearchengine.events.handler.ResolvedReference;
 import kbasesearchengine.events.handler.SourceData;
 import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.main.IndexingPipeline.Stage;
 import kbasesearchengine.parse.ContigLocationException;
+import kbasesearchengine.parse.ExtractedSubObjects;
 import kbasesearchengine.parse.GUIDNotFoundException;
 import kbasesearchengine.parse.KeywordParser;
 import kbasesearchengine.parse.ObjectParseException;
 import kbasesearchengine.parse.ObjectParser;
 import kbasesearchengine.parse.ParsedObject;
 import kbasesearchengine.parse.KeywordParser.ObjectLookupProvider;
+import kbasesearchengine.parse.KeywordParser.ParentValues;
 import kbasesearchengine.search.IndexingConflictException;
 import kbasesearchengine.search.IndexingStorage;
 import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.search.ObjectsToIndex;
 import kbasesearchengine.system.NoSuchTypeException;
 import kbasesearchengine.system.ObjectTypeParsingRules;
 import kbasesearchengine.system.ParsingRulesSubtypeFirstComparator;
@@ -67,6 +86,10 @@ public class IndexerWorker implements Stoppable {
     //TODO JAVADOC
     //TODO TESTS
     
+    private static final Set<StatusEventType> BATCHABLE = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(StatusEventType.NEW_VERSION,
+                    StatusEventType.DELETE_ALL_VERSIONS, StatusEventType.UNDELETE_ALL_VERSIONS)));
+    
     private final String id;
     private final File rootTempDir;
     private final StatusEventStorage storage;
@@ -77,15 +100,46 @@ public class IndexerWorker implements Stoppable {
     private final Map<String, EventHandler> eventHandlers;
     private ScheduledExecutorService executor = null;
     private final SignalMonitor signalMonitor = new SignalMonitor();
-    private boolean stopRunner = false;
+    private volatile boolean stopRunner = false;
     private final int maxObjectsPerLoad;
+    private final int workerThreads;
+    private final int batchSize;
+    private final PriorityLanes lanes;
+    private final int minIntervalMS;
+    private final int maxIntervalMS;
+    private final IndexingPipeline pipeline;
     private final Retrier retrier;
+    // shared between all the events processed by the worker
+    private final LookupCache lookupCache;
+    
+    /* Locks that mirror the access group / object rules in the event queue within this worker.
+     * Access group level events take the write lock for the access group, object level events
+     * take the read lock for the access group and then the lock for the object. The locks are
+     * always acquired in that order, so the stripes can't deadlock.
+     */
+    private final Striped<ReadWriteLock> accessGroupLocks;
+    private final Striped<Lock> objectLocks;
 
     public IndexerWorker(final IndexerWorkerConfigurator config) throws IOException {
         this.maxObjectsPerLoad = config.getMaxObjectsPerLoad();
+        this.workerThreads = config.getWorkerThreads();
+        this.batchSize = config.getBatchSize();
+        this.lanes = new PriorityLanes(config.getInteractiveWeight());
+        this.minIntervalMS = config.getMinIntervalMS();
+        this.maxIntervalMS = config.getMaxIntervalMS();
+        this.accessGroupLocks = Striped.lazyWeakReadWriteLock(workerThreads * 16);
+        this.objectLocks = Striped.lazyWeakLock(workerThreads * 16);
         this.workerCodes = config.getWorkerCodes();
         this.logger = config.getLogger();
         this.logger.logInfo("Worker codes: " + workerCodes);
+        this.logger.logInfo("Worker threads: " + workerThreads);
+        this.logger.logInfo("Worker batch size: " + batchSize);
+        this.logger.logInfo("Worker interactive weight: " + lanes.getInteractiveWeight());
+        this.logger.logInfo(String.format("Worker cycle interval: %s - %s ms",
+                minIntervalMS, maxIntervalMS));
+        this.logger.logInfo(String.format(
+                "Child threads: %s, parse threads: %s, index threads: %s",
+                config.getChildThreads(), config.getParseThreads(), config.getIndexThreads()));
         this.id = config.getWorkerID();
         this.rootTempDir = FileUtil.getOrCreateCleanSubDir(config.getRootTempDir().toFile(),
                 id + "_" + UUID.randomUUID().toString().substring(0,5));
@@ -96,9 +150,13 @@ public class IndexerWorker implements Stoppable {
         this.storage = config.getEventStorage();
         this.typeStorage = config.getTypeStorage();
         this.indexingStorage = config.getIndexingStorage();
+        this.pipeline = new IndexingPipeline(id, config.getChildThreads(),
+                config.getParseThreads(), config.getIndexThreads(), config.getStageQueueSize());
         this.retrier = new Retrier(config.getRetryCount(), config.getRetrySleepMS(),
                 config.getRetryFatalBackoffMS(),
                 (retrycount, event, except) -> logError(retrycount, event, except));
+        this.lookupCache = new LookupCache(config.getLookupCacheSize());
+        this.logger.logInfo("Worker lookup cache size: " + lookupCache.getMaximumSize());
     }
     
     @Override
@@ -109,21 +167,28 @@ public class IndexerWorker implements Stoppable {
     public void startIndexer() {
         stopRunner = false;
         //TODO TEST add a way to inject an executor for testing purposes
-        executor = Executors.newSingleThreadScheduledExecutor();
-        // may want to make this configurable
-        executor.scheduleAtFixedRate(new IndexerRunner(), 0, 1000, TimeUnit.MILLISECONDS);
+        executor = Executors.newScheduledThreadPool(workerThreads);
+        // each runner claims its own events from storage, so no further coordination is needed
+        for (int i = 0; i < workerThreads; i++) {
+            executor.schedule(new IndexerRunner(), 0, TimeUnit.MILLISECONDS);
+        }
     }
     
     private class IndexerRunner implements Runnable {
+        
+        // each runner backs off independently when there are no events to process
+        private final CycleInterval interval = new CycleInterval(minIntervalMS, maxIntervalMS);
 
         @Override
         public void run() {
             boolean processedEvent = true;
+            boolean foundWork = false;
             while (!stopRunner && processedEvent) {
                 processedEvent = false;
                 try {
                     // keep processing events until there are none left
                     processedEvent = runCycle();
+                    foundWork = foundWork || processedEvent;
                 } catch (InterruptedException | FatalIndexingException e) {
                     logError(LogPrefix.FATAL, e);
                     executor.shutdown();
@@ -132,6 +197,13 @@ public class IndexerWorker implements Stoppable {
                     logError(LogPrefix.UNEXPECTED, e);
                 }
             }
+            if (!stopRunner && !executor.isShutdown()) {
+                try {
+                    executor.schedule(this, interval.next(foundWork), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // the worker was stopped while the cycle was running
+                }
+            }
         }
     }
     
@@ -143,6 +215,15 @@ public class IndexerWorker implements Stoppable {
         stopRunner = true;
         executor.shutdown();
         executor.awaitTermination(millisToWait, TimeUnit.MILLISECONDS);
+        pipeline.shutdown();
+        logLookupCacheStats();
+        try {
+            // the indexing storage may be deferring making changes visible
+            indexingStorage.flushIndexing();
+        } catch (IOException e) {
+            logger.logError("Unable to flush indexing storage on shutdown of worker with id " +
+                    id + ": " + e.getMessage());
+        }
 
         try {
             FileUtils.deleteDirectory(rootTempDir);
@@ -153,6 +234,30 @@ public class IndexerWorker implements Stoppable {
         }
     }
     
+    /** Get the number of tasks waiting to run for each stage of the indexing pipeline.
+     * @return the queue depth for each stage.
+     */
+    public Map<Stage, Integer> getStageQueueDepths() {
+        return pipeline.getQueueDepths();
+    }
+    
+    /** Get the hit and miss statistics for each kind of lookup stored in the cache shared
+     * between the events processed by the worker.
+     * @return the statistics.
+     */
+    public Map<LookupCache.Kind, CacheStats> getLookupCacheStats() {
+        return lookupCache.getStats();
+    }
+    
+    private void logLookupCacheStats() {
+        for (final Entry<LookupCache.Kind, CacheStats> e: getLookupCacheStats().entrySet()) {
+            final CacheStats s = e.getValue();
+            logger.logInfo(String.format(
+                    "Lookup cache %s: requests %s, hit rate %.3f, evictions %s",
+                    e.getKey(), s.requestCount(), s.hitRate(), s.evictionCount()));
+        }
+    }
+    
     private enum LogPrefix {
         STD, FATAL, UNEXPECTED;
     }
@@ -200,46 +305,541 @@ public class IndexerWorker implements Stoppable {
         logError(msg, e);
     }
     
-    /** Runs one cycle of the event processing loop, processing up to one event.
+    /** Runs one cycle of the event processing loop, processing up to one event, or up to the
+     * configured batch size of events if the batch size is greater than one.
      * @return true if an event was processed, false if not.
      * @throws InterruptedException if the thread was interrupted.
      * @throws FatalIndexingException if an indexing exception occurred that should cause the
      * shutdown of the worker. In normal use, no more events will be processed.
      */
     public boolean runCycle() throws InterruptedException, FatalIndexingException {
-        final Optional<StoredStatusEvent> optEvent;
+        if (batchSize > 1) {
+            return runBatchCycle();
+        }
+        final Optional<StoredStatusEvent> optEvent = claimEvent();
+        if (optEvent.isPresent()) {
+            processClaimedEvent(optEvent.get());
+            return true;
+        }
+        return false;
+    }
+    
+    // tries the priority lanes in weighted round robin order
+    private Optional<StoredStatusEvent> claimEvent()
+            throws InterruptedException, FatalIndexingException {
         try {
-            optEvent = retrier.retryFunc(
-                    s -> s.setAndGetProcessingState(StatusEventProcessingState.READY, workerCodes,
-                            StatusEventProcessingState.PROC, id),
-                    storage, null);
+            for (final StatusEventPriority priority: lanes.next()) {
+                final Optional<StoredStatusEvent> event = retrier.retryFunc(
+                        s -> s.setAndGetProcessingState(StatusEventProcessingState.READY,
+                                workerCodes, priority, StatusEventProcessingState.PROC, id),
+                        storage, null);
+                if (event.isPresent()) {
+                    return event;
+                }
+            }
+            return Optional.absent();
         } catch (FatalIndexingException e) {
             throw e;
         } catch (IndexingException e) { // untestable
             throw new RuntimeException("non-fatal exceptions should not be thrown here");
         }
-        boolean processedEvent = false;
-        if (optEvent.isPresent()) {
-            final StoredStatusEvent parentEvent = optEvent.get();
-            final EventHandler handler;
-            try {
-                handler = getEventHandler(parentEvent);
-            } catch (UnprocessableEventIndexingException e) {
-                handleException("Error getting event handler", parentEvent, e);
-                return true;
-            }
+    }
+    
+    private void processClaimedEvent(final StoredStatusEvent parentEvent)
+            throws InterruptedException, FatalIndexingException {
+        final EventHandler handler;
+        try {
+            handler = getEventHandler(parentEvent);
+        } catch (UnprocessableEventIndexingException e) {
+            handleException("Error getting event handler", parentEvent, e);
+            return;
+        }
+        final List<Lock> locks = lock(parentEvent.getEvent());
+        try {
             if (handler.isExpandable(parentEvent)) {
                 expandAndProcess(parentEvent);
             } else {
                 // this means failed events get marked twice, since processEvent marks failed
                 // events
                 // *shrug*
-                // maybe rethink this whole process later, but now would require interface changes
+                // maybe rethink this whole process later, but now would require interface
+                // changes
                 markEventProcessed(parentEvent, processEvent(parentEvent));
             }
-            processedEvent = true;
+        } finally {
+            unlock(locks);
+        }
+    }
+    
+    /* Claims up to the batch size of events. New version events are indexed together, so
+     * the existence checks and the writes to the indexing storage are combined. Delete and
+     * undelete all versions events are also processed together. All other events are processed
+     * one at a time.
+     * The batch is claimed from the priority lanes in weighted round robin order, and any
+     * remaining space is filled from the other lane.
+     */
+    private boolean runBatchCycle() throws InterruptedException, FatalIndexingException {
+        final List<StoredStatusEvent> events = new LinkedList<>();
+        try {
+            for (final StatusEventPriority priority: lanes.next()) {
+                final int max = batchSize - events.size();
+                if (max > 0) {
+                    // a retry re-reads the events claimed by a failed attempt
+                    final String claimID = UUID.randomUUID().toString();
+                    events.addAll(retrier.retryFunc(
+                            s -> s.claimBatch(StatusEventProcessingState.READY, workerCodes,
+                                    priority, StatusEventProcessingState.PROC, id, claimID,
+                                    max),
+                            storage, null));
+                }
+            }
+        } catch (FatalIndexingException e) {
+            throw e;
+        } catch (IndexingException e) { // untestable
+            throw new RuntimeException("non-fatal exceptions should not be thrown here");
+        }
+        final List<StoredStatusEvent> batch = new LinkedList<>();
+        final List<StoredStatusEvent> deletions = new LinkedList<>();
+        final List<StoredStatusEvent> single = new LinkedList<>();
+        final List<UnbatchedEvent> unbatched = new LinkedList<>();
+        for (final StoredStatusEvent ev: events) {
+            if (!isBatchable(ev)) {
+                single.add(ev);
+            } else if (StatusEventType.NEW_VERSION.equals(ev.getEvent().getEventType())) {
+                batch.add(ev);
+            } else {
+                deletions.add(ev);
+            }
+        }
+        if (!batch.isEmpty() || !deletions.isEmpty()) {
+            final List<StoredStatusEvent> all = new LinkedList<>(batch);
+            all.addAll(deletions);
+            final List<Lock> locks = lock(all);
+            try {
+                if (!deletions.isEmpty()) {
+                    single.addAll(processDeletionBatch(deletions));
+                }
+                if (!batch.isEmpty()) {
+                    unbatched.addAll(processBatch(batch));
+                }
+            } finally {
+                unlock(locks);
+            }
+        }
+        for (final StoredStatusEvent ev: single) {
+            processClaimedEvent(ev);
+        }
+        for (final UnbatchedEvent ev: unbatched) {
+            processUnbatchedEvent(ev);
+        }
+        return !events.isEmpty();
+    }
+    
+    /* A new version event from a batch that is processed singly. The event has already been
+     * updated with the latest state of the object, so the update isn't repeated.
+     */
+    private static class UnbatchedEvent {
+        
+        private final StoredStatusEvent event;
+        private final StatusEvent updated;
+        // true if the object may have been partially written to the indexing storage
+        private final boolean reindex;
+        
+        private UnbatchedEvent(
+                final StoredStatusEvent event,
+                final StatusEvent updated,
+                final boolean reindex) {
+            this.event = event;
+            this.updated = updated;
+            this.reindex = reindex;
+        }
+    }
+    
+    private void processUnbatchedEvent(final UnbatchedEvent ev)
+            throws InterruptedException, FatalIndexingException {
+        final List<Lock> locks = lock(ev.event.getEvent());
+        try {
+            markEventProcessed(ev.event, processEvent(ev.event, ev.updated, ev.reindex));
+        } finally {
+            unlock(locks);
+        }
+    }
+    
+    private boolean isBatchable(final StoredStatusEvent ev) {
+        if (!BATCHABLE.contains(ev.getEvent().getEventType())) {
+            return false;
+        }
+        try {
+            return !getEventHandler(ev).isExpandable(ev);
+        } catch (UnprocessableEventIndexingException e) {
+            return false; // the error is recorded when the event is processed singly
+        }
+    }
+    
+    /* Processes a batch of new version events. Returns the events that couldn't be processed
+     * as part of the batch, which are then processed one at a time so that any errors are
+     * handled and recorded exactly as for a single event.
+     * If the objects couldn't be written to the indexing storage, some of them may have been
+     * partially written, and so all of them are fully reindexed when processed singly.
+     */
+    private List<UnbatchedEvent> processBatch(final List<StoredStatusEvent> batch)
+            throws InterruptedException, FatalIndexingException {
+        logger.logInfo(String.format("[Indexer] processing batch of %s %s events...",
+                batch.size(), StatusEventType.NEW_VERSION));
+        final long time = System.currentTimeMillis();
+        final List<UnbatchedEvent> unbatched = new LinkedList<>();
+        final Map<StoredStatusEvent, StatusEvent> updated = new LinkedHashMap<>();
+        for (final StoredStatusEvent ev: batch) {
+            final Optional<StorageObjectType> type = ev.getEvent().getStorageObjectType();
+            if (type.isPresent() && !isStorageTypeSupported(type.get())) {
+                logger.logInfo("[Indexer] skipping " + ev.getEvent().getEventType() + ", " +
+                        toLogString(type) + ev.getEvent().toGUID());
+                markEventProcessed(ev, StatusEventProcessingState.UNINDX);
+                continue;
+            }
+            try {
+                final StatusEvent u = retrier.retryFunc(
+                        e -> getEventHandler(e.getStorageCode()).updateObjectEvent(e),
+                        ev.getEvent(), ev);
+                if (StatusEventType.NEW_VERSION.equals(u.getEventType())) {
+                    updated.put(ev, u);
+                } else {
+                    unbatched.add(new UnbatchedEvent(ev, u, false));
+                }
+            } catch (IndexingException e) {
+                // recorded as for a single event. Rethrown if fatal
+                handleException("Error processing event", ev, e);
+                markEventProcessed(ev, StatusEventProcessingState.FAIL);
+            }
+        }
+        if (updated.isEmpty()) {
+            return unbatched;
+        }
+        final Set<GUID> guids = new HashSet<>();
+        for (final StatusEvent ev: updated.values()) {
+            guids.add(ev.toGUID());
+        }
+        final Map<GUID, Boolean> indexed;
+        try {
+            indexed = retrier.retryFunc(g -> checkParentGuidsExist(g), guids, null);
+        } catch (FatalIndexingException e) {
+            throw e;
+        } catch (IndexingException e) {
+            unbatched.addAll(toUnbatched(updated, updated.keySet(), false));
+            return unbatched;
+        }
+        // objects that are already indexed only need their public status updated
+        for (final StoredStatusEvent ev: new ArrayList<>(updated.keySet())) {
+            if (Boolean.TRUE.equals(indexed.get(updated.get(ev).toGUID()))) {
+                unbatched.add(new UnbatchedEvent(ev, updated.remove(ev), false));
+            }
+        }
+        final Map<StoredStatusEvent, File> tempFiles = new LinkedHashMap<>();
+        try {
+            final Map<StoredStatusEvent, List<ObjectsToIndex>> prepared =
+                    prepareBatch(updated, tempFiles);
+            for (final StoredStatusEvent ev: updated.keySet()) {
+                if (!prepared.containsKey(ev)) {
+                    unbatched.add(new UnbatchedEvent(ev, updated.get(ev), false));
+                }
+            }
+            final List<ObjectsToIndex> objects = new LinkedList<>();
+            for (final List<ObjectsToIndex> o: prepared.values()) {
+                objects.addAll(o);
+            }
+            try {
+                retrier.retryCons(o -> indexObjectsInStorage(o), objects, null);
+            } catch (FatalIndexingException e) {
+                throw e;
+            } catch (IndexingException e) {
+                unbatched.addAll(toUnbatched(updated, prepared.keySet(), true));
+                return unbatched;
+            }
+            for (final StoredStatusEvent ev: prepared.keySet()) {
+                markEventProcessed(ev, StatusEventProcessingState.INDX);
+            }
+            logger.logInfo(String.format("[Indexer]   indexed %s objects in batch " +
+                    "(total time: %sms.)", prepared.size(), System.currentTimeMillis() - time));
+        } finally {
+            for (final File f: tempFiles.values()) {
+                f.delete();
+            }
+        }
+        return unbatched;
+    }
+    
+    private List<UnbatchedEvent> toUnbatched(
+            final Map<StoredStatusEvent, StatusEvent> updated,
+            final Set<StoredStatusEvent> events,
+            final boolean reindex) {
+        final List<UnbatchedEvent> ret = new LinkedList<>();
+        for (final StoredStatusEvent ev: events) {
+            ret.add(new UnbatchedEvent(ev, updated.get(ev), reindex));
+        }
+        return ret;
+    }
+    
+    /* Processes a batch of delete and undelete all versions events. The deleted objects are
+     * found with one call per event handler rather than one call per event, and the objects
+     * are then deleted and undeleted in the indexing storage with a fixed number of requests.
+     * Returns the events that couldn't be processed as part of the batch.
+     */
+    private List<StoredStatusEvent> processDeletionBatch(final List<StoredStatusEvent> batch)
+            throws InterruptedException, FatalIndexingException {
+        logger.logInfo(String.format("[Indexer] processing batch of %s %s and %s events...",
+                batch.size(), StatusEventType.DELETE_ALL_VERSIONS,
+                StatusEventType.UNDELETE_ALL_VERSIONS));
+        final long time = System.currentTimeMillis();
+        final List<StoredStatusEvent> unbatched = new LinkedList<>();
+        final Map<String, List<StoredStatusEvent>> byStorageCode = new LinkedHashMap<>();
+        for (final StoredStatusEvent ev: batch) {
+            byStorageCode.computeIfAbsent(ev.getEvent().getStorageCode(),
+                    k -> new LinkedList<>()).add(ev);
+        }
+        final List<StoredStatusEvent> processed = new LinkedList<>();
+        // the last event for an object in the batch wins, as it would if processed singly
+        final Map<GUID, Boolean> isDeleted = new HashMap<>();
+        for (final String storageCode: byStorageCode.keySet()) {
+            final List<StoredStatusEvent> events = byStorageCode.get(storageCode);
+            final Set<GUID> guids = events.stream().map(e -> toObjectGUID(e.getEvent()))
+                    .collect(Collectors.toSet());
+            final Set<GUID> deleted;
+            try {
+                deleted = retrier.retryFunc(
+                        g -> getEventHandler(storageCode).getDeletedObjects(g), guids, null);
+            } catch (FatalIndexingException e) {
+                throw e;
+            } catch (IndexingException e) {
+                unbatched.addAll(events);
+                continue;
+            }
+            for (final StoredStatusEvent ev: events) {
+                final GUID guid = toObjectGUID(ev.getEvent());
+                isDeleted.put(guid, deleted.contains(guid) || StatusEventType.DELETE_ALL_VERSIONS
+                        .equals(ev.getEvent().getEventType()));
+                processed.add(ev);
+            }
+        }
+        if (processed.isEmpty()) {
+            return unbatched;
+        }
+        final Set<GUID> deletes = new HashSet<>();
+        final Set<GUID> undeletes = new HashSet<>();
+        for (final GUID guid: isDeleted.keySet()) {
+            (isDeleted.get(guid) ? deletes : undeletes).add(guid);
+        }
+        try {
+            retrier.retryCons(g -> deleteAllVersionsInStorage(g), deletes, null);
+            retrier.retryCons(g -> undeleteAllVersionsInStorage(g), undeletes, null);
+        } catch (FatalIndexingException e) {
+            throw e;
+        } catch (IndexingException e) {
+            unbatched.addAll(processed);
+            return unbatched;
+        }
+        for (final StoredStatusEvent ev: processed) {
+            markEventProcessed(ev, StatusEventProcessingState.INDX);
+        }
+        logger.logInfo(String.format("[Indexer]   deleted %s and undeleted %s objects in " +
+                "batch (total time: %sms.)", deletes.size(), undeletes.size(),
+                System.currentTimeMillis() - time));
+        return unbatched;
+    }
+    
+    private GUID toObjectGUID(final StatusEvent ev) {
+        return new GUID(ev.getStorageCode(), ev.getAccessGroupId().get(),
+                ev.getAccessGroupObjectId().get(), null, null, null);
+    }
+    
+    private void deleteAllVersionsInStorage(final Set<GUID> guids)
+            throws RetriableIndexingException {
+        try {
+            indexingStorage.deleteAllVersions(guids);
+        } catch (IndexingConflictException e) {
+            throw new RetriableIndexingException(ErrorType.INDEXING_CONFLICT, e.getMessage(), e);
+        } catch (IOException e) {
+            throw new RetriableIndexingException(ErrorType.OTHER, e.getMessage(), e);
+        }
+    }
+    
+    private void undeleteAllVersionsInStorage(final Set<GUID> guids)
+            throws RetriableIndexingException {
+        try {
+            indexingStorage.undeleteAllVersions(guids);
+        } catch (IndexingConflictException e) {
+            throw new RetriableIndexingException(ErrorType.INDEXING_CONFLICT, e.getMessage(), e);
+        } catch (IOException e) {
+            throw new RetriableIndexingException(ErrorType.OTHER, e.getMessage(), e);
+        }
+    }
+    
+    private Map<GUID, Boolean> checkParentGuidsExist(final Set<GUID> guids)
+            throws RetriableIndexingException {
+        try {
+            return indexingStorage.checkParentGuidsExist(guids);
+        } catch (IOException e) {
+            throw new RetriableIndexingException(ErrorType.OTHER, e.getMessage(), e);
+        }
+    }
+    
+    private void indexObjectsInStorage(final List<ObjectsToIndex> objects)
+            throws RetriableIndexingException {
+        try {
+            indexingStorage.indexObjects(objects);
+        } catch (IndexingConflictException e) {
+            throw new RetriableIndexingException(ErrorType.INDEXING_CONFLICT, e.getMessage(), e);
+        } catch (IOException e) {
+            throw new FatalRetriableIndexingException(ErrorType.OTHER, e.getMessage(), e);
+        }
+    }
+    
+    /* Loads and parses the objects concurrently on the parse stage threads. Returns the parsed
+     * objects for each event that was successfully prepared.
+     */
+    private Map<StoredStatusEvent, List<ObjectsToIndex>> prepareBatch(
+            final Map<StoredStatusEvent, StatusEvent> events,
+            final Map<StoredStatusEvent, File> tempFiles)
+            throws InterruptedException, FatalIndexingException {
+        final Executor parseExec = pipeline.isEnabled() ?
+                pipeline.getExecutor(Stage.PARSE) : IndexingPipeline.getDirectExecutor();
+        final Map<StoredStatusEvent, CompletableFuture<List<ObjectsToIndex>>> futures =
+                new LinkedHashMap<>();
+        for (final StoredStatusEvent ev: events.keySet()) {
+            final StatusEvent updated = events.get(ev);
+            final File tempFile;
+            try {
+                FileUtil.getOrCreateSubDir(rootTempDir, updated.getStorageCode());
+                tempFile = File.createTempFile("ws_srv_response_", ".json");
+            } catch (IOException e) {
+                continue; // processed singly
+            }
+            tempFiles.put(ev, tempFile);
+            futures.put(ev, CompletableFuture.supplyAsync(() -> {
+                try {
+                    return prepareObjects(updated, tempFile);
+                } catch (IndexingException | InterruptedException e) {
+                    throw new CompletionException(e);
+                }
+            }, parseExec));
+        }
+        final Map<StoredStatusEvent, List<ObjectsToIndex>> ret = new LinkedHashMap<>();
+        for (final StoredStatusEvent ev: futures.keySet()) {
+            try {
+                ret.put(ev, futures.get(ev).get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InterruptedException) {
+                    throw (InterruptedException) e.getCause();
+                } else if (e.getCause() instanceof FatalIndexingException) {
+                    throw (FatalIndexingException) e.getCause();
+                }
+                // processed singly
+            }
+        }
+        return ret;
+    }
+    
+    private List<ObjectsToIndex> prepareObjects(final StatusEvent ev, final File tempFile)
+            throws IndexingException, InterruptedException {
+        final long t1 = System.currentTimeMillis();
+        final GUID guid = ev.toGUID();
+        final LinkedList<GUID> refPath = new LinkedList<>(Arrays.asList(guid));
+        final SourceData obj = retrier.retryFunc(
+                i -> getEventHandler(guid).load(i, tempFile.toPath()), refPath, null);
+        final long loadTime = System.currentTimeMillis() - t1;
+        logger.logInfo("[Indexer]   " + guid + ", loading time: " + loadTime + " ms.");
+        logger.timeStat(guid, loadTime, 0, 0);
+        final List<ObjectTypeParsingRules> parsingRules = new ArrayList<>(
+                typeStorage.listObjectTypeParsingRules(ev.getStorageObjectType().get()));
+        Collections.sort(parsingRules, new ParsingRulesSubtypeFirstComparator());
+        final List<ObjectsToIndex> ret = new LinkedList<>();
+        if (parsingRules.isEmpty()) {
+            return ret;
+        }
+        final List<ExtractedSubObjects> extracted = extractStage(guid, obj, parsingRules);
+        // rules are parsed one at a time since the lookup provider isn't thread safe
+        final ObjectLookupProvider lookup = new MOPLookupProvider();
+        for (int r = 0; r < parsingRules.size(); r++) {
+            final ObjectTypeParsingRules rule = parsingRules.get(r);
+            final ParseObjectsRet parsed = parseStage(
+                    guid, lookup, refPath, extracted.get(r), rule);
+            ret.add(new ObjectsToIndex(rule, obj, ev.getTimestamp(), parsed.parentJson, guid,
+                    parsed.guidToObj, ev.isPublic().get()));
+        }
+        return ret;
+    }
+    
+    /* The coordinator should never release conflicting events at the same time, but
+     * the locks guarantee that events for the same object never run concurrently in
+     * this worker even if it does, e.g. if event states are altered manually.
+     */
+    private List<Lock> lock(final StatusEvent event) throws InterruptedException {
+        final String accessGroupKey = toAccessGroupKey(event);
+        final List<Lock> locks = new LinkedList<>();
+        try {
+            if (ObjectEventQueue.isObjectLevelEvent(event)) {
+                locks.add(accessGroupLocks.get(accessGroupKey).readLock());
+                locks.get(0).lockInterruptibly();
+                locks.add(objectLocks.get(toObjectKey(event)));
+                locks.get(1).lockInterruptibly();
+            } else {
+                locks.add(accessGroupLocks.get(accessGroupKey).writeLock());
+                locks.get(0).lockInterruptibly();
+            }
+        } catch (InterruptedException e) {
+            // the lock that threw was never acquired
+            locks.remove(locks.size() - 1);
+            unlock(locks);
+            throw e;
+        }
+        return locks;
+    }
+    
+    /* Locks a set of object level events. All the access group read locks are acquired
+     * before any object locks, and the stripes of each kind are acquired in a consistent
+     * order, so batches can't deadlock with each other or with single events.
+     */
+    private List<Lock> lock(final Collection<StoredStatusEvent> events)
+            throws InterruptedException {
+        final Set<String> accessGroupKeys = new HashSet<>();
+        final Set<String> objectKeys = new HashSet<>();
+        for (final StoredStatusEvent ev: events) {
+            accessGroupKeys.add(toAccessGroupKey(ev.getEvent()));
+            objectKeys.add(toObjectKey(ev.getEvent()));
+        }
+        // several keys may map to the same stripe
+        final Set<Lock> toLock = new LinkedHashSet<>();
+        for (final ReadWriteLock rwl: accessGroupLocks.bulkGet(accessGroupKeys)) {
+            toLock.add(rwl.readLock());
+        }
+        for (final Lock l: objectLocks.bulkGet(objectKeys)) {
+            toLock.add(l);
+        }
+        final List<Lock> locks = new LinkedList<>();
+        try {
+            for (final Lock l: toLock) {
+                l.lockInterruptibly();
+                locks.add(l);
+            }
+        } catch (InterruptedException e) {
+            unlock(locks);
+            throw e;
+        }
+        return locks;
+    }
+    
+    private String toAccessGroupKey(final StatusEvent event) {
+        return event.getStorageCode() + ":" + event.getAccessGroupId().orNull();
+    }
+    
+    private String toObjectKey(final StatusEvent event) {
+        return toAccessGroupKey(event) + "/" + event.getAccessGroupObjectId().orNull();
+    }
+    
+    private void unlock(final List<Lock> locks) {
+        // release in reverse order of acquisition
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
         }
-        return processedEvent;
     }
 
     private void markEventProcessed(
@@ -270,21 +870,111 @@ public class IndexerWorker implements Stoppable {
         } catch (InterruptedException e) {
             throw e;
         }
-        StatusEventProcessingState parentResult = StatusEventProcessingState.INDX;
-        while (childIter.hasNext()) {
-            ChildStatusEvent subev = null;
-            try {
-                subev = retrier.retryFunc(i -> getNextSubEvent(i), childIter, parentEvent);
-            } catch (IndexingException e) {
-                handleException("Error getting event information from data storage",
-                        parentEvent, e);
-                parentResult = StatusEventProcessingState.FAIL;
+        /* the child events may complete in any order on the child stage threads, except that
+         * the child events for each object run one at a time and in order, since the version
+         * state of an object depends on the versions already indexed
+         */
+        final Executor childExec = pipeline.getExecutor(Stage.CHILD);
+        final ChildCounter children = new ChildCounter();
+        final Map<String, CompletableFuture<Void>> lastChildForObject = new HashMap<>();
+        try {
+            while (childIter.hasNext() && !children.isAborted()) {
+                ChildStatusEvent subev = null;
+                try {
+                    subev = retrier.retryFunc(i -> getNextSubEvent(i), childIter, parentEvent);
+                } catch (IndexingException e) {
+                    handleException("Error getting event information from data storage",
+                            parentEvent, e);
+                    children.fail();
+                }
+                if (subev != null) {
+                    final ChildStatusEvent child = subev;
+                    final Runnable task = () -> processChildEvent(child, children);
+                    children.start();
+                    lastChildForObject.compute(toObjectKey(child.getEvent()),
+                            (k, last) -> last == null ? CompletableFuture.runAsync(
+                                    task, childExec) : last.thenRunAsync(task, childExec));
+                }
             }
-            if (subev != null && StatusEventProcessingState.FAIL.equals(processEvent(subev))) {
-                parentResult = StatusEventProcessingState.FAIL;
+        } finally {
+            // don't leave child events running against a parent that is no longer locked
+            children.await();
+        }
+        children.rethrow();
+        markEventProcessed(parentEvent, children.isFailed() ?
+                StatusEventProcessingState.FAIL : StatusEventProcessingState.INDX);
+    }
+    
+    private void processChildEvent(final ChildStatusEvent child, final ChildCounter children) {
+        StatusEventProcessingState result = StatusEventProcessingState.FAIL;
+        Throwable error = null;
+        try {
+            result = processEvent(child);
+        } catch (Throwable e) {
+            error = e;
+        } finally {
+            children.complete(result, error);
+        }
+    }
+    
+    /* Tracks the child events of an expanded event that are still being processed. Once a
+     * child event throws an exception no more child events are started, and the exception is
+     * rethrown in the thread that expanded the event.
+     */
+    private static class ChildCounter {
+        
+        private int running = 0;
+        private boolean failed = false;
+        private Throwable error = null;
+        
+        private synchronized void start() {
+            running++;
+        }
+        
+        private synchronized void fail() {
+            failed = true;
+        }
+        
+        private synchronized void complete(
+                final StatusEventProcessingState result,
+                final Throwable error) {
+            running--;
+            if (StatusEventProcessingState.FAIL.equals(result)) {
+                failed = true;
+            }
+            if (error != null && this.error == null) {
+                this.error = error;
+            }
+            notifyAll();
+        }
+        
+        private synchronized boolean isFailed() {
+            return failed;
+        }
+        
+        private synchronized boolean isAborted() {
+            return error != null;
+        }
+        
+        private synchronized void await() throws InterruptedException {
+            while (running > 0) {
+                wait();
+            }
+        }
+        
+        private synchronized void rethrow() throws InterruptedException, FatalIndexingException {
+            if (error instanceof InterruptedException) {
+                throw (InterruptedException) error;
+            } else if (error instanceof FatalIndexingException) {
+                throw (FatalIndexingException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else if (error != null) { // untestable
+                throw new RuntimeException(error);
             }
         }
-        markEventProcessed(parentEvent, parentResult);
     }
     
     private Iterator<ChildStatusEvent> getSubEventIterator(final StoredStatusEvent ev)
@@ -310,6 +1000,17 @@ public class IndexerWorker implements Stoppable {
      */
     public StatusEventProcessingState processEvent(final StatusEventWithId ev)
             throws InterruptedException, FatalIndexingException {
+        return processEvent(ev, null, false);
+    }
+    
+    /* updated is the event already updated with the latest state of the object, or null to
+     * update the event. If reindex is true, new versions are indexed even if already indexed.
+     */
+    private StatusEventProcessingState processEvent(
+            final StatusEventWithId ev,
+            final StatusEvent updated,
+            final boolean reindex)
+            throws InterruptedException, FatalIndexingException {
         final Optional<StorageObjectType> type = ev.getEvent().getStorageObjectType();
         if (type.isPresent() && !isStorageTypeSupported(type.get())) {
             logger.logInfo("[Indexer] skipping " + ev.getEvent().getEventType() + ", " + 
@@ -320,7 +1021,11 @@ public class IndexerWorker implements Stoppable {
                 toLogString(type) + ev.getEvent().toGUID() + "...");
         final long time = System.currentTimeMillis();
         try {
-            retrier.retryCons(e -> processEvent(e), ev.getEvent(), ev);
+            if (updated == null) {
+                retrier.retryCons(e -> processEvent(e), ev.getEvent(), ev);
+            } else {
+                retrier.retryCons(e -> processUpdatedEvent(e, reindex), updated, ev);
+            }
         } catch (IndexingException e) {
             handleException("Error processing event", ev, e);
             return StatusEventProcessingState.FAIL;
@@ -418,14 +1123,17 @@ public class IndexerWorker implements Stoppable {
 
         // update event to reflect the latest state of object for which the specified StatusEvent is an event for
         EventHandler handler = getEventHandler(ev.getStorageCode());
-        StatusEvent updatedEvent = handler.updateObjectEvent(ev);
-
+        processUpdatedEvent(handler.updateObjectEvent(ev), false);
+    }
+    
+    private void processUpdatedEvent(final StatusEvent updatedEvent, final boolean reindex)
+            throws IndexingException, InterruptedException, RetriableIndexingException {
         try {
             switch (updatedEvent.getEventType()) {
             case NEW_VERSION:
                 GUID pguid = updatedEvent.toGUID();
-                boolean indexed = indexingStorage.checkParentGuidsExist(new LinkedHashSet<>(
-                        Arrays.asList(pguid))).get(pguid);
+                boolean indexed = !reindex && indexingStorage.checkParentGuidsExist(
+                        new LinkedHashSet<>(Arrays.asList(pguid))).get(pguid);
                 if (indexed) {
                     logger.logInfo("[Indexer]   skipping " + pguid +
                             " creation (already indexed)");
@@ -467,9 +1175,16 @@ public class IndexerWorker implements Stoppable {
             case UNPUBLISH_ALL_VERSIONS:
                 unpublishAllVersions(updatedEvent.toGUID());
                 break;
+            case PUBLISH_ACCESS_GROUP:
+                setPublicOnAccessGroup(updatedEvent, true);
+                break;
+            case UNPUBLISH_ACCESS_GROUP:
+                setPublicOnAccessGroup(updatedEvent, false);
+                break;
             default:
                 throw new UnprocessableEventIndexingException(
-                        ErrorType.OTHER, "Unsupported event type: " + ev.getEventType());
+                        ErrorType.OTHER, "Unsupported event type: " +
+                                updatedEvent.getEventType());
             }
         } catch (IOException e) {
             // may want to make IndexingStorage throw more specific exceptions, but this will work
@@ -497,7 +1212,7 @@ public class IndexerWorker implements Stoppable {
             final StorageObjectType storageObjectType,
             final Instant timestamp,
             final boolean isPublic,
-            ObjectLookupProvider indexLookup,
+            final ObjectLookupProvider indexLookup,
             final List<GUID> objectRefPath) 
             throws IndexingException, InterruptedException, RetriableIndexingException {
         /* it'd be nice to be able to log the event ID with retry logging in sub methods,
@@ -506,10 +1221,9 @@ public class IndexerWorker implements Stoppable {
          * parsing code. Not sure if it's worth the trouble since the event ID *is* logged if
          * retrying doesn't fix the problem.
          * 
-         * Although, since this is single threaded, could make the event an instance variable,
-         * but that seems icky and we may want to make the workers multithreaded in the future.
-         * ThreadLocal?
-         * https://sites.google.com/site/unclebobconsultingllc/thread-local-a-convenient-abomination
+         * Since the worker may be multithreaded, the event can't be an instance variable.
+         * A ThreadLocal won't work either, since the parse and index stages may run on their
+         * own thread pools.
          * 
          */
         long t1 = System.currentTimeMillis();
@@ -520,9 +1234,11 @@ public class IndexerWorker implements Stoppable {
         } catch (IOException e) {
             throw new FatalRetriableIndexingException(ErrorType.OTHER, e.getMessage(), e);
         }
-        if (indexLookup == null) {
-            indexLookup = new MOPLookupProvider();
-        }
+        // recursive calls come from the parse stage of the referencing object and so must not
+        // wait on the stage thread pools
+        final boolean pipelined = indexLookup == null && pipeline.isEnabled();
+        final ObjectLookupProvider lookup = indexLookup == null ?
+                new MOPLookupProvider() : indexLookup;
         try {
             // make a copy to avoid mutating the caller's path
             final LinkedList<GUID> newRefPath = new LinkedList<>(objectRefPath);
@@ -530,31 +1246,139 @@ public class IndexerWorker implements Stoppable {
             final EventHandler handler = getEventHandler(guid);
             final SourceData obj = handler.load(newRefPath, tempFile.toPath());
             long loadTime = System.currentTimeMillis() - t1;
-            logger.logInfo("[Indexer]   " + guid + ", loading time: " + loadTime + " ms.");
+            logger.logInfo("[Indexer]   " + guid + ", loading time: " + loadTime + " ms." +
+                    (pipelined ? " Stage queue depths: " + pipeline.getQueueDepths() : ""));
             logger.timeStat(guid, loadTime, 0, 0);
             final List<ObjectTypeParsingRules> parsingRules = new ArrayList<>( 
                     typeStorage.listObjectTypeParsingRules(storageObjectType));
             Collections.sort(parsingRules, new ParsingRulesSubtypeFirstComparator());
-            for (final ObjectTypeParsingRules rule : parsingRules) {
-                final long t2 = System.currentTimeMillis();
-                final ParseObjectsRet parsedRet = parseObjects(guid, indexLookup,
-                        newRefPath, obj, rule);
-                long parsingTime = System.currentTimeMillis() - t2;
-                logger.logInfo(String.format("[Indexer]   Parsed %s %s in %s ms.",
-                        parsedRet.guidToObj.size(), toVerRep(rule.getGlobalObjectType()),
-                        parsingTime));
-                long t3 = System.currentTimeMillis();
-                indexObjectInStorage(guid, timestamp, isPublic, obj, rule,
-                        parsedRet.guidToObj, parsedRet.parentJson);
-                long indexTime = System.currentTimeMillis() - t3;
-                logger.logInfo("[Indexer]   " + toVerRep(rule.getGlobalObjectType()) +
-                        ", indexing time: " + indexTime + " ms.");
-                logger.timeStat(guid, 0, parsingTime, indexTime);
+            final Executor parseExec = pipelined ?
+                    pipeline.getExecutor(Stage.PARSE) : IndexingPipeline.getDirectExecutor();
+            final Executor indexExec = pipelined ?
+                    pipeline.getExecutor(Stage.INDEX) : IndexingPipeline.getDirectExecutor();
+            if (parsingRules.isEmpty()) {
+                return;
             }
+            final List<CompletableFuture<?>> stages = new LinkedList<>();
+            // the data for all the rules is extracted in a single pass over the object
+            final CompletableFuture<List<ExtractedSubObjects>> extracted = CompletableFuture
+                    .supplyAsync(() -> extractStage(guid, obj, parsingRules), parseExec);
+            stages.add(extracted);
+            CompletableFuture<ParseObjectsRet> parsed = CompletableFuture.completedFuture(null);
+            CompletableFuture<Void> indexed = CompletableFuture.completedFuture(null);
+            for (int r = 0; r < parsingRules.size(); r++) {
+                final ObjectTypeParsingRules rule = parsingRules.get(r);
+                final int ruleIndex = r;
+                // rules are parsed one at a time since the lookup provider isn't thread safe,
+                // and indexed in order so subtypes are always indexed before the parent
+                parsed = parsed.thenCombineAsync(extracted, (p, ex) -> parseStage(
+                        guid, lookup, newRefPath, ex.get(ruleIndex), rule), parseExec);
+                indexed = indexed.thenCombineAsync(parsed, (i, parsedRet) -> {
+                    indexStage(guid, timestamp, isPublic, obj, rule, parsedRet);
+                    return null;
+                }, indexExec);
+                stages.add(parsed);
+                stages.add(indexed);
+            }
+            awaitStages(stages);
         } finally {
             tempFile.delete();
         }
     }
+    
+    private List<ExtractedSubObjects> extractStage(
+            final GUID guid,
+            final SourceData obj,
+            final List<ObjectTypeParsingRules> parsingRules) {
+        final long t2 = System.currentTimeMillis();
+        final List<ExtractedSubObjects> extracted;
+        try {
+            extracted = extractSubObjects(guid, obj, parsingRules);
+        } catch (IndexingException | InterruptedException e) {
+            throw new CompletionException(e);
+        }
+        long extractTime = System.currentTimeMillis() - t2;
+        logger.logInfo(String.format("[Indexer]   Extracted subobjects for %s search types " +
+                "in %s ms.", parsingRules.size(), extractTime));
+        logger.timeStat(guid, 0, extractTime, 0);
+        return extracted;
+    }
+    
+    private ParseObjectsRet parseStage(
+            final GUID guid,
+            final ObjectLookupProvider indexLookup,
+            final LinkedList<GUID> newRefPath,
+            final ExtractedSubObjects extracted,
+            final ObjectTypeParsingRules rule) {
+        final long t2 = System.currentTimeMillis();
+        final ParseObjectsRet parsedRet;
+        try {
+            parsedRet = parseObjects(guid, indexLookup, newRefPath, extracted, rule);
+        } catch (IndexingException | InterruptedException e) {
+            throw new CompletionException(e);
+        }
+        long parsingTime = System.currentTimeMillis() - t2;
+        logger.logInfo(String.format("[Indexer]   Parsed %s %s in %s ms.",
+                parsedRet.guidToObj.size(), toVerRep(rule.getGlobalObjectType()),
+                parsingTime));
+        logger.timeStat(guid, 0, parsingTime, 0);
+        return parsedRet;
+    }
+    
+    private void indexStage(
+            final GUID guid,
+            final Instant timestamp,
+            final boolean isPublic,
+            final SourceData obj,
+            final ObjectTypeParsingRules rule,
+            final ParseObjectsRet parsedRet) {
+        long t3 = System.currentTimeMillis();
+        try {
+            indexObjectInStorage(guid, timestamp, isPublic, obj, rule,
+                    parsedRet.guidToObj, parsedRet.parentJson);
+        } catch (IndexingException | InterruptedException e) {
+            throw new CompletionException(e);
+        }
+        long indexTime = System.currentTimeMillis() - t3;
+        logger.logInfo("[Indexer]   " + toVerRep(rule.getGlobalObjectType()) +
+                ", indexing time: " + indexTime + " ms.");
+        logger.timeStat(guid, 0, 0, indexTime);
+    }
+    
+    /* Waits for all the stages to finish, so nothing is still reading the object data
+     * when the caller cleans up.
+     */
+    private void awaitStages(final List<CompletableFuture<?>> stages)
+            throws IndexingException, InterruptedException {
+        try {
+            CompletableFuture.allOf(stages.toArray(new CompletableFuture<?>[stages.size()]))
+                    .get();
+        } catch (ExecutionException e) {
+            // later stages fail when an earlier stage fails, so report the earliest failure
+            for (final CompletableFuture<?> stage: stages) {
+                if (stage.isCompletedExceptionally()) {
+                    throwStageException(stage.handle((r, t) -> t).join());
+                }
+            }
+        }
+    }
+    
+    private void throwStageException(Throwable t)
+            throws IndexingException, InterruptedException {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof IndexingException) {
+            throw (IndexingException) t;
+        } else if (t instanceof InterruptedException) {
+            throw (InterruptedException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t.getMessage(), t);
+    }
 
     private String toVerRep(final SearchObjectType globalObjectType) {
         return globalObjectType.getType() + "_" + globalObjectType.getVersion();
@@ -604,14 +1428,33 @@ public class IndexerWorker implements Stoppable {
         }
     }
     
+    private List<ExtractedSubObjects> extractSubObjects(
+            final GUID guid,
+            final SourceData obj,
+            final List<ObjectTypeParsingRules> parsingRules)
+            throws IndexingException, InterruptedException {
+        final List<?> inputs = Arrays.asList(guid, obj, parsingRules);
+        return retrier.retryFunc(i -> extractSubObjects(i), inputs, null);
+    }
+    
+    private List<ExtractedSubObjects> extractSubObjects(final List<?> inputs)
+            throws IndexingException, FatalRetriableIndexingException, InterruptedException {
+        final GUID guid = (GUID) inputs.get(0);
+        final SourceData obj = (SourceData) inputs.get(1);
+        @SuppressWarnings("unchecked")
+        final List<ObjectTypeParsingRules> parsingRules =
+                (List<ObjectTypeParsingRules>) inputs.get(2);
+        return mapParseExceptions(() -> ObjectParser.parseSubObjects(obj, guid, parsingRules));
+    }
+    
     private ParseObjectsRet parseObjects(
             final GUID guid,
             final ObjectLookupProvider indexLookup,
             final LinkedList<GUID> newRefPath,
-            final SourceData obj,
+            final ExtractedSubObjects extracted,
             final ObjectTypeParsingRules rule)
             throws IndexingException, InterruptedException {
-        final List<?> inputs = Arrays.asList(guid, indexLookup, newRefPath, obj, rule);
+        final List<?> inputs = Arrays.asList(guid, indexLookup, newRefPath, extracted, rule);
         return retrier.retryFunc(i -> parseObjects(i), inputs, null);
     }
     
@@ -622,27 +1465,52 @@ public class IndexerWorker implements Stoppable {
         final ObjectLookupProvider indexLookup = (ObjectLookupProvider) inputs.get(1);
         @SuppressWarnings("unchecked")
         final List<GUID> newRefPath = (List<GUID>) inputs.get(2);
-        final SourceData obj = (SourceData) inputs.get(3);
+        final ExtractedSubObjects extracted = (ExtractedSubObjects) inputs.get(3);
         final ObjectTypeParsingRules rule = (ObjectTypeParsingRules) inputs.get(4);
 
-        final Map<GUID, ParsedObject> guidToObj = new HashMap<>();
-        final String parentJson;
-        try {
-            try (JsonParser jts = obj.getData().getPlacedStream()) {
-                parentJson = ObjectParser.extractParentFragment(rule, jts);
+        final Set<GUID> subGuids = extracted.getSubObjectGUIDs();
+        if (subGuids.size() > maxObjectsPerLoad) {
+            throw new UnprocessableEventIndexingException(ErrorType.SUBOBJECT_COUNT,
+                    String.format("Object %s has %s subobjects, exceeding the limit of %s",
+                    guid, subGuids.size(), maxObjectsPerLoad));
+        }
+        return mapParseExceptions(() -> {
+            final String parentJson = extracted.getParentJson();
+            if (subGuids.isEmpty()) {
+                return new ParseObjectsRet(parentJson, new HashMap<>());
             }
-            final Map<GUID, String> guidToJson = ObjectParser.parseSubObjects(obj, guid, rule);
-            if (guidToJson.size() > maxObjectsPerLoad) {
-                throw new UnprocessableEventIndexingException(ErrorType.SUBOBJECT_COUNT,
-                        String.format("Object %s has %s subobjects, exceeding the limit of %s",
-                        guid, guidToJson.size(), maxObjectsPerLoad));
+            // the parent values are the same for every subobject, so only collect them once
+            final ParentValues parentValues;
+            try (JsonParser parentJts = extracted.getParentParser()) {
+                parentValues = KeywordParser.collectParentValues(
+                        parentJts, rule.getIndexingRules());
             }
-            for (final GUID subGuid : guidToJson.keySet()) {
-                final String json = guidToJson.get(subGuid);
-                guidToObj.put(subGuid, KeywordParser.extractKeywords(
-                        subGuid, rule.getGlobalObjectType(), json, parentJson,
-                        rule.getIndexingRules(), indexLookup, newRefPath));
+            final Map<GUID, ParsedObject> ret = new HashMap<>();
+            for (final GUID subGuid : subGuids) {
+                // the JSON is only needed to store in the indexing storage system, the
+                // keywords are read from the tokens buffered during extraction
+                try (JsonParser jts = extracted.getSubObjectParser(subGuid)) {
+                    ret.put(subGuid, KeywordParser.extractKeywords(
+                            subGuid, rule.getGlobalObjectType(),
+                            extracted.getSubObjectJson(subGuid), jts, parentValues,
+                            rule.getIndexingRules(), indexLookup, newRefPath));
+                }
             }
+            return new ParseObjectsRet(parentJson, ret);
+        });
+    }
+    
+    private interface ParseFunction<R> {
+        
+        R apply()
+                throws IOException, ObjectParseException, IndexingException,
+                    InterruptedException;
+    }
+    
+    private <R> R mapParseExceptions(final ParseFunction<R> function)
+            throws IndexingException, FatalRetriableIndexingException, InterruptedException {
+        try {
+            return function.apply();
             /* any errors here are due to file IO or parse exceptions.
              * Parse exceptions are def not retriable
              * File IO problems are generally going to mean something is very wrong
@@ -661,7 +1529,6 @@ public class IndexerWorker implements Stoppable {
         } catch (IOException e) {
             throw new FatalRetriableIndexingException(ErrorType.OTHER, e.getMessage(), e);
         }
-        return new ParseObjectsRet(parentJson, guidToObj);
     }
     
 //    private void share(GUID guid, int accessGroupId) throws IOException {
@@ -703,9 +1570,19 @@ public class IndexerWorker implements Stoppable {
         //TODO DP need to handle objects in datapalette
     }
     
+    private void setPublicOnAccessGroup(final StatusEvent ev, final boolean isPublic)
+            throws IOException, IndexingConflictException {
+        final int count = indexingStorage.setPublicOnAccessGroup(
+                ev.getStorageCode(), ev.getAccessGroupId().get(), isPublic);
+        logger.logInfo(String.format("[Indexer]   set public to %s on %s documents",
+                isPublic, count));
+        //TODO DP need to handle objects in datapalette
+    }
+    
     private void renameAllVersions(final GUID guid, final String newName)
             throws IOException, IndexingConflictException {
         indexingStorage.setNameOnAllObjectVersions(guid, newName);
+        lookupCache.invalidateObjectData(guid);
     }
 
     /** A lookup provider
@@ -716,6 +1593,8 @@ public class IndexerWorker implements Stoppable {
         private Map<String, Map<String, GUID>> refResolvingCache = new LinkedHashMap<>();
         private Map<GUID, ObjectData> objLookupCache = new LinkedHashMap<>();
         private Map<GUID, SearchObjectType> guidToTypeCache = new LinkedHashMap<>();
+        // resolved objects known to be indexed, shared across all the sub objects of the event
+        private Set<GUID> indexedCache = new HashSet<>();
         
         @Override
         public Set<GUID> resolveRefs(List<GUID> callerRefPath, Set<GUID> refs)
@@ -738,8 +1617,13 @@ public class IndexerWorker implements Stoppable {
             Set<GUID> refsToResolve = new LinkedHashSet<>();
             for (final GUID ref : refs) {
                 final String refpath = refToRefPath.get(ref);
-                if (refResolvingCache.get(storageCode).containsKey(refpath)) {
-                    ret.add(refResolvingCache.get(storageCode).get(refpath));
+                final GUID cached = refResolvingCache.get(storageCode).containsKey(refpath) ?
+                        refResolvingCache.get(storageCode).get(refpath) :
+                        lookupCache.getResolvedReference(storageCode, ref);
+                if (cached != null) {
+                    // a reference in the shared cache was indexed when it was resolved
+                    indexedCache.add(cached);
+                    ret.add(cached);
                 } else {
                     refsToResolve.add(ref);
                 }
@@ -747,31 +1631,28 @@ public class IndexerWorker implements Stoppable {
             if (refsToResolve.size() > 0) {
                 final Set<ResolvedReference> resrefs =
                         resolveReferences(eh, callerRefPath, refsToResolve);
+                // check all the resolved objects with one call rather than one call per object
+                final Set<GUID> toCheck = resrefs.stream().map(rr -> rr.getResolvedReference())
+                        .filter(g -> !indexedCache.contains(g)).collect(Collectors.toSet());
+                final Map<GUID, Boolean> indexed = toCheck.isEmpty() ? Collections.emptyMap() :
+                        retrier.retryFunc(g -> checkParentGuidsExist(g), toCheck, null);
                 for (final ResolvedReference rr: resrefs) {
                     final GUID guid = rr.getResolvedReference();
-                    final boolean indexed = retrier.retryFunc(
-                            g -> checkParentGuidExists(g), guid, null);
-                    if (!indexed) {
+                    // more than one reference may resolve to the same object
+                    if (!indexedCache.contains(guid) && !indexed.get(guid)) {
                         indexObjectWrapperFn(guid, rr.getType(), rr.getTimestamp(), false,
                                 this, callerRefPath);
                     }
+                    indexedCache.add(guid);
                     ret.add(guid);
-                    refResolvingCache.get(storageCode)
-                            .put(refToRefPath.get(rr.getReference()), guid);
+                    final String refpath = refToRefPath.get(rr.getReference());
+                    refResolvingCache.get(storageCode).put(refpath, guid);
+                    lookupCache.putResolvedReference(storageCode, rr.getReference(), guid);
                 }
             }
             return ret;
         }
         
-        private boolean checkParentGuidExists(final GUID guid) throws RetriableIndexingException {
-            try {
-                return indexingStorage.checkParentGuidsExist(new HashSet<>(Arrays.asList(guid)))
-                        .get(guid);
-            } catch (IOException e) {
-                throw new RetriableIndexingException(ErrorType.OTHER, e.getMessage(), e);
-            }
-        }
-        
         private Set<ResolvedReference> resolveReferences(
                 final EventHandler eh,
                 final List<GUID> callerRefPath,
@@ -830,6 +1711,12 @@ public class IndexerWorker implements Stoppable {
                     guidsToLoad.add(guid);
                 }
             }
+            if (guidsToLoad.size() > 0) {
+                final Map<GUID, ObjectData> cached = lookupCache.getObjectData(guidsToLoad);
+                objLookupCache.putAll(cached);
+                ret.putAll(cached);
+                guidsToLoad.removeAll(cached.keySet());
+            }
             if (guidsToLoad.size() > 0) {
                 final List<ObjectData> objList =
                         retrier.retryFunc(g -> getObjectsByIds(g), guidsToLoad, null);
@@ -840,6 +1727,7 @@ public class IndexerWorker implements Stoppable {
                     loaded.put(od.getGUID(), od);
                 }
                 objLookupCache.putAll(loaded);
+                lookupCache.putObjectData(loaded);
                 ret.putAll(loaded);
             }
             return ret;
@@ -876,6 +1764,12 @@ public class IndexerWorker implements Stoppable {
                     guidsToLoad.add(guid);
                 }
             }
+            if (guidsToLoad.size() > 0) {
+                final Map<GUID, SearchObjectType> cached = lookupCache.getTypes(guidsToLoad);
+                guidToTypeCache.putAll(cached);
+                ret.putAll(cached);
+                guidsToLoad.removeAll(cached.keySet());
+            }
             if (guidsToLoad.size() > 0) {
                 final List<ObjectData> data =
                         retrier.retryFunc(g -> getObjectsByIds(g), guidsToLoad, null);
@@ -886,6 +1780,7 @@ public class IndexerWorker implements Stoppable {
                     loaded.put(od.getGUID(), od.getType());
                 }
                 guidToTypeCache.putAll(loaded);
+                lookupCache.putTypes(loaded);
                 ret.putAll(loaded);
             }
             return ret;
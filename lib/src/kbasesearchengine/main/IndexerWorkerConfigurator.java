@@ -30,6 +30,16 @@ public class IndexerWorkerConfigurator {
     private final LineLogger logger;
     private final Map<String, EventHandler> eventHandlers;
     private final int maxObjectsPerLoad;
+    private final int workerThreads;
+    private final int childThreads;
+    private final int parseThreads;
+    private final int indexThreads;
+    private final int stageQueueSize;
+    private final int batchSize;
+    private final int interactiveWeight;
+    private final int lookupCacheSize;
+    private final int minIntervalMS;
+    private final int maxIntervalMS;
     private final int retryCount;
     private final int retrySleepMS;
     private final List<Integer> retryFatalBackoffMS;
@@ -44,6 +54,16 @@ public class IndexerWorkerConfigurator {
             final LineLogger logger,
             final Map<String, EventHandler> eventHandlers,
             final int maxObjectsPerLoad,
+            final int workerThreads,
+            final int childThreads,
+            final int parseThreads,
+            final int indexThreads,
+            final int stageQueueSize,
+            final int batchSize,
+            final int interactiveWeight,
+            final int lookupCacheSize,
+            final int minIntervalMS,
+            final int maxIntervalMS,
             final int retryCount,
             final int retrySleepMS,
             final List<Integer> retryFatalBackoffMS) {
@@ -56,6 +76,16 @@ public class IndexerWorkerConfigurator {
         this.logger = logger;
         this.eventHandlers = Collections.unmodifiableMap(eventHandlers);
         this.maxObjectsPerLoad = maxObjectsPerLoad;
+        this.workerThreads = workerThreads;
+        this.childThreads = childThreads;
+        this.parseThreads = parseThreads;
+        this.indexThreads = indexThreads;
+        this.stageQueueSize = stageQueueSize;
+        this.batchSize = batchSize;
+        this.interactiveWeight = interactiveWeight;
+        this.lookupCacheSize = lookupCacheSize;
+        this.minIntervalMS = minIntervalMS;
+        this.maxIntervalMS = maxIntervalMS;
         this.retryCount = retryCount;
         this.retrySleepMS = retrySleepMS;
         this.retryFatalBackoffMS = Collections.unmodifiableList(retryFatalBackoffMS);
@@ -130,6 +160,88 @@ public class IndexerWorkerConfigurator {
         return maxObjectsPerLoad;
     }
     
+    /** Get the number of threads the worker should use to process events. Each thread claims
+     * and processes events independently.
+     * @return the number of worker threads.
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+    
+    /** Get the number of threads the worker should use to process the child events of an
+     * expanded event. 0 means the child events are processed in the worker thread that expanded
+     * the event.
+     * @return the number of child threads.
+     */
+    public int getChildThreads() {
+        return childThreads;
+    }
+    
+    /** Get the number of threads the worker should use to parse objects. 0 means objects are
+     * parsed in the worker thread that loaded them.
+     * @return the number of parse threads.
+     */
+    public int getParseThreads() {
+        return parseThreads;
+    }
+    
+    /** Get the number of threads the worker should use to send parsed objects to the indexing
+     * storage system. 0 means objects are sent from the thread that parsed them.
+     * @return the number of index threads.
+     */
+    public int getIndexThreads() {
+        return indexThreads;
+    }
+    
+    /** Get the maximum number of tasks that may wait for the child, parse, or index threads.
+     * When a queue is full, the thread submitting the task runs it itself.
+     * @return the maximum queue size for each stage.
+     */
+    public int getStageQueueSize() {
+        return stageQueueSize;
+    }
+    
+    /** Get the maximum number of events the worker should claim at once. New version events
+     * in the same batch are loaded concurrently and sent to the indexing storage system
+     * together.
+     * @return the maximum batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    /** Get the number of interactive events the worker should claim for each backfill event
+     * when both kinds of events are waiting to be processed.
+     * @return the interactive weight.
+     */
+    public int getInteractiveWeight() {
+        return interactiveWeight;
+    }
+    
+    /** Get the maximum number of resolved references, object types, and looked up object
+     * data entries the worker should cache between events.
+     * @return the maximum size of each lookup cache.
+     */
+    public int getLookupCacheSize() {
+        return lookupCacheSize;
+    }
+    
+    /** Get the time the worker should wait before checking for events again after finding
+     * events to process. Each time the worker finds no events the wait doubles, up to the
+     * maximum interval.
+     * @return the minimum interval in milliseconds.
+     */
+    public int getMinIntervalMS() {
+        return minIntervalMS;
+    }
+    
+    /** Get the maximum time the worker should wait before checking for events again.
+     * @return the maximum interval in milliseconds.
+     */
+    public int getMaxIntervalMS() {
+        return maxIntervalMS;
+    }
+    
     /** Get the number of times the worker should retry non-fatal functions before giving up and
      * marking an event as failed.
      * @return the number of times the worker should retry non-fatal functions.
@@ -185,6 +297,16 @@ public class IndexerWorkerConfigurator {
         private final Map<String, EventHandler> eventHandlers = new HashMap<>();
         private final Set<String> workerCodes = new HashSet<>();
         private int maxObjectsPerLoad = 200_000;
+        private int workerThreads = 1;
+        private int childThreads = 0;
+        private int parseThreads = 0;
+        private int indexThreads = 0;
+        private int stageQueueSize = 10;
+        private int batchSize = 1;
+        private int interactiveWeight = 4;
+        private int lookupCacheSize = 100_000;
+        private int minIntervalMS = 100;
+        private int maxIntervalMS = 1000;
         private int retryCount = 5;
         private int retrySleepMS = 1000;
         private List<Integer> retryFatalBackOffMS = Arrays.asList(1000, 2000, 4000, 8000, 16000);
@@ -260,6 +382,132 @@ public class IndexerWorkerConfigurator {
             return this;
         }
         
+        /** Add the number of threads the worker should use to process events to the configurator.
+         * Each thread claims and processes events independently. Events for the same access
+         * group object are never processed concurrently within the worker.
+         * The default is 1 thread.
+         * @param workerThreads the number of worker threads.
+         * @return this builder.
+         */
+        public Builder withWorkerThreads(final int workerThreads) {
+            if (workerThreads < 1) {
+                throw new IllegalArgumentException("workerThreads must be at least 1");
+            }
+            this.workerThreads = workerThreads;
+            return this;
+        }
+        
+        /** Add the number of threads the worker should use to process the child events of an
+         * expanded event, such as the objects in a copied workspace, to the configurator. The
+         * worker thread that expanded the event submits the child events to the child threads
+         * and waits for them all to complete before marking the event as processed. 0 threads
+         * means the child events are processed one at a time in the worker thread.
+         * The default is 0 threads.
+         * @param childThreads the number of child threads.
+         * @return this builder.
+         */
+        public Builder withChildThreads(final int childThreads) {
+            if (childThreads < 0) {
+                throw new IllegalArgumentException("childThreads must be at least 0");
+            }
+            this.childThreads = childThreads;
+            return this;
+        }
+        
+        /** Add the number of threads the worker should use for the parse and index stages of
+         * indexing an object to the configurator. Using separate threads allows parsing,
+         * indexing, and loading data for other events to overlap. 0 threads for a stage means
+         * the stage runs in the thread that ran the prior stage.
+         * The default is 0 threads for both stages.
+         * @param parseThreads the number of parse threads.
+         * @param indexThreads the number of index threads.
+         * @return this builder.
+         */
+        public Builder withStageThreads(final int parseThreads, final int indexThreads) {
+            if (parseThreads < 0 || indexThreads < 0) {
+                throw new IllegalArgumentException("Stage thread counts must be at least 0");
+            }
+            this.parseThreads = parseThreads;
+            this.indexThreads = indexThreads;
+            return this;
+        }
+        
+        /** Add the maximum number of tasks that may wait for the child, parse, or index threads
+         * to the configurator. When a queue is full, the thread submitting the task runs it
+         * itself, which slows down the previous stage.
+         * The default is 10 tasks.
+         * @param stageQueueSize the maximum queue size for each stage.
+         * @return this builder.
+         */
+        public Builder withStageQueueSize(final int stageQueueSize) {
+            if (stageQueueSize < 1) {
+                throw new IllegalArgumentException("stageQueueSize must be at least 1");
+            }
+            this.stageQueueSize = stageQueueSize;
+            return this;
+        }
+        
+        /** Add the maximum number of events the worker should claim at once to the
+         * configurator. New version events in the same batch are loaded concurrently and sent to
+         * the indexing storage system together.
+         * The default is 1 event, which disables batching.
+         * @param batchSize the maximum batch size.
+         * @return this builder.
+         */
+        public Builder withBatchSize(final int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be at least 1");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+        
+        /** Add the number of interactive events the worker should claim for each backfill event
+         * to the configurator. The weight only applies when both kinds of events are waiting to
+         * be processed; otherwise the worker claims whatever events are available.
+         * The default is 4 interactive events.
+         * @param interactiveWeight the interactive weight.
+         * @return this builder.
+         */
+        public Builder withInteractiveWeight(final int interactiveWeight) {
+            if (interactiveWeight < 1) {
+                throw new IllegalArgumentException("interactiveWeight must be at least 1");
+            }
+            this.interactiveWeight = interactiveWeight;
+            return this;
+        }
+        
+        /** Add the maximum number of resolved references, object types, and looked up object
+         * data entries the worker should cache between events to the configurator. Only
+         * lookups of versioned objects are cached.
+         * The default is 100000 entries of each kind.
+         * @param lookupCacheSize the maximum size of each lookup cache.
+         * @return this builder.
+         */
+        public Builder withLookupCacheSize(final int lookupCacheSize) {
+            if (lookupCacheSize < 1) {
+                throw new IllegalArgumentException("lookupCacheSize must be at least 1");
+            }
+            this.lookupCacheSize = lookupCacheSize;
+            return this;
+        }
+        
+        /** Add the minimum and maximum times the worker should wait before checking for events
+         * again to the configurator. The worker waits for the minimum interval after finding
+         * events to process, and the wait doubles each time the worker finds no events, up to
+         * the maximum interval.
+         * The defaults are 100 and 1000 milliseconds.
+         * @param minIntervalMS the minimum interval in milliseconds.
+         * @param maxIntervalMS the maximum interval in milliseconds.
+         * @return this builder.
+         */
+        public Builder withCycleInterval(final int minIntervalMS, final int maxIntervalMS) {
+            CycleInterval.checkIntervals(minIntervalMS, maxIntervalMS);
+            this.minIntervalMS = minIntervalMS;
+            this.maxIntervalMS = maxIntervalMS;
+            return this;
+        }
+        
         /** Add the number of times the worker should retry non-fatal functions before giving up
          * and marking an event as failed to the configurator.
          * The default is 5 retries.
@@ -322,6 +570,8 @@ public class IndexerWorkerConfigurator {
             }
             return new IndexerWorkerConfigurator(id, rootTempDir, eventStorage, typeStorage,
                     indexingStorage, workerCodes, logger, eventHandlers, maxObjectsPerLoad,
+                    workerThreads, childThreads, parseThreads, indexThreads, stageQueueSize,
+                    batchSize, interactiveWeight, lookupCacheSize, minIntervalMS, maxIntervalMS,
                     retryCount, retrySleepMS, retryFatalBackOffMS);
         }
     }
@@ -0,0 +1,130 @@
+package kbasesearchengine.main;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/** The thread pools backing the stages of indexing an object in an {@link IndexerWorker}.
+ *
+ * The child stage processes the child events of an expanded event, such as the objects in a
+ * copied workspace, concurrently. The worker thread that claimed the expanded event waits for
+ * all the child events to complete.
+ *
+ * The load stage always runs in the thread that is processing the event. The parse and index
+ * stages each run on their own fixed size thread pool with a bounded task queue, so that
+ * parsing one set of subobjects overlaps with sending the previous set to the indexing
+ * storage system, and loading data for other events.
+ *
+ * When a stage's queue is full, the thread submitting the task runs it instead. This
+ * throttles the upstream stage rather than buffering without limit.
+ *
+ * A stage with zero threads runs all tasks in the submitting thread.
+ */
+public class IndexingPipeline {
+
+    /** The stages of the pipeline that may run on a thread pool. */
+    public enum Stage {
+        /** Processing the child events of an expanded event. */
+        CHILD,
+        /** Parsing an object and extracting keywords. */
+        PARSE,
+        /** Sending parsed objects to the indexing storage system. */
+        INDEX;
+    }
+
+    private static final Executor DIRECT = r -> r.run();
+
+    private final Map<Stage, ThreadPoolExecutor> executors = new EnumMap<>(Stage.class);
+
+    /** Create the pipeline.
+     * @param workerID the ID of the worker that owns the pipeline, used to name threads.
+     * @param childThreads the number of threads for the child stage. 0 disables the pool.
+     * @param parseThreads the number of threads for the parse stage. 0 disables the pool.
+     * @param indexThreads the number of threads for the index stage. 0 disables the pool.
+     * @param queueSize the maximum number of tasks waiting for each stage's pool.
+     */
+    public IndexingPipeline(
+            final String workerID,
+            final int childThreads,
+            final int parseThreads,
+            final int indexThreads,
+            final int queueSize) {
+        if (childThreads < 0 || parseThreads < 0 || indexThreads < 0) {
+            throw new IllegalArgumentException("Stage thread counts must be at least 0");
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize must be at least 1");
+        }
+        addStage(workerID, Stage.CHILD, childThreads, queueSize);
+        addStage(workerID, Stage.PARSE, parseThreads, queueSize);
+        addStage(workerID, Stage.INDEX, indexThreads, queueSize);
+    }
+
+    private void addStage(
+            final String workerID,
+            final Stage stage,
+            final int threads,
+            final int queueSize) {
+        if (threads < 1) {
+            return;
+        }
+        executors.put(stage, new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(workerID + "-" + stage.name().toLowerCase() + "-%d")
+                        .setDaemon(true)
+                        .build(),
+                // unlike CallerRunsPolicy, also runs the task after shutdown so that
+                // nothing waiting on it hangs
+                (r, e) -> r.run()));
+    }
+
+    /** Returns true if the parse or index stage runs on its own thread pool.
+     * @return true if the pipeline is enabled.
+     */
+    public boolean isEnabled() {
+        return executors.containsKey(Stage.PARSE) || executors.containsKey(Stage.INDEX);
+    }
+
+    /** Get the executor for a stage. If the stage has no threads, the executor runs tasks
+     * in the calling thread.
+     * @param stage the stage.
+     * @return the stage's executor.
+     */
+    public Executor getExecutor(final Stage stage) {
+        return executors.containsKey(stage) ? executors.get(stage) : DIRECT;
+    }
+
+    /** Get an executor that runs tasks in the calling thread.
+     * @return the executor.
+     */
+    public static Executor getDirectExecutor() {
+        return DIRECT;
+    }
+
+    /** Get the number of tasks waiting to run for each stage. Stages without a thread pool
+     * always have a depth of 0.
+     * @return the queue depth for each stage.
+     */
+    public Map<Stage, Integer> getQueueDepths() {
+        final Map<Stage, Integer> ret = new EnumMap<>(Stage.class);
+        for (final Stage s: Stage.values()) {
+            ret.put(s, executors.containsKey(s) ? executors.get(s).getQueue().size() : 0);
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    /** Stop accepting tasks for the stage thread pools. Tasks already queued will complete.
+     */
+    public void shutdown() {
+        for (final ThreadPoolExecutor e: executors.values()) {
+            e.shutdown();
+        }
+    }
+}
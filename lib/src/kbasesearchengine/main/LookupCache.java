@@ -0,0 +1,208 @@
+package kbasesearchengine.main;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.tools.Utils;
+
+/** A cache for the results of the lookups an indexer worker makes while indexing objects that
+ * reference other objects - resolved references, the search types of objects, and the
+ * looked up data for objects. The cache is shared between all the events processed by a
+ * worker.
+ *
+ * Only results for versioned objects are cached, since a specific version of an object never
+ * changes. The exception is the object name, which may change when an object is renamed. The
+ * worker that processes the rename invalidates the object's data, but other workers
+ * do not see the rename, so looked up data also expires after
+ * {@link #OBJECT_DATA_EXPIRY}. Entries are evicted when a cache exceeds its maximum size.
+ *
+ * This class is thread safe.
+ *
+ */
+public class LookupCache {
+
+    /** The kinds of lookups stored in the cache. */
+    public static enum Kind {
+        /** Resolved references. */
+        REFERENCE,
+        /** Search object types of objects. */
+        TYPE,
+        /** Looked up data for objects. */
+        OBJECT_DATA;
+    }
+
+    /** The time after which looked up object data is removed from the cache. */
+    public static final Duration OBJECT_DATA_EXPIRY = Duration.ofMinutes(10);
+
+    private final int maximumSize;
+    // storage code and versioned reference -> resolved guid
+    private final Cache<List<String>, GUID> refs;
+    private final Cache<GUID, SearchObjectType> types;
+    private final Cache<GUID, ObjectData> objectData;
+
+    /** Create the cache.
+     * @param maximumSize the maximum number of entries to store for each kind of lookup.
+     */
+    public LookupCache(final int maximumSize) {
+        this(maximumSize, Ticker.systemTicker());
+    }
+
+    /** A test constructor that allows setting the ticker used to expire object data. Do not
+     * use this constructor for anything except tests.
+     * @param maximumSize the maximum number of entries to store for each kind of lookup.
+     * @param ticker the ticker. Usually a mock.
+     */
+    public LookupCache(final int maximumSize, final Ticker ticker) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1");
+        }
+        Utils.nonNull(ticker, "ticker");
+        this.maximumSize = maximumSize;
+        refs = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+        types = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+        objectData = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats()
+                .ticker(ticker)
+                .expireAfterWrite(OBJECT_DATA_EXPIRY.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /** Get the maximum number of entries stored for each kind of lookup.
+     * @return the maximum size.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /** Get a resolved reference. Since a versioned reference always resolves to the same
+     * object, the cached reference is shared between all the objects that reference the
+     * target, regardless of the reference path from the referencing object.
+     * @param storageCode the storage code of the storage system containing the reference.
+     * @param reference the reference as it appears in the referencing object.
+     * @return the resolved reference, or null if the reference is unversioned or not in the
+     * cache.
+     */
+    public GUID getResolvedReference(final String storageCode, final GUID reference) {
+        Utils.nonNull(reference, "reference");
+        if (reference.getVersion() == null) {
+            return null;
+        }
+        return refs.getIfPresent(Arrays.asList(storageCode, reference.toString()));
+    }
+
+    /** Store a resolved reference. The reference is only stored if it is versioned, since
+     * a reference without a version may resolve to a different object later.
+     * @param storageCode the storage code of the storage system containing the reference.
+     * @param reference the reference as it appears in the referencing object.
+     * @param resolved the resolved reference.
+     */
+    public void putResolvedReference(
+            final String storageCode,
+            final GUID reference,
+            final GUID resolved) {
+        Utils.notNullOrEmpty(storageCode, "storageCode cannot be null or empty");
+        Utils.nonNull(reference, "reference");
+        Utils.nonNull(resolved, "resolved");
+        if (reference.getVersion() != null) {
+            refs.put(Arrays.asList(storageCode, reference.toString()), resolved);
+        }
+    }
+
+    /** Get the search object types of a set of objects.
+     * @param guids the objects.
+     * @return the types of the objects in the cache. Objects not in the cache are omitted.
+     */
+    public Map<GUID, SearchObjectType> getTypes(final Set<GUID> guids) {
+        Utils.nonNull(guids, "guids");
+        return types.getAllPresent(guids);
+    }
+
+    /** Store the search object types of a set of objects. Unversioned objects are ignored.
+     * @param guidToType the objects mapped to their types.
+     */
+    public void putTypes(final Map<GUID, SearchObjectType> guidToType) {
+        Utils.nonNull(guidToType, "guidToType");
+        putVersioned(types, guidToType);
+    }
+
+    /** Get the looked up data for a set of objects.
+     * @param guids the objects.
+     * @return the data for the objects in the cache. Objects not in the cache are omitted.
+     */
+    public Map<GUID, ObjectData> getObjectData(final Set<GUID> guids) {
+        Utils.nonNull(guids, "guids");
+        return objectData.getAllPresent(guids);
+    }
+
+    /** Store the looked up data for a set of objects. Unversioned objects are ignored.
+     * Only the parts of the data used for lookups are stored - the type, object name, key
+     * properties, and data. The source tags and any other parts of the data that may change
+     * or depend on the access group are discarded.
+     * @param guidToData the objects mapped to their data.
+     */
+    public void putObjectData(final Map<GUID, ObjectData> guidToData) {
+        Utils.nonNull(guidToData, "guidToData");
+        final Map<GUID, ObjectData> lookupData = new HashMap<>();
+        for (final GUID guid: guidToData.keySet()) {
+            lookupData.put(guid, toLookupData(guidToData.get(guid)));
+        }
+        putVersioned(objectData, lookupData);
+    }
+    
+    private ObjectData toLookupData(final ObjectData data) {
+        final ObjectData.Builder b = ObjectData.getBuilder(data.getGUID(), data.getType())
+                .withNullableObjectName(data.getObjectName().orNull())
+                .withNullableData(data.getData().orNull());
+        for (final Entry<String, String> e: data.getKeyProperties().entrySet()) {
+            b.withKeyProperty(e.getKey(), e.getValue());
+        }
+        return b.build();
+    }
+    
+    /** Remove the looked up data for all the versions and subobjects of an object, for
+     * example when the object is renamed.
+     * @param guid the object. Any version or subobject information is ignored.
+     */
+    public void invalidateObjectData(final GUID guid) {
+        Utils.nonNull(guid, "guid");
+        objectData.asMap().keySet().removeIf(g ->
+                Objects.equals(g.getStorageCode(), guid.getStorageCode()) &&
+                Objects.equals(g.getAccessGroupId(), guid.getAccessGroupId()) &&
+                Objects.equals(g.getAccessGroupObjectId(), guid.getAccessGroupObjectId()));
+    }
+
+    private <T> void putVersioned(final Cache<GUID, T> cache, final Map<GUID, T> values) {
+        for (final GUID guid: values.keySet()) {
+            if (guid.getVersion() != null) {
+                cache.put(guid, values.get(guid));
+            }
+        }
+    }
+
+    /** Get the hit and miss statistics for each kind of lookup.
+     * @return the statistics.
+     */
+    public Map<Kind, CacheStats> getStats() {
+        final Map<Kind, CacheStats> ret = new EnumMap<>(Kind.class);
+        ret.put(Kind.REFERENCE, refs.stats());
+        ret.put(Kind.TYPE, types.stats());
+        ret.put(Kind.OBJECT_DATA, objectData.stats());
+        return Collections.unmodifiableMap(ret);
+    }
+}
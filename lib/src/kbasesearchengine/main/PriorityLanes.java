@@ -0,0 +1,55 @@
+package kbasesearchengine.main;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kbasesearchengine.events.StatusEventPriority;
+
+/** Determines the order in which an indexer worker tries to claim events from the priority
+ * lanes.
+ *
+ * The lanes are weighted round robin: for each backfill claim, the interactive lane gets the
+ * first attempt for the configured number of claims. Both lanes are always returned, so when
+ * the preferred lane is empty the worker falls through to the other lane and neither lane
+ * leaves the worker idle.
+ *
+ * This class is thread safe.
+ *
+ */
+public class PriorityLanes {
+
+    private static final List<StatusEventPriority> INTERACTIVE_FIRST = Arrays.asList(
+            StatusEventPriority.INTERACTIVE, StatusEventPriority.BACKFILL);
+    private static final List<StatusEventPriority> BACKFILL_FIRST = Arrays.asList(
+            StatusEventPriority.BACKFILL, StatusEventPriority.INTERACTIVE);
+
+    private final int interactiveWeight;
+    private final AtomicInteger claims = new AtomicInteger();
+
+    /** Create the lanes.
+     * @param interactiveWeight the number of claims for which the interactive lane is tried
+     * first for each claim for which the backfill lane is tried first.
+     */
+    public PriorityLanes(final int interactiveWeight) {
+        if (interactiveWeight < 1) {
+            throw new IllegalArgumentException("interactiveWeight must be at least 1");
+        }
+        this.interactiveWeight = interactiveWeight;
+    }
+
+    /** Get the interactive weight.
+     * @return the interactive weight.
+     */
+    public int getInteractiveWeight() {
+        return interactiveWeight;
+    }
+
+    /** Get the order in which to try the lanes for the next claim.
+     * @return the lanes in the order they should be tried.
+     */
+    public List<StatusEventPriority> next() {
+        final int claim = Math.floorMod(claims.getAndIncrement(), interactiveWeight + 1);
+        return claim == interactiveWeight ? BACKFILL_FIRST : INTERACTIVE_FIRST;
+    }
+}
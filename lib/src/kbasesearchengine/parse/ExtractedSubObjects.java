@@ -0,0 +1,111 @@
+package kbasesearchengine.parse;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.tools.Utils;
+import us.kbase.common.service.UObject;
+
+/** The data extracted from a source object for one set of parsing rules.
+ *
+ * The data is held as buffered JSON tokens, which may be read repeatedly via
+ * {@link #getSubObjectParser(GUID)} and {@link #getParentParser()} without parsing JSON text.
+ * JSON text is only produced when requested.
+ *
+ */
+public class ExtractedSubObjects {
+
+    private final TokenBuffer parentJson;
+    private final Map<GUID, TokenBuffer> subObjects;
+
+    /** Create the extracted data.
+     * @param parentJson the JSON tokens extracted from the parent object, or null if the
+     * parsing rules do not require a parent fragment.
+     * @param subObjects a mapping from the GUID of each subobject to the JSON tokens extracted
+     * for the subobject.
+     */
+    public ExtractedSubObjects(
+            final TokenBuffer parentJson,
+            final Map<GUID, TokenBuffer> subObjects) {
+        Utils.nonNull(subObjects, "subObjects");
+        this.parentJson = parentJson;
+        this.subObjects = Collections.unmodifiableMap(new LinkedHashMap<>(subObjects));
+    }
+
+    /** Get the JSON fragment extracted from the parent object.
+     * @return the fragment, or null if the parsing rules do not require one.
+     * @throws IOException if an error occurs writing the JSON.
+     */
+    public String getParentJson() throws IOException {
+        return parentJson == null ? null : toJson(parentJson);
+    }
+
+    /** Get a parser over the tokens extracted from the parent object.
+     * @return a new parser, or null if the parsing rules do not require a parent fragment.
+     */
+    public JsonParser getParentParser() {
+        return parentJson == null ? null : parentJson.asParser();
+    }
+
+    /** Get the GUIDs of the extracted subobjects.
+     * @return the GUIDs.
+     */
+    public Set<GUID> getSubObjectGUIDs() {
+        return subObjects.keySet();
+    }
+
+    /** Get the JSON extracted for a subobject.
+     * @param guid the GUID of the subobject.
+     * @return the JSON.
+     * @throws IOException if an error occurs writing the JSON.
+     */
+    public String getSubObjectJson(final GUID guid) throws IOException {
+        return toJson(getBuffer(guid));
+    }
+
+    /** Get a parser over the tokens extracted for a subobject.
+     * @param guid the GUID of the subobject.
+     * @return a new parser.
+     */
+    public JsonParser getSubObjectParser(final GUID guid) {
+        return getBuffer(guid).asParser();
+    }
+
+    /** Get the JSON extracted for each subobject.
+     * @return a mapping from subobject GUID to JSON.
+     * @throws IOException if an error occurs writing the JSON.
+     */
+    public Map<GUID, String> getSubObjects() throws IOException {
+        final Map<GUID, String> ret = new LinkedHashMap<>();
+        for (final GUID guid: subObjects.keySet()) {
+            ret.put(guid, toJson(subObjects.get(guid)));
+        }
+        return ret;
+    }
+
+    private TokenBuffer getBuffer(final GUID guid) {
+        Utils.nonNull(guid, "guid");
+        if (!subObjects.containsKey(guid)) {
+            throw new IllegalArgumentException("No such subobject: " + guid);
+        }
+        return subObjects.get(guid);
+    }
+
+    private static String toJson(final TokenBuffer buffer) throws IOException {
+        final StringWriter outChars = new StringWriter();
+        try (JsonGenerator jgen = UObject.getMapper().getFactory()
+                .createGenerator(outChars)) {
+            buffer.serialize(jgen);
+        }
+        return outChars.toString();
+    }
+}
@@ -48,6 +48,59 @@ public class KeywordParser {
 
         Utils.nonNull(indexingRules, "indexingRules is a required parameter");
 
+        final ParentValues parentValues;
+        if (parentJson == null) {
+            parentValues = collectParentValues(null, indexingRules);
+        } else {
+            try (JsonParser jp = UObject.getMapper().getFactory().createParser(parentJson)) {
+                parentValues = collectParentValues(jp, indexingRules);
+            }
+        }
+        try (JsonParser jp = UObject.getMapper().getFactory().createParser(json)) {
+            return extractKeywords(subObjectGUID, searchObjectType, json, jp, parentValues,
+                    indexingRules, lookup, objectRefPath);
+        }
+    }
+    
+    /** Extract keywords from a subobject, reading the subobject's data from a token stream.
+     * Use this method instead of
+     * {@link #extractKeywords(GUID, SearchObjectType, String, String, List,
+     * ObjectLookupProvider, List)} when the subobject's tokens are already available, for
+     * example from a {@link com.fasterxml.jackson.databind.util.TokenBuffer}, to avoid parsing
+     * the subobject JSON again, and when a parent object has many subobjects, so that the
+     * values from the parent fragment are collected only once.
+     * @param subObjectGUID the GUID of the subobject.
+     * @param searchObjectType the search type of the subobject.
+     * @param json the subobject JSON, which is included in the returned object as is.
+     * @param jsonTokens a token stream over the same data as json.
+     * @param parentValues the values collected from the parent object fragment by
+     * {@link #collectParentValues(JsonParser, List)}.
+     * @param indexingRules the indexing rules for the subobject.
+     * @param lookup a lookup provider for transforms.
+     * @param objectRefPath the reference path to the parent object.
+     * @return the parsed object.
+     * @throws IOException if an IO error occurs.
+     * @throws ObjectParseException if the data could not be parsed.
+     * @throws IndexingException if an error occurs in the lookup provider.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public static ParsedObject extractKeywords(
+            final GUID subObjectGUID,
+            final SearchObjectType searchObjectType,
+            final String json,
+            final JsonParser jsonTokens,
+            final ParentValues parentValues,
+            final List<IndexingRules> indexingRules,
+            final ObjectLookupProvider lookup,
+            final List<GUID> objectRefPath)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+
+        // check pre-conditons
+        Utils.notNullOrEmpty(json, "json is a required parameter");
+        Utils.nonNull(jsonTokens, "jsonTokens is a required parameter");
+        Utils.nonNull(parentValues, "parentValues is a required parameter");
+        Utils.nonNull(indexingRules, "indexingRules is a required parameter");
+
         Map<String, InnerKeyValue> keywords = new LinkedHashMap<>();
         ValueConsumer<List<IndexingRules>> consumer = new ValueConsumer<List<IndexingRules>>() {
             @Override
@@ -60,10 +113,10 @@ public class KeywordParser {
             }
         };
         // Sub-objects
-        extractIndexingPart(json, false, indexingRules, consumer);
+        extractIndexingPart(jsonTokens, false, indexingRules, consumer);
         // Parent
-        if (parentJson != null) {
-            extractIndexingPart(parentJson, true, indexingRules, consumer);
+        for (final CollectedValue value: parentValues.values) {
+            consumer.addValue(value.rules, value.value);
         }
         Map<String, List<IndexingRules>> ruleMap = indexingRules.stream().collect(
                 Collectors.groupingBy(rule -> rule.getKeyName()));
@@ -383,7 +436,33 @@ public class KeywordParser {
         return refs;
     }
     
-    private static void extractIndexingPart(String json, boolean fromParent,
+    /** Collect the keyword values from a parent object fragment. The values are the same for
+     * every subobject of the parent, so they may be collected once and passed to
+     * {@link #extractKeywords(GUID, SearchObjectType, String, JsonParser, ParentValues, List,
+     * ObjectLookupProvider, List)} for each subobject.
+     * @param parentJson a token stream over the parent fragment, or null if there is no
+     * parent fragment.
+     * @param indexingRules the indexing rules for the subobjects.
+     * @return the collected values.
+     * @throws IOException if an IO error occurs.
+     * @throws ObjectParseException if the data could not be parsed.
+     * @throws IndexingException if an indexing error occurs.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public static ParentValues collectParentValues(
+            final JsonParser parentJson,
+            final List<IndexingRules> indexingRules)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        Utils.nonNull(indexingRules, "indexingRules is a required parameter");
+        final List<CollectedValue> values = new ArrayList<>();
+        if (parentJson != null) {
+            extractIndexingPart(parentJson, true, indexingRules,
+                    (rules, value) -> values.add(new CollectedValue(rules, value)));
+        }
+        return new ParentValues(values);
+    }
+    
+    private static void extractIndexingPart(JsonParser jp, boolean fromParent,
             List<IndexingRules> indexingRules, ValueConsumer<List<IndexingRules>> consumer)
             throws IOException, ObjectParseException, JsonParseException,
                 IndexingException, InterruptedException {
@@ -411,9 +490,7 @@ public class KeywordParser {
             root.addPath(path, pathToRules.get(path));
         }
         ValueCollector<List<IndexingRules>> collector = new ValueCollector<List<IndexingRules>>();
-        try (JsonParser jp = UObject.getMapper().getFactory().createParser(json)) {
-            collector.mapKeys(root, jp, consumer);
-        }
+        collector.mapKeys(root, jp, consumer);
     }
 
     public interface ObjectLookupProvider {
@@ -427,6 +504,28 @@ public class KeywordParser {
                 throws NoSuchTypeException;
     }
 
+    /** Keyword values collected from a parent object fragment by
+     * {@link KeywordParser#collectParentValues(JsonParser, List)}.
+     */
+    public static class ParentValues {
+        
+        private final List<CollectedValue> values;
+        
+        private ParentValues(final List<CollectedValue> values) {
+            this.values = Collections.unmodifiableList(values);
+        }
+    }
+    
+    private static class CollectedValue {
+        final List<IndexingRules> rules;
+        final Object value;
+        
+        private CollectedValue(final List<IndexingRules> rules, final Object value) {
+            this.rules = rules;
+            this.value = value;
+        }
+    }
+
     private static class InnerKeyValue {
         boolean notIndexed;
         List<Object> values;
@@ -5,8 +5,10 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.common.ObjectJsonPath;
@@ -45,30 +47,110 @@ public class ObjectParser {
         try (JsonParser jts = obj.getData().getPlacedStream()) {
             extractSubObjects(parsingRules, new SimpleSubObjectConsumer(pathToJson), jts);
         }
+        return toGUIDMap(guid, parsingRules, pathToJson);
+    }
+    
+    /** Uses several sets of parsing rules for the same source data object to extract the
+     * subobjects and parent fragments for all the rules in a single pass over the data.
+     * The results are equivalent to calling {@link #parseSubObjects(SourceData, GUID,
+     * ObjectTypeParsingRules)} and {@link #extractParentFragment(ObjectTypeParsingRules,
+     * JsonParser)} for each set of rules.
+     *
+     * @param obj source data from which to extract
+     * @param guid GUID of the source given source data
+     * @param parsingRules the parsing rules
+     * @return the extracted data, in the same order as the parsing rules.
+     * @throws IOException
+     * @throws ObjectParseException
+     * @throws IndexingException
+     * @throws InterruptedException
+     */
+    public static List<ExtractedSubObjects> parseSubObjects(
+            final SourceData obj,
+            final GUID guid,
+            final List<ObjectTypeParsingRules> parsingRules)
+            throws IOException,
+                   ObjectParseException,
+                   IndexingException,
+                   InterruptedException {
+        final Map<SubObjectConsumer, SubObjectExtractionNode> selections =
+                new LinkedHashMap<>();
+        final List<Map<ObjectJsonPath, TokenBuffer>> subObjects = new ArrayList<>();
+        final List<Map<ObjectJsonPath, TokenBuffer>> parentFragments = new ArrayList<>();
+        for (final ObjectTypeParsingRules rules: parsingRules) {
+            final Map<ObjectJsonPath, TokenBuffer> pathToTokens = new LinkedHashMap<>();
+            subObjects.add(pathToTokens);
+            selections.put(new TokenBufferSubObjectConsumer(pathToTokens),
+                    getSubObjectSelection(rules));
+            final List<ObjectJsonPath> parentPaths = getParentFragmentPaths(rules);
+            if (parentPaths.isEmpty()) {
+                parentFragments.add(null);
+            } else {
+                final Map<ObjectJsonPath, TokenBuffer> parentTokens = new LinkedHashMap<>();
+                parentFragments.add(parentTokens);
+                selections.put(new TokenBufferSubObjectConsumer(parentTokens),
+                        SubObjectExtractor.buildSelection(
+                                new ObjectJsonPath("/"), parentPaths));
+            }
+        }
+        try (JsonParser jts = obj.getData().getPlacedStream()) {
+            SubObjectExtractor.extract(selections, jts);
+        }
+        final List<ExtractedSubObjects> ret = new ArrayList<>();
+        for (int i = 0; i < parsingRules.size(); i++) {
+            final Map<ObjectJsonPath, TokenBuffer> parentTokens = parentFragments.get(i);
+            final Map<GUID, TokenBuffer> guidToTokens = new LinkedHashMap<>();
+            for (final Entry<ObjectJsonPath, TokenBuffer> e: subObjects.get(i).entrySet()) {
+                // reading the buffered tokens avoids parsing the subobject JSON again
+                try (JsonParser subJts = e.getValue().asParser()) {
+                    guidToTokens.put(toSubObjectGUID(guid, parsingRules.get(i), e.getKey(),
+                            subJts), e.getValue());
+                }
+            }
+            ret.add(new ExtractedSubObjects(
+                    parentTokens == null ? null : parentTokens.values().iterator().next(),
+                    guidToTokens));
+        }
+        return ret;
+    }
+    
+    private static Map<GUID, String> toGUIDMap(
+            final GUID guid,
+            final ObjectTypeParsingRules parsingRules,
+            final Map<ObjectJsonPath, String> pathToJson)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
         Map<GUID, String> guidToJson = new LinkedHashMap<>();
         for (ObjectJsonPath path : pathToJson.keySet()) {
             String subJson = pathToJson.get(path);
-            SimpleIdConsumer idConsumer = new SimpleIdConsumer();
-            if (parsingRules.getSubObjectIDPath().isPresent()) {
-                try (JsonParser subJts = UObject.getMapper().getFactory().createParser(subJson)) {
-                    IdMapper.mapKeys(parsingRules.getSubObjectIDPath().get(), subJts, idConsumer);
-                }
-                /* if this if block is outside the parent if block, standard objects without
-                 * subobjects fail to parse
-                 */
-                if (idConsumer.getPrimaryKey() == null) {
-                    throw new ObjectParseException(String.format(
-                            "Could not find the subobject id for one or more of the subobjects " +
-                                    "for object %s when applying search specification %s_%s",
-                                    guid, parsingRules.getGlobalObjectType().getType(),
-                                    parsingRules.getGlobalObjectType().getVersion())); 
-                }
+            try (JsonParser subJts = UObject.getMapper().getFactory().createParser(subJson)) {
+                guidToJson.put(toSubObjectGUID(guid, parsingRules, path, subJts), subJson);
             }
-            GUID subid = prepareGUID(parsingRules, guid, path, idConsumer);
-            guidToJson.put(subid, subJson);
         }
         return guidToJson;
     }
+    
+    private static GUID toSubObjectGUID(
+            final GUID guid,
+            final ObjectTypeParsingRules parsingRules,
+            final ObjectJsonPath path,
+            final JsonParser subJts)
+            throws IOException, ObjectParseException, IndexingException, InterruptedException {
+        SimpleIdConsumer idConsumer = new SimpleIdConsumer();
+        if (parsingRules.getSubObjectIDPath().isPresent()) {
+            IdMapper.mapKeys(parsingRules.getSubObjectIDPath().get(), subJts, idConsumer);
+            /* if this if block is outside the parent if block, standard objects without
+             * subobjects fail to parse
+             */
+            if (idConsumer.getPrimaryKey() == null) {
+                throw new ObjectParseException(String.format(
+                        "Could not find the subobject id for one or more of the subobjects " +
+                                "for object %s when applying search specification %s_%s",
+                                guid, parsingRules.getGlobalObjectType().getType(),
+                                parsingRules.getGlobalObjectType().getVersion())); 
+            }
+        }
+        return prepareGUID(parsingRules, guid, path, idConsumer);
+    }
 
     /** Appends the sub-object path and id to the specified GUID if the parsing
      * rules define the extraction of data from a sub-object.
@@ -111,10 +193,24 @@ public class ObjectParser {
             JsonParser jts)
             throws ObjectParseException,
                    IOException {
-        if (!parsingRules.getSubObjectPath().isPresent()) {
+        List<ObjectJsonPath> indexingPaths = getParentFragmentPaths(parsingRules);
+        if (indexingPaths.size() == 0) {
             return null;
         }
+        Map<ObjectJsonPath, String> pathToJson = new LinkedHashMap<>();
+        SubObjectConsumer parentConsumer = new SimpleSubObjectConsumer(pathToJson);
+        ObjectJsonPath pathToSubObjects = new ObjectJsonPath("/");
+        SubObjectExtractor.extract(pathToSubObjects, indexingPaths, jts, parentConsumer);
+        return pathToJson.get(pathToJson.keySet().iterator().next());
+    }
+    
+    // returns an empty list if there's no parent fragment to extract
+    private static List<ObjectJsonPath> getParentFragmentPaths(
+            final ObjectTypeParsingRules parsingRules) {
         List<ObjectJsonPath> indexingPaths = new ArrayList<>();
+        if (!parsingRules.getSubObjectPath().isPresent()) {
+            return indexingPaths;
+        }
         for (IndexingRules rules : parsingRules.getIndexingRules()) {
             if (!rules.isFromParent()) {
                 continue;
@@ -122,14 +218,7 @@ public class ObjectParser {
             //TODO CODE this seems wrong. Why adding null paths?
             indexingPaths.add(rules.getPath().orNull());
         }
-        if (indexingPaths.size() == 0) {
-            return null;
-        }
-        Map<ObjectJsonPath, String> pathToJson = new LinkedHashMap<>();
-        SubObjectConsumer parentConsumer = new SimpleSubObjectConsumer(pathToJson);
-        ObjectJsonPath pathToSubObjects = new ObjectJsonPath("/");
-        SubObjectExtractor.extract(pathToSubObjects, indexingPaths, jts, parentConsumer);
-        return pathToJson.get(pathToJson.keySet().iterator().next());
+        return indexingPaths;
     }
 
     /** Uses the given JsonParser to extract sub-object data based on the specified
@@ -148,6 +237,12 @@ public class ObjectParser {
             JsonParser jts)
             throws ObjectParseException,
                    IOException {
+        SubObjectExtractor.extract(getSubObjectSelection(parsingRules), jts, subObjConsumer);
+    }
+    
+    private static SubObjectExtractionNode getSubObjectSelection(
+            final ObjectTypeParsingRules parsingRules)
+            throws ObjectParseException {
         List<ObjectJsonPath> indexingPaths = new ArrayList<>();
         for (IndexingRules rules : parsingRules.getIndexingRules()) {
             if (rules.isFromParent()) {
@@ -159,6 +254,6 @@ public class ObjectParser {
         }
         ObjectJsonPath pathToSubObjects = parsingRules.getSubObjectPath()
                 .or(new ObjectJsonPath("/"));
-        SubObjectExtractor.extract(pathToSubObjects, indexingPaths, jts, subObjConsumer);
+        return SubObjectExtractor.buildSelection(pathToSubObjects, indexingPaths);
     }
 }
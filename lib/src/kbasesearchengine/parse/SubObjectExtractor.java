@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonParser;
@@ -37,13 +38,23 @@ public class SubObjectExtractor {
             final JsonParser jts,
             final SubObjectConsumer consumer)
             throws IOException, ObjectParseException {
+        extract(buildSelection(pathToSub, objpaths), jts, consumer);
+    }
+    
+    /**
+     * Build the selection tree for extracting the fields listed in objpaths from the
+     * subobjects at pathToSub.
+     */
+    public static SubObjectExtractionNode buildSelection(
+            final ObjectJsonPath pathToSub,
+            final List<ObjectJsonPath> objpaths) {
         //if the selection is empty, we return without adding anything
         SubObjectExtractionNode root = new SubObjectExtractionNode();
         SubObjectExtractionNode sub = root.addPath(pathToSub, true, false);
         for (ObjectJsonPath path: objpaths) {
             sub.addPath(JsonTokenUtil.trimPath(path), false, true);
         }
-        extract(root, jts, consumer);
+        return root;
     }
     
     public static void extract(
@@ -57,6 +68,237 @@ public class SubObjectExtractor {
         consumer.flush();
     }
     
+    /**
+     * Extract subobjects for several selection trees in a single pass over the token stream.
+     * Each consumer receives the same output as it would from a separate call to
+     * {@link #extract(SubObjectExtractionNode, JsonParser, SubObjectConsumer)} with its
+     * selection tree, but the data is only read once.
+     */
+    public static void extract(
+            final Map<SubObjectConsumer, SubObjectExtractionNode> selections,
+            final JsonParser jts)
+            throws IOException, ObjectParseException {
+        final List<Route> routes = new ArrayList<>();
+        for (final SubObjectConsumer consumer: selections.keySet()) {
+            routes.add(new Route(selections.get(consumer), consumer, true));
+        }
+        JsonToken t = jts.nextToken();
+        if (routes.isEmpty()) {
+            JsonTokenUtil.skipChildren(jts, t);
+        } else {
+            extractFieldsWithOpenToken(jts, t, routes, new ArrayList<String>());
+        }
+        for (final SubObjectConsumer consumer: selections.keySet()) {
+            consumer.flush();
+        }
+    }
+    
+    /*
+     * A position in one consumer's selection tree. The multiple selection methods below track
+     * one route per consumer that is interested in the current token.
+     */
+    private static class Route {
+        private final SubObjectExtractionNode selection;
+        private final SubObjectConsumer consumer;
+        private final boolean fromSkippedLevel;
+        
+        private Route(
+                final SubObjectExtractionNode selection,
+                final SubObjectConsumer consumer,
+                final boolean fromSkippedLevel) {
+            this.selection = selection;
+            this.consumer = consumer;
+            this.fromSkippedLevel = fromSkippedLevel;
+        }
+    }
+    
+    /*
+     * The equivalent of the single selection method below for multiple routes. Once only one
+     * route remains, e.g. inside a subobject that only one selection is interested in, the
+     * single selection method takes over.
+     */
+    private static void extractFieldsWithOpenToken(
+            final JsonParser jts,
+            final JsonToken current,
+            final List<Route> routes,
+            final List<String> path)
+            throws IOException, ObjectParseException {
+        if (routes.size() == 1) {
+            final Route r = routes.get(0);
+            extractFieldsWithOpenToken(jts, current, r.selection, r.consumer, path,
+                    false, false, r.fromSkippedLevel);
+            return;
+        }
+        for (final Route r: routes) {
+            if (r.fromSkippedLevel && !r.selection.isSkipLevel()) {
+                r.consumer.nextObject(ObjectJsonPath.getPathText(path));
+            }
+        }
+        if (current == JsonToken.START_OBJECT || current == JsonToken.START_ARRAY) {
+            extractContainerWithOpenToken(jts, current, routes, path);
+        } else {
+            for (final Route r: routes) {
+                if (r.selection.hasChildren())
+                    throw new ObjectParseException("Invalid selection: the path given specifies " +
+                            "fields or elements that do not exist because data at this location " +
+                            "is a scalar value (i.e. string, integer, float), at: " +
+                            ObjectJsonPath.getPathText(path));
+                JsonTokenUtil.writeCurrentToken(jts, current, r.consumer.getOutput());
+            }
+        }
+    }
+    
+    private static void extractContainerWithOpenToken(
+            final JsonParser jts,
+            final JsonToken current,
+            final List<Route> routes,
+            final List<String> path)
+            throws IOException, ObjectParseException {
+        final boolean isObject = current == JsonToken.START_OBJECT;
+        final JsonToken end = isObject ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+        // routes that select some entries of this container, with the child selection for all
+        // entries if there is one
+        final List<Route> selecting = new ArrayList<>();
+        final List<SubObjectExtractionNode> allChildren = new ArrayList<>();
+        // routes that need the number of entries in this container
+        final List<Route> sizing = new ArrayList<>();
+        // routes that need all of this container
+        final List<Route> copying = new ArrayList<>();
+        // routes that have no selection here skip the container
+        for (final Route r: routes) {
+            final SubObjectExtractionNode selection = r.selection;
+            if (selection.hasChildren()) {
+                final Set<String> selectedFields = selection.getChildren().keySet();
+                if (selectedFields.size() == 1 && selectedFields.contains("{size}")) {
+                    sizing.add(r);
+                } else {
+                    selecting.add(r);
+                    allChildren.add(isObject ? getAllFieldsSelection(selection, path) :
+                        getAllElementsSelection(selection, path));
+                }
+            } else if (selection.isNeedAll()) {
+                copying.add(r);
+            }
+        }
+        if (selecting.isEmpty() && sizing.isEmpty() && copying.size() < 2) {
+            if (copying.isEmpty()) {
+                JsonTokenUtil.skipChildren(jts, current);
+            } else {
+                JsonTokenUtil.writeTokensFromCurrent(jts, current,
+                        copying.get(0).consumer.getOutput());
+            }
+            return;
+        }
+        final List<Route> writing = new ArrayList<>();
+        for (final Route r: selecting) {
+            if (!r.selection.isSkipLevel()) {
+                writing.add(r);
+            }
+        }
+        writing.addAll(copying);
+        for (final Route r: writing) {
+            JsonTokenUtil.writeCurrentToken(jts, current, r.consumer.getOutput());
+        }
+        int size = 0;
+        while (true) {
+            JsonToken t = jts.nextToken();
+            if (t == end) {
+                for (final Route r: writing) {
+                    JsonTokenUtil.writeCurrentToken(jts, t, r.consumer.getOutput());
+                }
+                break;
+            }
+            final String key;
+            if (isObject) {
+                if (t != JsonToken.FIELD_NAME)
+                    throw new ObjectParseException("Error parsing json format " + 
+                            t.asString() + ", at: " + ObjectJsonPath.getPathText(path));
+                key = jts.getText();
+            } else {
+                key = "" + size;
+            }
+            final List<Route> childRoutes = new ArrayList<>();
+            for (int i = 0; i < selecting.size(); i++) {
+                final Route r = selecting.get(i);
+                final SubObjectExtractionNode child = allChildren.get(i) != null ?
+                        allChildren.get(i) : r.selection.getChildren().get(key);
+                if (child != null) {
+                    if (isObject && !r.selection.isSkipLevel()) {
+                        JsonTokenUtil.writeCurrentToken(jts, t, r.consumer.getOutput());
+                    }
+                    childRoutes.add(new Route(child, r.consumer, r.selection.isSkipLevel()));
+                }
+            }
+            for (final Route r: copying) {
+                if (isObject) {
+                    JsonTokenUtil.writeCurrentToken(jts, t, r.consumer.getOutput());
+                }
+                childRoutes.add(new Route(r.selection, r.consumer, false));
+            }
+            if (isObject) {
+                // read first token of value block
+                t = jts.nextToken();
+            }
+            if (childRoutes.isEmpty()) {
+                JsonTokenUtil.skipChildren(jts, t);
+            } else {
+                path.add(key);
+                extractFieldsWithOpenToken(jts, t, childRoutes, path);
+                path.remove(path.size() - 1);
+            }
+            size++;
+        }
+        for (final Route r: sizing) {
+            r.consumer.getOutput().writeNumber(size);
+        }
+    }
+    
+    // returns null if specific fields are selected
+    private static SubObjectExtractionNode getAllFieldsSelection(
+            final SubObjectExtractionNode selection,
+            final List<String> path)
+            throws ObjectParseException {
+        final Set<String> selectedFields = new LinkedHashSet<String>(
+                selection.getChildren().keySet());
+        if (!selectedFields.remove("*")) {
+            return null;
+        }
+        if (selectedFields.size() > 0)
+            throw new ObjectParseException("Invalid selection: the selection path " +
+                    "contains both '*' to select all fields and selection of " +
+                    "specific fields (" + selectedFields + "), at: " + 
+                    ObjectJsonPath.getPathText(path));
+        return selection.getChildren().get("*");
+    }
+    
+    // returns null if specific elements are selected
+    private static SubObjectExtractionNode getAllElementsSelection(
+            final SubObjectExtractionNode selection,
+            final List<String> path)
+            throws ObjectParseException {
+        final Set<String> selectedFields = new LinkedHashSet<String>(
+                selection.getChildren().keySet());
+        if (!selectedFields.remove("[*]")) {
+            for (String item : selectedFields) {
+                try {
+                    Integer.parseInt(item);
+                } catch (NumberFormatException ex) {
+                    throw new ObjectParseException("Invalid selection: data at '" +
+                            ObjectJsonPath.getPathText(path) + "' is an array, so " +
+                            "element selection must be an integer. You requested element" +
+                            " '" + item + "', at: " + ObjectJsonPath.getPathText(path));
+                }
+            }
+            return null;
+        }
+        if (selectedFields.size() > 0)
+            throw new ObjectParseException("Invalid selection: the selection path " +
+                    "contains both '[*]' to select all elements and selection of " +
+                    "specific elements (" + selectedFields + "), at: " +
+                    ObjectJsonPath.getPathText(path));
+        return selection.getChildren().get("[*]");
+    }
+    
     /*
      * This is main recursive method for tracking current token place in subset schema tree
      * and making decisions whether or not we need to process this token or block of tokens or
@@ -0,0 +1,53 @@
+package kbasesearchengine.parse;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import kbasesearchengine.common.ObjectJsonPath;
+import us.kbase.common.service.UObject;
+
+/** A subobject consumer that stores the tokens of each subobject in a {@link TokenBuffer}
+ * rather than serializing them to JSON text. The buffered tokens can be read any number of
+ * times without parsing the JSON again.
+ */
+public class TokenBufferSubObjectConsumer implements SubObjectConsumer {
+    private final Map<ObjectJsonPath, TokenBuffer> data;
+    private String nextPath = null;
+    private TokenBuffer nextBuffer = null;
+    
+    /** Create the consumer.
+     * @param data the map in which to store the tokens for each subobject, keyed by the path
+     * to the subobject.
+     */
+    public TokenBufferSubObjectConsumer(final Map<ObjectJsonPath, TokenBuffer> data) {
+        this.data = data;
+    }
+    
+    @Override
+    public void nextObject(final String path) throws IOException, ObjectParseException {
+        flush();
+        nextPath = path;
+        nextBuffer = new TokenBuffer(UObject.getMapper());
+    }
+    
+    @Override
+    public JsonGenerator getOutput() throws IOException, ObjectParseException {
+        if (nextBuffer == null) {
+            throw new ObjectParseException("JsonGenerator wasn't initialized");
+        }
+        return nextBuffer;
+    }
+    
+    @Override
+    public void flush() throws IOException, ObjectParseException {
+        if (nextPath != null && nextBuffer != null) {
+            nextBuffer.close();
+            data.put(new ObjectJsonPath(nextPath), nextBuffer);
+            nextPath = null;
+            nextBuffer = null;
+        }
+    }
+}
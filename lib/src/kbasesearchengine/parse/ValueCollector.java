@@ -1,13 +1,11 @@
 package kbasesearchengine.parse;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
-import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 
@@ -43,11 +41,9 @@ public class ValueCollector <T> {
             throws IOException, ObjectParseException, IndexingException, InterruptedException {
         JsonToken t = current;
         if (selection.getRules() != null && (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY)) {
-            StringWriter outChars = new StringWriter();
-            JsonGenerator jsonGen = UObject.getMapper().getFactory().createGenerator(outChars);
-            JsonTokenUtil.writeTokensFromCurrent(jts, current, jsonGen);
-            jsonGen.close();
-            Object value = UObject.transformStringToObject(outChars.toString(), Object.class);
+            // bind the value straight from the token stream rather than writing it out as
+            // JSON and parsing it again
+            Object value = UObject.getMapper().readValue(jts, Object.class);
             consumer.addValue(selection.getRules(), value);
             return;
         }
@@ -0,0 +1,263 @@
+package kbasesearchengine.search;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import kbasesearchengine.tools.Utils;
+import us.kbase.common.service.UObject;
+
+/** Writes the bodies of ElasticSearch bulk requests.
+ *
+ * The actions are split into chunks, each of which is the body of one bulk request, such that
+ * no chunk has more than a maximum number of actions or, unless the chunk consists of a single
+ * action, more than a maximum number of bytes.
+ *
+ * Each chunk is first written to an in-memory buffer. If the entire chunk fits in the buffer,
+ * the request is sent from the buffer. Otherwise the remainder of the chunk is written one
+ * action at a time as the HTTP client reads the request entity, so the chunk is never held in
+ * memory in its entirety or written to disk.
+ */
+public class BulkRequestWriter {
+
+    /** The default maximum size, in bytes, of a bulk request body that is sent from memory. */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+
+    /** An action in a bulk request, consisting of the action and metadata line and an optional
+     * source document line.
+     */
+    public static class BulkAction {
+
+        private final Map<String, Object> action;
+        private final Map<String, Object> source;
+
+        /** Create an action.
+         * @param action the action and metadata, e.g. {"index": {"_index": "foo", "_id": 1}}.
+         * @param source the source document for the action, or null if the action does not
+         * take a document.
+         */
+        public BulkAction(final Map<String, Object> action, final Map<String, Object> source) {
+            Utils.nonNull(action, "action");
+            this.action = action;
+            this.source = source;
+        }
+
+        /** Get the action and metadata.
+         * @return the action.
+         */
+        public Map<String, Object> getAction() {
+            return action;
+        }
+
+        /** Get the source document.
+         * @return the source document, or null if the action does not take a document.
+         */
+        public Map<String, Object> getSource() {
+            return source;
+        }
+    }
+
+    private final Iterator<BulkAction> actions;
+    private final int maxActions;
+    private final int maxSize;
+    private final int maxBufferSize;
+    private final Buffer chunk = new Buffer();
+    // holds the next action, serialized, until there's room for it in a chunk
+    private final Buffer staged = new Buffer();
+    private final JsonGenerator jgen;
+    private int chunkActions = 0;
+    private long chunkSize = 0;
+    private boolean chunkComplete = true;
+    private boolean started = false;
+
+    /** Create a writer.
+     * @param actions the actions to write.
+     * @param maxActions the maximum number of actions in a chunk.
+     * @param maxSize the maximum size of a chunk in bytes. A single action larger than this
+     * size is written as a chunk by itself.
+     * @param maxBufferSize the maximum size, in bytes, of a chunk that is sent from memory.
+     * Larger chunks are streamed.
+     * @throws IOException if the JSON generator could not be created.
+     */
+    public BulkRequestWriter(
+            final Iterator<BulkAction> actions,
+            final int maxActions,
+            final int maxSize,
+            final int maxBufferSize)
+            throws IOException {
+        Utils.nonNull(actions, "actions");
+        if (maxActions < 1) {
+            throw new IllegalArgumentException("maxActions must be at least 1");
+        }
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        if (maxBufferSize < 1) {
+            throw new IllegalArgumentException("maxBufferSize must be at least 1");
+        }
+        this.actions = actions;
+        this.maxActions = maxActions;
+        this.maxSize = maxSize;
+        this.maxBufferSize = maxBufferSize;
+        jgen = UObject.getMapper().getFactory().createGenerator(staged);
+        // each line of a bulk request must be a separate JSON document
+        jgen.setRootValueSeparator(null);
+    }
+
+    /** Create the entity for a bulk request containing all the actions.
+     * @param actions the actions in the request.
+     * @param maxBufferSize the maximum size, in bytes, of a request body that is sent from
+     * memory. Larger bodies are streamed.
+     * @return the request entity.
+     * @throws IOException if the actions could not be serialized.
+     */
+    public static HttpEntity toEntity(
+            final Iterator<BulkAction> actions,
+            final int maxBufferSize)
+            throws IOException {
+        return new BulkRequestWriter(actions, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                maxBufferSize).next();
+    }
+
+    /** Returns true if there are more chunks to write. If the previous chunk is being
+     * streamed, the result is not reliable until the stream is exhausted.
+     * @return true if there are more chunks.
+     */
+    public boolean hasNext() {
+        return staged.size() > 0 || actions.hasNext();
+    }
+
+    /** Get the entity for the next chunk. If the entity is streamed, it must be read in
+     * its entirety before this method is called again.
+     *
+     * For the first call only, returns an empty entity if there are no actions.
+     * @return the entity.
+     * @throws IOException if the actions could not be serialized.
+     */
+    public HttpEntity next() throws IOException {
+        if (!chunkComplete) {
+            throw new IllegalStateException("The previous chunk has not been read");
+        }
+        if (started && !hasNext()) {
+            throw new NoSuchElementException();
+        }
+        started = true;
+        chunk.reset();
+        chunkActions = 0;
+        chunkSize = 0;
+        chunkComplete = false;
+        while (chunk.size() < maxBufferSize && addStaged()) {
+            // keep buffering
+        }
+        if (chunkComplete) {
+            // copy the buffer, since the entity may still be in use when the next chunk is
+            // written
+            return new ByteArrayEntity(chunk.toByteArray(), ContentType.APPLICATION_JSON);
+        }
+        final InputStreamEntity entity = new InputStreamEntity(
+                new ChunkInputStream(), -1, ContentType.APPLICATION_JSON);
+        entity.setChunked(true);
+        return entity;
+    }
+
+    /* Moves the next action into the current chunk if it fits. Returns false and marks the
+     * chunk complete otherwise.
+     */
+    private boolean addStaged() throws IOException {
+        if (chunkActions >= maxActions || !stage()) {
+            chunkComplete = true;
+            return false;
+        }
+        if (chunkActions > 0 && chunkSize + staged.size() > maxSize) {
+            chunkComplete = true;
+            return false;
+        }
+        staged.writeTo(chunk);
+        chunkActions++;
+        chunkSize += staged.size();
+        staged.reset();
+        return true;
+    }
+
+    // returns false if there are no more actions
+    private boolean stage() throws IOException {
+        if (staged.size() > 0) {
+            return true;
+        }
+        if (!actions.hasNext()) {
+            return false;
+        }
+        final BulkAction action = actions.next();
+        writeLine(action.getAction());
+        if (action.getSource() != null) {
+            writeLine(action.getSource());
+        }
+        jgen.flush();
+        return true;
+    }
+
+    private void writeLine(final Map<String, Object> line) throws IOException {
+        jgen.writeObject(line);
+        jgen.writeRaw('\n');
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+
+        private byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /* Reads from the chunk buffer, refilling it with the next action when empty. Since the
+     * HTTP client reads the stream as it sends the request, only one action is serialized
+     * at a time.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private int pos = 0;
+
+        // returns false if the stream is exhausted
+        private boolean fill() throws IOException {
+            while (pos >= chunk.size()) {
+                chunk.reset();
+                pos = 0;
+                if (chunkComplete || !addStaged()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return chunk.getBuffer()[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int count = Math.min(len, chunk.size() - pos);
+            System.arraycopy(chunk.getBuffer(), pos, b, off, count);
+            pos += count;
+            return count;
+        }
+    }
+}
@@ -4,13 +4,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -20,6 +22,13 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.LinkedList;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -38,6 +47,7 @@ import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
 import org.apache.http.message.BasicHeader;
 import org.elasticsearch.client.Response;
 import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 
@@ -48,6 +58,7 @@ import com.google.common.collect.ImmutableMap;
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.events.handler.SourceData;
 import kbasesearchengine.parse.ParsedObject;
+import kbasesearchengine.search.BulkRequestWriter.BulkAction;
 import kbasesearchengine.system.IndexingRules;
 import kbasesearchengine.system.ObjectTypeParsingRules;
 import kbasesearchengine.system.SearchObjectType;
@@ -137,10 +148,20 @@ public class ElasticIndexingStorage implements IndexingStorage {
     private String esUser;
     private String esPassword;
     private String indexNamePrefix;
-    private Map<ObjectTypeParsingRules, String> ruleToIndex = new LinkedHashMap<>();
-    private Map<String, String> typeToIndex = new LinkedHashMap<>();
+    // the storage may be shared between indexer worker threads
+    private Map<ObjectTypeParsingRules, String> ruleToIndex = new ConcurrentHashMap<>();
+    private Map<String, String> typeToIndex = new ConcurrentHashMap<>();
     private RestClient restClient = null;
     private File tempDir;
+    private int bulkMaxDocuments = DEFAULT_BULK_MAX_DOCUMENTS;
+    private int bulkMaxBytes = DEFAULT_BULK_MAX_BYTES;
+    private int bulkConcurrency = DEFAULT_BULK_CONCURRENCY;
+    private RefreshPolicy refreshPolicy = RefreshPolicy.IMMEDIATE;
+    private ScheduledExecutorService refresher = null;
+    // index name -> prefixes of the objects with changes that aren't yet visible to searches
+    private final Map<String, Set<String>> unrefreshed = new ConcurrentHashMap<>();
+    // indexes where the automatic ElasticSearch refresh is turned off for the NONE policy
+    private final Set<String> autoRefreshDisabled = ConcurrentHashMap.newKeySet();
     
     public static final int PUBLIC_ACCESS_GROUP = -1;
     public static final int ADMIN_ACCESS_GROUP = -2;
@@ -156,6 +177,34 @@ public class ElasticIndexingStorage implements IndexingStorage {
      */
     public static final int MAX_OBJECT_TYPES_SIZE = 50;
 
+    /** The default maximum number of documents in one bulk indexing request. */
+    public static final int DEFAULT_BULK_MAX_DOCUMENTS = 1000;
+    
+    /** The default maximum size, in bytes, of one bulk indexing request. */
+    public static final int DEFAULT_BULK_MAX_BYTES = 10 * 1024 * 1024;
+    
+    /** The default maximum number of bulk indexing requests in flight at once for one call
+     * to {@link #indexObjects(ObjectTypeParsingRules, SourceData, Instant, String, GUID, Map,
+     * boolean)}. A single request at a time allows the requests to be streamed rather than held
+     * in memory.
+     */
+    public static final int DEFAULT_BULK_CONCURRENCY = 1;
+    
+    /* The maximum number of access documents loaded per object when updating the version
+     * information for an object. If there are more documents, the documents that weren't
+     * loaded are updated by query.
+     */
+    private static final int MAX_VERSION_STATE_DOCS = 1000;
+    private static final List<String> ACCESS_DOC_FIELDS = Arrays.asList(
+            "version", "lastin", "groups", "extpub");
+
+    // only return what's needed to find failed items from bulk requests
+    private static final Map<String, String> BULK_RESPONSE_FILTER = ImmutableMap.of(
+            "filter_path", "errors,items.*._id,items.*.status,items.*.error");
+    private static final Map<String, String> BULK_RESPONSE_FILTER_WAIT_FOR = ImmutableMap.of(
+            "filter_path", BULK_RESPONSE_FILTER.get("filter_path"),
+            "refresh", "wait_for");
+
     public ElasticIndexingStorage(HttpHost esHost, File tempDir) throws IOException {
         this.esHost = esHost;
         this.indexNamePrefix = "";
@@ -182,6 +231,84 @@ public class ElasticIndexingStorage implements IndexingStorage {
         this.esPassword = esPassword;
     }
 
+    /** Set the limits used to split the documents for an object into multiple bulk indexing
+     * requests. The documents for objects with many subobjects, such as the features of a
+     * genome, may otherwise exceed the maximum request size for ElasticSearch.
+     * @param maxDocuments the maximum number of documents in a request.
+     * @param maxBytes the maximum size of a request in bytes. A single document larger than
+     * this size is sent in a request by itself.
+     * @param concurrency the maximum number of requests in flight at once when indexing an
+     * object. If greater than 1, each request body is held in memory until the request
+     * completes.
+     */
+    public void setBulkLimits(final int maxDocuments, final int maxBytes, final int concurrency) {
+        if (maxDocuments < 1) {
+            throw new IllegalArgumentException("maxDocuments must be at least 1");
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be at least 1");
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.bulkMaxDocuments = maxDocuments;
+        this.bulkMaxBytes = maxBytes;
+        this.bulkConcurrency = concurrency;
+    }
+    
+    public int getBulkMaxDocuments() {
+        return bulkMaxDocuments;
+    }
+    
+    public int getBulkMaxBytes() {
+        return bulkMaxBytes;
+    }
+    
+    public int getBulkConcurrency() {
+        return bulkConcurrency;
+    }
+
+    /** Set when changes to the indexes are made visible to searches. The default policy is
+     * {@link RefreshPolicy#IMMEDIATE}.
+     * @param policy the refresh policy.
+     * @param periodicIntervalMS the interval between refreshes in milliseconds for the
+     * {@link RefreshPolicy#PERIODIC} policy. Ignored for other policies.
+     */
+    public synchronized void setRefreshPolicy(
+            final RefreshPolicy policy,
+            final long periodicIntervalMS) {
+        Utils.nonNull(policy, "policy");
+        if (policy.equals(RefreshPolicy.PERIODIC) && periodicIntervalMS < 1) {
+            throw new IllegalArgumentException("periodicIntervalMS must be at least 1");
+        }
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+        this.refreshPolicy = policy;
+        if (policy.equals(RefreshPolicy.PERIODIC)) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "es-index-refresher");
+                t.setDaemon(true);
+                return t;
+            });
+            refresher.scheduleWithFixedDelay(() -> refreshAll(), periodicIntervalMS,
+                    periodicIntervalMS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public RefreshPolicy getRefreshPolicy() {
+        return refreshPolicy;
+    }
+    
+    /** Get the names of the indexes with changes that are not yet visible to searches. Always
+     * empty for the {@link RefreshPolicy#IMMEDIATE} policy.
+     * @return the index names.
+     */
+    public Set<String> getUnrefreshedIndexes() {
+        return Collections.unmodifiableSet(new HashSet<>(unrefreshed.keySet()));
+    }
+
     public String getIndexNamePrefix() {
         return indexNamePrefix;
     }
@@ -274,8 +401,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
      * does not exist and noCreate is false, creates the index.
      *
      * Returns the elastic search index name.
+     * Synchronized so that concurrent callers don't attempt to create the same index twice.
      */ 
-    private String checkIndex(
+    private synchronized String checkIndex(
             final ObjectTypeParsingRules rule,
             final boolean noCreate)
             throws IOException {
@@ -318,7 +446,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
     
     // TODO CODE this function should just take a class rather than a zillion arguments
     // the class should ensure consistency of the various fields
-    // IO exceptions are thrown for failure on creating or writing to file or contacting ES.
+    // IO exceptions are thrown for failure on serializing the documents or contacting ES.
     @Override
     public void indexObjects(
             final ObjectTypeParsingRules rule,
@@ -329,53 +457,438 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final Map<GUID, ParsedObject> idToObj,
             final boolean isPublic)
             throws IOException, IndexingConflictException {
-        if (rule.getSubObjectType().isPresent() && idToObj.isEmpty()) {
-            return; // nothing to index. Only parent objects should get general records (see below)
-        }
-        final Map<GUID, ParsedObject> idToObjCopy = new HashMap<>(idToObj);
-        String indexName = checkIndex(rule, false);
-        for (GUID id : idToObjCopy.keySet()) {
-            GUID parentGuid = new GUID(id.getStorageCode(), id.getAccessGroupId(), 
-                    id.getAccessGroupObjectId(), id.getVersion(), null, null);
-            if (!parentGuid.equals(pguid)) {
-                //TODO CODE make this something that the worker error handling can work with
-                throw new IllegalStateException("Object GUID doesn't match parent GUID");
+        indexObjects(Arrays.asList(new ObjectsToIndex(
+                rule, data, timestamp, parentJsonValue, pguid, idToObj, isPublic)));
+    }
+
+    @Override
+    public void indexObjects(final List<ObjectsToIndex> objects)
+            throws IOException, IndexingConflictException {
+        Utils.nonNull(objects, "objects");
+        final List<ObjectsToIndex> toIndex = new ArrayList<>();
+        for (final ObjectsToIndex o: objects) {
+            Utils.nonNull(o, "null item in objects");
+            if (o.getRule().getSubObjectType().isPresent() && o.getIdToObj().isEmpty()) {
+                // nothing to index. Only parent objects should get general records (see below)
+                continue;
+            }
+            for (final GUID id : o.getIdToObj().keySet()) {
+                final GUID parentGuid = new GUID(id.getStorageCode(), id.getAccessGroupId(),
+                        id.getAccessGroupObjectId(), id.getVersion(), null, null);
+                if (!parentGuid.equals(o.getParentGUID())) {
+                    //TODO CODE make this something that the worker error handling can work with
+                    throw new IllegalStateException("Object GUID doesn't match parent GUID");
+                }
+            }
+            toIndex.add(o);
+        }
+        // the version state for an object depends on the versions already indexed, so
+        // versions of the same object in the same index are indexed in separate rounds
+        final List<Map<String, ObjectsToIndex>> rounds = new ArrayList<>();
+        for (final ObjectsToIndex o: toIndex) {
+            final String key = checkIndex(o.getRule(), false) + "/" +
+                    toGUIDPrefix(o.getParentGUID());
+            int round = 0;
+            while (round < rounds.size() && rounds.get(round).containsKey(key)) {
+                round++;
+            }
+            if (round == rounds.size()) {
+                rounds.add(new LinkedHashMap<>());
+            }
+            rounds.get(round).put(key, o);
+        }
+        for (final Map<String, ObjectsToIndex> round: rounds) {
+            indexRound(round.values());
+        }
+    }
+
+    // expects that there's only one version of each object per index
+    private void indexRound(final Collection<ObjectsToIndex> objects)
+            throws IOException, IndexingConflictException {
+        final Map<String, Map<GUID, Boolean>> indexToGUIDs = new LinkedHashMap<>();
+        for (final ObjectsToIndex o: objects) {
+            indexToGUIDs.computeIfAbsent(checkIndex(o.getRule(), false),
+                    k -> new LinkedHashMap<>()).put(o.getParentGUID(), o.isPublic());
+        }
+        final Map<String, Map<GUID, LoadedVersionState>> states = new HashMap<>();
+        for (final String indexName: indexToGUIDs.keySet()) {
+            refreshIfUnrefreshed(indexName, indexToGUIDs.get(indexName).keySet());
+            states.put(indexName, loadVersionStates(indexName, indexToGUIDs.get(indexName)));
+        }
+        // subobjects are written first, as when indexing the objects one at a time
+        final Set<String> subIndexes = new HashSet<>();
+        final List<BulkAction> subActions = new ArrayList<>();
+        final Set<String> parentIndexes = new HashSet<>();
+        final List<BulkAction> parentActions = new ArrayList<>();
+        for (final ObjectsToIndex o: objects) {
+            final String indexName = checkIndex(o.getRule(), false);
+            final boolean sub = o.getRule().getSubObjectType().isPresent();
+            (sub ? subIndexes : parentIndexes).add(indexName);
+            (sub ? subActions : parentActions).addAll(toBulkActions(
+                    indexName, o, states.get(indexName).get(o.getParentGUID()).state));
+        }
+        indexBulk(subIndexes, subActions);
+        indexBulk(parentIndexes, parentActions);
+        for (final ObjectsToIndex o: objects) {
+            final String indexName = checkIndex(o.getRule(), false);
+            final LoadedVersionState loaded = states.get(indexName).get(o.getParentGUID());
+            if (!loaded.allAccessDocsLoaded && loaded.state.getNewAccessDoc().isPresent()) {
+                // the access documents that weren't loaded are updated as for a single object
+                refreshIndex(indexName);
+                updateAccessGroupForVersions(indexName, o.getParentGUID(),
+                        loaded.state.getLastVersion(), o.getParentGUID().getAccessGroupId(),
+                        o.isPublic(), true);
+            }
+        }
+        for (final String indexName: indexToGUIDs.keySet()) {
+            unsetReplacedLastVersionsInData(indexName, states.get(indexName).values());
+            changed(indexName, indexToGUIDs.get(indexName).keySet());
+        }
+    }
+
+    /* Marks the data documents of the versions that are no longer the last version of their
+     * objects, in one request per index no matter how many data documents each version has.
+     * Any older versions still marked as the last version are also fixed.
+     */
+    private void unsetReplacedLastVersionsInData(
+            final String indexName,
+            final Collection<LoadedVersionState> states)
+            throws IOException, IndexingConflictException {
+        final List<Map<String, Object>> replaced = new ArrayList<>();
+        for (final LoadedVersionState loaded: states) {
+            if (loaded.state.getReplacedLastVersion().isPresent()) {
+                replaced.add(ImmutableMap.of("bool", ImmutableMap.of("filter", Arrays.asList(
+                        createFilter("term", OBJ_PREFIX,
+                                toGUIDPrefix(loaded.state.getParentGUID())),
+                        createFilter("range", OBJ_VERSION,
+                                ImmutableMap.of("lt", loaded.state.getLastVersion()))))));
             }
         }
-        //TODO CODE if there's only a few objects to index, possible speed up by not using tempfile and just making direct API calls
-        File tempFile = File.createTempFile("es_bulk_", ".json", tempDir);
+        if (replaced.isEmpty()) {
+            return;
+        }
+        final Map<String, Object> query = ImmutableMap.of("bool", ImmutableMap.of(
+                "filter", Arrays.asList(createFilter("term", OBJ_IS_LAST, true)),
+                "should", replaced,
+                "minimum_should_match", 1));
+        final Map<String, Object> doc = ImmutableMap.of(
+                "query", query,
+                "script", ImmutableMap.of("inline", "ctx._source.islast = false;"));
+        makeRequest("POST", "/" + indexName + "/" + getDataTableName() + "/_update_by_query",
+                doc);
+    }
+
+    private List<BulkAction> toBulkActions(
+            final String indexName,
+            final ObjectsToIndex objects,
+            final ObjectVersionState state)
+            throws IOException {
+        final Map<GUID, ParsedObject> idToObj = new HashMap<>(objects.getIdToObj());
+        if (idToObj.isEmpty()) {
+            // there were no search objects parsed from the source object, so just index
+            // the general object information
+            idToObj.put(objects.getParentGUID(), null);
+        }
+        final List<BulkAction> actions = new ArrayList<>(toBulkActions(indexName, state));
+        for (final GUID id : idToObj.keySet()) {
+            final Map<String, Object> doc = convertObject(id,
+                    objects.getRule().getGlobalObjectType(), idToObj.get(id),
+                    objects.getSourceData(), objects.getTimestamp(), objects.getParentJson(),
+                    objects.isPublic(), state.getLastVersion());
+            final Map<String, Object> index = new HashMap<>();
+            index.put("_index", indexName);
+            index.put("_type", getDataTableName());
+            index.put("parent", state.getParentDocId());
+            index.put("_id", id.getURLEncoded());
+            actions.add(new BulkAction(ImmutableMap.of("index", index), doc));
+        }
+        return actions;
+    }
+
+    private static class LoadedVersionState {
+
+        private final ObjectVersionState state;
+        // false if there were too many access documents to load
+        private final boolean allAccessDocsLoaded;
+
+        private LoadedVersionState(
+                final ObjectVersionState state,
+                final boolean allAccessDocsLoaded) {
+            this.state = state;
+            this.allAccessDocsLoaded = allAccessDocsLoaded;
+        }
+    }
+
+    /* Loads the access documents for a set of object versions in one multisearch request.
+     * The access documents are loaded newest version first, so the last version is always
+     * loaded. If there are too many access documents to load, the access document for the
+     * version being indexed is loaded separately and the remaining documents must be updated
+     * by query.
+     */
+    private Map<GUID, LoadedVersionState> loadVersionStates(
+            final String indexName,
+            final Map<GUID, Boolean> parentGUIDsToPublic)
+            throws IOException, IndexingConflictException {
+        final List<BulkAction> searches = new ArrayList<>();
+        for (final GUID pguid: parentGUIDsToPublic.keySet()) {
+            final String prefix = toGUIDPrefix(pguid);
+            searches.add(new BulkAction(
+                    ImmutableMap.of("index", indexName, "type", getAccessTableName()),
+                    ImmutableMap.of(
+                            "query", createFilter("term", "prefix", prefix),
+                            "size", MAX_VERSION_STATE_DOCS,
+                            "sort", Arrays.asList(ImmutableMap.of("version", "desc")),
+                            "version", true,
+                            "_source", ACCESS_DOC_FIELDS)));
+        }
+        final List<Map<String, Object>> responses = multiSearch(searches);
+        final Map<GUID, List<ObjectVersionState.AccessDoc>> accessDocs = new HashMap<>();
+        final Set<GUID> accessOverflow = new HashSet<>();
+        int i = 0;
+        for (final GUID pguid: parentGUIDsToPublic.keySet()) {
+            final Map<String, Object> accessResponse = responses.get(i++);
+            accessDocs.put(pguid, toAccessDocs(getMultiSearchHits(accessResponse)));
+            if (getMultiSearchTotal(accessResponse) > accessDocs.get(pguid).size()) {
+                accessOverflow.add(pguid);
+            }
+        }
+        loadOverflowAccessDocs(indexName, accessOverflow, accessDocs);
+        final Map<GUID, LoadedVersionState> ret = new LinkedHashMap<>();
+        for (final GUID pguid: parentGUIDsToPublic.keySet()) {
+            ret.put(pguid, new LoadedVersionState(new ObjectVersionState(
+                    pguid, parentGUIDsToPublic.get(pguid), accessDocs.get(pguid)),
+                    !accessOverflow.contains(pguid)));
+        }
+        return ret;
+    }
+
+    /* Adds the access document for the version being indexed to the loaded access documents
+     * for objects with too many access documents to load at once.
+     */
+    private void loadOverflowAccessDocs(
+            final String indexName,
+            final Set<GUID> parentGUIDs,
+            final Map<GUID, List<ObjectVersionState.AccessDoc>> accessDocs)
+            throws IOException, IndexingConflictException {
+        if (parentGUIDs.isEmpty()) {
+            return;
+        }
+        final List<GUID> guids = new ArrayList<>(parentGUIDs);
+        final List<BulkAction> searches = new ArrayList<>();
+        for (final GUID pguid: guids) {
+            searches.add(new BulkAction(
+                    ImmutableMap.of("index", indexName, "type", getAccessTableName()),
+                    ImmutableMap.of(
+                            "query", ImmutableMap.of("bool", ImmutableMap.of("filter",
+                                    Arrays.asList(
+                                            createFilter("term", "prefix", toGUIDPrefix(pguid)),
+                                            createFilter("term", "version",
+                                                    pguid.getVersion())))),
+                            "version", true,
+                            "_source", ACCESS_DOC_FIELDS)));
+        }
+        final List<Map<String, Object>> responses = multiSearch(searches);
+        for (int i = 0; i < guids.size(); i++) {
+            final List<ObjectVersionState.AccessDoc> loaded = accessDocs.get(guids.get(i));
+            for (final ObjectVersionState.AccessDoc ad:
+                    toAccessDocs(getMultiSearchHits(responses.get(i)))) {
+                if (!loaded.stream().anyMatch(l -> l.getId().equals(ad.getId()))) {
+                    loaded.add(ad);
+                }
+            }
+        }
+    }
+
+    private List<Map<String, Object>> multiSearch(final List<BulkAction> searches)
+            throws IOException, IndexingConflictException {
+        final Response resp = makeRequest("POST", "/_msearch", Collections.emptyMap(),
+                BulkRequestWriter.toEntity(
+                        searches.iterator(), BulkRequestWriter.DEFAULT_MAX_BUFFER_SIZE));
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> responses =
+                (List<Map<String, Object>>) data.get("responses");
+        return responses;
+    }
+
+    private List<ObjectVersionState.AccessDoc> toAccessDocs(
+            final List<Map<String, Object>> hits) {
+        final List<ObjectVersionState.AccessDoc> accessDocs = new ArrayList<>();
+        for (final Map<String, Object> hit: hits) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> source = (Map<String, Object>) hit.get("_source");
+            @SuppressWarnings("unchecked")
+            final List<Integer> lastIn = (List<Integer>) source.get("lastin");
+            @SuppressWarnings("unchecked")
+            final List<Integer> groups = (List<Integer>) source.get("groups");
+            @SuppressWarnings("unchecked")
+            final List<Integer> extPub = (List<Integer>) source.get("extpub");
+            accessDocs.add(new ObjectVersionState.AccessDoc(
+                    (String) hit.get("_id"),
+                    ((Number) hit.get("_version")).longValue(),
+                    (Integer) source.get("version"),
+                    lastIn, groups, extPub));
+        }
+        return accessDocs;
+    }
+
+    // expects the response has already been checked for errors
+    private int getMultiSearchTotal(final Map<String, Object> response) {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> hits = (Map<String, Object>) response.get("hits");
+        return ((Number) hits.get("total")).intValue();
+    }
+
+    private List<Map<String, Object>> getMultiSearchHits(final Map<String, Object> response)
+            throws IOException {
+        if (response.get("error") != null) {
+            throw new IOException("Multisearch request failed: " + response.get("error"));
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> hits = (Map<String, Object>) response.get("hits");
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> hitList = (List<Map<String, Object>>) hits.get("hits");
+        return hitList;
+    }
+
+    /* Converts the changes required by a version state to bulk actions. Access document
+     * updates are versioned so that a concurrent change causes a conflict rather than being
+     * overwritten.
+     */
+    private List<BulkAction> toBulkActions(
+            final String indexName,
+            final ObjectVersionState state) {
+        final List<BulkAction> actions = new ArrayList<>();
+        if (state.getNewAccessDoc().isPresent()) {
+            actions.add(new BulkAction(ImmutableMap.of("create", ImmutableMap.of(
+                    "_index", indexName,
+                    "_type", getAccessTableName(),
+                    "_id", state.getParentDocId())),
+                    state.getNewAccessDoc().get()));
+        }
+        for (final ObjectVersionState.AccessDoc ad: state.getAccessDocUpdates().keySet()) {
+            actions.add(new BulkAction(ImmutableMap.of("update", ImmutableMap.of(
+                    "_index", indexName,
+                    "_type", getAccessTableName(),
+                    "_id", ad.getId(),
+                    "_version", ad.getESVersion())),
+                    ImmutableMap.of("doc", state.getAccessDocUpdates().get(ad))));
+        }
+        return actions;
+    }
+    
+    private void indexBulk(final Collection<String> indexNames, final List<BulkAction> actions)
+            throws IOException, IndexingConflictException {
+        if (actions.isEmpty()) {
+            return;
+        }
+        // actions specify their index, so a request may span indexes
+        final String urlPath = indexNames.size() == 1 ?
+                "/" + indexNames.iterator().next() + "/_bulk" : "/_bulk";
+        final String indexName = String.join(", ", indexNames);
+        final boolean waitFor = refreshPolicy.equals(RefreshPolicy.WAIT_FOR);
+        // concurrent requests must be sent from memory, since a streamed request must be
+        // read completely before the next request can be written. The last request can only
+        // be identified before it's sent if it's in memory.
+        final BulkRequestWriter writer = new BulkRequestWriter(actions.iterator(),
+                bulkMaxDocuments, bulkMaxBytes, bulkConcurrency > 1 || waitFor ?
+                        Integer.MAX_VALUE : BulkRequestWriter.DEFAULT_MAX_BUFFER_SIZE);
+        if (bulkConcurrency == 1) {
+            while (writer.hasNext()) {
+                final HttpEntity chunk = writer.next();
+                checkBulkResponse(indexName, makeRequest("POST", urlPath,
+                        bulkParams(waitFor && !writer.hasNext()), chunk));
+            }
+            return;
+        }
+        final Semaphore inFlight = new Semaphore(bulkConcurrency);
+        final List<CompletableFuture<Response>> responses = new LinkedList<>();
         try {
-            PrintWriter pw = new PrintWriter(tempFile);
-            int lastVersion = loadLastVersion(indexName, pguid, pguid.getVersion());
-            final String esParentId = checkParentDoc(indexName, new LinkedHashSet<>(
-                    Arrays.asList(pguid)), isPublic, lastVersion).get(pguid);
-            if (idToObjCopy.isEmpty()) {
-                // there were no search objects parsed from the source object, so just index
-                // the general object information
-                idToObjCopy.put(pguid, null);
+            while (writer.hasNext()) {
+                final HttpEntity chunk = writer.next();
+                inFlight.acquire();
+                final CompletableFuture<Response> response = new CompletableFuture<>();
+                responses.add(response);
+                getRestClient().performRequestAsync("POST", urlPath,
+                        bulkParams(waitFor && !writer.hasNext()), chunk,
+                        new ResponseListener() {
+                    
+                    @Override
+                    public void onSuccess(final Response r) {
+                        inFlight.release();
+                        response.complete(r);
+                    }
+                    
+                    @Override
+                    public void onFailure(final Exception e) {
+                        inFlight.release();
+                        response.completeExceptionally(e);
+                    }
+                });
+            }
+            // wait for all the requests to finish before reporting any errors
+            CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0]))
+                    .exceptionally(e -> null).get();
+            for (final CompletableFuture<Response> r: responses) {
+                try {
+                    checkBulkResponse(indexName, r.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ResponseException) {
+                        throw toIOException((ResponseException) e.getCause());
+                    }
+                    throw new IOException(e.getCause().getMessage(), e.getCause());
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending bulk requests");
+        } catch (ExecutionException e) {
+            // can't happen, exceptions are replaced with null above
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    private Map<String, String> bulkParams(final boolean waitForRefresh) {
+        return waitForRefresh ? BULK_RESPONSE_FILTER_WAIT_FOR : BULK_RESPONSE_FILTER;
+    }
 
-            for (GUID id : idToObjCopy.keySet()) {
-                final ParsedObject obj = idToObjCopy.get(id);
-                final Map<String, Object> doc = convertObject(id, rule.getGlobalObjectType(), obj,
-                        data, timestamp, parentJsonValue, isPublic, lastVersion);
-                final Map<String, Object> index = new HashMap<>();
-                index.put("_index", indexName);
-                index.put("_type", getDataTableName());
-                index.put("parent", esParentId);
-                index.put("_id", id.getURLEncoded());
-
-                final Map<String, Object> header = ImmutableMap.of("index", index);
-                pw.println(UObject.transformObjectToString(header));
-                pw.println(UObject.transformObjectToString(doc));
+    /* ElasticSearch responds with a 200 even if some or all of the documents in a bulk request
+     * fail, so the individual items must be checked.
+     */
+    private void checkBulkResponse(final String indexName, final Response response)
+            throws IOException, IndexingConflictException {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                response.getEntity().getContent(), Map.class);
+        if (!Boolean.TRUE.equals(data.get("errors"))) {
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Map<String, Object>>> items =
+                (List<Map<String, Map<String, Object>>>) data.get("items");
+        String firstError = null;
+        int failed = 0;
+        boolean conflict = false;
+        for (final Map<String, Map<String, Object>> item: items) {
+            // each item has a single key, the action
+            final Map<String, Object> result = item.values().iterator().next();
+            if (result.get("error") != null) {
+                failed++;
+                conflict = conflict || Integer.valueOf(409).equals(result.get("status"));
+                if (firstError == null) {
+                    firstError = result.get("_id") + ": " + result.get("error");
+                }
             }
-            pw.close();
-            makeRequestBulk("POST", indexName, tempFile);
-            updateLastVersionsInData(indexName, pguid, lastVersion);
-        } finally {
-            tempFile.delete();
         }
-        refreshIndex(indexName);
+        final String err = String.format(
+                "Bulk indexing request to index %s failed for %s of %s documents. " +
+                "First failure: %s", indexName, failed, items.size(), firstError);
+        if (conflict) {
+            throw new IndexingConflictException(err, null);
+        }
+        throw new IOException(err);
     }
     
     private Map<String, Object> convertObject(
@@ -426,7 +939,100 @@ public class ElasticIndexingStorage implements IndexingStorage {
 
     @Override
     public void flushIndexing(final ObjectTypeParsingRules rule) throws IOException {
-        refreshIndex(checkIndex(rule, true));
+        refresh(checkIndex(rule, true));
+    }
+
+    /** Make any indexed data that is not yet visible to searches visible. For the
+     * {@link RefreshPolicy#NONE} policy, this marks the end of bulk indexing - the automatic
+     * ElasticSearch refresh is turned back on for any indexes where it was turned off.
+     * It is turned off again if an index is changed later.
+     * @throws IOException if an IO error occurs contacting the storage system.
+     */
+    @Override
+    public void flushIndexing() throws IOException {
+        for (final String indexName: new ArrayList<>(autoRefreshDisabled)) {
+            setAutoRefresh(indexName, true);
+            autoRefreshDisabled.remove(indexName);
+        }
+        refreshAllUnrefreshed();
+    }
+
+    private void refreshAllUnrefreshed() throws IOException {
+        for (final String indexName: new ArrayList<>(unrefreshed.keySet())) {
+            refresh(indexName);
+        }
+    }
+
+    private void setAutoRefresh(final String indexName, final boolean on) throws IOException {
+        // a null interval restores the default
+        makeRequestNoConflict("PUT", "/" + indexName + "/_settings", ImmutableMap.of("index",
+                Collections.singletonMap("refresh_interval", on ? null : "-1")));
+    }
+
+    /* Record that objects in an index have been changed. Depending on the refresh policy,
+     * the index is refreshed now or later.
+     */
+    private void changed(final String indexName, final Collection<GUID> guids)
+            throws IOException {
+        if (refreshPolicy.equals(RefreshPolicy.IMMEDIATE)) {
+            refreshIndex(indexName);
+        } else {
+            // ElasticSearch otherwise refreshes every index with changes each second
+            if (refreshPolicy.equals(RefreshPolicy.NONE) &&
+                    !autoRefreshDisabled.contains(indexName)) {
+                setAutoRefresh(indexName, false);
+                autoRefreshDisabled.add(indexName);
+            }
+            unrefreshed.computeIfAbsent(indexName, k -> ConcurrentHashMap.newKeySet())
+                    .addAll(toGUIDPrefixes(guids));
+        }
+    }
+
+    /* Refresh any index containing unrefreshed changes to the objects, since the changes won't
+     * be found by searches or updates by query until refreshed. A null index name means any
+     * index.
+     */
+    private void refreshIfUnrefreshed(final String indexName, final Collection<GUID> guids)
+            throws IOException {
+        if (unrefreshed.isEmpty()) {
+            return;
+        }
+        final Set<String> prefixes = toGUIDPrefixes(guids);
+        for (final String index: indexName == null ?
+                new ArrayList<>(unrefreshed.keySet()) : Arrays.asList(indexName)) {
+            final Set<String> changed = unrefreshed.get(index);
+            if (changed != null && !Collections.disjoint(changed, prefixes)) {
+                refresh(index);
+            }
+        }
+    }
+
+    private Set<String> toGUIDPrefixes(final Collection<GUID> guids) {
+        return guids.stream().map(g -> toGUIDPrefix(g)).collect(Collectors.toSet());
+    }
+
+    private void refresh(final String indexName) throws IOException {
+        // changes recorded after this point may not be covered by the refresh, and so are kept
+        final Set<String> changed = unrefreshed.remove(indexName);
+        try {
+            refreshIndex(indexName);
+        } catch (IOException | RuntimeException e) {
+            if (changed != null) {
+                unrefreshed.computeIfAbsent(indexName, k -> ConcurrentHashMap.newKeySet())
+                        .addAll(changed);
+            }
+            throw e;
+        }
+    }
+
+    private void refreshAll() {
+        try {
+            refreshAllUnrefreshed();
+        } catch (IOException | RuntimeException e) {
+            // the unrefreshed indexes are retried on the next run
+            System.err.println("Periodic refresh of Elasticsearch indexes failed: " +
+                    e.getClass().getName() + ": " + e.getMessage());
+        }
     }
 
     private Map<GUID, String> lookupParentDocIds(String indexName, Set<GUID> guids) throws IOException {
@@ -539,6 +1145,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 guid.getVersion(),
                 null, null))
                 .collect(Collectors.toSet());
+        refreshIfUnrefreshed(null, parentGUIDs);
         final String indexName = getAnyIndexPattern();
         // In next operation map value may contain one of possible parents in case objectType==null
         final Map<GUID, String> map = lookupParentDocIds(indexName, parentGUIDs);
@@ -585,97 +1192,20 @@ public class ElasticIndexingStorage implements IndexingStorage {
         return ret;
     }
     
-    private int updateLastVersionsInData(String indexName, GUID parentGUID,
-            int lastVersion) throws IOException, IndexingConflictException {
-        if (indexName == null) {
-            indexName = getAnyIndexPattern();
-        }
-
-        // query = {"bool": {"filter": [{"term": {"prefix": prefix}}]}}
-        Map<String, Object> query = ImmutableMap.of("bool",
-                                       ImmutableMap.of("filter",
-                                               Arrays.asList(ImmutableMap.of("term",
-                                                       ImmutableMap.of("prefix",
-                                                               toGUIDPrefix(parentGUID))))));
-
-        // params = {"lastver": lastVersion}
-        final Map<String, Object> params = ImmutableMap.of("lastver", lastVersion);
-
-        // script = {"inline": "ctx._source.islast = (ctx._source.version == params.lastver)",
-        //           "params": {"lastver": lastVersion}}
-        Map<String, Object> script = ImmutableMap.of(
-                "inline", "ctx._source.islast = (ctx._source.version == params.lastver);",
-                "params", params);
-
-        // doc = {"query": {"bool": {"filter": [{"term": {"prefix": prefix}}]}},
-        //        "script": {"inline": "ctx._source.islast = (ctx._source.version == params.lastver)",
-        //                   "params": {"lastver": lastVersion}}}
-        Map<String, Object> doc = ImmutableMap.of("query", query,
-                                                  "script", script);
-
-        String urlPath = "/" + indexName + "/" + getDataTableName() + "/_update_by_query";
-        Response resp = makeRequest("POST", urlPath, doc);
-        @SuppressWarnings("unchecked")
-        Map<String, Object> data = UObject.getMapper().readValue(
-                resp.getEntity().getContent(), Map.class);
-        return (Integer)data.get("updated");
-    }
-
-    private Map<GUID, String> checkParentDoc(String indexName, Set<GUID> parentGUIDs, 
-            boolean isPublic, int lastVersion) throws IOException, IndexingConflictException {
-        boolean changed = false;
-        Map<GUID, String> ret = new LinkedHashMap<>(lookupParentDocIds(indexName, parentGUIDs));
-        for (GUID parentGUID : parentGUIDs) {
-            if (ret.containsKey(parentGUID)) {
-                continue;
-            }
-            String prefix = toGUIDPrefix(parentGUID);
-            Map<String, Object> doc = new LinkedHashMap<>();
-            doc.put("pguid", parentGUID.toString());
-            doc.put("prefix", prefix);
-            doc.put("version", parentGUID.getVersion());
-            Set<Integer> accessGroupIds = new LinkedHashSet<>(Arrays.asList(
-                    ADMIN_ACCESS_GROUP));
-            if (parentGUID.getAccessGroupId() != null) {
-                accessGroupIds.add(parentGUID.getAccessGroupId());
-            }
-            if (isPublic) {
-                accessGroupIds.add(PUBLIC_ACCESS_GROUP);
-            }
-            Set<Integer> lastinGroupIds = parentGUID.getVersion() == lastVersion ? 
-                    accessGroupIds : Collections.emptySet();
-            doc.put("lastin", lastinGroupIds);
-            doc.put("groups", accessGroupIds);
-            doc.put("extpub", new ArrayList<Integer>());
-            Response resp = makeRequest("POST", "/" + indexName + "/" + getAccessTableName() + "/",
-                    doc);
-            @SuppressWarnings("unchecked")
-            Map<String, Object> data = UObject.getMapper().readValue(
-                    resp.getEntity().getContent(), Map.class);
-            ret.put(parentGUID, (String)data.get("_id"));
-            changed = true;
-            updateAccessGroupForVersions(indexName, parentGUID, lastVersion,
-                    parentGUID.getAccessGroupId(), isPublic, true);
-        }
-        if (changed) {
-            refreshIndex(indexName);
-        }
-        return ImmutableMap.copyOf(ret);
-    }
-    
+    // %1$s is the access group and %2$s is the last version of the object
     private static final String UPDATE_ACC_GRP_VERS_TEMPLATE =
-            "if (ctx._source.lastin.indexOf(params.%1$s) >= 0) {\n" +
-            "  if (ctx._source.version != params.lastver) {\n" +
-            "    ctx._source.lastin.remove(ctx._source.lastin.indexOf(params.%1$s));\n" +
-            "    if (ctx._source.extpub.indexOf(params.%1$s) >= 0) {\n" + 
-            "      ctx._source.extpub.remove(ctx._source.extpub.indexOf(params.%1$s));\n" +
+            "if (ctx._source.lastin.indexOf(%1$s) >= 0) {\n" +
+            "  if (ctx._source.version != %2$s) {\n" +
+            "    ctx._source.lastin.remove(ctx._source.lastin.indexOf(%1$s));\n" +
+            "    if (ctx._source.extpub.indexOf(%1$s) >= 0) {\n" + 
+            "      ctx._source.extpub.remove(ctx._source.extpub.indexOf(%1$s));\n" +
             "    }\n" +
             "  }\n" +
             "} else {\n" +
-            "  if (ctx._source.version == params.lastver) {\n" +
-            "    ctx._source.lastin.add(params.%1$s);\n" +
-            "    if (ctx._source.groups.indexOf(params.%1$s) < 0) {\n" +
-            "      ctx._source.groups.add(params.%1$s);\n" +
+            "  if (ctx._source.version == %2$s) {\n" +
+            "    ctx._source.lastin.add(%1$s);\n" +
+            "    if (ctx._source.groups.indexOf(%1$s) < 0) {\n" +
+            "      ctx._source.groups.add(%1$s);\n" +
             "    }\n" +
             "  }\n" +
             "}\n";
@@ -711,15 +1241,18 @@ public class ElasticIndexingStorage implements IndexingStorage {
         final Map<String, Object> params = new HashMap<>();
         params.put("lastver", lastVersion);
         if (accessGroupId != null) {
-            inline.append(String.format(UPDATE_ACC_GRP_VERS_TEMPLATE, "accgrp"));
+            inline.append(String.format(
+                    UPDATE_ACC_GRP_VERS_TEMPLATE, "params.accgrp", "params.lastver"));
             params.put("accgrp", accessGroupId);
         }
         if (includePublicAccessID) {
-            inline.append(String.format(UPDATE_ACC_GRP_VERS_TEMPLATE, "pubaccgrp"));
+            inline.append(String.format(
+                    UPDATE_ACC_GRP_VERS_TEMPLATE, "params.pubaccgrp", "params.lastver"));
             params.put("pubaccgrp", PUBLIC_ACCESS_GROUP);
         }
         if (includeAdminAccessID) {
-            inline.append(String.format(UPDATE_ACC_GRP_VERS_TEMPLATE, "adminaccgrp"));
+            inline.append(String.format(
+                    UPDATE_ACC_GRP_VERS_TEMPLATE, "params.adminaccgrp", "params.lastver"));
             params.put("adminaccgrp", ADMIN_ACCESS_GROUP);
         }
         Map<String, Object> script = new LinkedHashMap<>();
@@ -737,6 +1270,37 @@ public class ElasticIndexingStorage implements IndexingStorage {
         return (Integer)data.get("updated") > 0;
     }
 
+    /* Updates the access groups for many objects in one request. The last version and access
+     * group of each object are looked up in the parameters by the object's GUID prefix.
+     */
+    private void updateAccessGroupForVersions(
+            final Map<String, Integer> lastVersions,
+            final Map<String, Integer> accessGroups,
+            final boolean includeAdminAccessID)
+            throws IOException, IndexingConflictException {
+        final Map<String, Object> query = ImmutableMap.of("bool", ImmutableMap.of("filter",
+                Arrays.asList(createFilter("terms", "prefix", lastVersions.keySet()))));
+        final StringBuilder inline = new StringBuilder(
+                "def lastver = params.lastvers.get(ctx._source.prefix);\n" +
+                "def accgrp = params.accgrps.get(ctx._source.prefix);\n");
+        inline.append(String.format(UPDATE_ACC_GRP_VERS_TEMPLATE, "accgrp", "lastver"));
+        if (includeAdminAccessID) {
+            inline.append(String.format(
+                    UPDATE_ACC_GRP_VERS_TEMPLATE, "params.adminaccgrp", "lastver"));
+        }
+        final Map<String, Object> script = ImmutableMap.of(
+                "inline", inline.toString(),
+                "params", ImmutableMap.of(
+                        "lastvers", lastVersions,
+                        "accgrps", accessGroups,
+                        "adminaccgrp", ADMIN_ACCESS_GROUP));
+        final Map<String, Object> doc = ImmutableMap.of(
+                "query", query,
+                "script", script);
+        makeRequest("POST", "/" + getAnyIndexPattern() + "/" + getAccessTableName() +
+                "/_update_by_query", doc);
+    }
+
     private boolean removeAccessGroupForVersion(String indexName, GUID guid, 
             int accessGroupId) throws IOException, IndexingConflictException {
         if (indexName == null) {
@@ -826,6 +1390,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final Object value,
             final boolean allVersions)
             throws IOException, IndexingConflictException {
+        refreshIfUnrefreshed(null, Arrays.asList(object));
         final String index = getAnyIndexPattern();
         final Map<String, Object> query;
         if (allVersions) {
@@ -851,6 +1416,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
     @Override
     public void shareObjects(Set<GUID> guids, int accessGroupId, 
             boolean isExternalPublicGroup) throws IOException, IndexingConflictException {
+        refreshIfUnrefreshed(null, guids);
         Map<String, Set<GUID>> indexToGuids = groupParentIdsByIndex(guids);
         for (String indexName : indexToGuids.keySet()) {
             Set<GUID> toAddExtPub = new LinkedHashSet<GUID>();
@@ -874,9 +1440,10 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 }
             }
             if (needRefresh) {
-                refreshIndex(indexName);
+                changed(indexName, indexToGuids.get(indexName));
             }
             if (!toAddExtPub.isEmpty()) {
+                refreshIfUnrefreshed(indexName, indexToGuids.get(indexName));
                 needRefresh = false;
                 for (GUID guid : indexToGuids.get(indexName)) {
                     if (addExtPubForVersion(indexName, guid, accessGroupId)) {
@@ -884,7 +1451,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                     }
                 }
                 if (needRefresh) {
-                    refreshIndex(indexName);
+                    changed(indexName, indexToGuids.get(indexName));
                 }
             }
         }
@@ -894,6 +1461,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
     @Override
     public void unshareObjects(Set<GUID> guids, int accessGroupId)
             throws IOException, IndexingConflictException {
+        refreshIfUnrefreshed(null, guids);
         Map<String, Set<GUID>> indexToGuids = groupParentIdsByIndex(guids);
         for (String indexName : indexToGuids.keySet()) {
             boolean needRefresh = false;
@@ -909,7 +1477,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 //TODO NOW how is share bit unset?
             }
             if (needRefresh) {
-                refreshIndex(indexName);
+                changed(indexName, indexToGuids.get(indexName));
             }
         }
     }
@@ -917,21 +1485,35 @@ public class ElasticIndexingStorage implements IndexingStorage {
     //IO exception thrown for deserialization & elasticsearch contact errors
     @Override
     public void deleteAllVersions(final GUID guid) throws IOException, IndexingConflictException {
-        // could optimize later by making LLV return the index name
-        final Integer ver = loadLastVersion(null, guid, null);
-        if (ver == null) {
-            //TODO NOW throw exception? means a delete event occurred when there were no objects
+        deleteAllVersions(Collections.singleton(guid));
+    }
+    
+    //IO exception thrown for deserialization & elasticsearch contact errors
+    @Override
+    public void deleteAllVersions(final Set<GUID> guids)
+            throws IOException, IndexingConflictException {
+        Utils.nonNull(guids, "guids");
+        Utils.noNulls(guids, "null item in guids");
+        if (guids.isEmpty()) {
             return;
         }
-        final String indexName = getAnyIndexPattern();
-        setFieldOnObject(withVersion(guid, ver), "islast", false, false);
+        refreshIfUnrefreshed(null, guids);
+        final Map<String, Integer> accessGroups = toAccessGroupsByPrefix(guids);
+        // no version of a deleted object is the last version
+        final Map<String, Object> query = ImmutableMap.of("bool", ImmutableMap.of("filter",
+                Arrays.asList(createFilter("terms", "prefix", accessGroups.keySet()))));
+        final Map<String, Object> doc = ImmutableMap.of(
+                "query", query,
+                "script", ImmutableMap.of("inline", "ctx._source.islast = false;"));
+        makeRequest("POST", "/" + getAnyIndexPattern() + "/" + getDataTableName() +
+                "/_update_by_query", doc);
         // -3 is a hack to always remove access groups
-        updateAccessGroupForVersions(indexName, guid, -3, guid.getAccessGroupId(), false, false);
+        updateAccessGroupForVersions(accessGroups.keySet().stream().collect(
+                Collectors.toMap(p -> p, p -> -3)), accessGroups, false);
         /* changing the public field doesn't make a ton of sense - the object is still in a public
          * workspace. 
          * TODO NOW add a deleted flag, use that instead.
          */
-//        setFieldOnObjectForAllVersions(guid, "public", false);
         //TODO NOW this doesn't handle removing public (-1) from the access doc because it can't know that's the right thing to do
         //TODO NOW admin access group id has same problem as public access group id
     }
@@ -940,21 +1522,81 @@ public class ElasticIndexingStorage implements IndexingStorage {
     @Override
     public void undeleteAllVersions(final GUID guid)
             throws IOException, IndexingConflictException {
-        // could optimize later by making LLV return the index name
-        final Integer ver = loadLastVersion(null, guid, null);
-        if (ver == null) {
+        undeleteAllVersions(Collections.singleton(guid));
+    }
+    
+    //IO exception thrown for deserialization & elasticsearch contact errors
+    @Override
+    public void undeleteAllVersions(final Set<GUID> guids)
+            throws IOException, IndexingConflictException {
+        Utils.nonNull(guids, "guids");
+        Utils.noNulls(guids, "null item in guids");
+        if (guids.isEmpty()) {
+            return;
+        }
+        refreshIfUnrefreshed(null, guids);
+        final Map<String, Integer> accessGroups = toAccessGroupsByPrefix(guids);
+        final Map<String, Integer> lastVersions = loadLastVersions(accessGroups.keySet());
+        if (lastVersions.isEmpty()) {
             //TODO NOW throw exception? means an undelete event occurred when there were no objects
             return;
         }
-        updateLastVersionsInData(null, guid, ver);
-        updateAccessGroupForVersions(null, guid, ver, guid.getAccessGroupId(), false, true);
+        final Map<String, Object> query = ImmutableMap.of("bool", ImmutableMap.of("filter",
+                Arrays.asList(createFilter("terms", "prefix", lastVersions.keySet()))));
+        final Map<String, Object> script = ImmutableMap.of(
+                "inline", "ctx._source.islast = " +
+                        "(ctx._source.version == params.lastvers.get(ctx._source.prefix));",
+                "params", ImmutableMap.of("lastvers", lastVersions));
+        final Map<String, Object> doc = ImmutableMap.of(
+                "query", query,
+                "script", script);
+        makeRequest("POST", "/" + getAnyIndexPattern() + "/" + getDataTableName() +
+                "/_update_by_query", doc);
+        updateAccessGroupForVersions(lastVersions, accessGroups, true);
         // TODO NOW remove deleted flag from delete all versions
-        
     }
     
-    private GUID withVersion(final GUID guid, int ver) {
-        return new GUID(guid.getStorageCode(), guid.getAccessGroupId(),
-                guid.getAccessGroupObjectId(), ver, null, null);
+    private Map<String, Integer> toAccessGroupsByPrefix(final Set<GUID> guids) {
+        final Map<String, Integer> ret = new HashMap<>();
+        for (final GUID g: guids) {
+            ret.put(toGUIDPrefix(g), g.getAccessGroupId());
+        }
+        return ret;
+    }
+    
+    /* Gets the last version of each object with a single aggregation, rather than a search
+     * per object. Objects with no versions in the index are not included in the results.
+     */
+    private Map<String, Integer> loadLastVersions(final Set<String> prefixes) throws IOException {
+        final Map<String, Object> aggs = ImmutableMap.of("prefixes", ImmutableMap.of(
+                "terms", ImmutableMap.of("field", "prefix", "size", prefixes.size()),
+                "aggregations", ImmutableMap.of("lastver",
+                        ImmutableMap.of("max", ImmutableMap.of("field", "version")))));
+        final Map<String, Object> doc = ImmutableMap.of(
+                "query", ImmutableMap.of("bool", ImmutableMap.of("filter",
+                        Arrays.asList(createFilter("terms", "prefix", prefixes)))),
+                "aggregations", aggs,
+                "size", 0);
+        final String urlPath = "/" + getAnyIndexPattern() + "/" + getAccessTableName() +
+                "/_search";
+        final Response resp = makeRequestNoConflict("GET", urlPath, doc);
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> aggMap = (Map<String, Object>) data.get("aggregations");
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> prefixMap = (Map<String, Object>) aggMap.get("prefixes");
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> buckets =
+                (List<Map<String, Object>>) prefixMap.get("buckets");
+        final Map<String, Integer> ret = new HashMap<>();
+        for (final Map<String, Object> bucket: buckets) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> lastver = (Map<String, Object>) bucket.get("lastver");
+            ret.put((String) bucket.get("key"), ((Number) lastver.get("value")).intValue());
+        }
+        return ret;
     }
     
     //IO exception thrown for deserialization & elasticsearch contact errors
@@ -981,6 +1623,34 @@ public class ElasticIndexingStorage implements IndexingStorage {
             throws IOException, IndexingConflictException {
         setFieldOnObject(guid, "public", false, true);
     }
+    
+    //IO exception thrown for deserialization & elasticsearch contact errors
+    @Override
+    public int setPublicOnAccessGroup(
+            final String storageCode,
+            final int accessGroupId,
+            final boolean isPublic)
+            throws IOException, IndexingConflictException {
+        Utils.notNullOrEmpty(storageCode, "storageCode cannot be null or whitespace");
+        // any unrefreshed change may be in the access group, and there's no cheap way to tell
+        refreshAllUnrefreshed();
+        final Map<String, Object> query = ImmutableMap.of("bool", ImmutableMap.of("filter",
+                Arrays.asList(createFilter("term", OBJ_STORAGE_CODE, storageCode),
+                        createFilter("term", OBJ_ACCESS_GROUP_ID, accessGroupId))));
+        final Map<String, Object> script = ImmutableMap.of(
+                "inline", "ctx._source[params.field] = params.value",
+                "params", ImmutableMap.of("field", OBJ_PUBLIC, "value", isPublic));
+        final Map<String, Object> doc = ImmutableMap.of(
+                "query", query,
+                "script", script);
+        final String urlPath = "/" + getAnyIndexPattern() + "/" + getDataTableName() +
+                "/_update_by_query";
+        final Response resp = makeRequest("POST", urlPath, doc);
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        return (int) data.get("updated");
+    }
 
     private boolean addExtPubForVersion(String indexName, GUID guid, 
             int accessGroupId) throws IOException, IndexingConflictException {
@@ -1020,6 +1690,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
     @Override
     public void publishObjectsExternally(Set<GUID> guids, int accessGroupId)
             throws IOException, IndexingConflictException {
+        refreshIfUnrefreshed(null, guids);
         Map<String, Set<GUID>> indexToGuids = groupParentIdsByIndex(guids);
         for (String indexName : indexToGuids.keySet()) {
             boolean needRefresh = false;
@@ -1029,7 +1700,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 }
             }
             if (needRefresh) {
-                refreshIndex(indexName);
+                changed(indexName, indexToGuids.get(indexName));
             }
         }
     }
@@ -1071,6 +1742,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
     @Override
     public void unpublishObjectsExternally(Set<GUID> guids, int accessGroupId)
             throws IOException, IndexingConflictException {
+        refreshIfUnrefreshed(null, guids);
         Map<String, Set<GUID>> indexToGuids = groupParentIdsByIndex(guids);
         for (String indexName : indexToGuids.keySet()) {
             boolean needRefresh = false;
@@ -1080,7 +1752,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
                 }
             }
             if (needRefresh) {
-                refreshIndex(indexName);
+                changed(indexName, indexToGuids.get(indexName));
             }
         }
     }
@@ -1628,7 +2300,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
         return refreshIndex(toIndexString(rule));
     }
 
-    private RestClient getRestClient() {
+    private synchronized RestClient getRestClient() {
         if (restClient == null) {
             RestClientBuilder restClientBld = RestClient.builder(esHost);
             restClientBld.setRequestConfigCallback(new RestClientBuilder.RequestConfigCallback() {
@@ -1686,11 +2358,18 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final File jsonData) 
             throws IOException, IndexingConflictException {
         try (InputStream is = new FileInputStream(jsonData)) {
-            return makeRequest(reqType, "/" + indexName + "/_bulk", Collections.emptyMap(),
-                    new InputStreamEntity(is));
+            return makeRequestBulk(reqType, indexName, new InputStreamEntity(is));
         }
     }
     
+    private Response makeRequestBulk(
+            final String reqType,
+            final String indexName,
+            final HttpEntity jsonData) 
+            throws IOException, IndexingConflictException {
+        return makeRequest(reqType, "/" + indexName + "/_bulk", Collections.emptyMap(), jsonData);
+    }
+    
     private Response makeRequest(
             final String reqType,
             final String urlPath,
@@ -1710,14 +2389,20 @@ public class ElasticIndexingStorage implements IndexingStorage {
         try {
             return getRestClient().performRequest(reqType, urlPath, attributes, body);
         } catch (ResponseException re) {
-            if (re.getResponse().getStatusLine().getStatusCode() == 409) {
-                // this is really difficult to test, and so is not tested
-                throw new IndexingConflictException(re.getMessage(), re);
-            }
-            throw new IOException(re.getMessage(), re);
+            throw toIOException(re);
         }
     }
     
+    // throws the exception if the request conflicted, returns it otherwise
+    private IOException toIOException(final ResponseException re)
+            throws IndexingConflictException {
+        if (re.getResponse().getStatusLine().getStatusCode() == 409) {
+            // this is really difficult to test, and so is not tested
+            throw new IndexingConflictException(re.getMessage(), re);
+        }
+        return new IOException(re.getMessage(), re);
+    }
+    
     private StringEntity stringEntity(final String string) {
         try {
             return new StringEntity(string);
@@ -1872,7 +2557,11 @@ public class ElasticIndexingStorage implements IndexingStorage {
         makeRequestNoConflict("PUT", "/" + indexName, doc);
     }
     
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
         if (restClient != null) {
             restClient.close();
             restClient = null;
@@ -46,9 +46,22 @@ public interface IndexingStorage {
             String parentJsonValue,
             GUID pguid,
             Map<GUID, ParsedObject> idToObj,
-            boolean isPublic) 
+            boolean isPublic)
             throws IOException, IndexingConflictException;
-    
+
+    /** Adds the objects parsed from multiple source objects to searchable indexing storage,
+     * combining the writes to the storage system where possible. Objects parsed with
+     * subobject parsing rules are written before objects parsed with other rules.
+     * Equivalent to calling
+     * {@link #indexObjects(ObjectTypeParsingRules, SourceData, Instant, String, GUID, Map,
+     * boolean)} for each set of objects in the list.
+     * @param objects the objects to index.
+     * @throws IOException if an IO error occurs.
+     * @throws IndexingConflictException if a conflict occurs while modifying the index.
+     */
+    public void indexObjects(List<ObjectsToIndex> objects)
+            throws IOException, IndexingConflictException;
+
     /** Check that the parent objects (e.g. the access information) exists for a set of GUIDS.
      * Equivalent to {@link #checkParentGuidsExist(String, Set)} with a null String.
      * @param parentGuids the parent guids to check.
@@ -60,6 +73,11 @@ public interface IndexingStorage {
 
     public void flushIndexing(ObjectTypeParsingRules objectType) throws IOException;
     
+    /** Make any indexed data that is not yet visible to searches visible.
+     * @throws IOException if an IO error occurs contacting the storage system.
+     */
+    public void flushIndexing() throws IOException;
+    
     public void shareObjects(Set<GUID> guids, int accessGroupId, boolean isPublicGroup)
             throws IOException, IndexingConflictException;
 
@@ -149,6 +167,24 @@ public interface IndexingStorage {
      */
     void undeleteAllVersions(GUID guid) throws IOException, IndexingConflictException;
 
+    /** Delete all versions of multiple objects from their access groups. The objects are
+     * updated with a fixed number of requests to the storage system regardless of the number
+     * of objects. Equivalent to calling {@link #deleteAllVersions(GUID)} for each object.
+     * @param guids the objects to delete.
+     * @throws IOException if an IO error occurs when contacting the indexing storage.
+     * @throws IndexingConflictException if a conflict occurs while modifying the index.
+     */
+    void deleteAllVersions(Set<GUID> guids) throws IOException, IndexingConflictException;
+
+    /** Undelete all versions of multiple objects in their access groups. The objects are
+     * updated with a fixed number of requests to the storage system regardless of the number
+     * of objects. Equivalent to calling {@link #undeleteAllVersions(GUID)} for each object.
+     * @param guids the objects to undelete.
+     * @throws IOException if an IO error occurs when contacting the indexing storage.
+     * @throws IndexingConflictException if a conflict occurs while modifying the index.
+     */
+    void undeleteAllVersions(Set<GUID> guids) throws IOException, IndexingConflictException;
+
     /** Set all versions of an object to public.
      * @param guid the object to publish.
      * @throws IOException if an IO error occurs when contacting the indexing storage.
@@ -162,4 +198,17 @@ public interface IndexingStorage {
      * @throws IndexingConflictException if a conflict occurs while modifying the index. 
      */
     void unpublishAllVersions(GUID guid) throws IOException, IndexingConflictException;
+    
+    /** Set all versions of all the objects in an access group to public or private. The
+     * objects are updated in a single request to the storage system regardless of the number
+     * of objects in the access group.
+     * @param storageCode the storage code of the access group.
+     * @param accessGroupId the ID of the access group.
+     * @param isPublic true to make the objects public, false to make them private.
+     * @return the number of documents modified, including sub objects.
+     * @throws IOException if an IO error occurs when contacting the indexing storage.
+     * @throws IndexingConflictException if a conflict occurs while modifying the index.
+     */
+    int setPublicOnAccessGroup(String storageCode, int accessGroupId, boolean isPublic)
+            throws IOException, IndexingConflictException;
 }
@@ -0,0 +1,276 @@
+package kbasesearchengine.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.tools.Utils;
+
+/** The version bookkeeping for one version of an object that is being indexed, computed from
+ * the access documents already in the index for the object.
+ *
+ * The state determines the last version of the object, the access document to create for the
+ * version being indexed if it doesn't exist, the changes to the last version access groups of
+ * the other versions' access documents, and the previous last version if the version being
+ * indexed replaces it. The access document changes can then be written in bulk rather than by
+ * updating by query. The data documents of an object can be far more numerous than its access
+ * documents, and so are not loaded; only the data documents of the replaced last version need
+ * to change.
+ */
+public class ObjectVersionState {
+
+    /** An access document for a version of an object. */
+    public static class AccessDoc {
+
+        private final String id;
+        private final long esVersion;
+        private final int version;
+        private final List<Integer> lastIn;
+        private final List<Integer> groups;
+        private final List<Integer> extPub;
+
+        /** Create an access document.
+         * @param id the document ID.
+         * @param esVersion the ElasticSearch version of the document.
+         * @param version the version of the object.
+         * @param lastIn the access groups in which this version is the last version.
+         * @param groups the access groups that can access this version.
+         * @param extPub the external access groups that have published this version.
+         */
+        public AccessDoc(
+                final String id,
+                final long esVersion,
+                final int version,
+                final Collection<Integer> lastIn,
+                final Collection<Integer> groups,
+                final Collection<Integer> extPub) {
+            Utils.nonNull(id, "id");
+            Utils.nonNull(lastIn, "lastIn");
+            Utils.nonNull(groups, "groups");
+            Utils.nonNull(extPub, "extPub");
+            this.id = id;
+            this.esVersion = esVersion;
+            this.version = version;
+            this.lastIn = Collections.unmodifiableList(new ArrayList<>(lastIn));
+            this.groups = Collections.unmodifiableList(new ArrayList<>(groups));
+            this.extPub = Collections.unmodifiableList(new ArrayList<>(extPub));
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getESVersion() {
+            return esVersion;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public List<Integer> getLastIn() {
+            return lastIn;
+        }
+
+        public List<Integer> getGroups() {
+            return groups;
+        }
+
+        public List<Integer> getExtPub() {
+            return extPub;
+        }
+    }
+
+    private final GUID parentGUID;
+    private final int lastVersion;
+    private final String parentDocId;
+    private final Optional<Map<String, Object>> newAccessDoc;
+    private final Map<AccessDoc, Map<String, Object>> accessDocUpdates;
+    private final Optional<Integer> replacedLastVersion;
+
+    /** Compute the version state.
+     * @param parentGUID the GUID of the object version being indexed.
+     * @param isPublic whether the object is public.
+     * @param accessDocs the access documents in the index for all versions of the object.
+     */
+    public ObjectVersionState(
+            final GUID parentGUID,
+            final boolean isPublic,
+            final Collection<AccessDoc> accessDocs) {
+        Utils.nonNull(parentGUID, "parentGUID");
+        Utils.nonNull(accessDocs, "accessDocs");
+        if (parentGUID.getVersion() == null || parentGUID.getSubObjectType() != null) {
+            throw new IllegalArgumentException(
+                    "parentGUID must have a version and no subobject: " + parentGUID);
+        }
+        this.parentGUID = parentGUID;
+        Integer previousLast = null;
+        AccessDoc existing = null;
+        for (final AccessDoc ad: accessDocs) {
+            if (previousLast == null || ad.getVersion() > previousLast) {
+                previousLast = ad.getVersion();
+            }
+            if (ad.getVersion() == parentGUID.getVersion()) {
+                existing = ad;
+            }
+        }
+        if (previousLast != null && previousLast < parentGUID.getVersion()) {
+            lastVersion = parentGUID.getVersion();
+            replacedLastVersion = Optional.of(previousLast);
+        } else {
+            lastVersion = previousLast == null ? parentGUID.getVersion() : previousLast;
+            replacedLastVersion = Optional.absent();
+        }
+        final Map<AccessDoc, Map<String, Object>> updates = new LinkedHashMap<>();
+        if (existing != null) {
+            parentDocId = existing.getId();
+            newAccessDoc = Optional.absent();
+        } else {
+            parentDocId = toAccessDocId(parentGUID);
+            newAccessDoc = Optional.of(buildAccessDoc(isPublic));
+            // only update the other versions' access groups when a version is first seen, as
+            // for the original update by query
+            final List<Integer> accessGroups = new ArrayList<>();
+            if (parentGUID.getAccessGroupId() != null) {
+                accessGroups.add(parentGUID.getAccessGroupId());
+            }
+            if (isPublic) {
+                accessGroups.add(ElasticIndexingStorage.PUBLIC_ACCESS_GROUP);
+            }
+            accessGroups.add(ElasticIndexingStorage.ADMIN_ACCESS_GROUP);
+            for (final AccessDoc ad: accessDocs) {
+                final Map<String, Object> update = updateAccessGroups(ad, accessGroups);
+                if (update != null) {
+                    updates.put(ad, update);
+                }
+            }
+        }
+        accessDocUpdates = Collections.unmodifiableMap(updates);
+    }
+
+    /** Get the ID of the access document for a version of an object that is created by
+     * this class.
+     * @param parentGUID the GUID of the object version.
+     * @return the document ID.
+     */
+    public static String toAccessDocId(final GUID parentGUID) {
+        return parentGUID.toString();
+    }
+
+    private Map<String, Object> buildAccessDoc(final boolean isPublic) {
+        final Map<String, Object> doc = new LinkedHashMap<>();
+        doc.put("pguid", parentGUID.toString());
+        doc.put("prefix", new GUID(parentGUID.getStorageCode(), parentGUID.getAccessGroupId(),
+                parentGUID.getAccessGroupObjectId(), null, null, null).toString());
+        doc.put("version", parentGUID.getVersion());
+        final Set<Integer> accessGroupIds = new LinkedHashSet<>(Arrays.asList(
+                ElasticIndexingStorage.ADMIN_ACCESS_GROUP));
+        if (parentGUID.getAccessGroupId() != null) {
+            accessGroupIds.add(parentGUID.getAccessGroupId());
+        }
+        if (isPublic) {
+            accessGroupIds.add(ElasticIndexingStorage.PUBLIC_ACCESS_GROUP);
+        }
+        doc.put("lastin", isLastVersion(parentGUID.getVersion()) ?
+                accessGroupIds : Collections.emptySet());
+        doc.put("groups", accessGroupIds);
+        doc.put("extpub", new ArrayList<Integer>());
+        return doc;
+    }
+
+    // returns null if there are no changes
+    private Map<String, Object> updateAccessGroups(
+            final AccessDoc ad,
+            final List<Integer> accessGroups) {
+        final List<Integer> lastIn = new ArrayList<>(ad.getLastIn());
+        final List<Integer> groups = new ArrayList<>(ad.getGroups());
+        final List<Integer> extPub = new ArrayList<>(ad.getExtPub());
+        final boolean last = isLastVersion(ad.getVersion());
+        for (final Integer group: accessGroups) {
+            if (lastIn.contains(group)) {
+                if (!last) {
+                    lastIn.remove(group);
+                    extPub.remove(group);
+                }
+            } else if (last) {
+                lastIn.add(group);
+                if (!groups.contains(group)) {
+                    groups.add(group);
+                }
+            }
+        }
+        final Map<String, Object> update = new LinkedHashMap<>();
+        if (!lastIn.equals(ad.getLastIn())) {
+            update.put("lastin", lastIn);
+        }
+        if (!groups.equals(ad.getGroups())) {
+            update.put("groups", groups);
+        }
+        if (!extPub.equals(ad.getExtPub())) {
+            update.put("extpub", extPub);
+        }
+        return update.isEmpty() ? null : update;
+    }
+
+    /** Get the GUID of the object version being indexed.
+     * @return the GUID.
+     */
+    public GUID getParentGUID() {
+        return parentGUID;
+    }
+
+    /** Get the last version of the object, including the version being indexed.
+     * @return the last version.
+     */
+    public int getLastVersion() {
+        return lastVersion;
+    }
+
+    /** Check whether a version is the last version of the object.
+     * @param version the version to check.
+     * @return true if the version is the last version.
+     */
+    public boolean isLastVersion(final int version) {
+        return version == lastVersion;
+    }
+
+    /** Get the ID of the access document for the version being indexed, whether it exists or
+     * is to be created.
+     * @return the document ID.
+     */
+    public String getParentDocId() {
+        return parentDocId;
+    }
+
+    /** Get the access document to create for the version being indexed.
+     * @return the document, or absent if the document already exists.
+     */
+    public Optional<Map<String, Object>> getNewAccessDoc() {
+        return newAccessDoc;
+    }
+
+    /** Get the changes to make to the access documents of other versions of the object.
+     * @return a mapping from the access document to the changed fields and their new values.
+     */
+    public Map<AccessDoc, Map<String, Object>> getAccessDocUpdates() {
+        return accessDocUpdates;
+    }
+
+    /** Get the previous last version of the object if the version being indexed replaces it
+     * as the last version. The data documents of the previous last version must then be
+     * marked as no longer the last version.
+     * @return the previous last version, or absent if the last version doesn't change.
+     */
+    public Optional<Integer> getReplacedLastVersion() {
+        return replacedLastVersion;
+    }
+}
@@ -0,0 +1,93 @@
+package kbasesearchengine.search;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.parse.ParsedObject;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.tools.Utils;
+
+/** The objects parsed from one version of a source object with one set of parsing rules,
+ * ready to be sent to the indexing storage system.
+ *
+ * The arguments are the same as those of
+ * {@link IndexingStorage#indexObjects(ObjectTypeParsingRules, SourceData, Instant, String, GUID,
+ * Map, boolean)}.
+ */
+public class ObjectsToIndex {
+
+    private final ObjectTypeParsingRules rule;
+    private final SourceData sourceData;
+    private final Instant timestamp;
+    private final String parentJson;
+    private final GUID parentGUID;
+    private final Map<GUID, ParsedObject> idToObj;
+    private final boolean isPublic;
+
+    /** Create the objects to index.
+     * @param rule the parsing rules used to parse the objects.
+     * @param sourceData the data for the source object.
+     * @param timestamp the time the source object was saved.
+     * @param parentJson the JSON extracted from the source object for the parent document, or
+     * null if the parsing rules do not require any.
+     * @param parentGUID the GUID of the source object version.
+     * @param idToObj the parsed objects.
+     * @param isPublic whether the source object is public.
+     */
+    public ObjectsToIndex(
+            final ObjectTypeParsingRules rule,
+            final SourceData sourceData,
+            final Instant timestamp,
+            final String parentJson,
+            final GUID parentGUID,
+            final Map<GUID, ParsedObject> idToObj,
+            final boolean isPublic) {
+        Utils.nonNull(rule, "rule");
+        Utils.nonNull(sourceData, "sourceData");
+        Utils.nonNull(timestamp, "timestamp");
+        Utils.nonNull(parentGUID, "parentGUID");
+        Utils.nonNull(idToObj, "idToObj");
+        this.rule = rule;
+        this.sourceData = sourceData;
+        this.timestamp = timestamp;
+        this.parentJson = parentJson;
+        this.parentGUID = parentGUID;
+        this.idToObj = Collections.unmodifiableMap(new HashMap<>(idToObj));
+        this.isPublic = isPublic;
+    }
+
+    public ObjectTypeParsingRules getRule() {
+        return rule;
+    }
+
+    public SourceData getSourceData() {
+        return sourceData;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    /** Get the JSON extracted from the source object for the parent document.
+     * @return the JSON, or null if the parsing rules do not require any.
+     */
+    public String getParentJson() {
+        return parentJson;
+    }
+
+    public GUID getParentGUID() {
+        return parentGUID;
+    }
+
+    public Map<GUID, ParsedObject> getIdToObj() {
+        return idToObj;
+    }
+
+    public boolean isPublic() {
+        return isPublic;
+    }
+}
@@ -0,0 +1,28 @@
+package kbasesearchengine.search;
+
+/** When the indexing storage makes changes visible to searches by refreshing the ElasticSearch
+ * index.
+ *
+ * Regardless of the policy, an index is refreshed before an object is modified if the object
+ * has changes that are not yet visible, since the modification depends on searching the
+ * object's documents.
+ */
+public enum RefreshPolicy {
+
+    /** Refresh the index after every modification. */
+    IMMEDIATE,
+
+    /** Refresh indexes with changes at a fixed interval. */
+    PERIODIC,
+
+    /** Wait for the next scheduled ElasticSearch refresh at the end of each indexing request
+     * rather than forcing a refresh. Other modifications are not refreshed.
+     */
+    WAIT_FOR,
+
+    /** Never refresh, other than when requested. The automatic ElasticSearch refresh is also
+     * turned off for indexes with changes until indexing is flushed. Intended for bulk
+     * reindexing, where the indexes are refreshed once all the data is loaded.
+     */
+    NONE;
+}
@@ -15,6 +15,7 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -200,7 +201,8 @@ public class SearchTools {
             }
         }
         try {
-            setUpMongoDBs(cfg, args.genWSEvents, args.dropDB || args.startCoordinator || startWorker);
+            setUpMongoDBs(cfg, args.genWSEvents, args.dropDB || args.startCoordinator ||
+                    startWorker || args.archiveEvents);
             setUpElasticSearch(cfg, args.dropDB || startWorker);
         } catch (MongoException | IOException e) {
             printError(e, args.verbose);
@@ -229,6 +231,20 @@ public class SearchTools {
                 return 1;
             }
         }
+        if (args.archiveEvents) {
+            try {
+                final StatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
+                final Instant now = Instant.now();
+                final long archived = storage.archiveEvents(
+                        now.minus(cfg.getEventRetentionDays(), ChronoUnit.DAYS),
+                        now.plus(cfg.getEventArchiveRetentionDays(), ChronoUnit.DAYS));
+                out.println(String.format("Archived %s events", archived));
+                noCommand = false;
+            } catch (StorageInitException | FatalRetriableIndexingException ex) {
+                printError(ex, args.verbose);
+                return 1;
+            }
+        }
         if (args.startCoordinator) {
             try {
                 printVer();
@@ -350,7 +366,9 @@ public class SearchTools {
         
         final StatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, MAX_Q_SIZE);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, MAX_Q_SIZE,
+                cfg.getCycleMinIntervalMS(), cfg.getCycleMaxIntervalMS(),
+                cfg.getCoordinatorShard());
         coord.startIndexer();
         return coord;
     }
@@ -382,13 +400,25 @@ public class SearchTools {
                 cfg.getWorkspaceURL(), kbaseIndexerToken);
         wsClient.setIsInsecureHttpConnectionAllowed(true); //TODO SEC only do if http
         final EventHandler weh = new WorkspaceEventHandler(
-                new CloneableWorkspaceClientImpl(wsClient));
+                new CloneableWorkspaceClientImpl(wsClient),
+                cfg.getWorkspaceTagCacheLifetimeSec(),
+                cfg.getWorkspaceTagCacheSize(),
+                cfg.getWorkspaceRefBatchSize(),
+                cfg.getWorkspaceRefConcurrency());
         
         final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
                 getID(id), tempDir.toPath(), logger)
                 .withStorage(storage, ss, indexStore)
                 .withEventHandler(weh)
-                .withMaxObjectsPerIndexingLoad(MAX_OBJECTS_PER_LOAD);
+                .withMaxObjectsPerIndexingLoad(MAX_OBJECTS_PER_LOAD)
+                .withWorkerThreads(cfg.getWorkerThreads())
+                .withChildThreads(cfg.getChildThreads())
+                .withStageThreads(cfg.getParseThreads(), cfg.getIndexThreads())
+                .withStageQueueSize(cfg.getStageQueueSize())
+                .withBatchSize(cfg.getWorkerBatchSize())
+                .withInteractiveWeight(cfg.getWorkerInteractiveWeight())
+                .withLookupCacheSize(cfg.getWorkerLookupCacheSize())
+                .withCycleInterval(cfg.getCycleMinIntervalMS(), cfg.getCycleMaxIntervalMS());
         cfg.getWorkerCodes().stream().forEach(wc -> wrkCfg.withWorkerCode(wc));
         
         final IndexerWorker wrk = new IndexerWorker(wrkCfg.build());
@@ -466,6 +496,10 @@ public class SearchTools {
             esStorage.setEsPassword(new String(cfg.getElasticPassword().get()));
         }
         esStorage.setIndexNamePrefix(cfg.getElasticNamespace() + ".");
+        esStorage.setBulkLimits(cfg.getElasticBulkMaxDocs(), cfg.getElasticBulkMaxBytes(),
+                cfg.getElasticBulkConcurrency());
+        esStorage.setRefreshPolicy(cfg.getElasticRefreshPolicy(),
+                cfg.getElasticRefreshIntervalMS());
         indexStore = esStorage;
     }
 
@@ -687,6 +721,11 @@ public class SearchTools {
                 " indexer workers")
         private boolean resetFailedEvents;
         
+        @Parameter(names = {"--archive-events"}, description =
+                "Move events that have finished processing and are older than the configured " +
+                "retention time out of the event database and into the event archive")
+        private boolean archiveEvents;
+        
         @Parameter(names = {"-w", "--generate-workspace-events"}, description =
                 "Generate events for all objects in the workspace service database. " +
                 "Can be used with -r to specify particular workspaces, objects, or versions.")
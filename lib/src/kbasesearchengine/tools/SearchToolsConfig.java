@@ -16,6 +16,11 @@ import java.util.Set;
 
 import com.google.common.base.Optional;
 
+import kbasesearchengine.events.AccessGroupShard;
+import kbasesearchengine.events.handler.WorkspaceEventHandler;
+import kbasesearchengine.search.ElasticIndexingStorage;
+import kbasesearchengine.search.RefreshPolicy;
+
 public class SearchToolsConfig {
     
     //TODO TESTS
@@ -26,18 +31,40 @@ public class SearchToolsConfig {
     private static final String SEARCH_MONGO_USER = "search-mongo-user";
     private static final String SEARCH_MONGO_PWD = "search-mongo-pwd";
     private static final String WORKER_CODES = "worker-codes";
+    private static final String WORKER_THREADS = "worker-threads";
+    private static final String CHILD_THREADS = "child-threads";
+    private static final String PARSE_THREADS = "parse-threads";
+    private static final String INDEX_THREADS = "index-threads";
+    private static final String STAGE_QUEUE_SIZE = "stage-queue-size";
+    private static final String WORKER_BATCH_SIZE = "worker-batch-size";
+    private static final String WORKER_INTERACTIVE_WEIGHT = "worker-interactive-weight";
+    private static final String WORKER_LOOKUP_CACHE_SIZE = "worker-lookup-cache-size";
+    private static final String CYCLE_MIN_INTERVAL = "cycle-min-interval-ms";
+    private static final String CYCLE_MAX_INTERVAL = "cycle-max-interval-ms";
+    private static final String COORDINATOR_SHARD = "coordinator-shard";
+    private static final String EVENT_RETENTION_DAYS = "event-retention-days";
+    private static final String EVENT_ARCHIVE_RETENTION_DAYS = "event-archive-retention-days";
 
     private static final String ELASTIC_HOST = "elastic-host";
     private static final String ELASTIC_PORT = "elastic-port";
     private static final String ELASTIC_USER = "elastic-user";
     private static final String ELASTIC_PWD = "elastic-password";
     private static final String ELASTIC_NAMESPACE = "elastic-namespace";
+    private static final String ELASTIC_BULK_MAX_DOCS = "elastic-bulk-max-docs";
+    private static final String ELASTIC_BULK_MAX_BYTES = "elastic-bulk-max-bytes";
+    private static final String ELASTIC_BULK_CONCURRENCY = "elastic-bulk-concurrency";
+    private static final String ELASTIC_REFRESH_POLICY = "elastic-refresh-policy";
+    private static final String ELASTIC_REFRESH_INTERVAL = "elastic-refresh-interval-ms";
     private static final String TEMP_DIR = "scratch";
 
     private static final String WS_URL = "workspace-url";
     private static final String AUTH_URL = "auth-service-url";
     private static final String AUTH_URL_ALLOW_INSECURE = "auth-service-url-allow-insecure";
     private static final String INDEXER_TOKEN = "indexer-token";
+    private static final String WS_TAG_CACHE_LIFETIME = "workspace-tag-cache-lifetime-sec";
+    private static final String WS_TAG_CACHE_SIZE = "workspace-tag-cache-size";
+    private static final String WS_REF_BATCH_SIZE = "workspace-ref-batch-size";
+    private static final String WS_REF_CONCURRENCY = "workspace-ref-concurrency";
     
     private static final String TYPES_DIR = "types-dir";
     private static final String TYPE_MAPPINGS_DIR = "type-mappings-dir";
@@ -55,18 +82,40 @@ public class SearchToolsConfig {
     private final Optional<String> searchMongoUser;
     private final Optional<char[]> searchMongoPwd;
     private final Set<String> workerCodes;
+    private final int workerThreads;
+    private final int childThreads;
+    private final int parseThreads;
+    private final int indexThreads;
+    private final int stageQueueSize;
+    private final int workerBatchSize;
+    private final int workerInteractiveWeight;
+    private final int workerLookupCacheSize;
+    private final int cycleMinIntervalMS;
+    private final int cycleMaxIntervalMS;
+    private final Optional<AccessGroupShard> coordinatorShard;
+    private final int eventRetentionDays;
+    private final int eventArchiveRetentionDays;
     
     private final String elasticHost;
     private final int elasticPort;
     private final Optional<String> elasticUser;
     private final Optional<char[]> elasticPassword;
     private final String elasticNamespace;
+    private final int elasticBulkMaxDocs;
+    private final int elasticBulkMaxBytes;
+    private final int elasticBulkConcurrency;
+    private final RefreshPolicy elasticRefreshPolicy;
+    private final int elasticRefreshIntervalMS;
     private final String tempDir;
     
     private final URL workspaceURL;
     private final URL authURL;
     private final boolean allowInsecureAuthURL;
     private final String indexerToken;
+    private final int workspaceTagCacheLifetimeSec;
+    private final int workspaceTagCacheSize;
+    private final int workspaceRefBatchSize;
+    private final int workspaceRefConcurrency;
     
     private final String typesDirectory;
     private final String typeMappingsDirectory;
@@ -84,16 +133,38 @@ public class SearchToolsConfig {
             final String searchMongoUser,
             String searchMongoPwd,
             final List<String> workerCodes,
+            final int workerThreads,
+            final int childThreads,
+            final int parseThreads,
+            final int indexThreads,
+            final int stageQueueSize,
+            final int workerBatchSize,
+            final int workerInteractiveWeight,
+            final int workerLookupCacheSize,
+            final int cycleMinIntervalMS,
+            final int cycleMaxIntervalMS,
+            final AccessGroupShard coordinatorShard,
+            final int eventRetentionDays,
+            final int eventArchiveRetentionDays,
             final String elasticHost,
             final int elasticPort,
             final String elasticUser,
             String elasticPassword,
             final String elasticNamespace,
+            final int elasticBulkMaxDocs,
+            final int elasticBulkMaxBytes,
+            final int elasticBulkConcurrency,
+            final RefreshPolicy elasticRefreshPolicy,
+            final int elasticRefreshIntervalMS,
             final String tempDir,
             final URL workspaceURL,
             final URL authURL,
             final boolean allowInsecureAuthURL,
             final String indexerToken,
+            final int workspaceTagCacheLifetimeSec,
+            final int workspaceTagCacheSize,
+            final int workspaceRefBatchSize,
+            final int workspaceRefConcurrency,
             final String typesDirectory,
             final String typeMappingsDirectory,
             final String workspaceMongoHost,
@@ -121,6 +192,24 @@ public class SearchToolsConfig {
         searchMongoPwd = null;
         
         this.workerCodes = Collections.unmodifiableSet(new HashSet<>(workerCodes));
+        this.workerThreads = workerThreads;
+        this.childThreads = childThreads;
+        this.parseThreads = parseThreads;
+        this.indexThreads = indexThreads;
+        this.stageQueueSize = stageQueueSize;
+        this.workerBatchSize = workerBatchSize;
+        this.workerInteractiveWeight = workerInteractiveWeight;
+        this.workerLookupCacheSize = workerLookupCacheSize;
+        if (cycleMaxIntervalMS < cycleMinIntervalMS) {
+            throw new SearchToolsConfigException(String.format(
+                    "Parameter %s must be at least the value of %s",
+                    CYCLE_MAX_INTERVAL, CYCLE_MIN_INTERVAL));
+        }
+        this.cycleMinIntervalMS = cycleMinIntervalMS;
+        this.cycleMaxIntervalMS = cycleMaxIntervalMS;
+        this.coordinatorShard = Optional.fromNullable(coordinatorShard);
+        this.eventRetentionDays = eventRetentionDays;
+        this.eventArchiveRetentionDays = eventArchiveRetentionDays;
         
         this.elasticHost = elasticHost;
         this.elasticPort = elasticPort;
@@ -136,12 +225,21 @@ public class SearchToolsConfig {
                 elasticPassword.toCharArray());
         elasticPassword = null;
         this.elasticNamespace = elasticNamespace;
+        this.elasticBulkMaxDocs = elasticBulkMaxDocs;
+        this.elasticBulkMaxBytes = elasticBulkMaxBytes;
+        this.elasticBulkConcurrency = elasticBulkConcurrency;
+        this.elasticRefreshPolicy = elasticRefreshPolicy;
+        this.elasticRefreshIntervalMS = elasticRefreshIntervalMS;
         this.tempDir = tempDir;
 
         this.workspaceURL = workspaceURL;
         this.authURL = authURL;
         this.allowInsecureAuthURL = allowInsecureAuthURL;
         this.indexerToken = indexerToken;
+        this.workspaceTagCacheLifetimeSec = workspaceTagCacheLifetimeSec;
+        this.workspaceTagCacheSize = workspaceTagCacheSize;
+        this.workspaceRefBatchSize = workspaceRefBatchSize;
+        this.workspaceRefConcurrency = workspaceRefConcurrency;
         
         this.typesDirectory = typesDirectory;
         this.typeMappingsDirectory = typeMappingsDirectory;
@@ -180,6 +278,58 @@ public class SearchToolsConfig {
     public Set<String> getWorkerCodes() {
         return workerCodes;
     }
+    
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+    
+    public int getChildThreads() {
+        return childThreads;
+    }
+    
+    public int getParseThreads() {
+        return parseThreads;
+    }
+    
+    public int getIndexThreads() {
+        return indexThreads;
+    }
+    
+    public int getStageQueueSize() {
+        return stageQueueSize;
+    }
+    
+    public int getWorkerBatchSize() {
+        return workerBatchSize;
+    }
+    
+    public int getWorkerInteractiveWeight() {
+        return workerInteractiveWeight;
+    }
+    
+    public int getWorkerLookupCacheSize() {
+        return workerLookupCacheSize;
+    }
+    
+    public int getCycleMinIntervalMS() {
+        return cycleMinIntervalMS;
+    }
+    
+    public int getCycleMaxIntervalMS() {
+        return cycleMaxIntervalMS;
+    }
+    
+    public Optional<AccessGroupShard> getCoordinatorShard() {
+        return coordinatorShard;
+    }
+    
+    public int getEventRetentionDays() {
+        return eventRetentionDays;
+    }
+    
+    public int getEventArchiveRetentionDays() {
+        return eventArchiveRetentionDays;
+    }
 
     public String getElasticHost() {
         return elasticHost;
@@ -201,6 +351,26 @@ public class SearchToolsConfig {
         return elasticNamespace;
     }
     
+    public int getElasticBulkMaxDocs() {
+        return elasticBulkMaxDocs;
+    }
+    
+    public int getElasticBulkMaxBytes() {
+        return elasticBulkMaxBytes;
+    }
+    
+    public int getElasticBulkConcurrency() {
+        return elasticBulkConcurrency;
+    }
+    
+    public RefreshPolicy getElasticRefreshPolicy() {
+        return elasticRefreshPolicy;
+    }
+    
+    public int getElasticRefreshIntervalMS() {
+        return elasticRefreshIntervalMS;
+    }
+    
     public String getTempDir() {
         return tempDir;
     }
@@ -221,6 +391,22 @@ public class SearchToolsConfig {
         return indexerToken;
     }
 
+    public int getWorkspaceTagCacheLifetimeSec() {
+        return workspaceTagCacheLifetimeSec;
+    }
+
+    public int getWorkspaceTagCacheSize() {
+        return workspaceTagCacheSize;
+    }
+
+    public int getWorkspaceRefBatchSize() {
+        return workspaceRefBatchSize;
+    }
+
+    public int getWorkspaceRefConcurrency() {
+        return workspaceRefConcurrency;
+    }
+
     public String getTypesDirectory() {
         return typesDirectory;
     }
@@ -263,31 +449,50 @@ public class SearchToolsConfig {
 
     public static SearchToolsConfig from(final Map<String, String> cfg)
             throws SearchToolsConfigException {
-        final int esPort;
-        final String esPortStr = getString(ELASTIC_PORT, cfg, true);
-        try {
-            esPort = Integer.parseInt(esPortStr);
-        } catch (NumberFormatException e) {
-            throw new SearchToolsConfigException(String.format(
-                    "Invalid value for parameter %s (%s): %s",
-                    ELASTIC_PORT, esPortStr, e.getMessage(), e));
-        }
+        final int esPort = getInt(ELASTIC_PORT, getString(ELASTIC_PORT, cfg, true));
         return new SearchToolsConfig(
                 getString(SEARCH_MONGO_HOST, cfg, true),
                 getString(SEARCH_MONGO_DB, cfg, true),
                 getString(SEARCH_MONGO_USER, cfg),
                 getString(SEARCH_MONGO_PWD, cfg),
                 getStringList(WORKER_CODES, cfg),
+                getInt(WORKER_THREADS, cfg, 1, 1),
+                getInt(CHILD_THREADS, cfg, 0, 0),
+                getInt(PARSE_THREADS, cfg, 0, 0),
+                getInt(INDEX_THREADS, cfg, 0, 0),
+                getInt(STAGE_QUEUE_SIZE, cfg, 10, 1),
+                getInt(WORKER_BATCH_SIZE, cfg, 1, 1),
+                getInt(WORKER_INTERACTIVE_WEIGHT, cfg, 4, 1),
+                getInt(WORKER_LOOKUP_CACHE_SIZE, cfg, 100_000, 1),
+                getInt(CYCLE_MIN_INTERVAL, cfg, 100, 1),
+                getInt(CYCLE_MAX_INTERVAL, cfg, 1000, 1),
+                getShard(COORDINATOR_SHARD, cfg),
+                getInt(EVENT_RETENTION_DAYS, cfg, 30, 1),
+                getInt(EVENT_ARCHIVE_RETENTION_DAYS, cfg, 365, 1),
                 getString(ELASTIC_HOST, cfg, true),
                 esPort,
                 getString(ELASTIC_USER, cfg),
                 getString(ELASTIC_PWD, cfg),
                 getString(ELASTIC_NAMESPACE, cfg, true),
+                getInt(ELASTIC_BULK_MAX_DOCS, cfg,
+                        ElasticIndexingStorage.DEFAULT_BULK_MAX_DOCUMENTS, 1),
+                getInt(ELASTIC_BULK_MAX_BYTES, cfg,
+                        ElasticIndexingStorage.DEFAULT_BULK_MAX_BYTES, 1),
+                getInt(ELASTIC_BULK_CONCURRENCY, cfg,
+                        ElasticIndexingStorage.DEFAULT_BULK_CONCURRENCY, 1),
+                getRefreshPolicy(ELASTIC_REFRESH_POLICY, cfg),
+                getInt(ELASTIC_REFRESH_INTERVAL, cfg, 1000, 1),
                 getString(TEMP_DIR, cfg, true),
                 getURL(WS_URL, cfg),
                 getURL(AUTH_URL, cfg),
                 "true".equals(getString(AUTH_URL_ALLOW_INSECURE, cfg)),
                 getString(INDEXER_TOKEN, cfg, true),
+                getInt(WS_TAG_CACHE_LIFETIME, cfg,
+                        WorkspaceEventHandler.DEFAULT_TAG_CACHE_LIFETIME_SEC, 1),
+                getInt(WS_TAG_CACHE_SIZE, cfg, WorkspaceEventHandler.DEFAULT_TAG_CACHE_SIZE, 1),
+                getInt(WS_REF_BATCH_SIZE, cfg, WorkspaceEventHandler.DEFAULT_REF_BATCH_SIZE, 1),
+                getInt(WS_REF_CONCURRENCY, cfg,
+                        WorkspaceEventHandler.DEFAULT_REF_CONCURRENCY, 1),
                 getString(TYPES_DIR, cfg, true),
                 getString(TYPE_MAPPINGS_DIR, cfg, true),
                 getString(WS_MONGO_HOST, cfg, true),
@@ -363,6 +568,77 @@ public class SearchToolsConfig {
         }
     }
     
+    private static int getInt(final String paramName, final String value)
+            throws SearchToolsConfigException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new SearchToolsConfigException(String.format(
+                    "Invalid value for parameter %s (%s): %s",
+                    paramName, value, e.getMessage(), e));
+        }
+    }
+    
+    private static int getInt(
+            final String paramName,
+            final Map<String, String> config,
+            final int defaultValue,
+            final int minimum)
+            throws SearchToolsConfigException {
+        final String s = getString(paramName, config);
+        if (s == null) {
+            return defaultValue;
+        }
+        final int ret = getInt(paramName, s);
+        if (ret < minimum) {
+            throw new SearchToolsConfigException(String.format(
+                    "Parameter %s must be at least %s", paramName, minimum));
+        }
+        return ret;
+    }
+    
+    // returns null if no shard
+    private static AccessGroupShard getShard(
+            final String paramName,
+            final Map<String, String> config)
+            throws SearchToolsConfigException {
+        final String s = getString(paramName, config);
+        if (s == null) {
+            return null;
+        }
+        final String[] parts = s.split("/");
+        if (parts.length != 2) {
+            throw new SearchToolsConfigException(String.format(
+                    "Invalid value for parameter %s (%s): must be of the form " +
+                    "<shard>/<shard count>", paramName, s));
+        }
+        try {
+            return AccessGroupShard.getShard(getInt(paramName, parts[0].trim()),
+                    getInt(paramName, parts[1].trim()));
+        } catch (IllegalArgumentException e) {
+            throw new SearchToolsConfigException(String.format(
+                    "Invalid value for parameter %s (%s): %s",
+                    paramName, s, e.getMessage()));
+        }
+    }
+    
+    private static RefreshPolicy getRefreshPolicy(
+            final String paramName,
+            final Map<String, String> config)
+            throws SearchToolsConfigException {
+        final String s = getString(paramName, config);
+        if (s == null) {
+            return RefreshPolicy.IMMEDIATE;
+        }
+        try {
+            return RefreshPolicy.valueOf(s.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new SearchToolsConfigException(String.format(
+                    "Invalid value for parameter %s (%s): must be one of %s",
+                    paramName, s, Arrays.asList(RefreshPolicy.values())));
+        }
+    }
+    
     private static URL getURL(final String key, final Map<String, String> cfg)
             throws SearchToolsConfigException {
         final String url = getString(key, cfg, true);
@@ -394,6 +670,32 @@ public class SearchToolsConfig {
         builder.append(searchMongoUser);
         builder.append(", searchMongoPwd=");
         builder.append(searchMongoPwd);
+        builder.append(", workerThreads=");
+        builder.append(workerThreads);
+        builder.append(", childThreads=");
+        builder.append(childThreads);
+        builder.append(", parseThreads=");
+        builder.append(parseThreads);
+        builder.append(", indexThreads=");
+        builder.append(indexThreads);
+        builder.append(", stageQueueSize=");
+        builder.append(stageQueueSize);
+        builder.append(", workerBatchSize=");
+        builder.append(workerBatchSize);
+        builder.append(", workerInteractiveWeight=");
+        builder.append(workerInteractiveWeight);
+        builder.append(", workerLookupCacheSize=");
+        builder.append(workerLookupCacheSize);
+        builder.append(", cycleMinIntervalMS=");
+        builder.append(cycleMinIntervalMS);
+        builder.append(", cycleMaxIntervalMS=");
+        builder.append(cycleMaxIntervalMS);
+        builder.append(", coordinatorShard=");
+        builder.append(coordinatorShard);
+        builder.append(", eventRetentionDays=");
+        builder.append(eventRetentionDays);
+        builder.append(", eventArchiveRetentionDays=");
+        builder.append(eventArchiveRetentionDays);
         builder.append(", elasticHost=");
         builder.append(elasticHost);
         builder.append(", elasticPort=");
@@ -404,6 +706,16 @@ public class SearchToolsConfig {
         builder.append(elasticPassword);
         builder.append(", elasticNamespace=");
         builder.append(elasticNamespace);
+        builder.append(", elasticBulkMaxDocs=");
+        builder.append(elasticBulkMaxDocs);
+        builder.append(", elasticBulkMaxBytes=");
+        builder.append(elasticBulkMaxBytes);
+        builder.append(", elasticBulkConcurrency=");
+        builder.append(elasticBulkConcurrency);
+        builder.append(", elasticRefreshPolicy=");
+        builder.append(elasticRefreshPolicy);
+        builder.append(", elasticRefreshIntervalMS=");
+        builder.append(elasticRefreshIntervalMS);
         builder.append(", workspaceURL=");
         builder.append(workspaceURL);
         builder.append(", authURL=");
@@ -412,6 +724,14 @@ public class SearchToolsConfig {
         builder.append(allowInsecureAuthURL);
         builder.append(", indexerToken=");
         builder.append(indexerToken);
+        builder.append(", workspaceTagCacheLifetimeSec=");
+        builder.append(workspaceTagCacheLifetimeSec);
+        builder.append(", workspaceTagCacheSize=");
+        builder.append(workspaceTagCacheSize);
+        builder.append(", workspaceRefBatchSize=");
+        builder.append(workspaceRefBatchSize);
+        builder.append(", workspaceRefConcurrency=");
+        builder.append(workspaceRefConcurrency);
         builder.append(", typesDirectory=");
         builder.append(typesDirectory);
         builder.append(", typeMappingsDirectory=");
@@ -24,6 +24,7 @@ import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 
 import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.exceptions.RetriableIndexingException;
@@ -286,7 +287,8 @@ public class WorkspaceEventGenerator {
                     .build(),
                     StatusEventProcessingState.UNPROC,
                     workerCodes,
-                    WS_EVENT_GEN);
+                    WS_EVENT_GEN,
+                    StatusEventPriority.BACKFILL);
         } catch (RetriableIndexingException e) {
             throw new EventGeneratorException(e.getMessage(), e); //TODO CODE retries
         }
@@ -184,10 +184,10 @@ public class AccessGroupEventQueueTest {
         assertMoveToReadyCorrect(q, set());
         assertMoveToProcessingCorrect(q, set());
         
-        q.setProcessingComplete(e8);
+        assertThat("incorrect complete", q.setProcessingComplete(e8), is(set()));
         assertQueueState(q, set(), set(e2), 9);
         
-        q.setProcessingComplete(e2);
+        assertThat("incorrect complete", q.setProcessingComplete(e2), is(set(e3)));
         assertQueueState(q, set(e3), set(), 8);
         assertMoveToReadyCorrect(q, set());
         assertMoveToProcessingCorrect(q, set(e3));
@@ -211,7 +211,7 @@ public class AccessGroupEventQueueTest {
         assertMoveToReadyCorrect(q, set());
         assertMoveToProcessingCorrect(q, set());
         
-        q.setProcessingComplete(e1);
+        assertThat("incorrect complete", q.setProcessingComplete(e1), is(set(e6, e10)));
         assertQueueState(q, set(e6, e10), set(), 5);
         assertMoveToReadyCorrect(q, set());
         assertMoveToProcessingCorrect(q, set(e6, e10));
@@ -0,0 +1,121 @@
+package kbasesearchengine.test.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import kbasesearchengine.events.AccessGroupShard;
+import kbasesearchengine.test.common.TestCommon;
+import nl.jqno.equalsverifier.EqualsVerifier;
+
+public class AccessGroupShardTest {
+
+    @Test
+    public void construct() {
+        final AccessGroupShard s = new AccessGroupShard(3, 17);
+        assertThat("incorrect start", s.getStart(), is(3));
+        assertThat("incorrect end", s.getEnd(), is(17));
+        assertThat("incorrect all", s.isAll(), is(false));
+        assertThat("incorrect toString", s.toString(), is("AccessGroupShard [start=3, end=17]"));
+    }
+
+    @Test
+    public void all() {
+        assertThat("incorrect shard", AccessGroupShard.ALL, is(new AccessGroupShard(0, 1024)));
+        assertThat("incorrect all", AccessGroupShard.ALL.isAll(), is(true));
+        assertThat("incorrect all", AccessGroupShard.getShard(0, 1).isAll(), is(true));
+    }
+
+    @Test
+    public void equals() {
+        EqualsVerifier.forClass(AccessGroupShard.class).usingGetClass().verify();
+    }
+
+    @Test
+    public void getShard() {
+        assertThat("incorrect shard", AccessGroupShard.getShard(0, 3),
+                is(new AccessGroupShard(0, 341)));
+        assertThat("incorrect shard", AccessGroupShard.getShard(1, 3),
+                is(new AccessGroupShard(341, 682)));
+        assertThat("incorrect shard", AccessGroupShard.getShard(2, 3),
+                is(new AccessGroupShard(682, 1024)));
+        assertThat("incorrect shard", AccessGroupShard.getShard(1023, 1024),
+                is(new AccessGroupShard(1023, 1024)));
+    }
+
+    @Test
+    public void bucketsAndContains() {
+        final AccessGroupShard[] shards = new AccessGroupShard[4];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = AccessGroupShard.getShard(i, shards.length);
+        }
+        final int[] counts = new int[shards.length];
+        for (int accgrp = -100; accgrp < 10000; accgrp++) {
+            final int bucket = AccessGroupShard.getBucket(accgrp);
+            assertThat("bucket out of range", bucket >= 0 && bucket < 1024, is(true));
+            assertThat("inconsistent bucket", AccessGroupShard.getBucket(accgrp), is(bucket));
+            int containing = 0;
+            for (int i = 0; i < shards.length; i++) {
+                if (shards[i].contains(accgrp)) {
+                    containing++;
+                    counts[i]++;
+                }
+            }
+            assertThat("incorrect containing shard count", containing, is(1));
+        }
+        // sequential IDs should be spread roughly evenly
+        for (final int count: counts) {
+            assertThat("uneven shards: " + count, count > 2000 && count < 3000, is(true));
+        }
+    }
+
+    @Test
+    public void overlaps() {
+        final AccessGroupShard s = new AccessGroupShard(10, 20);
+        assertThat("incorrect overlap", s.overlaps(new AccessGroupShard(0, 10)), is(false));
+        assertThat("incorrect overlap", s.overlaps(new AccessGroupShard(20, 30)), is(false));
+        assertThat("incorrect overlap", s.overlaps(new AccessGroupShard(0, 11)), is(true));
+        assertThat("incorrect overlap", s.overlaps(new AccessGroupShard(19, 30)), is(true));
+        assertThat("incorrect overlap", s.overlaps(new AccessGroupShard(12, 15)), is(true));
+        assertThat("incorrect overlap", s.overlaps(AccessGroupShard.ALL), is(true));
+    }
+
+    @Test
+    public void constructFail() {
+        failConstruct(-1, 1, new IllegalArgumentException("start must be at least 0"));
+        failConstruct(5, 5, new IllegalArgumentException("end must be greater than start"));
+        failConstruct(5, 4, new IllegalArgumentException("end must be greater than start"));
+        failConstruct(0, 1025, new IllegalArgumentException("end must be at most 1024"));
+    }
+
+    private void failConstruct(final int start, final int end, final Exception expected) {
+        try {
+            new AccessGroupShard(start, end);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void getShardFail() {
+        failGetShard(0, 0, new IllegalArgumentException("shardCount must be between 1 and 1024"));
+        failGetShard(0, 1025,
+                new IllegalArgumentException("shardCount must be between 1 and 1024"));
+        failGetShard(-1, 2, new IllegalArgumentException(
+                "shard must be at least 0 and less than shardCount"));
+        failGetShard(2, 2, new IllegalArgumentException(
+                "shard must be at least 0 and less than shardCount"));
+    }
+
+    private void failGetShard(final int shard, final int count, final Exception expected) {
+        try {
+            AccessGroupShard.getShard(shard, count);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
@@ -16,6 +16,7 @@ import org.junit.Test;
 import kbasesearchengine.events.EventQueue;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredStatusEvent;
@@ -171,6 +172,110 @@ public class EventQueueTest {
         assertEmpty(q);
     }
     
+    @Test
+    public void views() {
+        final EventQueue q = new EventQueue();
+        final Set<StoredStatusEvent> ready = q.getReadyForProcessing();
+        final Set<StoredStatusEvent> processing = q.getProcessing();
+        
+        final StoredStatusEvent e1 = loadUnproc(
+                q, 1, "1", Instant.ofEpochMilli(10000), "1", StatusEventType.DELETE_ALL_VERSIONS);
+        final StoredStatusEvent e2 = loadUnproc(
+                q, 2, "2", Instant.ofEpochMilli(10000), "1", StatusEventType.DELETE_ALL_VERSIONS);
+        final StoredStatusEvent e3 = loadUnproc(
+                q, 2, "3", Instant.ofEpochMilli(20000), "1", StatusEventType.RENAME_ALL_VERSIONS);
+        
+        q.moveToReady();
+        assertThat("incorrect ready", ready, is(set(e1, e2)));
+        assertThat("incorrect processing", processing, is(set()));
+        
+        q.moveReadyToProcessing();
+        assertThat("incorrect ready", ready, is(set()));
+        assertThat("incorrect processing", processing, is(set(e1, e2)));
+        
+        // the completed event may not be the same instance as the event in the queue
+        q.setProcessingComplete(StoredStatusEvent.getBuilder(
+                e2.getEvent(), e2.getID(), StatusEventProcessingState.INDX).build());
+        assertThat("incorrect ready", ready, is(set(e3)));
+        assertThat("incorrect processing", processing, is(set(e1)));
+        
+        try {
+            ready.add(e1);
+            fail("expected exception");
+        } catch (UnsupportedOperationException e) {
+            // test passed
+        }
+        try {
+            processing.clear();
+            fail("expected exception");
+        } catch (UnsupportedOperationException e) {
+            // test passed
+        }
+    }
+    
+    @Test
+    public void prioritySize() {
+        final StoredStatusEvent e1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("1")
+                .build(),
+                new StatusEventID("1"), StatusEventProcessingState.PROC)
+                .withPriority(StatusEventPriority.BACKFILL)
+                .build();
+        final EventQueue q = new EventQueue(Arrays.asList(e1));
+        assertThat("incorrect size", q.size(StatusEventPriority.BACKFILL), is(1));
+        assertThat("incorrect size", q.size(StatusEventPriority.INTERACTIVE), is(0));
+        
+        final StoredStatusEvent e2 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("2")
+                .build(),
+                new StatusEventID("2"), StatusEventProcessingState.UNPROC)
+                .withPriority(StatusEventPriority.BACKFILL)
+                .build();
+        final StoredStatusEvent e3 = loadUnproc(
+                q, 2, "3", Instant.ofEpochMilli(10000), "1", StatusEventType.DELETE_ALL_VERSIONS);
+        q.load(e2);
+        q.load(e2);
+        assertThat("incorrect size", q.size(StatusEventPriority.BACKFILL), is(2));
+        assertThat("incorrect size", q.size(StatusEventPriority.INTERACTIVE), is(1));
+        assertThat("incorrect size", q.size(), is(3));
+        
+        q.moveToReady();
+        q.moveReadyToProcessing();
+        q.setProcessingComplete(e1);
+        q.setProcessingComplete(e3);
+        assertThat("incorrect size", q.size(StatusEventPriority.BACKFILL), is(1));
+        assertThat("incorrect size", q.size(StatusEventPriority.INTERACTIVE), is(0));
+    }
+    
+    @Test
+    public void superseded() {
+        final EventQueue q = new EventQueue();
+        final StoredStatusEvent e1 = loadUnproc(
+                q, 1, "1", Instant.ofEpochMilli(10000), "1", StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent e2 = loadUnproc(
+                q, 1, "2", Instant.ofEpochMilli(20000), "1", StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent e3 = loadUnproc(
+                q, 1, "3", Instant.ofEpochMilli(30000), "1", StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent e4 = loadUnproc(
+                q, 2, "4", Instant.ofEpochMilli(10000), "1", StatusEventType.RENAME_ALL_VERSIONS);
+        assertThat("incorrect size", q.size(), is(4));
+        
+        assertMoveToReadyCorrect(q, set(e3, e4));
+        assertThat("incorrect superseded", q.removeSuperseded(), is(Arrays.asList(e1, e2)));
+        assertThat("incorrect superseded", q.removeSuperseded(), is(Arrays.asList()));
+        assertQueueState(q, set(e3, e4), set(), 2);
+        assertThat("incorrect size", q.size(StatusEventPriority.INTERACTIVE), is(2));
+        
+        assertMoveToProcessingCorrect(q, set(e3, e4));
+        q.setProcessingComplete(e3);
+        q.setProcessingComplete(e4);
+        assertEmpty(q);
+    }
+    
     @Test
     public void loadFail() {
         final StatusEvent se = StatusEvent.getBuilder(
@@ -318,14 +423,14 @@ public class EventQueueTest {
         
         final StoredStatusEvent sse = unproc(
                 1, "foo", Instant.ofEpochMilli(10000), "1", StatusEventType.NEW_VERSION);
-        q.load(sse);
+        assertThat("incorrect load", q.load(sse), is(true));
         
         assertQueueState(q, set(), set(), 1);
         
         final StoredStatusEvent sse2 = unproc(
                 1, "foo", Instant.ofEpochMilli(10000), "1", StatusEventType.DELETE_ALL_VERSIONS);
         
-        q.load(sse2);
+        assertThat("incorrect load", q.load(sse2), is(false));
         assertQueueState(q, set(), set(), 1);
         
         q.moveToReady();
@@ -335,7 +440,7 @@ public class EventQueueTest {
         
         assertEmpty(q);
         
-        q.load(sse2);
+        assertThat("incorrect load", q.load(sse2), is(true));
         assertQueueState(q, set(), set(), 1);
         
         q.moveToReady();
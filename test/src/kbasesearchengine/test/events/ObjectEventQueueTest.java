@@ -123,7 +123,8 @@ public class ObjectEventQueueTest {
         assertMoveToReadyCorrect(q, Optional.absent());
         assertMoveToProcessingCorrect(q, Optional.absent());
         
-        q.setProcessingComplete(sse); // calls move to ready
+        // calls move to ready
+        assertThat("incorrect complete", q.setProcessingComplete(sse), is(osse1));
         assertQueueState(q, osse1, Optional.absent(), 2);
         //check queue is blocked
         assertMoveToReadyCorrect(q, Optional.absent());
@@ -133,7 +134,7 @@ public class ObjectEventQueueTest {
         assertMoveToReadyCorrect(q, Optional.absent());
         assertMoveToProcessingCorrect(q, Optional.absent());
         
-        q.setProcessingComplete(sse1);
+        assertThat("incorrect complete", q.setProcessingComplete(sse1), is(osse2));
         assertQueueState(q, osse2, Optional.absent(), 1);
         //check queue is blocked
         assertMoveToReadyCorrect(q, Optional.absent());
@@ -147,6 +148,130 @@ public class ObjectEventQueueTest {
         assertEmpty(q);
     }
     
+    private StoredStatusEvent event(
+            final String id,
+            final int time,
+            final StatusEventType type,
+            final Integer version) {
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(time), type)
+                .withNullableVersion(version)
+                .build(),
+                new StatusEventID(id), StatusEventProcessingState.UNPROC).build();
+    }
+    
+    @Test
+    public void coalesce() {
+        final ObjectEventQueue q = new ObjectEventQueue();
+        final StoredStatusEvent rename1 = event("r1", 10000, StatusEventType.RENAME_ALL_VERSIONS,
+                null);
+        final StoredStatusEvent rename2 = event("r2", 20000, StatusEventType.RENAME_ALL_VERSIONS,
+                null);
+        final StoredStatusEvent pub = event("p", 30000, StatusEventType.PUBLISH_ALL_VERSIONS,
+                null);
+        final StoredStatusEvent unpub = event("u", 40000, StatusEventType.UNPUBLISH_ALL_VERSIONS,
+                null);
+        final StoredStatusEvent ver1 = event("v1", 50000, StatusEventType.NEW_VERSION, 1);
+        final StoredStatusEvent ver1dupe = event("v1d", 60000, StatusEventType.NEW_VERSION, 1);
+        final StoredStatusEvent ver2 = event("v2", 70000, StatusEventType.NEW_VERSION, 2);
+        for (final StoredStatusEvent e: Arrays.asList(
+                ver2, rename2, pub, ver1dupe, rename1, unpub, ver1)) {
+            q.load(e);
+        }
+        
+        assertMoveToReadyCorrect(q, Optional.of(rename2));
+        assertThat("incorrect superseded", q.removeSuperseded(), is(Arrays.asList(rename1)));
+        assertThat("incorrect superseded", q.removeSuperseded(), is(Arrays.asList()));
+        assertQueueState(q, Optional.of(rename2), Optional.absent(), 6);
+        
+        q.moveReadyToProcessing();
+        assertThat("incorrect complete", q.setProcessingComplete(rename2), is(Optional.of(unpub)));
+        assertThat("incorrect superseded", q.removeSuperseded(), is(Arrays.asList(pub)));
+        assertQueueState(q, Optional.of(unpub), Optional.absent(), 4);
+        
+        q.moveReadyToProcessing();
+        assertThat("incorrect complete", q.setProcessingComplete(unpub),
+                is(Optional.of(ver1dupe)));
+        assertThat("incorrect superseded", q.removeSuperseded(), is(Arrays.asList(ver1)));
+        
+        q.moveReadyToProcessing();
+        assertThat("incorrect complete", q.setProcessingComplete(ver1dupe),
+                is(Optional.of(ver2)));
+        assertThat("incorrect superseded", q.removeSuperseded(), is(Arrays.asList()));
+        assertQueueState(q, Optional.of(ver2), Optional.absent(), 1);
+        
+        // superseded events are no longer in the queue and may be loaded again
+        assertThat("incorrect load", q.load(rename1), is(true));
+    }
+    
+    @Test
+    public void coalesceBlocked() {
+        // events are not coalesced across an access group level event
+        final ObjectEventQueue q = new ObjectEventQueue();
+        final StoredStatusEvent rename1 = event("r1", 10000, StatusEventType.RENAME_ALL_VERSIONS,
+                null);
+        final StoredStatusEvent rename2 = event("r2", 30000, StatusEventType.RENAME_ALL_VERSIONS,
+                null);
+        q.load(rename1);
+        q.load(rename2);
+        q.drainAndBlockAt(Instant.ofEpochMilli(20000));
+        
+        assertMoveToReadyCorrect(q, Optional.of(rename1));
+        assertThat("incorrect superseded", q.removeSuperseded(), is(Arrays.asList()));
+        assertQueueState(q, Optional.of(rename1), Optional.absent(), 2);
+    }
+    
+    @Test
+    public void isSupersededBy() {
+        assertSuperseded(StatusEventType.RENAME_ALL_VERSIONS,
+                StatusEventType.RENAME_ALL_VERSIONS, true);
+        assertSuperseded(StatusEventType.RENAME_ALL_VERSIONS,
+                StatusEventType.PUBLISH_ALL_VERSIONS, false);
+        assertSuperseded(StatusEventType.PUBLISH_ALL_VERSIONS,
+                StatusEventType.UNPUBLISH_ALL_VERSIONS, true);
+        assertSuperseded(StatusEventType.UNPUBLISH_ALL_VERSIONS,
+                StatusEventType.UNPUBLISH_ALL_VERSIONS, true);
+        assertSuperseded(StatusEventType.DELETE_ALL_VERSIONS,
+                StatusEventType.UNDELETE_ALL_VERSIONS, true);
+        assertSuperseded(StatusEventType.UNDELETE_ALL_VERSIONS,
+                StatusEventType.DELETE_ALL_VERSIONS, true);
+        assertSuperseded(StatusEventType.DELETE_ALL_VERSIONS,
+                StatusEventType.RENAME_ALL_VERSIONS, false);
+        assertSuperseded(StatusEventType.NEW_ALL_VERSIONS,
+                StatusEventType.NEW_ALL_VERSIONS, true);
+        assertSuperseded(StatusEventType.NEW_VERSION, StatusEventType.NEW_ALL_VERSIONS, true);
+        assertSuperseded(StatusEventType.NEW_ALL_VERSIONS, StatusEventType.NEW_VERSION, false);
+        assertSuperseded(StatusEventType.PUBLISH_ALL_VERSIONS, StatusEventType.NEW_VERSION,
+                false);
+        
+        final StatusEvent v1 = StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION)
+                .withNullableVersion(1).build();
+        final StatusEvent v2 = StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.NEW_VERSION)
+                .withNullableVersion(2).build();
+        assertThat("incorrect superseded", ObjectEventQueue.isSupersededBy(v1, v1), is(true));
+        assertThat("incorrect superseded", ObjectEventQueue.isSupersededBy(v1, v2), is(false));
+        
+        // different storage codes
+        assertThat("incorrect superseded", ObjectEventQueue.isSupersededBy(
+                StatusEvent.getBuilder("WS", Instant.ofEpochMilli(10000),
+                        StatusEventType.RENAME_ALL_VERSIONS).build(),
+                StatusEvent.getBuilder("WS2", Instant.ofEpochMilli(20000),
+                        StatusEventType.RENAME_ALL_VERSIONS).build()),
+                is(false));
+    }
+    
+    private void assertSuperseded(
+            final StatusEventType type,
+            final StatusEventType next,
+            final boolean expected) {
+        assertThat("incorrect superseded " + type + " " + next, ObjectEventQueue.isSupersededBy(
+                StatusEvent.getBuilder("WS", Instant.ofEpochMilli(10000), type).build(),
+                StatusEvent.getBuilder("WS", Instant.ofEpochMilli(20000), next).build()),
+                is(expected));
+    }
+    
     @Test
     public void constructWithReadyObjectLevelEvent() {
         for (final StatusEventType type: Arrays.asList(StatusEventType.DELETE_ALL_VERSIONS,
@@ -14,6 +14,7 @@ import com.google.common.base.Optional;
 
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredStatusEvent;
@@ -48,6 +49,8 @@ public class StoredStatusEventTest {
         assertThat("incorrect err code", sei.getErrorCode(), is(Optional.absent()));
         assertThat("incorrect err msg", sei.getErrorMessage(), is(Optional.absent()));
         assertThat("incorrect err trace", sei.getErrorStackTrace(), is(Optional.absent()));
+        assertThat("incorrect priority", sei.getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
         assertThat("incorrect toString", sei.toString(), is(
                 "StoredStatusEvent [event=StatusEvent [time=1970-01-01T00:00:10Z, " +
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
@@ -57,7 +60,8 @@ public class StoredStatusEventTest {
                 "id=StatusEventID [id=bar], state=UNPROC, updateTime=Optional.absent(), " +
                 "updater=Optional.absent(), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
 
     
@@ -87,6 +91,8 @@ public class StoredStatusEventTest {
         assertThat("incorrect err code", sei.getErrorCode(), is(Optional.absent()));
         assertThat("incorrect err msg", sei.getErrorMessage(), is(Optional.absent()));
         assertThat("incorrect err trace", sei.getErrorStackTrace(), is(Optional.absent()));
+        assertThat("incorrect priority", sei.getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
         assertThat("incorrect toString", sei.toString(), is(
                 "StoredStatusEvent [event=StatusEvent [time=1970-01-01T00:00:10Z, " +
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
@@ -96,7 +102,8 @@ public class StoredStatusEventTest {
                 "id=StatusEventID [id=bar], state=UNPROC, updateTime=Optional.absent(), " +
                 "updater=Optional.absent(), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
     
     @Test 
@@ -127,6 +134,8 @@ public class StoredStatusEventTest {
         assertThat("incorrect err code", sei.getErrorCode(), is(Optional.absent()));
         assertThat("incorrect err msg", sei.getErrorMessage(), is(Optional.absent()));
         assertThat("incorrect err trace", sei.getErrorStackTrace(), is(Optional.absent()));
+        assertThat("incorrect priority", sei.getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
         assertThat("incorrect toString", sei.toString(), is(
                 "StoredStatusEvent [event=StatusEvent [time=1970-01-01T00:00:10Z, " +
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
@@ -137,7 +146,8 @@ public class StoredStatusEventTest {
                 "updateTime=Optional.of(1970-01-01T00:00:20Z), " +
                 "updater=Optional.absent(), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
     
     @Test
@@ -164,6 +174,8 @@ public class StoredStatusEventTest {
         assertThat("incorrect err code", sei.getErrorCode(), is(Optional.absent()));
         assertThat("incorrect err msg", sei.getErrorMessage(), is(Optional.absent()));
         assertThat("incorrect err trace", sei.getErrorStackTrace(), is(Optional.absent()));
+        assertThat("incorrect priority", sei.getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
         assertThat("incorrect toString", sei.toString(), is(
                 "StoredStatusEvent [event=StatusEvent [time=1970-01-01T00:00:10Z, " +
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
@@ -174,7 +186,8 @@ public class StoredStatusEventTest {
                 "updateTime=Optional.of(1970-01-01T00:00:20Z), " +
                 "updater=Optional.of(bar), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
     
     @Test
@@ -201,6 +214,8 @@ public class StoredStatusEventTest {
         assertThat("incorrect err code", sei.getErrorCode(), is(Optional.absent()));
         assertThat("incorrect err msg", sei.getErrorMessage(), is(Optional.absent()));
         assertThat("incorrect err trace", sei.getErrorStackTrace(), is(Optional.absent()));
+        assertThat("incorrect priority", sei.getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
         assertThat("incorrect toString", sei.toString(), is(
                 "StoredStatusEvent [event=StatusEvent [time=1970-01-01T00:00:10Z, " +
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
@@ -211,7 +226,8 @@ public class StoredStatusEventTest {
                 "updateTime=Optional.of(1970-01-01T00:00:20Z), " +
                 "updater=Optional.absent(), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
     
     @Test
@@ -227,6 +243,7 @@ public class StoredStatusEventTest {
                 .withNullableStoredBy("my man")
                 .withNullableStoreTime(Instant.ofEpochMilli(30000))
                 .withNullableError("code", "msg", "trace")
+                .withPriority(StatusEventPriority.BACKFILL)
                 .build();
         assertThat("incorrect id", sei.getID(), is(new StatusEventID("foo")));
         assertThat("incorrect event", sei.getEvent(), is(StatusEvent.getBuilder(
@@ -243,6 +260,7 @@ public class StoredStatusEventTest {
         assertThat("incorrect err code", sei.getErrorCode(), is(Optional.of("code")));
         assertThat("incorrect err msg", sei.getErrorMessage(), is(Optional.of("msg")));
         assertThat("incorrect err trace", sei.getErrorStackTrace(), is(Optional.of("trace")));
+        assertThat("incorrect priority", sei.getPriority(), is(StatusEventPriority.BACKFILL));
         assertThat("incorrect toString", sei.toString(), is(
                 "StoredStatusEvent [event=StatusEvent [time=1970-01-01T00:00:10Z, " +
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
@@ -253,7 +271,8 @@ public class StoredStatusEventTest {
                 "updateTime=Optional.of(1970-01-01T00:00:20Z), updater=Optional.of(foo), " +
                 "workerCodes=[bar, foo], storedBy=Optional.of(my man), " +
                 "storeTime=Optional.of(1970-01-01T00:00:30Z), errorCode=Optional.of(code), " +
-                "errorMessage=Optional.of(msg), errorStackTrace=Optional.of(trace)]"));
+                "errorMessage=Optional.of(msg), errorStackTrace=Optional.of(trace), " +
+                "priority=BACKFILL]"));
     }
     
     @Test
@@ -286,6 +305,12 @@ public class StoredStatusEventTest {
         failBuild(null, id, state, new NullPointerException("event"));
         failBuild(event, null, state, new NullPointerException("id"));
         failBuild(event, id, null, new NullPointerException("state"));
+        try {
+            StoredStatusEvent.getBuilder(event, id, state).withPriority(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("priority"));
+        }
     }
     
     @Test
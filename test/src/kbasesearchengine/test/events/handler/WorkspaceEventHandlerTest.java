@@ -9,6 +9,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -21,16 +22,23 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import junit.framework.Assert;
 import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredStatusEvent;
 import kbasesearchengine.system.StorageObjectType;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableList;
 
@@ -42,6 +50,7 @@ import kbasesearchengine.events.exceptions.RetriableIndexingException;
 import kbasesearchengine.events.exceptions.UnprocessableEventIndexingException;
 import kbasesearchengine.events.handler.CloneableWorkspaceClient;
 import kbasesearchengine.events.handler.CloneableWorkspaceClientImpl;
+import kbasesearchengine.events.handler.ResolvedReference;
 import kbasesearchengine.events.handler.SourceData;
 import kbasesearchengine.events.handler.WorkspaceEventHandler;
 import kbasesearchengine.test.common.TestCommon;
@@ -50,6 +59,7 @@ import us.kbase.common.service.Tuple9;
 import us.kbase.common.service.UObject;
 import us.kbase.common.service.JsonClientException;
 import us.kbase.common.service.UnauthorizedException;
+import us.kbase.workspace.GetObjectInfo3Params;
 import us.kbase.workspace.GetObjectInfo3Results;
 import us.kbase.workspace.GetObjects2Params;
 import us.kbase.workspace.GetObjects2Results;
@@ -84,6 +94,75 @@ public class WorkspaceEventHandlerTest {
             TestCommon.assertExceptionCorrect(
                     got, new NullPointerException("clonableWorkspaceClient"));
         }
+        final CloneableWorkspaceClient cli = mock(CloneableWorkspaceClient.class);
+        final Ticker t = Ticker.systemTicker();
+        failConstruct(cli, 1, 1, 1, 1, null, new NullPointerException("ticker"));
+        failConstruct(cli, 0, 1, 1, 1, t, new IllegalArgumentException(
+                "cache lifetime must be at least one second"));
+        failConstruct(cli, 1, 0, 1, 1, t, new IllegalArgumentException(
+                "cache size must be at least one"));
+        failConstruct(cli, 1, 1, 0, 1, t, new IllegalArgumentException(
+                "refBatchSize must be at least 1"));
+        failConstruct(cli, 1, 1, 1, 0, t, new IllegalArgumentException(
+                "refConcurrency must be at least 1"));
+    }
+    
+    private void failConstruct(
+            final CloneableWorkspaceClient cli,
+            final int lifetime,
+            final int size,
+            final int refBatchSize,
+            final int refConcurrency,
+            final Ticker ticker,
+            final Exception expected) {
+        try {
+            new WorkspaceEventHandler(cli, lifetime, size, refBatchSize, refConcurrency, ticker);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void isExpandable() {
+        final WorkspaceEventHandler weh = new WorkspaceEventHandler(
+                mock(CloneableWorkspaceClient.class));
+        
+        for (final StatusEventType type: Arrays.asList(
+                StatusEventType.NEW_ALL_VERSIONS, StatusEventType.COPY_ACCESS_GROUP,
+                StatusEventType.DELETE_ACCESS_GROUP)) {
+            assertThat("incorrect expandable " + type, weh.isExpandable(toStored(type)),
+                    is(true));
+        }
+        // access group publication is handled without expanding to per object events
+        for (final StatusEventType type: Arrays.asList(
+                StatusEventType.NEW_VERSION, StatusEventType.PUBLISH_ACCESS_GROUP,
+                StatusEventType.UNPUBLISH_ACCESS_GROUP)) {
+            assertThat("incorrect expandable " + type, weh.isExpandable(toStored(type)),
+                    is(false));
+        }
+    }
+    
+    @Test
+    public void expandFailUnexpandable() throws Exception {
+        final WorkspaceEventHandler weh = new WorkspaceEventHandler(
+                mock(CloneableWorkspaceClient.class));
+        try {
+            weh.expand(toStored(StatusEventType.PUBLISH_ACCESS_GROUP));
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "Unexpandable event type: PUBLISH_ACCESS_GROUP"));
+        }
+    }
+    
+    private StoredStatusEvent toStored(final StatusEventType type) {
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), type)
+                .withNullableAccessGroupID(1)
+                .build(),
+                new StatusEventID("id"), StatusEventProcessingState.PROC)
+                .build();
     }
     
     @Test
@@ -502,6 +581,63 @@ public class WorkspaceEventHandlerTest {
         verify(cloned)._setFileForNextRpcResponse(new File("somefile"));
     }
     
+    @Test
+    public void loadTagsCached() throws Exception {
+        /* test that the tags for a workspace are fetched once per cache lifetime, and are
+         * fetched again after an access group level event.
+         */
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient cloned = mock(WorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        final Ticker ticker = mock(Ticker.class);
+        when(clonecli.getClientClone()).thenReturn(cloned);
+        when(clonecli.getClient()).thenReturn(wscli);
+        
+        when(cloned.administer(argThat(new AdminGetObjectsAnswerMatcher("1/2/3"))))
+                .thenReturn(new UObject(new GetObjects2Results().withData(Arrays.asList(
+                        new ObjectData()
+                                .withData(new UObject(ImmutableMap.of("genome", "data")))
+                                .withProvenance(Collections.emptyList())
+                                .withCreator("creator")
+                                .withCopySourceInaccessible(0L)
+                                .withInfo(objTuple(2, "objname", "sometype", "date", 3, "copier",
+                                        1, "wsname", "checksum", 44, Collections.emptyMap()))))));
+        
+        when(wscli.administer(argThat(new AdminGetWSInfoAnswerMatcher(1))))
+                .thenReturn(new UObject(wsTuple(1, "wsname", "username", "date", 7, "r", "n",
+                        "unlocked", ImmutableMap.of("searchtags", "foo"))))
+                .thenReturn(new UObject(wsTuple(1, "wsname", "username", "date", 7, "r", "n",
+                        "unlocked", ImmutableMap.of("searchtags", "bar"))))
+                .thenReturn(new UObject(wsTuple(1, "wsname", "username", "date", 7, "r", "n",
+                        "unlocked", ImmutableMap.of("searchtags", "baz"))));
+        final AtomicLong nanos = new AtomicLong();
+        when(ticker.read()).thenAnswer(inv -> nanos.get());
+        
+        final WorkspaceEventHandler weh = new WorkspaceEventHandler(
+                clonecli, 10, 100, 1, 1, ticker);
+        final GUID guid = new GUID("WS:1/2/3");
+        
+        assertThat("incorrect tags", weh.load(guid, Paths.get("somefile")).getSourceTags(),
+                is(TestCommon.set("foo")));
+        assertThat("incorrect tags", weh.load(guid, Paths.get("somefile")).getSourceTags(),
+                is(TestCommon.set("foo")));
+        verify(wscli, times(1)).administer(argThat(new AdminGetWSInfoAnswerMatcher(1)));
+        
+        nanos.set(10000000001L); // little more than the cache lifetime
+        assertThat("incorrect tags", weh.load(guid, Paths.get("somefile")).getSourceTags(),
+                is(TestCommon.set("bar")));
+        verify(wscli, times(2)).administer(argThat(new AdminGetWSInfoAnswerMatcher(1)));
+        
+        weh.updateObjectEvent(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.PUBLISH_ACCESS_GROUP)
+                .withNullableAccessGroupID(1)
+                .build());
+        
+        assertThat("incorrect tags", weh.load(guid, Paths.get("somefile")).getSourceTags(),
+                is(TestCommon.set("baz")));
+        verify(wscli, times(3)).administer(argThat(new AdminGetWSInfoAnswerMatcher(1)));
+    }
+    
     @Test
     public void loadWithNoProvMethod() throws Exception {
         final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
@@ -859,6 +995,77 @@ public class WorkspaceEventHandlerTest {
         Assert.assertEquals("expected the same event object", event, updatedEvent);
     }
 
+    @Test
+    public void resolveReferencesBatched() throws Exception {
+        // test that the references are resolved in concurrent batches of the configured size
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        when(clonecli.getClient()).thenReturn(wscli);
+        
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        when(wscli.administer(any())).thenAnswer(inv -> {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> cmd = ((UObject) inv.getArgument(0))
+                    .asClassInstance(Map.class);
+            final GetObjectInfo3Params p = UObject.transformObjectToObject(
+                    cmd.get("params"), GetObjectInfo3Params.class);
+            batchSizes.add(p.getObjects().size());
+            final List<Tuple11<Long, String, String, String, Long, String, Long, String,
+                    String, Long, Map<String, String>>> infos = new ArrayList<>();
+            for (final ObjectSpecification os: p.getObjects()) {
+                // refs are of the form 1/2/3;4/<objid>/1
+                final String[] ref = os.getRef().split(";")[1].split("/");
+                infos.add(objTuple(Long.parseLong(ref[1]), "obj", "Mod.Type-2.1",
+                        "2017-01-01T00:00:00+0000", 1, "user", 4, "ws", "chksum", 44,
+                        Collections.emptyMap()));
+            }
+            return new UObject(new GetObjectInfo3Results().withInfos(infos));
+        });
+        
+        final WorkspaceEventHandler weh = new WorkspaceEventHandler(
+                clonecli, 1, 1, 2, 2, Ticker.systemTicker());
+        
+        final Set<ResolvedReference> res = weh.resolveReferences(
+                Arrays.asList(new GUID("WS:1/2/3")), TestCommon.set(
+                        new GUID("WS:4/5/1"), new GUID("WS:4/6/1"), new GUID("WS:4/7/1")));
+        
+        final Set<ResolvedReference> expected = new HashSet<>();
+        for (final int objid: Arrays.asList(5, 6, 7)) {
+            expected.add(new ResolvedReference(new GUID("WS:4/" + objid + "/1"),
+                    new GUID("WS:4/" + objid + "/1"), new StorageObjectType("WS", "Mod.Type", 2),
+                    Instant.parse("2017-01-01T00:00:00Z")));
+        }
+        assertThat("incorrect refs", res, is(expected));
+        Collections.sort(batchSizes);
+        assertThat("incorrect batches", batchSizes, is(Arrays.asList(1, 2)));
+    }
+    
+    @Test
+    public void getDeletedObjects() throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        when(clonecli.getClient()).thenReturn(wscli);
+
+        // objects 3 and 10005 are more than the workspace listing limit apart
+        when(wscli.administer(argThat(new AdminListObjectsAnswerMatcher(1L, 2L, 10001L))))
+                .thenReturn(new UObject(Arrays.asList(objTuple(2L, "obj2", "sometype", "date",
+                        1L, "user", 1L, "wsname", "checksum", 44, Collections.emptyMap()))));
+        when(wscli.administer(argThat(new AdminListObjectsAnswerMatcher(1L, 10005L, 20004L))))
+                .thenReturn(new UObject(Arrays.asList(objTuple(10005L, "obj3", "sometype",
+                        "date", 1L, "user", 1L, "wsname", "checksum", 44,
+                        Collections.emptyMap()))));
+        when(wscli.administer(argThat(new AdminListObjectsAnswerMatcher(4L, 1L, 10000L))))
+                .thenThrow(new JsonClientException("No workspace with id 4 exists"));
+
+        final Set<GUID> deleted = new WorkspaceEventHandler(clonecli).getDeletedObjects(
+                TestCommon.set(new GUID("WS:1/2/1"), new GUID("WS:1/3"),
+                        new GUID("WS:1/10005/2"), new GUID("WS:4/1")));
+
+        assertThat("incorrect deleted objects", deleted,
+                is(TestCommon.set(new GUID("WS:1/3"), new GUID("WS:4/1"))));
+        verify(wscli, times(3)).administer(any());
+    }
+
     @Test
     public void updateEventWorkspacePermanentlyDeleted() throws Exception {
         final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
@@ -16,10 +16,14 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -29,15 +33,18 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Range;
 import com.mongodb.MongoClient;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.ReturnDocument;
 
+import kbasesearchengine.events.AccessGroupShard;
 import kbasesearchengine.events.ChildStatusEvent;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredChildStatusEvent;
@@ -48,6 +55,7 @@ import kbasesearchengine.events.exceptions.RetriableIndexingException;
 import kbasesearchengine.events.exceptions.UnprocessableEventIndexingException;
 import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
 import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.events.storage.StorageInitException;
 import kbasesearchengine.system.StorageObjectType;
 import kbasesearchengine.test.common.TestCommon;
 import us.kbase.common.test.controllers.mongo.MongoController;
@@ -728,6 +736,66 @@ public class MongoDBStatusEventStorageTest {
         assertThat("expected fail", success2, is(false));
     }
 
+    @Test
+    public void setProcessingStateBulk() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(20000),
+                Instant.ofEpochMilli(30000), Instant.ofEpochMilli(60000));
+        final StoredStatusEvent sse1 = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        final StoredStatusEvent sse2 = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(40000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        final StoredStatusEvent sse3 = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(50000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.INDX, null, "WSEG");
+        
+        // events not in the old state and nonexistent events are not updated
+        final int count = storage.setProcessingState(Arrays.asList(sse1.getID(), sse2.getID(),
+                sse3.getID(), new StatusEventID(new ObjectId().toString())),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        assertThat("incorrect count", count, is(2));
+        
+        for (final StoredStatusEvent sse: Arrays.asList(sse1, sse2)) {
+            final StoredStatusEvent got = storage.get(sse.getID()).get();
+            assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.READY));
+            assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
+            assertThat("incorrect update time", got.getUpdateTime(),
+                    is(Optional.of(Instant.ofEpochMilli(60000))));
+        }
+        assertThat("incorrect state", storage.get(sse3.getID()).get().getState(),
+                is(StatusEventProcessingState.INDX));
+        
+        assertThat("incorrect count", storage.setProcessingState(Arrays.asList(sse3.getID()),
+                null, StatusEventProcessingState.UNPROC), is(1));
+        assertThat("incorrect state", storage.get(sse3.getID()).get().getState(),
+                is(StatusEventProcessingState.UNPROC));
+        assertThat("incorrect count", storage.setProcessingState(Collections.emptyList(),
+                null, StatusEventProcessingState.UNPROC), is(0));
+    }
+    
+    @Test
+    public void setProcessingStateBulkFail() {
+        final StatusEventID i = new StatusEventID(new ObjectId().toString());
+        failSetProcessingStates(null, StatusEventProcessingState.INDX,
+                new NullPointerException("ids"));
+        failSetProcessingStates(Arrays.asList(i, null), StatusEventProcessingState.INDX,
+                new NullPointerException("null item in ids"));
+        failSetProcessingStates(Arrays.asList(i), null, new NullPointerException("newState"));
+    }
+    
+    private void failSetProcessingStates(
+            final List<StatusEventID> ids,
+            final StatusEventProcessingState state,
+            final Exception expected) {
+        try {
+            storage.setProcessingState(ids, null, state);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
     @Test
     public void getAndSetProcessingWithSortNoDBWorkerCodeField() throws Exception {
         getAndSetProcessingWithSort(set(),
@@ -1006,6 +1074,224 @@ public class MongoDBStatusEventStorageTest {
         }
     }
     
+    @Test
+    public void claimBatch() throws Exception {
+        // tests that the oldest events with matching codes and state are claimed, in order
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        store(1, 3, StatusEventProcessingState.READY, set("foo"));
+        store(4, 6, StatusEventProcessingState.READY, set("bar"));
+        store(7, 8, StatusEventProcessingState.UNPROC, set("foo"));
+        store(9, 12, StatusEventProcessingState.READY, null);
+        
+        final List<StoredStatusEvent> ret = storage.claimBatch(StatusEventProcessingState.READY,
+                set("foo", "default"), StatusEventProcessingState.PROC, "whee", "c1", 5);
+        
+        assertThat("incorrect times", ret.stream().map(e -> e.getEvent().getTimestamp())
+                .collect(Collectors.toList()), is(Arrays.asList(
+                        Instant.ofEpochMilli(1000), Instant.ofEpochMilli(2000),
+                        Instant.ofEpochMilli(3000), Instant.ofEpochMilli(9000),
+                        Instant.ofEpochMilli(10000))));
+        for (final StoredStatusEvent sse: ret) {
+            assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.PROC));
+            assertThat("incorrect updater", sse.getUpdater(), is(Optional.of("whee")));
+            assertThat("incorrect update time", sse.getUpdateTime(),
+                    is(Optional.of(Instant.ofEpochMilli(100000))));
+            assertThat("incorrect stored state", storage.get(sse.getID()).get().getState(),
+                    is(StatusEventProcessingState.PROC));
+        }
+        assertThat("incorrect remaining", storage.get(StatusEventProcessingState.READY, -1)
+                .size(), is(5));
+        
+        // the remaining matching events are claimed, and the next claim finds nothing
+        assertThat("incorrect second claim", storage.claimBatch(
+                StatusEventProcessingState.READY, set("foo", "default"),
+                StatusEventProcessingState.PROC, "whee", "c2", 5).size(), is(2));
+        assertThat("incorrect third claim", storage.claimBatch(
+                StatusEventProcessingState.READY, set("foo", "default"),
+                StatusEventProcessingState.PROC, "whee", "c3", 5), is(Collections.emptyList()));
+    }
+    
+    @Test
+    public void claimBatchRetry() throws Exception {
+        /* tests that retrying a claim with the same ID returns the events from the first claim
+         * and doesn't claim more events, and that the ID is removed when the state changes.
+         */
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        store(1, 4, StatusEventProcessingState.READY, null);
+        
+        final List<StoredStatusEvent> first = storage.claimBatch(
+                StatusEventProcessingState.READY, null, StatusEventProcessingState.PROC, "whee",
+                "c1", 2);
+        assertThat("incorrect times", first.stream().map(e -> e.getEvent().getTimestamp())
+                .collect(Collectors.toList()), is(Arrays.asList(
+                        Instant.ofEpochMilli(1000), Instant.ofEpochMilli(2000))));
+        
+        assertThat("incorrect retry", ids(storage.claimBatch(StatusEventProcessingState.READY,
+                null, StatusEventProcessingState.PROC, "whee", "c1", 2)), is(ids(first)));
+        assertThat("incorrect remaining", storage.get(StatusEventProcessingState.READY, -1)
+                .size(), is(2));
+        
+        storage.setProcessingState(first.get(0).getID(), StatusEventProcessingState.PROC,
+                StatusEventProcessingState.INDX);
+        assertThat("incorrect retry", ids(storage.claimBatch(StatusEventProcessingState.READY,
+                null, StatusEventProcessingState.PROC, "whee", "c1", 2)),
+                is(Arrays.asList(first.get(1).getID())));
+        storage.setProcessingState(Arrays.asList(first.get(1).getID()),
+                StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+        assertThat("claim not removed", db.getCollection("searchEvents")
+                .count(new Document("claim", new Document("$exists", true))), is(0L));
+        
+        // with no events left with the ID, the ID claims new events
+        assertThat("incorrect claim", storage.claimBatch(StatusEventProcessingState.READY,
+                null, StatusEventProcessingState.PROC, "whee", "c1", 5).size(), is(2));
+    }
+    
+    @Test
+    public void claimBatchFail() {
+        failClaimBatch(null, null, StatusEventProcessingState.FAIL, "foo", "c", 1,
+                new NullPointerException("oldState"));
+        failClaimBatch(StatusEventProcessingState.FAIL, null, null, "foo", "c", 1,
+                new NullPointerException("newState"));
+        failClaimBatch(StatusEventProcessingState.UNPROC, null,
+                StatusEventProcessingState.READY, "   \t \n  ", "c", 1,
+                new IllegalArgumentException("updater cannot be null or whitespace"));
+        failClaimBatch(StatusEventProcessingState.UNPROC, null,
+                StatusEventProcessingState.READY, "foo", null, 1,
+                new IllegalArgumentException("claimID cannot be null or whitespace"));
+        failClaimBatch(StatusEventProcessingState.UNPROC, null,
+                StatusEventProcessingState.READY, "foo", "   \t \n  ", 1,
+                new IllegalArgumentException("claimID cannot be null or whitespace"));
+        failClaimBatch(StatusEventProcessingState.UNPROC, set("foo", null),
+                StatusEventProcessingState.FAIL, "foo", "c", 1,
+                new NullPointerException("null item in workerCodes"));
+        failClaimBatch(StatusEventProcessingState.UNPROC, null,
+                StatusEventProcessingState.READY, "foo", "c", 0,
+                new IllegalArgumentException("max must be at least 1"));
+    }
+    
+    private void failClaimBatch(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String updater,
+            final String claimID,
+            final int max,
+            final Exception expected) {
+        try {
+            storage.claimBatch(oldState, workerCodes, newState, updater, claimID, max);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void storeAndGetByPriority() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        final StoredStatusEvent back1 = storePriority(1, StatusEventPriority.BACKFILL);
+        final StoredStatusEvent int2 = storePriority(2, StatusEventPriority.INTERACTIVE);
+        final StoredStatusEvent back3 = storePriority(3, StatusEventPriority.BACKFILL);
+        final StoredStatusEvent int4 = storePriority(4, StatusEventPriority.INTERACTIVE);
+        // events stored before priorities existed are interactive
+        db.getCollection("searchEvents").updateOne(new Document("_id",
+                new ObjectId(int4.getID().getId())),
+                new Document("$unset", new Document("prio", "")));
+        
+        assertThat("incorrect priority", back1.getPriority(), is(StatusEventPriority.BACKFILL));
+        assertThat("incorrect priority", storage.get(back1.getID()).get().getPriority(),
+                is(StatusEventPriority.BACKFILL));
+        assertThat("incorrect priority", storage.get(int4.getID()).get().getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
+        
+        assertThat("incorrect events", ids(storage.get(StatusEventProcessingState.READY, -1,
+                AccessGroupShard.ALL, StatusEventPriority.INTERACTIVE)),
+                is(Arrays.asList(int2.getID(), int4.getID())));
+        assertThat("incorrect events", ids(storage.get(StatusEventProcessingState.READY, -1,
+                AccessGroupShard.ALL, StatusEventPriority.BACKFILL)),
+                is(Arrays.asList(back1.getID(), back3.getID())));
+        assertThat("incorrect events", storage.get(StatusEventProcessingState.READY, -1).size(),
+                is(4));
+        
+        assertThat("incorrect claim", ids(storage.claimBatch(StatusEventProcessingState.READY,
+                null, StatusEventPriority.BACKFILL, StatusEventProcessingState.PROC, "whee",
+                "c1", 5)), is(Arrays.asList(back1.getID(), back3.getID())));
+        assertThat("incorrect claim", storage.claimBatch(StatusEventProcessingState.READY,
+                null, StatusEventPriority.BACKFILL, StatusEventProcessingState.PROC, "whee",
+                "c2", 5),
+                is(Collections.emptyList()));
+        assertThat("incorrect claim", storage.setAndGetProcessingState(
+                StatusEventProcessingState.READY, null, StatusEventPriority.INTERACTIVE,
+                StatusEventProcessingState.PROC, "whee").get().getID(), is(int2.getID()));
+        assertThat("incorrect claim", storage.setAndGetProcessingState(
+                StatusEventProcessingState.READY, null, StatusEventPriority.INTERACTIVE,
+                StatusEventProcessingState.PROC, "whee").get().getID(), is(int4.getID()));
+        assertThat("incorrect claim", storage.setAndGetProcessingState(
+                StatusEventProcessingState.READY, null, StatusEventPriority.INTERACTIVE,
+                StatusEventProcessingState.PROC, "whee"), is(Optional.absent()));
+    }
+    
+    @Test
+    public void getByAccessGroup() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        final StoredStatusEvent back1 = storeAccessGroup(1, 2, StatusEventPriority.BACKFILL);
+        final StoredStatusEvent back2 = storeAccessGroup(2, 3, StatusEventPriority.BACKFILL);
+        storeAccessGroup(3, 2, StatusEventPriority.INTERACTIVE);
+        final StoredStatusEvent back4 = storeAccessGroup(4, 2, StatusEventPriority.BACKFILL);
+        storeAccessGroup(5, 2, StatusEventPriority.BACKFILL);
+        storeAccessGroup(6, 3, StatusEventPriority.BACKFILL);
+        storeAccessGroup(7, 4, StatusEventPriority.BACKFILL);
+        
+        assertThat("incorrect events", ids(storage.get(StatusEventProcessingState.UNPROC, -1,
+                ImmutableMap.of(2, Instant.ofEpochMilli(5000)), StatusEventPriority.BACKFILL)),
+                is(Arrays.asList(back1.getID(), back4.getID())));
+        assertThat("incorrect events", ids(storage.get(StatusEventProcessingState.UNPROC, 1,
+                ImmutableMap.of(2, Instant.ofEpochMilli(5000)), StatusEventPriority.BACKFILL)),
+                is(Arrays.asList(back1.getID())));
+        // the events for several access groups are merged in time stamp order
+        assertThat("incorrect events", ids(storage.get(StatusEventProcessingState.UNPROC, -1,
+                ImmutableMap.of(2, Instant.ofEpochMilli(5000), 3, Instant.ofEpochMilli(6000)),
+                StatusEventPriority.BACKFILL)),
+                is(Arrays.asList(back1.getID(), back2.getID(), back4.getID())));
+        assertThat("incorrect events", ids(storage.get(StatusEventProcessingState.UNPROC, 2,
+                ImmutableMap.of(2, Instant.ofEpochMilli(5000), 3, Instant.ofEpochMilli(6000)),
+                StatusEventPriority.BACKFILL)),
+                is(Arrays.asList(back1.getID(), back2.getID())));
+        assertThat("incorrect events", storage.get(StatusEventProcessingState.UNPROC, -1,
+                ImmutableMap.of(2, Instant.ofEpochMilli(1000)), StatusEventPriority.BACKFILL),
+                is(Collections.emptyList()));
+        assertThat("incorrect events", storage.get(StatusEventProcessingState.UNPROC, -1,
+                Collections.emptyMap(), StatusEventPriority.BACKFILL),
+                is(Collections.emptyList()));
+        assertThat("incorrect events", storage.get(StatusEventProcessingState.READY, -1,
+                ImmutableMap.of(2, Instant.ofEpochMilli(6000)), StatusEventPriority.BACKFILL),
+                is(Collections.emptyList()));
+    }
+    
+    private StoredStatusEvent storeAccessGroup(
+            final int time,
+            final int accessGroupID,
+            final StatusEventPriority priority)
+            throws Exception {
+        return storage.store(StatusEvent.getBuilder(
+                "foo", Instant.ofEpochMilli(time * 1000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(accessGroupID)
+                .withNullableObjectID("1")
+                .withNullableVersion(time)
+                .build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG", priority);
+    }
+    
+    private StoredStatusEvent storePriority(final int time, final StatusEventPriority priority)
+            throws Exception {
+        return storage.store(StatusEvent.getBuilder(
+                "foo", Instant.ofEpochMilli(time * 1000), StatusEventType.NEW_VERSION).build(),
+                StatusEventProcessingState.READY, null, "WSEG", priority);
+    }
+    
+    private List<StatusEventID> ids(final List<StoredStatusEvent> events) {
+        return events.stream().map(e -> e.getID()).collect(Collectors.toList());
+    }
+    
     @Test
     public void getByState() throws Exception {
         when(clock.instant()).thenReturn(Instant.now());
@@ -1109,6 +1395,190 @@ public class MongoDBStatusEventStorageTest {
         }
     }
     
+    @Test
+    public void getByShard() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        for (int accgrp = 1; accgrp <= 40; accgrp++) {
+            storage.store(StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(accgrp * 1000), StatusEventType.NEW_VERSION)
+                    .withNullableAccessGroupID(accgrp)
+                    .build(),
+                    StatusEventProcessingState.UNPROC, null, "WSEG");
+        }
+        storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(100000), StatusEventType.NEW_VERSION).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        
+        final AccessGroupShard shard0 = AccessGroupShard.getShard(0, 2);
+        final AccessGroupShard shard1 = AccessGroupShard.getShard(1, 2);
+        final List<Integer> expected0 = new ArrayList<>();
+        final List<Integer> expected1 = new ArrayList<>();
+        for (int accgrp = 1; accgrp <= 40; accgrp++) {
+            (shard0.contains(accgrp) ? expected0 : expected1).add(accgrp);
+        }
+        
+        assertThat("incorrect events", accessGroups(StatusEventProcessingState.UNPROC, shard0),
+                is(expected0));
+        assertThat("incorrect events", accessGroups(StatusEventProcessingState.UNPROC, shard1),
+                is(expected1));
+        assertThat("incorrect events", accessGroups(StatusEventProcessingState.READY, shard1),
+                is(Collections.emptyList()));
+        // events without access groups are only returned for all buckets
+        assertThat("incorrect count", storage.get(StatusEventProcessingState.UNPROC, -1,
+                AccessGroupShard.ALL).size(), is(41));
+        assertThat("incorrect limit", storage.get(StatusEventProcessingState.UNPROC,
+                2, shard0).size(), is(2));
+    }
+    
+    private List<Integer> accessGroups(
+            final StatusEventProcessingState state,
+            final AccessGroupShard shard)
+            throws Exception {
+        return storage.get(state, -1, shard).stream()
+                .map(e -> e.getEvent().getAccessGroupId().get())
+                .collect(Collectors.toList());
+    }
+    
+    @Test
+    public void getByShardLegacyEvent() throws Exception {
+        // events stored without a bucket get one when a shard is claimed
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(6)
+                .build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        final StoredStatusEvent proc = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(30000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(6)
+                .build(),
+                StatusEventProcessingState.PROC, null, "WSEG");
+        db.getCollection("searchEvents").updateMany(new Document(),
+                new Document("$unset", new Document("agbkt", "")));
+        final AccessGroupShard shard = new AccessGroupShard(
+                AccessGroupShard.getBucket(6), AccessGroupShard.getBucket(6) + 1);
+        
+        assertThat("incorrect events", storage.get(StatusEventProcessingState.UNPROC, -1, shard),
+                is(Collections.emptyList()));
+        
+        assertThat("incorrect claim", storage.claimShard(
+                shard, "coord1", Instant.ofEpochMilli(20000)), is(true));
+        
+        assertThat("incorrect events", storage.get(StatusEventProcessingState.UNPROC, -1, shard)
+                .stream().map(e -> e.getID()).collect(Collectors.toList()),
+                is(Arrays.asList(sse.getID())));
+        assertThat("incorrect events", storage.get(StatusEventProcessingState.PROC, -1, shard)
+                .stream().map(e -> e.getID()).collect(Collectors.toList()),
+                is(Arrays.asList(proc.getID())));
+    }
+    
+    @Test
+    public void claimShard() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final AccessGroupShard shard = new AccessGroupShard(0, 512);
+        
+        assertThat("incorrect claim", storage.claimShard(
+                shard, "coord1", Instant.ofEpochMilli(20000)), is(true));
+        assertShards(shardDoc(0, 512, "coord1", 20000));
+        
+        // renew
+        assertThat("incorrect claim", storage.claimShard(
+                shard, "coord1", Instant.ofEpochMilli(30000)), is(true));
+        assertShards(shardDoc(0, 512, "coord1", 30000));
+        
+        // overlapping claims by other owners fail
+        assertThat("incorrect claim", storage.claimShard(
+                new AccessGroupShard(511, 1024), "coord2", Instant.ofEpochMilli(30000)),
+                is(false));
+        assertThat("incorrect claim", storage.claimShard(
+                shard, "coord2", Instant.ofEpochMilli(30000)), is(false));
+        assertThat("incorrect claim", storage.claimShard(
+                new AccessGroupShard(512, 1024), "coord2", Instant.ofEpochMilli(30000)),
+                is(true));
+        assertShards(shardDoc(0, 512, "coord1", 30000), shardDoc(512, 1024, "coord2", 30000));
+        
+        // a new claim by the same owner replaces its old claim
+        assertThat("incorrect claim", storage.claimShard(
+                new AccessGroupShard(0, 256), "coord1", Instant.ofEpochMilli(40000)), is(true));
+        assertShards(shardDoc(0, 256, "coord1", 40000), shardDoc(512, 1024, "coord2", 30000));
+        
+        // expired claims may be taken over
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30001));
+        assertThat("incorrect claim", storage.claimShard(
+                new AccessGroupShard(256, 1024), "coord3", Instant.ofEpochMilli(50000)),
+                is(true));
+        assertShards(shardDoc(0, 256, "coord1", 40000), shardDoc(256, 1024, "coord3", 50000));
+        
+        // an expired owner can't renew a claim that was taken over
+        assertThat("incorrect claim", storage.claimShard(
+                new AccessGroupShard(512, 1024), "coord2", Instant.ofEpochMilli(60000)),
+                is(false));
+        
+        storage.releaseShard(new AccessGroupShard(256, 1024), "coord1");
+        storage.releaseShard(new AccessGroupShard(0, 256), "coord1");
+        assertShards(shardDoc(256, 1024, "coord3", 50000));
+    }
+    
+    private Document shardDoc(
+            final int start,
+            final int end,
+            final String owner,
+            final long expires) {
+        return new Document("start", start).append("end", end).append("owner", owner)
+                .append("expires", new Date(expires));
+    }
+    
+    private void assertShards(final Document... expected) {
+        final Set<Document> got = new HashSet<>();
+        for (final Document d: db.getCollection("coordinatorShards").find()) {
+            d.remove("_id");
+            got.add(d);
+        }
+        assertThat("incorrect shards", got, is(new HashSet<>(Arrays.asList(expected))));
+    }
+    
+    @Test
+    public void claimShardFail() {
+        final AccessGroupShard s = AccessGroupShard.ALL;
+        final Instant i = Instant.ofEpochMilli(10000);
+        failClaimShard(null, "o", i, new NullPointerException("shard"));
+        failClaimShard(s, null, i,
+                new IllegalArgumentException("owner cannot be null or whitespace only"));
+        failClaimShard(s, "   \t   ", i,
+                new IllegalArgumentException("owner cannot be null or whitespace only"));
+        failClaimShard(s, "o", null, new NullPointerException("expires"));
+        failReleaseShard(null, "o", new NullPointerException("shard"));
+        failReleaseShard(s, null,
+                new IllegalArgumentException("owner cannot be null or whitespace only"));
+        failReleaseShard(s, "   \t   ",
+                new IllegalArgumentException("owner cannot be null or whitespace only"));
+    }
+    
+    private void failClaimShard(
+            final AccessGroupShard shard,
+            final String owner,
+            final Instant expires,
+            final Exception expected) {
+        try {
+            storage.claimShard(shard, owner, expires);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    private void failReleaseShard(
+            final AccessGroupShard shard,
+            final String owner,
+            final Exception expected) {
+        try {
+            storage.releaseShard(shard, owner);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
     @Test
     public void constructFail() {
         try {
@@ -1187,13 +1657,60 @@ public class MongoDBStatusEventStorageTest {
     @Test
     public void getFail() {
         try {
-            storage.get(null);
+            storage.get((StatusEventID) null);
             fail("expected exception");
         } catch (Exception got) {
             TestCommon.assertExceptionCorrect(got, new NullPointerException("id"));
         }
     }
     
+    @Test
+    public void getBulk() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final StoredStatusEvent sse1 = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        final StoredStatusEvent sse2 = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(40000), StatusEventType.DELETE_ALL_VERSIONS).build(),
+                StatusEventProcessingState.READY, set("foo"), "WSEG");
+        storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(50000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.INDX, null, "WSEG");
+        final StatusEventID missing = new StatusEventID(new ObjectId().toString());
+        
+        final Map<StatusEventID, StoredStatusEvent> got = storage.get(
+                set(sse1.getID(), sse2.getID(), missing));
+        
+        assertThat("incorrect ids", got.keySet(), is(set(sse1.getID(), sse2.getID())));
+        assertThat("incorrect event", got.get(sse1.getID()).getEvent(), is(sse1.getEvent()));
+        assertThat("incorrect state", got.get(sse1.getID()).getState(),
+                is(StatusEventProcessingState.UNPROC));
+        assertThat("incorrect event", got.get(sse2.getID()).getEvent(), is(sse2.getEvent()));
+        assertThat("incorrect state", got.get(sse2.getID()).getState(),
+                is(StatusEventProcessingState.READY));
+        assertThat("incorrect worker codes", got.get(sse2.getID()).getWorkerCodes(),
+                is(set("foo")));
+        
+        assertThat("incorrect empty get", storage.get(Collections.emptySet()),
+                is(Collections.emptyMap()));
+    }
+    
+    @Test
+    public void getBulkFail() {
+        failGet(null, new NullPointerException("ids"));
+        failGet(set(new StatusEventID(new ObjectId().toString()), null),
+                new NullPointerException("null item in ids"));
+    }
+    
+    private void failGet(final Set<StatusEventID> ids, final Exception expected) {
+        try {
+            storage.get(ids);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
     @Test
     public void getChildFail() {
         try {
@@ -1212,6 +1729,39 @@ public class MongoDBStatusEventStorageTest {
         } catch (Exception got) {
             TestCommon.assertExceptionCorrect(got, new NullPointerException("state"));
         }
+        try {
+            storage.get(StatusEventProcessingState.UNPROC, -1, null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("shard"));
+        }
+        final Map<Integer, Instant> nullID = new HashMap<>();
+        nullID.put(null, Instant.now());
+        final Map<Integer, Instant> nullTime = new HashMap<>();
+        nullTime.put(2, null);
+        failGetByAccessGroup(null, StatusEventPriority.BACKFILL,
+                ImmutableMap.of(2, Instant.now()), new NullPointerException("state"));
+        failGetByAccessGroup(StatusEventProcessingState.UNPROC, null,
+                ImmutableMap.of(2, Instant.now()), new NullPointerException("priority"));
+        failGetByAccessGroup(StatusEventProcessingState.UNPROC, StatusEventPriority.BACKFILL,
+                null, new NullPointerException("before"));
+        failGetByAccessGroup(StatusEventProcessingState.UNPROC, StatusEventPriority.BACKFILL,
+                nullID, new NullPointerException("null access group ID in before"));
+        failGetByAccessGroup(StatusEventProcessingState.UNPROC, StatusEventPriority.BACKFILL,
+                nullTime, new NullPointerException("null time stamp in before"));
+    }
+    
+    private void failGetByAccessGroup(
+            final StatusEventProcessingState state,
+            final StatusEventPriority priority,
+            final Map<Integer, Instant> before,
+            final Exception expected) {
+        try {
+            storage.get(state, -1, before, priority);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
     }
     
     @Test
@@ -1275,11 +1825,37 @@ public class MongoDBStatusEventStorageTest {
                 new Document()
                         .append("key", new Document("status", 1).append("time", 1))
                         .append("name", "status_1_time_1")
-                        .append("ns", "test_mongostorage.searchEvents"),
+                        .append("ns", "test_mongostorage.searchEvents")
+                        .append("background", true),
+                new Document()
+                        .append("key", new Document("status", 1).append("wrkcde", 1)
+                                .append("time", 1))
+                        .append("name", "status_1_wrkcde_1_time_1")
+                        .append("ns", "test_mongostorage.searchEvents")
+                        .append("background", true),
+                new Document()
+                        .append("key", new Document("status", 1).append("prio", 1)
+                                .append("time", 1).append("agbkt", 1))
+                        .append("name", "status_1_prio_1_time_1_agbkt_1")
+                        .append("ns", "test_mongostorage.searchEvents")
+                        .append("background", true),
+                new Document()
+                        .append("key", new Document("status", 1).append("prio", 1)
+                                .append("accgrp", 1).append("time", 1))
+                        .append("name", "status_1_prio_1_accgrp_1_time_1")
+                        .append("ns", "test_mongostorage.searchEvents")
+                        .append("background", true),
                 new Document()
                         .append("key", new Document("sttime", 1).append("status", 1))
                         .append("name", "sttime_1_status_1")
-                        .append("ns", "test_mongostorage.searchEvents"),
+                        .append("ns", "test_mongostorage.searchEvents")
+                        .append("background", true),
+                new Document()
+                        .append("key", new Document("claim", 1))
+                        .append("name", "claim_1")
+                        .append("ns", "test_mongostorage.searchEvents")
+                        .append("sparse", true)
+                        .append("background", true),
                 new Document()
                         .append("key", new Document("_id", 1))
                         .append("name", "_id_")
@@ -1339,11 +1915,164 @@ public class MongoDBStatusEventStorageTest {
                 new Document()
                         .append("key", new Document("sttime", 1).append("status", 1))
                         .append("name", "sttime_1_status_1")
-                        .append("ns", "test_mongostorage.childEvents"),
+                        .append("ns", "test_mongostorage.childEvents")
+                        .append("background", true),
+                new Document()
+                        .append("key", new Document("parid", 1))
+                        .append("name", "parid_1")
+                        .append("ns", "test_mongostorage.childEvents")
+                        .append("background", true),
                 new Document()
                         .append("key", new Document("_id", 1))
                         .append("name", "_id_")
                         .append("ns", "test_mongostorage.childEvents")
                 )));
     }
+    
+    @Test
+    public void archiveEvents() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final StoredStatusEvent indx = storePriority(1, StatusEventPriority.INTERACTIVE);
+        storage.setProcessingState(indx.getID(), null, StatusEventProcessingState.INDX);
+        final StoredStatusEvent unindx = storePriority(2, StatusEventPriority.INTERACTIVE);
+        storage.setProcessingState(unindx.getID(), null, StatusEventProcessingState.UNINDX);
+        final StoredStatusEvent fail = storePriority(3, StatusEventPriority.INTERACTIVE);
+        storage.setProcessingState(fail.getID(), null, "code", new Exception("foo"));
+        
+        // the same error should only be stored once
+        final Exception err = new UnprocessableEventIndexingException(ErrorType.OTHER, "bar");
+        final StoredChildStatusEvent child1 = storeChild(fail, err);
+        final StoredChildStatusEvent child2 = storeChild(fail, err);
+        // events written by the workspace listener have no stored time
+        final StoredStatusEvent listener = storePriority(5, StatusEventPriority.INTERACTIVE);
+        storage.setProcessingState(listener.getID(), null, StatusEventProcessingState.INDX);
+        final StoredStatusEvent newListener = storePriority(6, StatusEventPriority.INTERACTIVE);
+        // stored after the cutoff
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+        final StoredStatusEvent newIndx = storePriority(4, StatusEventPriority.INTERACTIVE);
+        storage.setProcessingState(newIndx.getID(), null, StatusEventProcessingState.INDX);
+        final StoredChildStatusEvent newChild = storeChild(fail, err);
+        storage.setProcessingState(newListener.getID(), null, StatusEventProcessingState.INDX);
+        for (final StoredStatusEvent e: Arrays.asList(listener, newListener)) {
+            db.getCollection("searchEvents").updateOne(
+                    new Document("_id", new ObjectId(e.getID().getId())),
+                    new Document("$unset", new Document("sttime", "")));
+        }
+        
+        assertThat("incorrect count", storage.archiveEvents(
+                Instant.ofEpochMilli(20000), Instant.ofEpochMilli(1000000)), is(5L));
+        
+        assertThat("incorrect event", storage.get(indx.getID()), is(Optional.absent()));
+        assertThat("incorrect event", storage.get(unindx.getID()), is(Optional.absent()));
+        assertThat("incorrect event", storage.get(fail.getID()).isPresent(), is(true));
+        assertThat("incorrect event", storage.get(newIndx.getID()).isPresent(), is(true));
+        assertThat("incorrect event", storage.get(listener.getID()), is(Optional.absent()));
+        assertThat("incorrect event", storage.get(newListener.getID()).isPresent(), is(true));
+        assertThat("incorrect event", storage.getChild(child1.getID()), is(Optional.absent()));
+        assertThat("incorrect event", storage.getChild(child2.getID()), is(Optional.absent()));
+        assertThat("incorrect event", storage.getChild(newChild.getID()).isPresent(), is(true));
+        
+        final Document archived = db.getCollection("searchEventsArchive")
+                .find(new Document("_id", new ObjectId(indx.getID().getId()))).first();
+        assertThat("incorrect state", archived.getString("status"), is("INDX"));
+        assertThat("incorrect expiry", archived.getDate("arcexp"), is(new Date(1000000)));
+        assertThat("incorrect count", db.getCollection("searchEventsArchive").count(), is(3L));
+        
+        final Document child = db.getCollection("childEventsArchive")
+                .find(new Document("_id", new ObjectId(child1.getID().getId()))).first();
+        assertThat("trace not removed", child.containsKey("errtrce"), is(false));
+        assertThat("incorrect count", db.getCollection("childEventsArchive").count(), is(2L));
+        final Document trace = db.getCollection("errorTraces").find().first();
+        assertThat("incorrect trace id", trace.getString("_id"),
+                is(child.getString("errtrcehash")));
+        assertThat("incorrect trace", trace.getString("trace"),
+                is(child1.getErrorStackTrace().get()));
+        assertThat("incorrect count", db.getCollection("errorTraces").count(), is(1L));
+        
+        // nothing left to archive
+        assertThat("incorrect count", storage.archiveEvents(
+                Instant.ofEpochMilli(20000), Instant.ofEpochMilli(1000000)), is(0L));
+    }
+    
+    private StoredChildStatusEvent storeChild(final StoredStatusEvent parent, final Exception err)
+            throws Exception {
+        return storage.store(new ChildStatusEvent(parent.getEvent(), parent.getID()),
+                "code", err);
+    }
+    
+    @Test
+    public void archiveEventsFail() {
+        failArchiveEvents(null, Instant.ofEpochMilli(1), new NullPointerException("storedBefore"));
+        failArchiveEvents(Instant.ofEpochMilli(1), null, new NullPointerException("expires"));
+    }
+    
+    private void failArchiveEvents(
+            final Instant storedBefore,
+            final Instant expires,
+            final Exception expected) {
+        try {
+            storage.archiveEvents(storedBefore, expires);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void schemaVersion() throws Exception {
+        final Document config = db.getCollection("config").find().first();
+        config.remove("_id");
+        assertThat("incorrect config", config, is(new Document("config", "config")
+                .append("schemaver", 2).append("inupdate", false)));
+        assertThat("incorrect count", db.getCollection("config").count(), is(1L));
+        
+        // starting again does nothing
+        new MongoDBStatusEventStorage(db, clock);
+        assertThat("incorrect count", db.getCollection("config").count(), is(1L));
+    }
+    
+    @Test
+    public void schemaMigration() throws Exception {
+        // simulates a version 1 database, which has no config collection
+        TestCommon.destroyDB(db);
+        db.getCollection("searchEvents").createIndex(
+                new Document("status", 1).append("time", 1));
+        db.getCollection("searchEvents").createIndex(
+                new Document("sttime", 1).append("status", 1));
+        
+        new MongoDBStatusEventStorage(db, clock);
+        
+        final Set<String> names = new HashSet<>();
+        for (final Document d: db.getCollection("searchEvents").listIndexes()) {
+            names.add(d.getString("name"));
+        }
+        assertThat("incorrect indexes", names, is(set("_id_", "status_1_time_1",
+                "status_1_wrkcde_1_time_1", "status_1_prio_1_time_1_agbkt_1",
+                "status_1_prio_1_accgrp_1_time_1", "sttime_1_status_1", "claim_1")));
+        assertThat("incorrect schema version", db.getCollection("config").find().first()
+                .getInteger("schemaver"), is(2));
+    }
+    
+    @Test
+    public void schemaFail() throws Exception {
+        db.getCollection("config").updateOne(new Document("config", "config"),
+                new Document("$set", new Document("schemaver", 3)));
+        failSchema(new StorageInitException("Incompatible database schema. Database is " +
+                "version 3, expected 2 or less."));
+        
+        db.getCollection("config").updateOne(new Document("config", "config"),
+                new Document("$set", new Document("schemaver", 1).append("inupdate", true)));
+        failSchema(new StorageInitException("The database is being updated from schema " +
+                "version 1 to 2 by another process. If that process failed, set inupdate to " +
+                "false in the config collection and restart."));
+    }
+    
+    private void failSchema(final Exception expected) {
+        try {
+            new MongoDBStatusEventStorage(db, clock);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
 }
@@ -0,0 +1,66 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import kbasesearchengine.main.CycleInterval;
+import kbasesearchengine.test.common.TestCommon;
+
+public class CycleIntervalTest {
+
+    @Test
+    public void construct() {
+        final CycleInterval ci = new CycleInterval(10, 100);
+        
+        assertThat("incorrect min", ci.getMinIntervalMS(), is(10));
+        assertThat("incorrect max", ci.getMaxIntervalMS(), is(100));
+    }
+    
+    @Test
+    public void backoff() {
+        final CycleInterval ci = new CycleInterval(10, 70);
+        
+        assertThat("incorrect interval", ci.next(false), is(20));
+        assertThat("incorrect interval", ci.next(false), is(40));
+        assertThat("incorrect interval", ci.next(false), is(70));
+        assertThat("incorrect interval", ci.next(false), is(70));
+        assertThat("incorrect interval", ci.next(true), is(10));
+        assertThat("incorrect interval", ci.next(true), is(10));
+        assertThat("incorrect interval", ci.next(false), is(20));
+    }
+    
+    @Test
+    public void backoffNoOverflow() {
+        final CycleInterval ci = new CycleInterval(1 << 30, Integer.MAX_VALUE);
+        
+        assertThat("incorrect interval", ci.next(false), is(Integer.MAX_VALUE));
+        assertThat("incorrect interval", ci.next(false), is(Integer.MAX_VALUE));
+    }
+    
+    @Test
+    public void fixedInterval() {
+        final CycleInterval ci = new CycleInterval(1, 1);
+        
+        assertThat("incorrect interval", ci.next(false), is(1));
+        assertThat("incorrect interval", ci.next(true), is(1));
+    }
+    
+    @Test
+    public void constructFail() {
+        failConstruct(0, 1, new IllegalArgumentException("minIntervalMS must be at least 1"));
+        failConstruct(2, 1, new IllegalArgumentException(
+                "maxIntervalMS must be at least minIntervalMS"));
+    }
+    
+    private void failConstruct(final int min, final int max, final Exception expected) {
+        try {
+            new CycleInterval(min, max);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package kbasesearchengine.test.main;
 
+import static kbasesearchengine.test.common.TestCommon.set;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyCollection;
 import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anySet;
+import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -17,8 +21,10 @@ import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -27,9 +33,12 @@ import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
 
+import kbasesearchengine.events.AccessGroupShard;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredStatusEvent;
@@ -50,6 +59,12 @@ public class IndexerCoordinatorTest {
     private static final Clock SC = Clock.systemDefaultZone();
     // this will only work once
     private static final SignalMonitor SM = new SignalMonitor();
+    private static final int MIN = 100;
+    private static final int MAX = 1000;
+    private static final Optional<AccessGroupShard> NS = Optional.absent();
+    private static final AccessGroupShard ALL = AccessGroupShard.ALL;
+    private static final StatusEventPriority INT = StatusEventPriority.INTERACTIVE;
+    private static final StatusEventPriority BF = StatusEventPriority.BACKFILL;
 
     @Test
     public void construct() throws Exception {
@@ -72,6 +87,16 @@ public class IndexerCoordinatorTest {
         failConstruct(s, null, 1, new NullPointerException("logger"));
         failConstruct(s, l, 0,
                 new IllegalArgumentException("maximumQueueSize must be at least 1"));
+        failConstruct(s, l, 1, 0, 1,
+                new IllegalArgumentException("minIntervalMS must be at least 1"));
+        failConstruct(s, l, 1, 2, 1,
+                new IllegalArgumentException("maxIntervalMS must be at least minIntervalMS"));
+        try {
+            new IndexerCoordinator(s, l, 1, 1, 1, null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("shard"));
+        }
     }
     
     private void failConstruct(
@@ -87,20 +112,35 @@ public class IndexerCoordinatorTest {
         }
     }
     
+    private void failConstruct(
+            final StatusEventStorage storage,
+            final LineLogger logger,
+            final int maximumQueueSize,
+            final int minIntervalMS,
+            final int maxIntervalMS,
+            final Exception expected) {
+        try {
+            new IndexerCoordinator(storage, logger, maximumQueueSize, minIntervalMS,
+                    maxIntervalMS);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
     @Test
     public void startIndexer() throws Exception {
         final StatusEventStorage storage = mock(StatusEventStorage.class);
         final LineLogger logger = mock(LineLogger.class);
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 10, executor,
-                MT, ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 10,
+                MIN, MAX, NS, executor, MT, ST, SC);
         
         coord.startIndexer();
         
         // we test that the runnable behaves as we expect in later tests
-        verify(executor).scheduleAtFixedRate(
-                any(Runnable.class), eq(0L), eq(1000L), eq(TimeUnit.MILLISECONDS));
+        verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
     }
     
     @Test
@@ -124,8 +164,8 @@ public class IndexerCoordinatorTest {
         final LineLogger logger = mock(LineLogger.class);
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 10, executor,
-                MT, ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 10,
+                MIN, MAX, NS, executor, MT, ST, SC);
         
         coord.stop(wait);
         
@@ -142,8 +182,8 @@ public class IndexerCoordinatorTest {
         final StatusEventStorage storage = mock(StatusEventStorage.class);
         final LineLogger logger = mock(LineLogger.class);
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 10, executor,
-                MT, ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 10,
+                MIN, MAX, NS, executor, MT, ST, SC);
         
         final StoredStatusEvent event1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
                 "WS", Instant.ofEpochMilli(10000), StatusEventType.UNPUBLISH_ACCESS_GROUP)
@@ -155,7 +195,7 @@ public class IndexerCoordinatorTest {
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
         
-        when(storage.get(eq(StatusEventProcessingState.UNPROC), anyInt()))
+        when(storage.get(eq(StatusEventProcessingState.UNPROC), anyInt(), eq(ALL), eq(INT)))
                 .thenReturn(Arrays.asList(changeID(event1, "foo1")))
                 .thenReturn(Arrays.asList(changeID(event1, "foo2")))
                 .thenReturn(Collections.emptyList()) // end first cycle
@@ -170,18 +210,14 @@ public class IndexerCoordinatorTest {
                 }) // cycle should end here because the coordinator has been stopped
                 .thenReturn(Arrays.asList(changeID(event1, "foo4")));
         
-        when(storage.get(new StatusEventID("foo1"))).thenReturn(Optional.of(ready1));
-        when(storage.get(new StatusEventID("foo2")))
-                .thenReturn(Optional.of(changeID(ready1, "foo2")));
-        when(storage.get(new StatusEventID("foo3")))
-                .thenReturn(Optional.of(changeID(ready1, "foo3")));
+        when(storage.get(set(new StatusEventID("foo1")))).thenReturn(found(ready1));
+        when(storage.get(set(new StatusEventID("foo2"))))
+                .thenReturn(found(changeID(ready1, "foo2")));
+        when(storage.get(set(new StatusEventID("foo3"))))
+                .thenReturn(found(changeID(ready1, "foo3")));
 
         coordRunner.run();
-        // changed when fast loop behavior removed 18/2/21
-//      assertThat("incorrect cycle count", coord.getContinuousCycles(), is(3));
-        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
-        coordRunner.run(); //added 18/2/21
-        coordRunner.run(); //added 18/2/21
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(3));
         assertThat("incorrect queue size", coord.getQueueSize(), is(2));
         
         coordRunner.run(); // stop is called on first cycle
@@ -192,7 +228,11 @@ public class IndexerCoordinatorTest {
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(0));
         assertThat("incorrect queue size", coord.getQueueSize(), is(3));
         
-        verify(storage, never()).get(new StatusEventID("foo4"));
+        verify(storage, never()).get(set(new StatusEventID("foo4")));
+    }
+    
+    private Map<StatusEventID, StoredStatusEvent> found(final StoredStatusEvent... events) {
+        return Arrays.stream(events).collect(Collectors.toMap(e -> e.getID(), e -> e));
     }
     
     private StoredStatusEvent changeID(final StoredStatusEvent event, final String id) {
@@ -207,8 +247,8 @@ public class IndexerCoordinatorTest {
             final IndexerCoordinator coord) {
         final ArgumentCaptor<Runnable> indexerRunnable = ArgumentCaptor.forClass(Runnable.class);
         coord.startIndexer();
-        verify(executorMock).scheduleAtFixedRate(
-                indexerRunnable.capture(), eq(0L), eq(1000L), eq(TimeUnit.MILLISECONDS));
+        verify(executorMock).schedule(
+                indexerRunnable.capture(), eq(0L), eq(TimeUnit.MILLISECONDS));
         return indexerRunnable.getValue();
     }
     
@@ -236,16 +276,16 @@ public class IndexerCoordinatorTest {
          * First call is two loops - first loop moves event1 to processing, second loop
          * gets no input and has no state change (since READY and PROC are treated the same)and so
          * exits
-         * Second call is one loop - gets no input, just moves event1 out of the queue since it's
-         * complete
-         * Third call is one loop - gets no input, moves event2 into the queue and sets state
-         * in storage
+         * Second call is three loops - first loop moves event1 out of the queue since it's
+         * complete, second loop moves event2 into processing and sets state in storage, third
+         * loop has no state change and so exits
+         * Third call is one loop - has no state change
          */
         final StatusEventStorage storage = mock(StatusEventStorage.class);
         final LineLogger logger = mock(LineLogger.class);
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 10, executor,
-                MT, ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 10,
+                MIN, MAX, NS, executor, MT, ST, SC);
         
         final StoredStatusEvent event1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
                 "WS", Instant.ofEpochMilli(10000), StatusEventType.UNPUBLISH_ACCESS_GROUP)
@@ -266,51 +306,256 @@ public class IndexerCoordinatorTest {
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
         
-        when(storage.get(StatusEventProcessingState.UNPROC, 10))
+        when(storage.get(StatusEventProcessingState.UNPROC, 10, ALL, INT))
                 .thenReturn(Arrays.asList(event1, event2))
                 .thenReturn(Collections.emptyList());
         
-        when(storage.get(new StatusEventID("foo1")))
-                .thenReturn(Optional.of(ready1))
-                .thenReturn(Optional.of(proc1)) // 2nd loop of 1st run call [18/2/21: 2nd run call]
-                .thenReturn(Optional.of(idx1)); // this will return on the second run() call [18/2/21: 3rd]
+        when(storage.get(set(new StatusEventID("foo1"))))
+                .thenReturn(found(ready1))
+                .thenReturn(found(proc1)) // 2nd loop of 1st run call
+                .thenReturn(found(idx1)); // this will return on the second run() call
         
         coordRunner.run();
-        // changed when fast loop behavior removed 18/2/21
-//        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
-        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
         assertThat("incorrect queue size", coord.getQueueSize(), is(2));
         
-        verify(storage).setProcessingState(new StatusEventID("foo1"),
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
                 "Moved event foo1 UNPUBLISH_ACCESS_GROUP WS:2/null from UNPROC to READY");
+        verify(storage, never()).setProcessingState(Arrays.asList(new StatusEventID("foo2")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        
+        when(storage.get(set(new StatusEventID("foo2")))).thenReturn(found(ready2));
 
-        coordRunner.run(); // returns that event is ready 18/2/21
-        coordRunner.run(); // this will move event1 out of the queue
-        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
+        coordRunner.run(); // this will move event1 out of the queue and event2 to processing
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(3));
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
         
         verify(logger).logInfo("Event foo1 UNPUBLISH_ACCESS_GROUP WS:2/null completed " +
                 "processing with state INDX on worker work1");
-        
-        verify(storage, never()).setProcessingState(new StatusEventID("foo2"),
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo2")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
-        
-        when(storage.get(new StatusEventID("foo2"))).thenReturn(Optional.of(ready2));
+        verify(logger).logInfo(
+                "Moved event foo2 PUBLISH_ACCESS_GROUP WS:2/null from UNPROC to READY");
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
-
-        verify(storage).setProcessingState(new StatusEventID("foo2"),
+        verify(logger, never()).logError(any(String.class));
+        verify(logger, never()).logError(any(Throwable.class));
+    }
+    
+    @Test(timeout = 2000) // in case the coordinator loops forever
+    public void supersededEvent() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 10,
+                MIN, MAX, NS, executor, MT, ST, SC);
+        
+        final StoredStatusEvent event1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.RENAME_ALL_VERSIONS)
+                .withNullableAccessGroupID(2)
+                .withNullableObjectID("1")
+                .withNullableNewName("n1")
+                .build(),
+                new StatusEventID("foo1"), StatusEventProcessingState.UNPROC).build();
+        
+        final StoredStatusEvent event2 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.RENAME_ALL_VERSIONS)
+                .withNullableAccessGroupID(2)
+                .withNullableObjectID("1")
+                .withNullableNewName("n2")
+                .build(),
+                new StatusEventID("foo2"), StatusEventProcessingState.UNPROC).build();
+        
+        final StoredStatusEvent ready2 = to(event2, StatusEventProcessingState.READY);
+        
+        final Runnable coordRunner = getIndexerRunnable(executor, coord);
+        
+        when(storage.get(StatusEventProcessingState.UNPROC, 10, ALL, INT))
+                .thenReturn(Arrays.asList(event1, event2))
+                .thenReturn(Collections.emptyList());
+        when(storage.get(set(new StatusEventID("foo2")))).thenReturn(found(ready2));
+        
+        coordRunner.run();
+        assertThat("incorrect queue size", coord.getQueueSize(), is(1));
+        
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo1")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.SKIP);
+        verify(logger).logInfo(
+                "Skipped event foo1 RENAME_ALL_VERSIONS WS:2/1 superseded by a later event");
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo2")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        verify(storage, never()).setProcessingState(Arrays.asList(new StatusEventID("foo1")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        verify(logger, never()).logError(any(String.class));
+        verify(logger, never()).logError(any(Throwable.class));
+    }
+    
+    @Test(timeout = 2000) // in case the coordinator loops forever
+    public void olderBackfillEventLoadedBeforeInteractiveEvent() throws Exception {
+        /* the backfill lane only has space for one event, so the older backfill event for
+         * the object isn't in the lane's events. It must be loaded and processed before the
+         * interactive delete.
+         */
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 2,
+                MIN, MAX, NS, executor, MT, ST, SC);
+        
+        final StoredStatusEvent other = backfill(5000, 3, 1, "foo1");
+        final StoredStatusEvent newVer = backfill(10000, 2, 1, "foo2");
+        final StoredStatusEvent delete = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS)
+                .withNullableAccessGroupID(2)
+                .withNullableObjectID("1")
+                .build(),
+                new StatusEventID("foo3"), StatusEventProcessingState.UNPROC).build();
+        
+        final Runnable coordRunner = getIndexerRunnable(executor, coord);
+        
+        when(storage.get(StatusEventProcessingState.UNPROC, 2, ALL, INT))
+                .thenReturn(Arrays.asList(delete));
+        when(storage.get(StatusEventProcessingState.UNPROC, 1, ALL, BF))
+                .thenReturn(Arrays.asList(other));
+        when(storage.get(StatusEventProcessingState.UNPROC, 2,
+                ImmutableMap.of(2, Instant.ofEpochMilli(20000)), BF))
+                .thenReturn(Arrays.asList(newVer));
+        when(storage.get(set(new StatusEventID("foo2"))))
+                .thenReturn(found(to(newVer, StatusEventProcessingState.READY)));
+        
+        coordRunner.run();
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
+        // the other backfill event leaves space for the interactive event
+        assertThat("incorrect queue size", coord.getQueueSize(), is(2));
+        
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo2")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
-                "Moved event foo2 PUBLISH_ACCESS_GROUP WS:2/null from UNPROC to READY");
+                "Moved event foo2 NEW_VERSION WS:2/1/1 from UNPROC to READY");
+        verify(storage, never()).setProcessingState(Arrays.asList(new StatusEventID("foo3")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
     
+    @Test(timeout = 2000) // in case the coordinator loops forever
+    public void interactiveEventHeldForOlderBackfillEvents() throws Exception {
+        // there are more older backfill events for the object than can be loaded
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 2,
+                MIN, MAX, NS, executor, MT, ST, SC);
+        
+        final StoredStatusEvent other = backfill(5000, 3, 1, "foo1");
+        final StoredStatusEvent newVer1 = backfill(10000, 2, 1, "foo2");
+        final StoredStatusEvent newVer2 = backfill(15000, 2, 2, "foo3");
+        final StoredStatusEvent rename = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.RENAME_ALL_VERSIONS)
+                .withNullableAccessGroupID(2)
+                .withNullableObjectID("1")
+                .withNullableNewName("n")
+                .build(),
+                new StatusEventID("foo4"), StatusEventProcessingState.UNPROC).build();
+        
+        final Runnable coordRunner = getIndexerRunnable(executor, coord);
+        
+        when(storage.get(StatusEventProcessingState.UNPROC, 2, ALL, INT))
+                .thenReturn(Arrays.asList(rename));
+        when(storage.get(StatusEventProcessingState.UNPROC, 1, ALL, BF))
+                .thenReturn(Arrays.asList(other));
+        when(storage.get(StatusEventProcessingState.UNPROC, 2,
+                ImmutableMap.of(2, Instant.ofEpochMilli(20000)), BF))
+                .thenReturn(Arrays.asList(newVer1, newVer2));
+        when(storage.get(set(new StatusEventID("foo2"))))
+                .thenReturn(found(to(newVer1, StatusEventProcessingState.READY)));
+        
+        coordRunner.run();
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
+        assertThat("incorrect queue size", coord.getQueueSize(), is(2));
+        
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo2")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        verify(logger).logInfo(
+                "Moved event foo2 NEW_VERSION WS:2/1/1 from UNPROC to READY");
+        verify(storage, never()).setProcessingState(Arrays.asList(new StatusEventID("foo4")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        verify(logger, never()).logError(any(String.class));
+        verify(logger, never()).logError(any(Throwable.class));
+    }
+    
+    @Test(timeout = 2000) // in case the coordinator loops forever
+    public void olderBackfillEventsLoadedWithOneQuery() throws Exception {
+        /* the interactive events fill the space for the backfill lane, so the older backfill
+         * events for the access groups of all the interactive events are loaded with one query
+         * rather than one query per access group.
+         */
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 2,
+                MIN, MAX, NS, executor, MT, ST, SC);
+        
+        final StoredStatusEvent newVer = backfill(10000, 2, 1, "foo1");
+        final StoredStatusEvent delete1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS)
+                .withNullableAccessGroupID(2)
+                .withNullableObjectID("1")
+                .build(),
+                new StatusEventID("foo2"), StatusEventProcessingState.UNPROC).build();
+        final StoredStatusEvent delete2 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(25000), StatusEventType.DELETE_ALL_VERSIONS)
+                .withNullableAccessGroupID(4)
+                .withNullableObjectID("1")
+                .build(),
+                new StatusEventID("foo3"), StatusEventProcessingState.UNPROC).build();
+        
+        final Runnable coordRunner = getIndexerRunnable(executor, coord);
+        
+        when(storage.get(StatusEventProcessingState.UNPROC, 2, ALL, INT))
+                .thenReturn(Arrays.asList(delete1, delete2));
+        when(storage.get(StatusEventProcessingState.UNPROC, 2, ImmutableMap.of(
+                2, Instant.ofEpochMilli(20000), 4, Instant.ofEpochMilli(25000)), BF))
+                .thenReturn(Arrays.asList(newVer));
+        when(storage.get(set(new StatusEventID("foo1"))))
+                .thenReturn(found(to(newVer, StatusEventProcessingState.READY)));
+        
+        coordRunner.run();
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
+        assertThat("incorrect queue size", coord.getQueueSize(), is(2));
+        
+        verify(storage).get(eq(StatusEventProcessingState.UNPROC), anyInt(),
+                any(Map.class), eq(BF));
+        verify(storage, never()).get(eq(StatusEventProcessingState.UNPROC), anyInt(),
+                any(AccessGroupShard.class), eq(BF));
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo1")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        verify(storage, never()).setProcessingState(Arrays.asList(new StatusEventID("foo3")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+        verify(logger, never()).logError(any(String.class));
+        verify(logger, never()).logError(any(Throwable.class));
+    }
+    
+    private StoredStatusEvent backfill(
+            final long time,
+            final int accessGroupID,
+            final int version,
+            final String id) {
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(time), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(accessGroupID)
+                .withNullableObjectID("1")
+                .withNullableVersion(version)
+                .build(),
+                new StatusEventID(id), StatusEventProcessingState.UNPROC)
+                .withPriority(BF)
+                .build();
+    }
+    
     @Test(timeout = 2000) // in case the coordinator loops forever
     public void eventLoadRequestSize() throws Exception {
         /* test that the coordinator requests the correct number of events from storage,
@@ -320,8 +565,8 @@ public class IndexerCoordinatorTest {
         final StatusEventStorage storage = mock(StatusEventStorage.class);
         final LineLogger logger = mock(LineLogger.class);
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3, executor,
-                MT, ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3,
+                MIN, MAX, NS, executor, MT, ST, SC);
         
         final StoredStatusEvent event1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
                 "WS", Instant.ofEpochMilli(10000), StatusEventType.UNPUBLISH_ACCESS_GROUP)
@@ -345,46 +590,38 @@ public class IndexerCoordinatorTest {
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
         
-        when(storage.get(StatusEventProcessingState.UNPROC, 3))
+        when(storage.get(StatusEventProcessingState.UNPROC, 3, ALL, INT))
                 .thenReturn(Arrays.asList(event1))
                 .thenReturn(null);
-        when(storage.get(StatusEventProcessingState.UNPROC, 2))
+        when(storage.get(StatusEventProcessingState.UNPROC, 2, ALL, INT))
                 .thenReturn(Collections.emptyList()) //2nd loop of first call 
                 .thenReturn(Arrays.asList(event2)) // second call
                 .thenReturn(null);
-        when(storage.get(StatusEventProcessingState.UNPROC, 1))
+        when(storage.get(StatusEventProcessingState.UNPROC, 1, ALL, INT))
                 .thenReturn(Collections.emptyList()) // 2nd loop of second call
                 .thenReturn(Arrays.asList(event3)) // third call
                 .thenReturn(null);
         
-        when(storage.get(new StatusEventID("foo1")))
-                .thenReturn(Optional.of(ready1)); //queue blocks forever
+        when(storage.get(set(new StatusEventID("foo1"))))
+                .thenReturn(found(ready1)); //queue blocks forever
         
         coordRunner.run();
-        // changed when fast loop behavior removed 18/2/21
-        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
-//        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
         
-        verify(storage).setProcessingState(new StatusEventID("foo1"),
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
                 "Moved event foo1 UNPUBLISH_ACCESS_GROUP WS:2/null from UNPROC to READY");
         
-        coordRunner.run(); // added 18/2/21
-        
-        verify(storage).get(StatusEventProcessingState.UNPROC, 2);
-        verify(storage, never()).get(StatusEventProcessingState.UNPROC, 1);
+        verify(storage).get(StatusEventProcessingState.UNPROC, 2, ALL, INT);
+        verify(storage, never()).get(StatusEventProcessingState.UNPROC, 1, ALL, INT);
         
         coordRunner.run();
-     // changed when fast loop behavior removed 18/2/21
-        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
-//        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
         assertThat("incorrect queue size", coord.getQueueSize(), is(2));
         
-        coordRunner.run(); // added 18/2/21
-        
-        verify(storage).get(StatusEventProcessingState.UNPROC, 1);
+        verify(storage).get(StatusEventProcessingState.UNPROC, 1, ALL, INT);
         
         coordRunner.run();
         // will only cycle once because the queue is full
@@ -396,27 +633,74 @@ public class IndexerCoordinatorTest {
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
         assertThat("incorrect queue size", coord.getQueueSize(), is(3));
 
-        verify(storage, times(6)).get(new StatusEventID("foo1"));
-        verify(storage, never()).get(StatusEventProcessingState.UNPROC, 0);
-        verify(storage, never()).setProcessingState(new StatusEventID("foo2"),
+        verify(storage, times(6)).get(set(new StatusEventID("foo1")));
+        verify(storage, never()).get(StatusEventProcessingState.UNPROC, 0, ALL, INT);
+        verify(storage, never()).setProcessingState(Arrays.asList(new StatusEventID("foo2")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
-        verify(storage, never()).setProcessingState(new StatusEventID("foo3"),
+        verify(storage, never()).setProcessingState(Arrays.asList(new StatusEventID("foo3")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
     
+    @Test(timeout = 2000) // in case the coordinator loops forever
+    public void cycleInterval() throws Exception {
+        /* test that the coordinator backs off when idle and returns to the minimum interval
+         * when there are events.
+         */
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3,
+                100, 350, NS, executor, MT, ST, SC);
+        
+        final StoredStatusEvent event1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.UNPUBLISH_ACCESS_GROUP)
+                .withNullableAccessGroupID(2)
+                .build(),
+                new StatusEventID("foo1"), StatusEventProcessingState.UNPROC).build();
+        
+        final Runnable coordRunner = getIndexerRunnable(executor, coord);
+        
+        when(storage.get(StatusEventProcessingState.UNPROC, 3, ALL, INT))
+                .thenReturn(Collections.emptyList())
+                .thenReturn(Collections.emptyList())
+                .thenReturn(Collections.emptyList())
+                .thenReturn(Arrays.asList(event1));
+        when(storage.get(StatusEventProcessingState.UNPROC, 2, ALL, INT))
+                .thenReturn(Collections.emptyList());
+        when(storage.get(set(new StatusEventID("foo1"))))
+                .thenReturn(found(to(event1, StatusEventProcessingState.READY)));
+        
+        coordRunner.run();
+        verify(executor).schedule(coordRunner, 200L, TimeUnit.MILLISECONDS);
+        coordRunner.run();
+        coordRunner.run();
+        verify(executor, times(2)).schedule(coordRunner, 350L, TimeUnit.MILLISECONDS);
+        
+        coordRunner.run();
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
+        verify(executor).schedule(coordRunner, 100L, TimeUnit.MILLISECONDS);
+        
+        // event1 is blocking the queue, so reloading it from storage is not progress
+        when(storage.get(StatusEventProcessingState.UNPROC, 2, ALL, INT))
+                .thenReturn(Arrays.asList(event1));
+        coordRunner.run();
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
+        verify(executor, times(2)).schedule(coordRunner, 200L, TimeUnit.MILLISECONDS);
+    }
+    
     @Test(timeout = 2000) // in case the coordinator loops forever
     public void emptyNoInput() throws Exception {
         final StatusEventStorage storage = mock(StatusEventStorage.class);
         final LineLogger logger = mock(LineLogger.class);
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3, executor,
-                MT, ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3,
+                MIN, MAX, NS, executor, MT, ST, SC);
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
         
-        when(storage.get(StatusEventProcessingState.UNPROC, 3))
+        when(storage.get(StatusEventProcessingState.UNPROC, 3, ALL, INT))
                 .thenReturn(Collections.emptyList())
                 .thenReturn(null); 
         
@@ -424,11 +708,11 @@ public class IndexerCoordinatorTest {
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
         assertThat("incorrect queue size", coord.getQueueSize(), is(0));
         
-        verify(storage, never()).get(any());
+        verify(storage, never()).get(anySet());
         verify(storage, never()).get(any(), eq(2)); // must be an easier way of doing this
         verify(storage, never()).get(any(), eq(1));
         verify(storage, never()).get(any(), eq(0));
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, never()).setProcessingState(anyCollection(), any(), any());
         verify(logger, never()).logInfo(any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
@@ -464,35 +748,36 @@ public class IndexerCoordinatorTest {
         when(storage.get(StatusEventProcessingState.READY, 3)).thenReturn(Arrays.asList(event1));
         when(storage.get(StatusEventProcessingState.PROC, 3)).thenReturn(Arrays.asList(event2));
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3, executor,
-                MT, ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3,
+                MIN, MAX, NS, executor, MT, ST, SC);
         assertThat("incorrect queue size", coord.getQueueSize(), is(2));
         
-        when(storage.get(eq(StatusEventProcessingState.UNPROC), anyInt()))
+        when(storage.get(eq(StatusEventProcessingState.UNPROC), anyInt(), eq(ALL), eq(INT)))
                 .thenReturn(Collections.emptyList());
-        when(storage.get(new StatusEventID("foo1")))
-                .thenReturn(Optional.of(event1))
-                .thenReturn(Optional.of(unidx1)) //2nd call
+        // both events are checked in one call
+        when(storage.get(set(new StatusEventID("foo1"), new StatusEventID("foo2"))))
+                .thenReturn(found(event1, fail2))
                 .thenReturn(null);
-        when(storage.get(new StatusEventID("foo2")))
-                .thenReturn(Optional.of(fail2))
+        when(storage.get(set(new StatusEventID("foo1"))))
+                .thenReturn(found(unidx1))
                 .thenReturn(null);
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
         
+        // the first loop completes event2, the second event1, and the third does nothing
         coordRunner.run();
-        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
-        assertThat("incorrect queue size", coord.getQueueSize(), is(1));
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(3));
+        assertThat("incorrect queue size", coord.getQueueSize(), is(0));
         verify(logger).logInfo("Event foo2 RENAME_ALL_VERSIONS WS:2/2 completed " +
                 "processing with state FAIL on worker work2");
+        verify(logger).logInfo("Event foo1 PUBLISH_ALL_VERSIONS WS:2/1 completed " +
+                "processing with state UNINDX on worker work1");
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
         assertThat("incorrect queue size", coord.getQueueSize(), is(0));
-        verify(logger).logInfo("Event foo1 PUBLISH_ALL_VERSIONS WS:2/1 completed " +
-                "processing with state UNINDX on worker work1");
         
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, never()).setProcessingState(anyCollection(), any(), any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
@@ -515,15 +800,15 @@ public class IndexerCoordinatorTest {
         
         when(storage.get(StatusEventProcessingState.READY, 3)).thenReturn(Arrays.asList(event1));
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3, executor,
-                MT, ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3,
+                MIN, MAX, NS, executor, MT, ST, SC);
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
         
-        when(storage.get(eq(StatusEventProcessingState.UNPROC), anyInt()))
+        when(storage.get(eq(StatusEventProcessingState.UNPROC), anyInt(), eq(ALL), eq(INT)))
                 .thenReturn(Collections.emptyList());
-        when(storage.get(new StatusEventID("foo1")))
-                .thenReturn(Optional.of(event1))
-                .thenReturn(Optional.of(idx1)) //2nd call
+        when(storage.get(set(new StatusEventID("foo1"))))
+                .thenReturn(found(event1))
+                .thenReturn(found(idx1)) //2nd call
                 .thenReturn(null);
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
@@ -533,13 +818,13 @@ public class IndexerCoordinatorTest {
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
         verify(logger, never()).logInfo(any());
         
-        coordRunner.run();
-        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
+        coordRunner.run(); // the event completing triggers a second loop
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
         assertThat("incorrect queue size", coord.getQueueSize(), is(0));
         verify(logger).logInfo("Event foo1 PUBLISH_ACCESS_GROUP WS:2/null completed " +
                 "processing with state INDX on worker work1");
         
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, never()).setProcessingState(anyCollection(), any(), any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
@@ -557,24 +842,22 @@ public class IndexerCoordinatorTest {
         final LineLogger logger = mock(LineLogger.class);
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3, executor,
-                MT, ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3,
+                MIN, MAX, NS, executor, MT, ST, SC);
         
-        when(storage.get(StatusEventProcessingState.UNPROC, 3))
+        when(storage.get(StatusEventProcessingState.UNPROC, 3, ALL, INT))
                 .thenReturn(Arrays.asList(event1))
                 .thenReturn(Collections.emptyList());
         
-        when(storage.get(new StatusEventID("foo1"))).thenReturn(Optional.absent());
+        when(storage.get(set(new StatusEventID("foo1")))).thenReturn(found());
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
         
         coordRunner.run();
-        // changed when fast loop behavior removed 18/2/21
-//      assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
-        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(2));
         assertThat("incorrect queue size", coord.getQueueSize(), is(0));
         
-        verify(storage).setProcessingState(new StatusEventID("foo1"),
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
                 "Moved event foo1 PUBLISH_ACCESS_GROUP WS:2/null from UNPROC to READY");
@@ -591,10 +874,10 @@ public class IndexerCoordinatorTest {
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
         final SignalMonitor sm = mock(SignalMonitor.class);
 
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3, executor,
-                Arrays.asList(1, 1), ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3,
+                MIN, MAX, NS, executor, Arrays.asList(1, 1), ST, SC);
         
-        when(storage.get(StatusEventProcessingState.UNPROC, 3)).thenThrow(
+        when(storage.get(StatusEventProcessingState.UNPROC, 3, ALL, INT)).thenThrow(
                 new FatalRetriableIndexingException(ErrorType.OTHER, "wheee!"));
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
@@ -635,10 +918,10 @@ public class IndexerCoordinatorTest {
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
         final SignalMonitor sm = mock(SignalMonitor.class);
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3, executor,
-                Arrays.asList(1, 1), ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3,
+                MIN, MAX, NS, executor, Arrays.asList(1, 1), ST, SC);
         
-        when(storage.get(StatusEventProcessingState.UNPROC, 3)).thenThrow(
+        when(storage.get(StatusEventProcessingState.UNPROC, 3, ALL, INT)).thenThrow(
                 new RuntimeException("arg"));
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
@@ -671,8 +954,8 @@ public class IndexerCoordinatorTest {
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
         final SignalMonitor sm = mock(SignalMonitor.class);
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3, executor,
-                Arrays.asList(1), ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3,
+                MIN, MAX, NS, executor, Arrays.asList(1), ST, SC);
         
         final StoredStatusEvent event1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
                 "WS", Instant.ofEpochMilli(10000), StatusEventType.PUBLISH_ACCESS_GROUP)
@@ -682,9 +965,10 @@ public class IndexerCoordinatorTest {
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
         
-        when(storage.get(StatusEventProcessingState.UNPROC, 3)).thenReturn(Arrays.asList(event1));
+        when(storage.get(StatusEventProcessingState.UNPROC, 3, ALL, INT))
+                .thenReturn(Arrays.asList(event1));
         
-        when(storage.setProcessingState(new StatusEventID("foo1"),
+        when(storage.setProcessingState(Arrays.asList(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY)).thenThrow(
                         new FatalRetriableIndexingException(
                                 ErrorType.OTHER, "oof ouch owie my bones"));
@@ -717,6 +1001,57 @@ public class IndexerCoordinatorTest {
         }
     }
     
+    @Test
+    public void fatalErrorOnSkip() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final SignalMonitor sm = mock(SignalMonitor.class);
+        
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3,
+                MIN, MAX, NS, executor, Arrays.asList(1), ST, SC);
+        
+        final StoredStatusEvent event1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.RENAME_ALL_VERSIONS)
+                .withNullableAccessGroupID(2)
+                .withNullableObjectID("1")
+                .withNullableNewName("n1")
+                .build(),
+                new StatusEventID("foo1"), StatusEventProcessingState.UNPROC).build();
+        
+        final StoredStatusEvent event2 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.RENAME_ALL_VERSIONS)
+                .withNullableAccessGroupID(2)
+                .withNullableObjectID("1")
+                .withNullableNewName("n2")
+                .build(),
+                new StatusEventID("foo2"), StatusEventProcessingState.UNPROC).build();
+        
+        final Runnable coordRunner = getIndexerRunnable(executor, coord);
+        
+        when(storage.get(StatusEventProcessingState.UNPROC, 3, ALL, INT))
+                .thenReturn(Arrays.asList(event1, event2));
+        
+        when(storage.setProcessingState(Arrays.asList(new StatusEventID("foo1")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.SKIP)).thenThrow(
+                        new FatalRetriableIndexingException(ErrorType.OTHER, "skip fail"));
+        
+        coordRunner.run();
+        assertThat("incorrect cycle count", coord.getContinuousCycles(), is(0));
+        
+        verify(executor).shutdown();
+        verify(sm).signal();
+        
+        verify(logger).logError("Retriable error in indexer for event " +
+                "RENAME_ALL_VERSIONS foo1, retry 1: " +
+                "kbasesearchengine.events.exceptions.FatalRetriableIndexingException: " +
+                "skip fail");
+        verify(logger).logError("Fatal error in indexer, shutting down: " +
+                "kbasesearchengine.events.exceptions.FatalIndexingException: skip fail");
+        verify(storage, never()).setProcessingState(Arrays.asList(new StatusEventID("foo2")),
+                StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
+    }
+    
     @Test
     public void fatalErrorOnGet() throws Exception {
         final StatusEventStorage storage = mock(StatusEventStorage.class);
@@ -724,8 +1059,8 @@ public class IndexerCoordinatorTest {
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
         final SignalMonitor sm = mock(SignalMonitor.class);
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3, executor,
-                Arrays.asList(1, 1, 1), ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3,
+                MIN, MAX, NS, executor, Arrays.asList(1, 1, 1), ST, SC);
         
         final StoredStatusEvent event1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
                 "WS", Instant.ofEpochMilli(10000), StatusEventType.DELETE_ALL_VERSIONS)
@@ -736,9 +1071,10 @@ public class IndexerCoordinatorTest {
         
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
         
-        when(storage.get(StatusEventProcessingState.UNPROC, 3)).thenReturn(Arrays.asList(event1));
+        when(storage.get(StatusEventProcessingState.UNPROC, 3, ALL, INT))
+                .thenReturn(Arrays.asList(event1));
         
-        when(storage.get(new StatusEventID("foo1"))).thenThrow(
+        when(storage.get(set(new StatusEventID("foo1")))).thenThrow(
                         new FatalRetriableIndexingException(ErrorType.OTHER, "yay"));
         
         coordRunner.run();
@@ -748,7 +1084,7 @@ public class IndexerCoordinatorTest {
         verify(executor).shutdown();
         verify(sm).signal();
         
-        verify(storage).setProcessingState(new StatusEventID("foo1"),
+        verify(storage).setProcessingState(Arrays.asList(new StatusEventID("foo1")),
                 StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY);
         verify(logger).logInfo(
                 "Moved event foo1 DELETE_ALL_VERSIONS WS:2/1 from UNPROC to READY");
@@ -798,8 +1134,8 @@ public class IndexerCoordinatorTest {
         
         when(storage.get(StatusEventProcessingState.READY, 3)).thenReturn(Arrays.asList(event1));
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3, executor,
-                MT, ST, clock);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3,
+                MIN, MAX, NS, executor, MT, ST, clock);
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
 
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
@@ -811,7 +1147,7 @@ public class IndexerCoordinatorTest {
                 .thenReturn(Instant.ofEpochMilli(10000 + (2 * 3600 * 1000) + 2000))
                 .thenReturn(null);
         
-        when(storage.get(new StatusEventID("foo1"))).thenReturn(Optional.of(event1));
+        when(storage.get(set(new StatusEventID("foo1")))).thenReturn(found(event1));
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
@@ -836,7 +1172,7 @@ public class IndexerCoordinatorTest {
         verify(logger).logInfo("Event foo1 PUBLISH_ACCESS_GROUP WS:2/null in state PROC " +
                 "has been processing for 2 hours on worker work1");
 
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, never()).setProcessingState(anyCollection(), any(), any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
@@ -859,8 +1195,8 @@ public class IndexerCoordinatorTest {
         
         when(storage.get(StatusEventProcessingState.PROC, 3)).thenReturn(Arrays.asList(event1));
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3, executor,
-                MT, ticker, clock);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3,
+                MIN, MAX, NS, executor, MT, ticker, clock);
         assertThat("incorrect queue size", coord.getQueueSize(), is(1));
 
         final Runnable coordRunner = getIndexerRunnable(executor, coord);
@@ -877,7 +1213,7 @@ public class IndexerCoordinatorTest {
                 .thenReturn(3 * 3600 * 1_000_000_000L) //3rd run get force expiration
                 .thenReturn(1_000_000_000_000_000_000L); // 3rd run put
 
-        when(storage.get(new StatusEventID("foo1"))).thenReturn(Optional.of(event1));
+        when(storage.get(set(new StatusEventID("foo1")))).thenReturn(found(event1));
         
         coordRunner.run();
         assertThat("incorrect cycle count", coord.getContinuousCycles(), is(1));
@@ -901,7 +1237,7 @@ public class IndexerCoordinatorTest {
         verify(logger).logInfo("Event foo1 PUBLISH_ACCESS_GROUP WS:2/null in state READY " +
                 "has been processing for 2 hours on worker work1");
         
-        verify(storage, never()).setProcessingState(any(), any(), any());
+        verify(storage, never()).setProcessingState(anyCollection(), any(), any());
         verify(logger, never()).logError(any(String.class));
         verify(logger, never()).logError(any(Throwable.class));
     }
@@ -913,8 +1249,8 @@ public class IndexerCoordinatorTest {
         final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
         final SignalMonitor sm = new SignalMonitor();
         
-        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3, executor,
-                Arrays.asList(1), ST, SC);
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3,
+                MIN, MAX, NS, executor, Arrays.asList(1), ST, SC);
         
         final Thread shutdownThread = new Thread() {
             
@@ -934,4 +1270,104 @@ public class IndexerCoordinatorTest {
         coord.awaitShutdown();
         TestCommon.assertCloseMS(now, Instant.now(), 200, 50);
     }
+    
+    @Test
+    public void shard() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final Clock clock = mock(Clock.class);
+        final AccessGroupShard shard = AccessGroupShard.getShard(1, 2);
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000),
+                Instant.ofEpochMilli(69999), Instant.ofEpochMilli(70000));
+        when(storage.claimShard(eq(shard), anyString(), eq(Instant.ofEpochMilli(310000))))
+                .thenReturn(true);
+        when(storage.claimShard(eq(shard), anyString(), eq(Instant.ofEpochMilli(370000))))
+                .thenReturn(true);
+        
+        when(storage.get(any(StatusEventProcessingState.class), anyInt(), eq(shard)))
+                .thenReturn(Collections.emptyList());
+        
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, SM, 3,
+                MIN, MAX, Optional.of(shard), executor, MT, ST, clock);
+        final String id = coord.getCoordinatorID();
+        
+        verify(storage).claimShard(shard, id, Instant.ofEpochMilli(310000));
+        verify(logger).logInfo("Coordinator " + id + " claimed buckets 512-1024");
+        verify(storage).get(StatusEventProcessingState.READY, 3, shard);
+        verify(storage).get(StatusEventProcessingState.PROC, 3, shard);
+        
+        final Runnable coordRunner = getIndexerRunnable(executor, coord);
+        
+        // too early to renew the shard
+        coordRunner.run();
+        verify(storage, times(1)).claimShard(eq(shard), anyString(), any(Instant.class));
+        
+        // renews the shard
+        coordRunner.run();
+        verify(storage).claimShard(shard, id, Instant.ofEpochMilli(370000));
+        
+        verify(storage, times(2)).get(StatusEventProcessingState.UNPROC, 3, shard, INT);
+        verify(storage, never()).get(eq(StatusEventProcessingState.UNPROC), anyInt());
+        
+        coord.stop(0);
+        verify(storage).releaseShard(shard, id);
+    }
+    
+    @Test
+    public void shardOwned() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final Clock clock = mock(Clock.class);
+        final AccessGroupShard shard = AccessGroupShard.getShard(0, 4);
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        when(storage.claimShard(eq(shard), anyString(), eq(Instant.ofEpochMilli(310000))))
+                .thenReturn(false);
+        
+        try {
+            new IndexerCoordinator(storage, logger, SM, 3, MIN, MAX, Optional.of(shard),
+                    executor, MT, ST, clock);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new FatalIndexingException(
+                    ErrorType.OTHER, "Buckets 0-256 are owned by another coordinator"));
+        }
+        verify(storage, never()).get(any(StatusEventProcessingState.class), anyInt(),
+                any(AccessGroupShard.class));
+    }
+    
+    @Test
+    public void shardLost() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        final SignalMonitor sm = mock(SignalMonitor.class);
+        final Clock clock = mock(Clock.class);
+        final AccessGroupShard shard = AccessGroupShard.getShard(0, 4);
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000),
+                Instant.ofEpochMilli(80000));
+        when(storage.claimShard(eq(shard), anyString(), eq(Instant.ofEpochMilli(310000))))
+                .thenReturn(true);
+        when(storage.claimShard(eq(shard), anyString(), eq(Instant.ofEpochMilli(380000))))
+                .thenReturn(false);
+        when(storage.get(any(StatusEventProcessingState.class), anyInt(), eq(shard)))
+                .thenReturn(Collections.emptyList());
+        
+        final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, sm, 3,
+                MIN, MAX, Optional.of(shard), executor, MT, ST, clock);
+        
+        final Runnable coordRunner = getIndexerRunnable(executor, coord);
+        coordRunner.run();
+        
+        verify(executor).shutdown();
+        verify(sm).signal();
+        verify(logger).logError("Fatal error in indexer, shutting down: " +
+                "kbasesearchengine.events.exceptions.FatalIndexingException: Coordinator " +
+                coord.getCoordinatorID() + " lost ownership of buckets 0-256");
+        verify(storage, never()).get(StatusEventProcessingState.UNPROC, 3, shard, INT);
+    }
 }
@@ -48,6 +48,16 @@ public class IndexerWorkerConfiguratorTest {
         assertThat("incorrect event handlers", cfg.getEventHandlers(), is(Collections.emptyMap()));
         assertThat("incorrect wrk codes", cfg.getWorkerCodes(), is(Collections.emptySet()));
         assertThat("incorrect max objects", cfg.getMaxObjectsPerLoad(), is(200_000));
+        assertThat("incorrect worker threads", cfg.getWorkerThreads(), is(1));
+        assertThat("incorrect child threads", cfg.getChildThreads(), is(0));
+        assertThat("incorrect parse threads", cfg.getParseThreads(), is(0));
+        assertThat("incorrect index threads", cfg.getIndexThreads(), is(0));
+        assertThat("incorrect stage queue", cfg.getStageQueueSize(), is(10));
+        assertThat("incorrect batch size", cfg.getBatchSize(), is(1));
+        assertThat("incorrect interactive weight", cfg.getInteractiveWeight(), is(4));
+        assertThat("incorrect lookup cache size", cfg.getLookupCacheSize(), is(100_000));
+        assertThat("incorrect min interval", cfg.getMinIntervalMS(), is(100));
+        assertThat("incorrect max interval", cfg.getMaxIntervalMS(), is(1000));
         assertThat("incorrect retry count", cfg.getRetryCount(), is(5));
         assertThat("incorrect retry sleep", cfg.getRetrySleepMS(), is(1000));
         assertThat("incorrect retry fatal", cfg.getRetryFatalBackoffMS(), is(Arrays.asList(
@@ -72,6 +82,14 @@ public class IndexerWorkerConfiguratorTest {
                 .withEventHandler(eh1)
                 .withEventHandler(eh2)
                 .withMaxObjectsPerIndexingLoad(1)
+                .withWorkerThreads(8)
+                .withChildThreads(6)
+                .withStageThreads(3, 2)
+                .withStageQueueSize(5)
+                .withBatchSize(20)
+                .withInteractiveWeight(9)
+                .withLookupCacheSize(30)
+                .withCycleInterval(50, 5000)
                 .withWorkerCode("foo")
                 .withWorkerCode("bar")
                 .withRetryCount(1)
@@ -89,6 +107,16 @@ public class IndexerWorkerConfiguratorTest {
                 "sc1", eh1, "sc2", eh2)));
         assertThat("incorrect wrk codes", cfg.getWorkerCodes(), is(set("foo", "bar")));
         assertThat("incorrect max objects", cfg.getMaxObjectsPerLoad(), is(1));
+        assertThat("incorrect worker threads", cfg.getWorkerThreads(), is(8));
+        assertThat("incorrect child threads", cfg.getChildThreads(), is(6));
+        assertThat("incorrect parse threads", cfg.getParseThreads(), is(3));
+        assertThat("incorrect index threads", cfg.getIndexThreads(), is(2));
+        assertThat("incorrect stage queue", cfg.getStageQueueSize(), is(5));
+        assertThat("incorrect batch size", cfg.getBatchSize(), is(20));
+        assertThat("incorrect interactive weight", cfg.getInteractiveWeight(), is(9));
+        assertThat("incorrect lookup cache size", cfg.getLookupCacheSize(), is(30));
+        assertThat("incorrect min interval", cfg.getMinIntervalMS(), is(50));
+        assertThat("incorrect max interval", cfg.getMaxIntervalMS(), is(5000));
         assertThat("incorrect retry count", cfg.getRetryCount(), is(1));
         assertThat("incorrect retry sleep", cfg.getRetrySleepMS(), is(1));
         assertThat("incorrect retry fatal", cfg.getRetryFatalBackoffMS(), is(Arrays.asList(
@@ -251,6 +279,105 @@ public class IndexerWorkerConfiguratorTest {
         }
     }
 
+    @Test
+    public void withWorkerThreadsFail() {
+        try {
+            getBuilder().withWorkerThreads(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "workerThreads must be at least 1"));
+        }
+    }
+    
+    @Test
+    public void withChildThreadsFail() {
+        try {
+            getBuilder().withChildThreads(-1);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "childThreads must be at least 0"));
+        }
+    }
+    
+    @Test
+    public void withStageThreadsFail() {
+        failWithStageThreads(-1, 0);
+        failWithStageThreads(0, -1);
+    }
+    
+    private void failWithStageThreads(final int parseThreads, final int indexThreads) {
+        try {
+            getBuilder().withStageThreads(parseThreads, indexThreads);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "Stage thread counts must be at least 0"));
+        }
+    }
+    
+    @Test
+    public void withStageQueueSizeFail() {
+        try {
+            getBuilder().withStageQueueSize(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "stageQueueSize must be at least 1"));
+        }
+    }
+    
+    @Test
+    public void withBatchSizeFail() {
+        try {
+            getBuilder().withBatchSize(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "batchSize must be at least 1"));
+        }
+    }
+    
+    @Test
+    public void withInteractiveWeightFail() {
+        try {
+            getBuilder().withInteractiveWeight(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "interactiveWeight must be at least 1"));
+        }
+    }
+    
+    @Test
+    public void withLookupCacheSizeFail() {
+        try {
+            getBuilder().withLookupCacheSize(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "lookupCacheSize must be at least 1"));
+        }
+    }
+    
+    @Test
+    public void withCycleIntervalFail() {
+        failWithCycleInterval(0, 1, new IllegalArgumentException(
+                "minIntervalMS must be at least 1"));
+        failWithCycleInterval(2, 1, new IllegalArgumentException(
+                "maxIntervalMS must be at least minIntervalMS"));
+    }
+    
+    private void failWithCycleInterval(final int min, final int max, final Exception expected) {
+        try {
+            getBuilder().withCycleInterval(min, max);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
     private Builder getBuilder() {
         return IndexerWorkerConfigurator.getBuilder("id", Paths.get("f"), mock(LineLogger.class))
                 .withStorage(mock(StatusEventStorage.class), mock(TypeStorage.class),
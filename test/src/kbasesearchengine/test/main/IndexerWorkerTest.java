@@ -8,8 +8,11 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
@@ -27,7 +30,14 @@ import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
@@ -37,6 +47,7 @@ import org.mockito.stubbing.Answer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
 
 import kbasesearchengine.common.GUID;
@@ -44,6 +55,7 @@ import kbasesearchengine.common.ObjectJsonPath;
 import kbasesearchengine.events.ChildStatusEvent;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredStatusEvent;
@@ -60,9 +72,12 @@ import kbasesearchengine.events.storage.StatusEventStorage;
 import kbasesearchengine.main.IndexerWorker;
 import kbasesearchengine.main.IndexerWorkerConfigurator;
 import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.main.LookupCache;
 import kbasesearchengine.parse.ParsedObject;
 import kbasesearchengine.search.IndexingConflictException;
 import kbasesearchengine.search.IndexingStorage;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.search.ObjectsToIndex;
 import kbasesearchengine.system.IndexingRules;
 import kbasesearchengine.system.LocationTransformType;
 import kbasesearchengine.system.ObjectTypeParsingRules;
@@ -343,6 +358,16 @@ public class IndexerWorkerTest {
     
     @Test
     public void subtypesIndexedFirst() throws Exception {
+        subtypesIndexedFirst(0, 0);
+    }
+    
+    @Test
+    public void subtypesIndexedFirstPipelined() throws Exception {
+        subtypesIndexedFirst(2, 2);
+    }
+    
+    private void subtypesIndexedFirst(final int parseThreads, final int indexThreads)
+            throws Exception {
         /* test that subtypes from an object are sent to the indexing storage first.
          * This ensures that checks against a guid in the storage system mean that the indexing
          * is complete. If subtypes can be indexed after the main object data, the check could
@@ -374,7 +399,8 @@ public class IndexerWorkerTest {
         final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
                 "myid", tempDir, logger)
                 .withStorage(storage, typeStore, idxStore)
-                .withEventHandler(ws);
+                .withEventHandler(ws)
+                .withStageThreads(parseThreads, indexThreads);
         
         final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
         
@@ -456,6 +482,432 @@ public class IndexerWorkerTest {
                 eq(false));
     }
     
+    @Test
+    public void batchNewVersions() throws Exception {
+        /* test that new version events claimed in one cycle are checked and written to the
+         * indexing storage together, and then marked individually.
+         */
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        when(ws.updateObjectEvent(any())).then(returnsFirstArg());
+        
+        final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws)
+                .withBatchSize(3);
+        
+        final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
+        
+        final StorageObjectType storageObjectType = StorageObjectType
+                .fromNullableVersion("code", "sometype", 3);
+        final StoredStatusEvent ev1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                storageObjectType, Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("2")
+                .withNullableVersion(3)
+                .withNullableisPublic(false)
+                .build(),
+                new StatusEventID("id1"), StatusEventProcessingState.PROC)
+                .build();
+        final StoredStatusEvent ev2 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                storageObjectType, Instant.ofEpochMilli(20000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(4)
+                .withNullableObjectID("5")
+                .withNullableVersion(6)
+                .withNullableisPublic(true)
+                .build(),
+                new StatusEventID("id2"), StatusEventProcessingState.PROC)
+                .build();
+        
+        when(storage.claimBatch(eq(StatusEventProcessingState.READY), eq(set()),
+                eq(StatusEventPriority.INTERACTIVE), eq(StatusEventProcessingState.PROC),
+                eq("myid"), anyString(), eq(3)))
+                .thenReturn(Arrays.asList(ev1, ev2));
+        
+        final GUID guid1 = new GUID("code:1/2/3");
+        final GUID guid2 = new GUID("code:4/5/6");
+        when(idxStore.checkParentGuidsExist(set(guid1, guid2)))
+                .thenReturn(ImmutableMap.of(guid1, false, guid2, false));
+        
+        final Answer<SourceData> load = new Answer<SourceData>() {
+            
+            @Override
+            public SourceData answer(final InvocationOnMock inv) throws Throwable {
+                final Path path = inv.getArgument(1);
+                new ObjectMapper().writeValue(path.toFile(), ImmutableMap.of("thingy", 1));
+                return SourceData.getBuilder(new UObject(path.toFile()), "myobj", "somedude")
+                        .build();
+            }
+        };
+        when(ws.load(eq(Arrays.asList(guid1)), any(Path.class))).thenAnswer(load);
+        when(ws.load(eq(Arrays.asList(guid2)), any(Path.class))).thenAnswer(load);
+        
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), storageObjectType)
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("thingy")).build())
+                .build();
+        when(typeStore.listObjectTypeParsingRules(storageObjectType)).thenReturn(set(rule));
+        
+        assertThat("incorrect result", worker.runCycle(), is(true));
+        
+        final ParsedObject po = new ParsedObject(
+                new ObjectMapper().writeValueAsString(ImmutableMap.of("thingy", 1)),
+                ImmutableMap.of("thingy", Arrays.asList(1)));
+        
+        verify(idxStore).indexObjects(argThat(new ArgumentMatcher<List<ObjectsToIndex>>() {
+            
+            @Override
+            public boolean matches(final List<ObjectsToIndex> objects) {
+                return objects.size() == 2 &&
+                        objects.get(0).getParentGUID().equals(guid1) &&
+                        objects.get(0).getTimestamp().equals(Instant.ofEpochMilli(10000)) &&
+                        !objects.get(0).isPublic() &&
+                        objects.get(0).getIdToObj().equals(ImmutableMap.of(guid1, po)) &&
+                        objects.get(1).getParentGUID().equals(guid2) &&
+                        objects.get(1).getTimestamp().equals(Instant.ofEpochMilli(20000)) &&
+                        objects.get(1).isPublic() &&
+                        objects.get(1).getIdToObj().equals(ImmutableMap.of(guid2, po)) &&
+                        objects.stream().allMatch(o -> o.getRule().equals(rule));
+            }
+        }));
+        verify(idxStore, never()).indexObjects(any(), any(), any(), any(), any(), any(),
+                anyBoolean());
+        verify(storage).setProcessingState(new StatusEventID("id1"),
+                StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+        verify(storage).setProcessingState(new StatusEventID("id2"),
+                StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+        // the remaining space in the batch is filled from the backfill lane
+        verify(storage).claimBatch(eq(StatusEventProcessingState.READY), eq(set()),
+                eq(StatusEventPriority.BACKFILL), eq(StatusEventProcessingState.PROC),
+                eq("myid"), anyString(), eq(1));
+    }
+    
+    @Test
+    public void batchNewVersionsProcessedSingly() throws Exception {
+        /* test that new version events that can't be written in a batch are processed singly
+         * without updating the events again, and that objects that may have been partially
+         * written by the batch are fully reindexed.
+         */
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        when(ws.updateObjectEvent(any())).then(returnsFirstArg());
+        
+        final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws)
+                .withBatchSize(2)
+                .withRetryCount(1)
+                .withRetrySleepTimeMS(10);
+        
+        final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
+        
+        final StorageObjectType storageObjectType = StorageObjectType
+                .fromNullableVersion("code", "sometype", 3);
+        final StoredStatusEvent ev1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                storageObjectType, Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("2")
+                .withNullableVersion(3)
+                .withNullableisPublic(false)
+                .build(),
+                new StatusEventID("id1"), StatusEventProcessingState.PROC)
+                .build();
+        final StoredStatusEvent ev2 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                storageObjectType, Instant.ofEpochMilli(20000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(4)
+                .withNullableObjectID("5")
+                .withNullableVersion(6)
+                .withNullableisPublic(true)
+                .build(),
+                new StatusEventID("id2"), StatusEventProcessingState.PROC)
+                .build();
+        
+        when(storage.claimBatch(eq(StatusEventProcessingState.READY), eq(set()),
+                eq(StatusEventPriority.INTERACTIVE), eq(StatusEventProcessingState.PROC),
+                eq("myid"), anyString(), eq(2)))
+                .thenReturn(Arrays.asList(ev1, ev2));
+        
+        final GUID guid1 = new GUID("code:1/2/3");
+        final GUID guid2 = new GUID("code:4/5/6");
+        // the second object is already indexed and only needs its public status updated
+        when(idxStore.checkParentGuidsExist(set(guid1, guid2)))
+                .thenReturn(ImmutableMap.of(guid1, false, guid2, true));
+        when(idxStore.checkParentGuidsExist(set(guid2))).thenReturn(ImmutableMap.of(guid2, true));
+        doThrow(new IndexingConflictException("conflict", new IOException("placeholder")))
+                .when(idxStore).indexObjects(any());
+        
+        when(ws.load(eq(Arrays.asList(guid1)), any(Path.class)))
+                .thenAnswer(new Answer<SourceData>() {
+            
+            @Override
+            public SourceData answer(final InvocationOnMock inv) throws Throwable {
+                final Path path = inv.getArgument(1);
+                new ObjectMapper().writeValue(path.toFile(), ImmutableMap.of("thingy", 1));
+                return SourceData.getBuilder(new UObject(path.toFile()), "myobj", "somedude")
+                        .build();
+            }
+        });
+        
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), storageObjectType)
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("thingy")).build())
+                .build();
+        when(typeStore.listObjectTypeParsingRules(storageObjectType)).thenReturn(set(rule));
+        
+        assertThat("incorrect result", worker.runCycle(), is(true));
+        
+        final ParsedObject po = new ParsedObject(
+                new ObjectMapper().writeValueAsString(ImmutableMap.of("thingy", 1)),
+                ImmutableMap.of("thingy", Arrays.asList(1)));
+        
+        verify(ws).updateObjectEvent(ev1.getEvent());
+        verify(ws).updateObjectEvent(ev2.getEvent());
+        // the object that failed to be written in the batch is reindexed without a check
+        verify(idxStore, never()).checkParentGuidsExist(set(guid1));
+        verify(idxStore).indexObjects(
+                eq(rule),
+                any(SourceData.class),
+                eq(Instant.ofEpochMilli(10000)),
+                eq(null),
+                eq(guid1),
+                eq(ImmutableMap.of(guid1, po)),
+                eq(false));
+        verify(idxStore).checkParentGuidsExist(set(guid2));
+        verify(idxStore).publishObjects(set(guid2));
+        verify(storage).setProcessingState(new StatusEventID("id1"),
+                StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+        verify(storage).setProcessingState(new StatusEventID("id2"),
+                StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+    }
+    
+    @Test
+    public void batchNewVersionsFatal() throws Exception {
+        // test that a fatal error while writing a batch stops the worker
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        when(ws.updateObjectEvent(any())).then(returnsFirstArg());
+        
+        final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws)
+                .withBatchSize(2)
+                .withRetryFatalBackoffTimeMS(10);
+        
+        final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
+        
+        final StorageObjectType storageObjectType = StorageObjectType
+                .fromNullableVersion("code", "sometype", 3);
+        final StoredStatusEvent ev1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                storageObjectType, Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("2")
+                .withNullableVersion(3)
+                .withNullableisPublic(false)
+                .build(),
+                new StatusEventID("id1"), StatusEventProcessingState.PROC)
+                .build();
+        
+        when(storage.claimBatch(eq(StatusEventProcessingState.READY), eq(set()),
+                eq(StatusEventPriority.INTERACTIVE), eq(StatusEventProcessingState.PROC),
+                eq("myid"), anyString(), eq(2)))
+                .thenReturn(Arrays.asList(ev1));
+        
+        final GUID guid1 = new GUID("code:1/2/3");
+        when(idxStore.checkParentGuidsExist(set(guid1)))
+                .thenReturn(ImmutableMap.of(guid1, false));
+        doThrow(new IOException("es is down")).when(idxStore).indexObjects(any());
+        
+        when(ws.load(eq(Arrays.asList(guid1)), any(Path.class)))
+                .thenAnswer(new Answer<SourceData>() {
+            
+            @Override
+            public SourceData answer(final InvocationOnMock inv) throws Throwable {
+                final Path path = inv.getArgument(1);
+                new ObjectMapper().writeValue(path.toFile(), ImmutableMap.of("thingy", 1));
+                return SourceData.getBuilder(new UObject(path.toFile()), "myobj", "somedude")
+                        .build();
+            }
+        });
+        
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), storageObjectType)
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("thingy")).build())
+                .build();
+        when(typeStore.listObjectTypeParsingRules(storageObjectType)).thenReturn(set(rule));
+        
+        try {
+            worker.runCycle();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(
+                    got, new FatalIndexingException(ErrorType.OTHER, "es is down"));
+        }
+        
+        verify(idxStore, never()).indexObjects(any(), any(), any(), any(), any(), any(),
+                anyBoolean());
+        verify(storage, never()).setProcessingState(new StatusEventID("id1"),
+                StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+    }
+    
+    @Test
+    public void batchDeletions() throws Exception {
+        /* test that the deleted objects for delete and undelete events claimed in one cycle
+         * are found with one call to the event handler, and that the objects are deleted and
+         * undeleted in the indexing storage together.
+         */
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws)
+                .withBatchSize(3);
+        
+        final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
+        
+        final StoredStatusEvent ev1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "code", Instant.ofEpochMilli(10000), StatusEventType.DELETE_ALL_VERSIONS)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("2")
+                .build(),
+                new StatusEventID("id1"), StatusEventProcessingState.PROC)
+                .build();
+        final StoredStatusEvent ev2 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "code", Instant.ofEpochMilli(20000), StatusEventType.UNDELETE_ALL_VERSIONS)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("3")
+                .build(),
+                new StatusEventID("id2"), StatusEventProcessingState.PROC)
+                .build();
+        final StoredStatusEvent ev3 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "code", Instant.ofEpochMilli(30000), StatusEventType.UNDELETE_ALL_VERSIONS)
+                .withNullableAccessGroupID(4)
+                .withNullableObjectID("5")
+                .build(),
+                new StatusEventID("id3"), StatusEventProcessingState.PROC)
+                .build();
+        
+        when(storage.claimBatch(eq(StatusEventProcessingState.READY), eq(set()),
+                eq(StatusEventPriority.INTERACTIVE), eq(StatusEventProcessingState.PROC),
+                eq("myid"), anyString(), eq(3)))
+                .thenReturn(Arrays.asList(ev1, ev2, ev3));
+        when(ws.isExpandable(any())).thenReturn(false);
+        
+        final GUID guid1 = new GUID("code:1/2");
+        final GUID guid2 = new GUID("code:1/3");
+        final GUID guid3 = new GUID("code:4/5");
+        // the object for the undelete event has been deleted again since the event
+        when(ws.getDeletedObjects(set(guid1, guid2, guid3))).thenReturn(set(guid2));
+        
+        assertThat("incorrect result", worker.runCycle(), is(true));
+        
+        verify(ws).getDeletedObjects(set(guid1, guid2, guid3));
+        verify(ws, never()).updateObjectEvent(any());
+        verify(idxStore).deleteAllVersions(set(guid1, guid2));
+        verify(idxStore).undeleteAllVersions(set(guid3));
+        verify(idxStore, never()).deleteAllVersions(any(GUID.class));
+        verify(idxStore, never()).undeleteAllVersions(any(GUID.class));
+        verify(logger).logInfo("[Indexer] processing batch of 3 DELETE_ALL_VERSIONS and " +
+                "UNDELETE_ALL_VERSIONS events...");
+        for (final String id: Arrays.asList("id1", "id2", "id3")) {
+            verify(storage).setProcessingState(new StatusEventID(id),
+                    StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+        }
+    }
+    
+    @Test
+    public void batchDeletionsFatal() throws Exception {
+        // test that a fatal error while finding the deleted objects stops the worker
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws)
+                .withBatchSize(3);
+        
+        final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
+        
+        final StoredStatusEvent ev1 = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "code", Instant.ofEpochMilli(10000), StatusEventType.DELETE_ALL_VERSIONS)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("2")
+                .build(),
+                new StatusEventID("id1"), StatusEventProcessingState.PROC)
+                .build();
+        
+        when(storage.claimBatch(eq(StatusEventProcessingState.READY), eq(set()),
+                eq(StatusEventPriority.INTERACTIVE), eq(StatusEventProcessingState.PROC),
+                eq("myid"), anyString(), eq(3)))
+                .thenReturn(Arrays.asList(ev1));
+        when(ws.isExpandable(any())).thenReturn(false);
+        when(ws.getDeletedObjects(set(new GUID("code:1/2"))))
+                .thenThrow(new FatalIndexingException(ErrorType.OTHER, "WS is super broke yo"));
+        
+        try {
+            worker.runCycle();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got,
+                    new FatalIndexingException(ErrorType.OTHER, "WS is super broke yo"));
+        }
+        
+        verify(ws, never()).updateObjectEvent(any());
+        verify(idxStore, never()).deleteAllVersions(any(GUID.class));
+        verify(storage, never()).setProcessingState(new StatusEventID("id1"),
+                StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+    }
+    
     @Test
     public void indexPassTooManySubobjects() throws Exception {
         /* tests the number of subobjects at the limit does not throw an exception
@@ -1094,6 +1546,256 @@ public class IndexerWorkerTest {
                         "GUID code:4/5/6 not found"))));
     }
     
+    @Test
+    public void resolveRefsChecksOncePerResolution() throws Exception {
+        /* tests that resolving the references for a sub object checks whether all the
+         * resolved objects are indexed with one call, and that an object referenced by more
+         * than one sub object is only indexed once.
+         */
+        
+        final GUID guid = new GUID("code:1/2/3");
+        final GUID target1 = new GUID("code:4/5/6");
+        final GUID target1NoVer = new GUID("code:4/5");
+        final GUID target2 = new GUID("code:7/8/9");
+        final GUID target3 = new GUID("code:10/11/12");
+        final SearchObjectType dependentType = new SearchObjectType("Assembly", 1);
+        final StorageObjectType dependentStorageType = new StorageObjectType("code", "Assembly");
+        
+        final Map<String, Object> data = ImmutableMap.of(
+                "subobjs", Arrays.asList(
+                        ImmutableMap.of("id", "an id", "refs", Arrays.asList("4/5/6", "7/8/9")),
+                        ImmutableMap.of("id", "an id2", "refs", Arrays.asList("4/5", "10/11/12"))
+                        )
+                );
+        
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws);
+        
+        final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
+        
+        when(idxStore.checkParentGuidsExist(set(guid))).thenReturn(ImmutableMap.of(guid, false));
+        
+        when(ws.load(eq(Arrays.asList(guid)), any(Path.class)))
+                .thenAnswer(new Answer<SourceData>() {
+
+                        @Override
+                        public SourceData answer(final InvocationOnMock inv) throws Throwable {
+                            final Path path = inv.getArgument(1);
+                            new ObjectMapper().writeValue(path.toFile(), data);
+                            return SourceData.getBuilder(
+                                    new UObject(path.toFile()), "myobj", "somedude")
+                                    .withNullableMD5("md5")
+                                    .build();
+                        }
+        });
+
+        final StorageObjectType storageObjectType = StorageObjectType
+                .fromNullableVersion("code", "sometype", 3);
+        
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), storageObjectType)
+                .toSubObjectRule("subfoo", new ObjectJsonPath("/subobjs/[*]/"),
+                        new ObjectJsonPath("id"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("id"))
+                        .build())
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("refs"))
+                        .withTransform(Transform.guid(dependentType))
+                        .build())
+                .build();
+        when(typeStore.listObjectTypeParsingRules(storageObjectType)).thenReturn(set(rule));
+        
+        when(typeStore.getObjectTypeParsingRules(dependentType)).thenReturn(
+                ObjectTypeParsingRules.getBuilder(dependentType, dependentStorageType).build());
+        
+        when(ws.buildReferencePaths(Arrays.asList(guid), set(target1, target2)))
+                .thenReturn(ImmutableMap.of(
+                        target1, "code:1/2/3;code:4/5/6",
+                        target2, "code:1/2/3;code:7/8/9"));
+        when(ws.buildReferencePaths(Arrays.asList(guid), set(target1NoVer, target3)))
+                .thenReturn(ImmutableMap.of(
+                        target1NoVer, "code:1/2/3;code:4/5",
+                        target3, "code:1/2/3;code:10/11/12"));
+        
+        final Instant time = Instant.ofEpochMilli(10000);
+        when(ws.resolveReferences(Arrays.asList(guid), set(target1, target2)))
+                .thenReturn(set(
+                        new ResolvedReference(target1, target1, dependentStorageType, time),
+                        new ResolvedReference(target2, target2, dependentStorageType, time)));
+        when(ws.resolveReferences(Arrays.asList(guid), set(target1NoVer, target3)))
+                .thenReturn(set(
+                        new ResolvedReference(target1NoVer, target1, dependentStorageType, time),
+                        new ResolvedReference(target3, target3, dependentStorageType, time)));
+        
+        when(idxStore.checkParentGuidsExist(set(target1, target2)))
+                .thenReturn(ImmutableMap.of(target1, false, target2, false));
+        // target 1 is known to be indexed and so isn't checked again
+        when(idxStore.checkParentGuidsExist(set(target3)))
+                .thenReturn(ImmutableMap.of(target3, true));
+        
+        when(idxStore.getObjectsByIds(any(), any())).thenAnswer(new Answer<List<ObjectData>>() {
+
+            @Override
+            public List<ObjectData> answer(final InvocationOnMock inv) throws Throwable {
+                final Set<GUID> guids = inv.getArgument(0);
+                final List<ObjectData> ret = new LinkedList<>();
+                for (final GUID g: guids) {
+                    ret.add(ObjectData.getBuilder(g, dependentType).build());
+                }
+                return ret;
+            }
+        });
+
+        final ChildStatusEvent event = new ChildStatusEvent(StatusEvent.getBuilder(
+                storageObjectType, time, StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("2")
+                .withNullableVersion(3)
+                .withNullableisPublic(false)
+                .build(),
+                new StatusEventID("pid"));
+
+        when(ws.updateObjectEvent(event.getEvent())).thenReturn(event.getEvent());
+
+        final StatusEventProcessingState res = worker.processEvent(event);
+
+        assertThat("incorrect state", res, is(StatusEventProcessingState.INDX));
+        
+        verify(idxStore).checkParentGuidsExist(set(target1, target2));
+        verify(idxStore).checkParentGuidsExist(set(target3));
+        verify(idxStore, never()).checkParentGuidsExist(set(target1));
+        
+        // targets 1 and 2 are indexed once, target 3 was already indexed
+        verify(ws).load(eq(Arrays.asList(guid, target1)), any(Path.class));
+        verify(ws).load(eq(Arrays.asList(guid, target2)), any(Path.class));
+        verify(ws, never()).load(eq(Arrays.asList(guid, target3)), any(Path.class));
+        
+        verify(idxStore).indexObjects(
+                eq(rule),
+                any(SourceData.class),
+                eq(time),
+                eq(null),
+                eq(guid),
+                any(),
+                eq(false));
+    }
+    
+    @Test
+    public void resolvedReferenceSharedBetweenEvents() throws Exception {
+        /* tests that a versioned reference resolved while processing one event is not
+         * resolved again when a different object references the same target in a later event.
+         */
+        
+        final GUID guid1 = new GUID("code:1/2/3");
+        final GUID guid2 = new GUID("code:1/3/1");
+        final GUID target = new GUID("code:4/5/6");
+        final SearchObjectType dependentType = new SearchObjectType("Assembly", 1);
+        final StorageObjectType dependentStorageType = new StorageObjectType("code", "Assembly");
+        
+        final Map<String, Object> data = ImmutableMap.of("assy_ref", "4/5/6");
+        
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorker worker = new IndexerWorker(IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws)
+                .build());
+        
+        final StorageObjectType storageObjectType = StorageObjectType
+                .fromNullableVersion("code", "KBaseGenome.Genome", 3);
+        
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), storageObjectType)
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("assy_ref"))
+                        .withTransform(Transform.guid(dependentType))
+                        .build())
+                .build();
+        when(typeStore.listObjectTypeParsingRules(storageObjectType)).thenReturn(set(rule));
+        
+        when(typeStore.getObjectTypeParsingRules(dependentType)).thenReturn(
+                ObjectTypeParsingRules.getBuilder(dependentType, dependentStorageType).build());
+        
+        when(idxStore.checkParentGuidsExist(set(target)))
+                .thenReturn(ImmutableMap.of(target, false));
+        when(idxStore.getObjectsByIds(eq(set(target)), any())).thenReturn(
+                Arrays.asList(ObjectData.getBuilder(target, dependentType).build()));
+        
+        final Instant time = Instant.ofEpochMilli(10000);
+        for (final GUID guid: Arrays.asList(guid1, guid2)) {
+            when(idxStore.checkParentGuidsExist(set(guid)))
+                    .thenReturn(ImmutableMap.of(guid, false));
+            when(ws.load(eq(Arrays.asList(guid)), any(Path.class)))
+                    .thenAnswer(new Answer<SourceData>() {
+
+                            @Override
+                            public SourceData answer(final InvocationOnMock inv)
+                                    throws Throwable {
+                                final Path path = inv.getArgument(1);
+                                new ObjectMapper().writeValue(path.toFile(), data);
+                                return SourceData.getBuilder(
+                                        new UObject(path.toFile()), "myobj", "somedude")
+                                        .build();
+                            }
+            });
+            when(ws.buildReferencePaths(Arrays.asList(guid), set(target)))
+                    .thenReturn(ImmutableMap.of(target, guid.toRefString() + ";4/5/6"));
+            when(ws.resolveReferences(Arrays.asList(guid), set(target)))
+                    .thenReturn(set(new ResolvedReference(
+                            target, target, dependentStorageType, time)));
+        }
+        
+        for (final GUID guid: Arrays.asList(guid1, guid2)) {
+            final ChildStatusEvent event = new ChildStatusEvent(StatusEvent.getBuilder(
+                    storageObjectType, time, StatusEventType.NEW_VERSION)
+                    .withNullableAccessGroupID(guid.getAccessGroupId())
+                    .withNullableObjectID(guid.getAccessGroupObjectId())
+                    .withNullableVersion(guid.getVersion())
+                    .withNullableisPublic(false)
+                    .build(),
+                    new StatusEventID("pid"));
+            when(ws.updateObjectEvent(event.getEvent())).thenReturn(event.getEvent());
+            
+            assertThat("incorrect state", worker.processEvent(event),
+                    is(StatusEventProcessingState.INDX));
+        }
+        
+        verify(ws).resolveReferences(Arrays.asList(guid1), set(target));
+        verify(ws, never()).resolveReferences(Arrays.asList(guid2), set(target));
+        verify(idxStore).checkParentGuidsExist(set(target));
+        verify(ws).load(eq(Arrays.asList(guid1, target)), any(Path.class));
+        verify(ws, never()).load(eq(Arrays.asList(guid2, target)), any(Path.class));
+        verify(idxStore).indexObjects(eq(rule), any(SourceData.class), eq(time), eq(null),
+                eq(guid2), any(), eq(false));
+        
+        final CacheStats stats = worker.getLookupCacheStats().get(LookupCache.Kind.REFERENCE);
+        assertThat("incorrect hits", stats.hitCount(), is(1L));
+        assertThat("incorrect misses", stats.missCount(), is(1L));
+    }
+    
     @Test
     public void skipEvent() throws Exception {
         /* tests the handling of events where no search specifications are available. */
@@ -1164,7 +1866,7 @@ public class IndexerWorkerTest {
         final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
         
         when(storage.setAndGetProcessingState(StatusEventProcessingState.READY, set(),
-                StatusEventProcessingState.PROC, "myid"))
+                StatusEventPriority.INTERACTIVE, StatusEventProcessingState.PROC, "myid"))
                 .thenThrow(new FatalRetriableIndexingException(ErrorType.OTHER, "bonk"));
         
         try {
@@ -1205,7 +1907,10 @@ public class IndexerWorkerTest {
         final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
         
         when(storage.setAndGetProcessingState(StatusEventProcessingState.READY, set(),
-                StatusEventProcessingState.PROC, "myid"))
+                StatusEventPriority.INTERACTIVE, StatusEventProcessingState.PROC, "myid"))
+                .thenReturn(Optional.absent());
+        when(storage.setAndGetProcessingState(StatusEventProcessingState.READY, set(),
+                StatusEventPriority.BACKFILL, StatusEventProcessingState.PROC, "myid"))
                 .thenReturn(Optional.absent());
         
         final boolean res = worker.runCycle();
@@ -1234,7 +1939,7 @@ public class IndexerWorkerTest {
         final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
         
         when(storage.setAndGetProcessingState(StatusEventProcessingState.READY, set(),
-                StatusEventProcessingState.PROC, "myid"))
+                StatusEventPriority.INTERACTIVE, StatusEventProcessingState.PROC, "myid"))
                 .thenReturn(Optional.of(StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
                         "CODE", Instant.ofEpochMilli(10000L), StatusEventType.COPY_ACCESS_GROUP)
                         .withNullableAccessGroupID(1)
@@ -1266,6 +1971,245 @@ public class IndexerWorkerTest {
                         "No event handler for storage code CODE is registered"))));
     }
     
+    @Test
+    public void publishAccessGroup() throws Exception {
+        setPublicOnAccessGroup(StatusEventType.PUBLISH_ACCESS_GROUP, true);
+    }
+    
+    @Test
+    public void unpublishAccessGroup() throws Exception {
+        setPublicOnAccessGroup(StatusEventType.UNPUBLISH_ACCESS_GROUP, false);
+    }
+    
+    private void setPublicOnAccessGroup(final StatusEventType type, final boolean isPublic)
+            throws Exception {
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws);
+        
+        final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
+        
+        final StoredStatusEvent event = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "code", Instant.ofEpochMilli(10000L), type)
+                .withNullableAccessGroupID(6)
+                .build(),
+                new StatusEventID("an id"), StatusEventProcessingState.PROC)
+                .build();
+        
+        when(storage.setAndGetProcessingState(StatusEventProcessingState.READY, set(),
+                StatusEventPriority.INTERACTIVE, StatusEventProcessingState.PROC, "myid"))
+                .thenReturn(Optional.of(event));
+        when(ws.isExpandable(event)).thenReturn(false);
+        when(ws.updateObjectEvent(event.getEvent())).thenReturn(event.getEvent());
+        when(idxStore.setPublicOnAccessGroup("code", 6, isPublic)).thenReturn(42);
+        
+        final boolean res = worker.runCycle();
+        assertThat("incorrect result", res, is(true));
+        
+        verify(idxStore).setPublicOnAccessGroup("code", 6, isPublic);
+        verify(idxStore, never()).publishAllVersions(any());
+        verify(idxStore, never()).unpublishAllVersions(any());
+        verify(logger).logInfo("[Indexer]   set public to " + isPublic + " on 42 documents");
+        verify(storage).setProcessingState(new StatusEventID("an id"),
+                StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+    }
+    
+    @Test
+    public void expandChildEventsConcurrently() throws Exception {
+        expandChildEvents(false, StatusEventProcessingState.INDX);
+    }
+    
+    @Test
+    public void expandChildEventsConcurrentlyWithFailure() throws Exception {
+        expandChildEvents(true, StatusEventProcessingState.FAIL);
+    }
+    
+    private void expandChildEvents(
+            final boolean failChild,
+            final StatusEventProcessingState expectedState)
+            throws Exception {
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws)
+                .withChildThreads(3);
+        
+        final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
+        
+        final StoredStatusEvent parent = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "code", Instant.ofEpochMilli(10000L), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(1)
+                .build(),
+                new StatusEventID("an id"), StatusEventProcessingState.PROC)
+                .build();
+        
+        when(storage.setAndGetProcessingState(StatusEventProcessingState.READY, set(),
+                StatusEventPriority.INTERACTIVE, StatusEventProcessingState.PROC, "myid"))
+                .thenReturn(Optional.of(parent));
+        when(ws.isExpandable(parent)).thenReturn(true);
+        
+        final List<ChildStatusEvent> children = new LinkedList<>();
+        for (int i = 1; i < 4; i++) {
+            children.add(new ChildStatusEvent(StatusEvent.getBuilder(
+                    "code", Instant.ofEpochMilli(10000L), StatusEventType.RENAME_ALL_VERSIONS)
+                    .withNullableAccessGroupID(1)
+                    .withNullableObjectID("" + i)
+                    .withNullableNewName("name" + i)
+                    .build(),
+                    new StatusEventID("an id")));
+        }
+        when(ws.expand(parent)).thenReturn(children);
+        when(ws.updateObjectEvent(any())).then(returnsFirstArg());
+        
+        // the child events can only pass the barrier if they're processed concurrently
+        final CyclicBarrier barrier = new CyclicBarrier(3);
+        when(idxStore.setNameOnAllObjectVersions(any(), any())).then(inv -> {
+            barrier.await(10, TimeUnit.SECONDS);
+            if (failChild && inv.getArgument(1).equals("name2")) {
+                throw new UnprocessableEventIndexingException(ErrorType.OTHER, "oh poop");
+            }
+            return 1;
+        });
+        
+        final boolean res = worker.runCycle();
+        assertThat("incorrect result", res, is(true));
+        
+        for (int i = 1; i < 4; i++) {
+            verify(idxStore).setNameOnAllObjectVersions(new GUID("code:1/" + i), "name" + i);
+        }
+        if (failChild) {
+            verify(storage).store(eq(children.get(1)), eq("OTHER"), argThat(
+                    new ThrowableMatcher(new UnprocessableEventIndexingException(
+                            ErrorType.OTHER, "oh poop"))));
+        }
+        verify(storage).setProcessingState(new StatusEventID("an id"),
+                StatusEventProcessingState.PROC, expectedState);
+    }
+    
+    @Test
+    public void expandChildEventsForOneObjectInOrder() throws Exception {
+        /* tests that child events for versions of the same object are processed one at a time
+         * and in order, even with multiple child threads, so that only the last version is
+         * marked as the last version. Child events for other objects run concurrently.
+         */
+        final EventHandler ws = mock(EventHandler.class);
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(ws.getStorageCode()).thenReturn("code");
+        
+        final IndexerWorkerConfigurator.Builder wrkCfg = IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .withEventHandler(ws)
+                .withChildThreads(3);
+        
+        final IndexerWorker worker = new IndexerWorker(wrkCfg.build());
+        
+        final StoredStatusEvent parent = StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "code", Instant.ofEpochMilli(10000L), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(1)
+                .build(),
+                new StatusEventID("an id"), StatusEventProcessingState.PROC)
+                .build();
+        
+        when(storage.setAndGetProcessingState(StatusEventProcessingState.READY, set(),
+                StatusEventPriority.INTERACTIVE, StatusEventProcessingState.PROC, "myid"))
+                .thenReturn(Optional.of(parent));
+        when(ws.isExpandable(parent)).thenReturn(true);
+        
+        final StorageObjectType storageObjectType = StorageObjectType
+                .fromNullableVersion("code", "sometype", 3);
+        final List<ChildStatusEvent> children = new LinkedList<>();
+        for (final String upa: Arrays.asList("2/1", "2/2", "3/1", "2/3")) {
+            final String[] parts = upa.split("/");
+            children.add(new ChildStatusEvent(StatusEvent.getBuilder(
+                    storageObjectType, Instant.ofEpochMilli(10000L),
+                    StatusEventType.NEW_VERSION)
+                    .withNullableAccessGroupID(1)
+                    .withNullableObjectID(parts[0])
+                    .withNullableVersion(Integer.parseInt(parts[1]))
+                    .withNullableisPublic(false)
+                    .build(),
+                    new StatusEventID("an id")));
+        }
+        when(ws.expand(parent)).thenReturn(children);
+        when(ws.updateObjectEvent(any())).then(returnsFirstArg());
+        when(idxStore.checkParentGuidsExist(any())).then(inv -> {
+            final Set<GUID> guids = inv.getArgument(0);
+            return guids.stream().collect(Collectors.toMap(g -> g, g -> false));
+        });
+        when(ws.load(anyList(), any(Path.class))).then(inv -> {
+            final Path path = inv.getArgument(1);
+            new ObjectMapper().writeValue(path.toFile(), ImmutableMap.of("thingy", 1));
+            return SourceData.getBuilder(new UObject(path.toFile()), "myobj", "somedude")
+                    .build();
+        });
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("foo", 1), storageObjectType)
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("thingy")).build())
+                .build();
+        when(typeStore.listObjectTypeParsingRules(storageObjectType)).thenReturn(set(rule));
+        
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<GUID> indexed = Collections.synchronizedList(new LinkedList<>());
+        doAnswer(inv -> {
+            final GUID guid = inv.getArgument(4);
+            if (guid.getAccessGroupObjectId().equals("2")) {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(100);
+                running.decrementAndGet();
+            }
+            indexed.add(guid);
+            return null;
+        }).when(idxStore).indexObjects(any(), any(), any(), any(), any(), any(), anyBoolean());
+        
+        assertThat("incorrect result", worker.runCycle(), is(true));
+        
+        assertThat("concurrent versions", maxRunning.get(), is(1));
+        assertThat("incorrect order", indexed.stream()
+                .filter(g -> g.getAccessGroupObjectId().equals("2"))
+                .collect(Collectors.toList()), is(Arrays.asList(
+                        new GUID("code:1/2/1"), new GUID("code:1/2/2"),
+                        new GUID("code:1/2/3"))));
+        // the other object isn't held up by the versions of the first
+        assertThat("incorrect order", indexed.get(0), is(new GUID("code:1/3/1")));
+        verify(storage).setProcessingState(new StatusEventID("an id"),
+                StatusEventProcessingState.PROC, StatusEventProcessingState.INDX);
+    }
+    
     @Test
     public void handleFatalException() throws Exception {
         // tests that a fatal exception is rethrown and not just logged / stored.
@@ -1414,4 +2358,41 @@ public class IndexerWorkerTest {
         verify(idxStore, never()).indexObjects(
                 any(), any(), any(), any(), any(), any(), anyBoolean());
     }
+    
+    @Test
+    public void stopFlushesIndexing() throws Exception {
+        /* test that stopping the worker makes any changes deferred by the indexing storage's
+         * refresh policy visible, and that a failure to do so is logged.
+         */
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final IndexingStorage idxStore = mock(IndexingStorage.class);
+        final TypeStorage typeStore = mock(TypeStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        
+        final Path tempDir = Paths.get(TestCommon.getTempDir()).toAbsolutePath()
+                .resolve("IndexerWorkerTest");
+        deleteRecursively(tempDir);
+        
+        when(storage.setAndGetProcessingState(any(), any(), any(), any(), any()))
+                .thenReturn(Optional.absent());
+        
+        final IndexerWorker worker = new IndexerWorker(IndexerWorkerConfigurator.getBuilder(
+                "myid", tempDir, logger)
+                .withStorage(storage, typeStore, idxStore)
+                .build());
+        
+        worker.startIndexer();
+        worker.stop(1000);
+        
+        verify(idxStore).flushIndexing();
+        
+        doThrow(new IOException("es is down")).when(idxStore).flushIndexing();
+        
+        worker.startIndexer();
+        worker.stop(1000);
+        
+        verify(logger).logError(
+                "Unable to flush indexing storage on shutdown of worker with id myid: " +
+                "es is down");
+    }
 }
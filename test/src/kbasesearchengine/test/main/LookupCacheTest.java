@@ -0,0 +1,240 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static kbasesearchengine.test.common.TestCommon.set;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.main.LookupCache;
+import kbasesearchengine.main.LookupCache.Kind;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.test.common.TestCommon;
+
+public class LookupCacheTest {
+
+    private static final GUID VER = new GUID("WS:1/2/3");
+    private static final GUID VER2 = new GUID("WS:1/4/1");
+    private static final GUID NO_VER = new GUID("WS:1/2");
+
+    @Test
+    public void resolvedReferences() {
+        final LookupCache lc = new LookupCache(10);
+        assertThat("incorrect size", lc.getMaximumSize(), is(10));
+
+        lc.putResolvedReference("WS", VER, VER);
+        lc.putResolvedReference("WS", NO_VER, VER);
+
+        assertThat("incorrect ref", lc.getResolvedReference("WS", VER), is(VER));
+        // unversioned references may resolve differently later
+        assertThat("incorrect ref", lc.getResolvedReference("WS", NO_VER), nullValue());
+        assertThat("incorrect ref", lc.getResolvedReference("FOO", VER), nullValue());
+        assertThat("incorrect ref", lc.getResolvedReference("WS", VER2), nullValue());
+
+        // unversioned references aren't looked up
+        assertStats(lc.getStats().get(Kind.REFERENCE), 1, 2);
+    }
+
+    @Test
+    public void types() {
+        final LookupCache lc = new LookupCache(10);
+        final SearchObjectType t = new SearchObjectType("Genome", 1);
+
+        lc.putTypes(ImmutableMap.of(VER, t, NO_VER, t));
+
+        assertThat("incorrect types", lc.getTypes(set(VER, VER2, NO_VER)),
+                is(ImmutableMap.of(VER, t)));
+        assertStats(lc.getStats().get(Kind.TYPE), 1, 2);
+    }
+
+    @Test
+    public void objectData() {
+        final LookupCache lc = new LookupCache(10);
+        final ObjectData od = ObjectData.getBuilder(VER, new SearchObjectType("Genome", 1))
+                .build();
+
+        lc.putObjectData(ImmutableMap.of(VER, od));
+
+        assertThat("incorrect data", lc.getObjectData(set(VER, VER2)),
+                is(ImmutableMap.of(VER, od)));
+        assertStats(lc.getStats().get(Kind.OBJECT_DATA), 1, 1);
+    }
+
+    @Test
+    public void objectDataLookupPartsOnly() {
+        final LookupCache lc = new LookupCache(10);
+        final SearchObjectType t = new SearchObjectType("Genome", 1);
+
+        lc.putObjectData(ImmutableMap.of(VER, ObjectData.getBuilder(VER, t)
+                .withNullableObjectName("name")
+                .withNullableCreator("creator")
+                .withNullableData(ImmutableMap.of("foo", "bar"))
+                .withKeyProperty("id", "an id")
+                .withSourceTag("refdata")
+                .build()));
+
+        assertThat("incorrect data", lc.getObjectData(set(VER)), is(ImmutableMap.of(
+                VER, ObjectData.getBuilder(VER, t)
+                        .withNullableObjectName("name")
+                        .withNullableData(ImmutableMap.of("foo", "bar"))
+                        .withKeyProperty("id", "an id")
+                        .build())));
+    }
+
+    @Test
+    public void objectDataExpires() {
+        // other workers may rename the object, so the name may be stale
+        final Ticker ticker = mock(Ticker.class);
+        final LookupCache lc = new LookupCache(10, ticker);
+        final SearchObjectType t = new SearchObjectType("Genome", 1);
+        final ObjectData od = ObjectData.getBuilder(VER, t).withNullableObjectName("n").build();
+
+        when(ticker.read()).thenReturn(0L);
+        lc.putObjectData(ImmutableMap.of(VER, od));
+        lc.putTypes(ImmutableMap.of(VER, t));
+
+        final long expiry = TimeUnit.MINUTES.toNanos(10);
+        when(ticker.read()).thenReturn(expiry - 1);
+        assertThat("incorrect data", lc.getObjectData(set(VER)), is(ImmutableMap.of(VER, od)));
+
+        when(ticker.read()).thenReturn(expiry);
+        assertThat("incorrect data", lc.getObjectData(set(VER)),
+                is(Collections.<GUID, ObjectData>emptyMap()));
+        // types never change and so don't expire
+        assertThat("incorrect types", lc.getTypes(set(VER)), is(ImmutableMap.of(VER, t)));
+    }
+
+    @Test
+    public void invalidateObjectData() {
+        final LookupCache lc = new LookupCache(10);
+        final SearchObjectType t = new SearchObjectType("Genome", 1);
+        final GUID ver2 = new GUID("WS:1/2/4");
+        final GUID sub = new GUID(VER, "feature", "f1");
+        final GUID otherWS = new GUID("WS:2/2/3");
+        final GUID otherCode = new GUID("CODE:1/2/3");
+        final Map<GUID, ObjectData> data = new HashMap<>();
+        for (final GUID g: Arrays.asList(VER, ver2, sub, VER2, otherWS, otherCode)) {
+            data.put(g, ObjectData.getBuilder(g, t).build());
+        }
+        lc.putObjectData(data);
+
+        lc.invalidateObjectData(NO_VER);
+
+        assertThat("incorrect data", lc.getObjectData(data.keySet()).keySet(),
+                is(set(VER2, otherWS, otherCode)));
+        // the type cache is not affected
+        lc.putTypes(ImmutableMap.of(VER, t));
+        lc.invalidateObjectData(VER);
+        assertThat("incorrect types", lc.getTypes(set(VER)), is(ImmutableMap.of(VER, t)));
+    }
+
+    @Test
+    public void evict() {
+        final LookupCache lc = new LookupCache(1);
+        final SearchObjectType t = new SearchObjectType("Genome", 1);
+
+        lc.putTypes(ImmutableMap.of(VER, t));
+        lc.putTypes(ImmutableMap.of(VER2, t));
+
+        assertThat("incorrect types", lc.getTypes(set(VER, VER2)),
+                is(ImmutableMap.of(VER2, t)));
+        assertThat("incorrect evictions", lc.getStats().get(Kind.TYPE).evictionCount(), is(1L));
+    }
+
+    @Test
+    public void statsKinds() {
+        final Map<Kind, CacheStats> stats = new LookupCache(1).getStats();
+        assertThat("incorrect kinds", stats.keySet(),
+                is(set(Kind.REFERENCE, Kind.TYPE, Kind.OBJECT_DATA)));
+        for (final CacheStats s: stats.values()) {
+            assertStats(s, 0, 0);
+        }
+    }
+
+    @Test
+    public void constructFail() {
+        try {
+            new LookupCache(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "maximumSize must be at least 1"));
+        }
+        try {
+            new LookupCache(1, null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("ticker"));
+        }
+    }
+
+    @Test
+    public void putFail() {
+        final LookupCache lc = new LookupCache(1);
+        failPutRef(lc, null, VER, VER, new IllegalArgumentException(
+                "storageCode cannot be null or empty"));
+        failPutRef(lc, "  \t ", VER, VER, new IllegalArgumentException(
+                "storageCode cannot be null or empty"));
+        failPutRef(lc, "WS", null, VER, new NullPointerException("reference"));
+        failPutRef(lc, "WS", VER, null, new NullPointerException("resolved"));
+        try {
+            lc.getResolvedReference("WS", null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("reference"));
+        }
+        try {
+            lc.putTypes(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("guidToType"));
+        }
+        try {
+            lc.putObjectData(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("guidToData"));
+        }
+        try {
+            lc.invalidateObjectData(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("guid"));
+        }
+    }
+
+    private void failPutRef(
+            final LookupCache lc,
+            final String storageCode,
+            final GUID reference,
+            final GUID resolved,
+            final Exception expected) {
+        try {
+            lc.putResolvedReference(storageCode, reference, resolved);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    private void assertStats(final CacheStats stats, final long hits, final long misses) {
+        assertThat("incorrect hits", stats.hitCount(), is(hits));
+        assertThat("incorrect misses", stats.missCount(), is(misses));
+    }
+}
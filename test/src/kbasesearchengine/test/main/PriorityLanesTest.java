@@ -0,0 +1,55 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.main.PriorityLanes;
+import kbasesearchengine.test.common.TestCommon;
+
+public class PriorityLanesTest {
+    
+    private static final List<StatusEventPriority> INT_FIRST = Arrays.asList(
+            StatusEventPriority.INTERACTIVE, StatusEventPriority.BACKFILL);
+    private static final List<StatusEventPriority> BACK_FIRST = Arrays.asList(
+            StatusEventPriority.BACKFILL, StatusEventPriority.INTERACTIVE);
+    
+    @Test
+    public void weightOne() {
+        final PriorityLanes l = new PriorityLanes(1);
+        assertThat("incorrect weight", l.getInteractiveWeight(), is(1));
+        assertThat("incorrect lanes", l.next(), is(INT_FIRST));
+        assertThat("incorrect lanes", l.next(), is(BACK_FIRST));
+        assertThat("incorrect lanes", l.next(), is(INT_FIRST));
+        assertThat("incorrect lanes", l.next(), is(BACK_FIRST));
+    }
+    
+    @Test
+    public void weightThree() {
+        final PriorityLanes l = new PriorityLanes(3);
+        assertThat("incorrect weight", l.getInteractiveWeight(), is(3));
+        for (int i = 0; i < 2; i++) {
+            assertThat("incorrect lanes", l.next(), is(INT_FIRST));
+            assertThat("incorrect lanes", l.next(), is(INT_FIRST));
+            assertThat("incorrect lanes", l.next(), is(INT_FIRST));
+            assertThat("incorrect lanes", l.next(), is(BACK_FIRST));
+        }
+    }
+    
+    @Test
+    public void constructFail() {
+        try {
+            new PriorityLanes(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "interactiveWeight must be at least 1"));
+        }
+    }
+}
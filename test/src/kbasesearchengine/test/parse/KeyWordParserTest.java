@@ -10,9 +10,12 @@ import static org.mockito.Mockito.when;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
@@ -26,6 +29,7 @@ import kbasesearchengine.parse.KeywordParser;
 import kbasesearchengine.parse.ObjectParseException;
 import kbasesearchengine.parse.ParsedObject;
 import kbasesearchengine.parse.KeywordParser.ObjectLookupProvider;
+import kbasesearchengine.parse.KeywordParser.ParentValues;
 import kbasesearchengine.system.IndexingRules;
 import kbasesearchengine.system.LocationTransformType;
 import kbasesearchengine.system.ObjectTypeParsingRules;
@@ -114,6 +118,65 @@ public class KeyWordParserTest {
         assertThat("incorrect parsed obj", got, is(expected));
     }
     
+    @Test
+    public void extractKeywordsFromTokensWithParentValues() throws Exception {
+        final GUID parent = new GUID("CODE:1/2/3");
+        final ObjectMapper mapper = new ObjectMapper();
+        final String parentJson = mapper.writeValueAsString(ImmutableMap.of(
+                "domain", "B", "taxa", Arrays.asList("a", "b")));
+        final String json1 = mapper.writeValueAsString(ImmutableMap.of(
+                "id", "f1",
+                "aliases", Arrays.asList("x", "y"),
+                "location", Arrays.asList(Arrays.asList("contig_id3", 24, "+", 941))));
+        final String json2 = mapper.writeValueAsString(ImmutableMap.of(
+                "id", "f2",
+                "location", Arrays.asList(Arrays.asList("contig_id4", 24, "+", 941))));
+        final List<IndexingRules> rules = Arrays.asList(
+                IndexingRules.fromPath(new ObjectJsonPath("id")).build(),
+                IndexingRules.fromPath(new ObjectJsonPath("aliases/[*]")).build(),
+                IndexingRules.fromPath(new ObjectJsonPath("location"))
+                        .withTransform(Transform.location(LocationTransformType.contig_id))
+                        .withKeyName("contig")
+                        .build(),
+                IndexingRules.fromPath(new ObjectJsonPath("domain")).withFromParent().build(),
+                IndexingRules.fromPath(new ObjectJsonPath("taxa")).withFromParent().build());
+        
+        final ParentValues parentValues;
+        try (JsonParser jp = mapper.getFactory().createParser(parentJson)) {
+            parentValues = KeywordParser.collectParentValues(jp, rules);
+        }
+        
+        final Map<String, ParsedObject> expected = ImmutableMap.of(
+                json1, new ParsedObject(json1, ImmutableMap.of(
+                        "id", Arrays.asList("f1"),
+                        "aliases", Arrays.asList("x", "y"),
+                        "contig", Arrays.asList("contig_id3"),
+                        "domain", Arrays.asList("B"),
+                        "taxa", Arrays.asList("a", "b"))),
+                json2, new ParsedObject(json2, ImmutableMap.of(
+                        "id", Arrays.asList("f2"),
+                        "aliases", Collections.emptyList(),
+                        "contig", Arrays.asList("contig_id4"),
+                        "domain", Arrays.asList("B"),
+                        "taxa", Arrays.asList("a", "b"))));
+        
+        for (final String json: expected.keySet()) {
+            final GUID guid = new GUID(parent, "subtype", json.equals(json1) ? "f1" : "f2");
+            final ParsedObject got;
+            try (JsonParser jp = mapper.getFactory().createParser(json)) {
+                got = KeywordParser.extractKeywords(guid, new SearchObjectType("searchType", 1),
+                        json, jp, parentValues, rules, null, Arrays.asList(parent));
+            }
+            assertThat("incorrect parsed obj", got, is(expected.get(json)));
+            
+            // check the tokenized path matches parsing the JSON strings
+            assertThat("incorrect parsed obj", KeywordParser.extractKeywords(
+                    guid, new SearchObjectType("searchType", 1), json, parentJson, rules,
+                    null, Arrays.asList(parent)),
+                    is(expected.get(json)));
+        }
+    }
+    
     @Test
     public void locationTransformFail() throws Exception {
         // why are there multiple arrays anyway...?
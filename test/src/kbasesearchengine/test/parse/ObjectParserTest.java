@@ -1,5 +1,6 @@
 package kbasesearchengine.test.parse;
 
+import static kbasesearchengine.test.common.TestCommon.set;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -30,6 +31,7 @@ import com.google.common.io.CharStreams;
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.common.ObjectJsonPath;
 import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.parse.ExtractedSubObjects;
 import kbasesearchengine.parse.IdMapper;
 import kbasesearchengine.parse.ObjectParser;
 import kbasesearchengine.parse.SimpleIdConsumer;
@@ -505,6 +507,49 @@ public class ObjectParserTest {
         }
     }
 
+    /**
+     * Testing that parsing a genome with the rules for several types in a single pass gives
+     * the same results as parsing with the rules for each type separately
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parseSubObjectsMultipleRulesTest() throws Exception {
+
+        final String jsonResource = "genome01";
+        final GUID guid = new GUID("WS:1/1/1");
+
+        final List<ObjectTypeParsingRules> rules = new ArrayList<>();
+        for (final String type: Arrays.asList(
+                "GenomeFeature", "GenomeNonCodingFeature", "Genome")) {
+            rules.add(ObjectTypeParsingRulesFileParser.fromFile(
+                    new File("resources/types/" + type + ".yaml")).get(0));
+        }
+        final InputStream inputStream = ObjectParserTest.class
+                .getResourceAsStream("data/"+jsonResource + ".json.properties");
+        final UObject data = UObject.fromJsonString(
+                CharStreams.toString(new InputStreamReader(inputStream)));
+        final SourceData obj = SourceData.getBuilder(data, "TestObj", "creator").build();
+
+        final List<ExtractedSubObjects> extracted = ObjectParser.parseSubObjects(
+                obj, guid, rules);
+
+        assertThat(extracted.size(), is(3));
+        for (int i = 0; i < rules.size(); i++) {
+            assertThat(extracted.get(i).getSubObjects(),
+                    is(ObjectParser.parseSubObjects(obj, guid, rules.get(i))));
+            try (JsonParser jts = SubObjectExtractorTest.getParsedJsonResource(jsonResource)) {
+                assertThat(extracted.get(i).getParentJson(),
+                        is(ObjectParser.extractParentFragment(rules.get(i), jts)));
+            }
+        }
+        assertThat(extracted.get(0).getSubObjects().size(), is(3));
+        assertThat(extracted.get(0).getParentJson(), is("{\"domain\":\"B\"," +
+                "\"scientific_name\":\"Shewanella\",\"assembly_ref\":\"1/2/1\"}"));
+        assertThat(extracted.get(2).getSubObjects().keySet(), is(set(guid)));
+        assertNull(extracted.get(2).getParentJson());
+    }
+
     /**
      * Helper method for ObjectParser.parseSubObjects tests
      * 
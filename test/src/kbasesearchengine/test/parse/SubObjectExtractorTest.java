@@ -2,6 +2,7 @@ package kbasesearchengine.test.parse;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +11,7 @@ import junit.framework.Assert;
 import kbasesearchengine.common.ObjectJsonPath;
 import kbasesearchengine.parse.SimpleSubObjectConsumer;
 import kbasesearchengine.parse.SubObjectConsumer;
+import kbasesearchengine.parse.SubObjectExtractionNode;
 import kbasesearchengine.parse.SubObjectExtractor;
 
 import org.junit.Test;
@@ -72,6 +74,37 @@ public class SubObjectExtractorTest {
         }
     }
 
+    @Test
+    public void multipleSelections() throws Exception {
+        // extracting several selections in one pass gives the same results as separate passes
+        final Map<ObjectJsonPath, String> features = new LinkedHashMap<>();
+        final Map<ObjectJsonPath, String> genome = new LinkedHashMap<>();
+        final Map<ObjectJsonPath, String> locations = new LinkedHashMap<>();
+        final Map<SubObjectConsumer, SubObjectExtractionNode> selections = new LinkedHashMap<>();
+        selections.put(createStringMapConsumer(features), SubObjectExtractor.buildSelection(
+                new ObjectJsonPath("/features/[*]"), Arrays.asList(
+                        new ObjectJsonPath("id"), new ObjectJsonPath("location"))));
+        selections.put(createStringMapConsumer(genome), SubObjectExtractor.buildSelection(
+                new ObjectJsonPath("/"), Arrays.asList(
+                        new ObjectJsonPath("id"), new ObjectJsonPath("features/{size}"),
+                        new ObjectJsonPath("scientific_name"))));
+        selections.put(createStringMapConsumer(locations), SubObjectExtractor.buildSelection(
+                new ObjectJsonPath("/features/[*]/location/0"), Arrays.asList(
+                        new ObjectJsonPath("[*]"))));
+        try (JsonParser jp = getParsedJsonResource("genome01")) {
+            SubObjectExtractor.extract(selections, jp);
+        }
+        Assert.assertEquals(extractSubObjects("genome01", "/features/[*]", "id", "location"),
+                features);
+        Assert.assertEquals(extractSubObjects("genome01", "/", "id", "features/{size}",
+                "scientific_name"), genome);
+        Assert.assertEquals(extractSubObjects("genome01", "/features/[*]/location/0", "[*]"),
+                locations);
+        Assert.assertEquals(3, features.size());
+        Assert.assertEquals("{\"features\":3,\"id\":\"NewGenome\"," +
+                "\"scientific_name\":\"Shewanella\"}", genome.get(ObjectJsonPath.path()));
+    }
+
     public static Map<ObjectJsonPath, String> extractSubObjects(String resourceName, 
             String pathToSub, String... objPaths) throws Exception {
         JsonParser jp = getParsedJsonResource(resourceName);
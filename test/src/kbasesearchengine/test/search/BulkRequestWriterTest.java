@@ -0,0 +1,267 @@
+package kbasesearchengine.test.search;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.http.HttpEntity;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.search.BulkRequestWriter;
+import kbasesearchengine.search.BulkRequestWriter.BulkAction;
+import kbasesearchengine.test.common.TestCommon;
+
+public class BulkRequestWriterTest {
+
+    private static final String EXPECTED =
+            "{\"index\":{\"_id\":\"1\"}}\n" +
+            "{\"foo\":\"bar\",\"baz\":[1,2]}\n" +
+            "{\"delete\":{\"_id\":\"2\"}}\n" +
+            "{\"index\":{\"_id\":\"3\"}}\n" +
+            "{\"foo\":\"bat\"}\n";
+
+    private static List<BulkAction> getActions() {
+        return Arrays.asList(
+                new BulkAction(ImmutableMap.of("index", ImmutableMap.of("_id", "1")),
+                        ImmutableMap.of("foo", "bar", "baz", Arrays.asList(1, 2))),
+                new BulkAction(ImmutableMap.of("delete", ImmutableMap.of("_id", "2")), null),
+                new BulkAction(ImmutableMap.of("index", ImmutableMap.of("_id", "3")),
+                        ImmutableMap.of("foo", "bat")));
+    }
+
+    private static String read(final HttpEntity entity, final int readSize) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] b = new byte[readSize];
+        try (InputStream is = entity.getContent()) {
+            int read;
+            while ((read = is.read(b)) != -1) {
+                out.write(b, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    @Test
+    public void inMemory() throws Exception {
+        final HttpEntity entity = BulkRequestWriter.toEntity(getActions().iterator(), 10000);
+
+        assertThat("incorrect chunked", entity.isChunked(), is(false));
+        assertThat("incorrect length", entity.getContentLength(), is((long) EXPECTED.length()));
+        assertThat("incorrect type", entity.getContentType().getValue(),
+                is("application/json; charset=UTF-8"));
+        assertThat("incorrect body", read(entity, 1000), is(EXPECTED));
+    }
+
+    @Test
+    public void streamed() throws Exception {
+        for (final int readSize: Arrays.asList(1, 7, 1000)) {
+            final HttpEntity entity = BulkRequestWriter.toEntity(getActions().iterator(), 1);
+
+            assertThat("incorrect chunked", entity.isChunked(), is(true));
+            assertThat("incorrect length", entity.getContentLength(), is(-1L));
+            assertThat("incorrect type", entity.getContentType().getValue(),
+                    is("application/json; charset=UTF-8"));
+            assertThat("incorrect body", read(entity, readSize), is(EXPECTED));
+        }
+    }
+
+    @Test
+    public void streamedOneActionAtATime() throws Exception {
+        // checks that actions are only serialized as the stream is read
+        final List<BulkAction> actions = getActions();
+        final List<Integer> pulled = new ArrayList<>();
+        final Iterator<BulkAction> iter = new Iterator<BulkAction>() {
+
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < actions.size();
+            }
+
+            @Override
+            public BulkAction next() {
+                pulled.add(i);
+                return actions.get(i++);
+            }
+        };
+        final HttpEntity entity = BulkRequestWriter.toEntity(iter, 1);
+        assertThat("incorrect pulled", pulled, is(Arrays.asList(0)));
+
+        try (InputStream is = entity.getContent()) {
+            final byte[] first = new byte[EXPECTED.indexOf("{\"delete\"")];
+            assertThat("incorrect read", is.read(first), is(first.length));
+            assertThat("incorrect pulled", pulled, is(Arrays.asList(0)));
+            is.read();
+            assertThat("incorrect pulled", pulled, is(Arrays.asList(0, 1)));
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        final HttpEntity entity = BulkRequestWriter.toEntity(
+                Collections.<BulkAction>emptyList().iterator(), 1);
+
+        assertThat("incorrect length", entity.getContentLength(), is(0L));
+        assertThat("incorrect body", read(entity, 1000), is(""));
+    }
+
+    private static final String ACTION1 =
+            "{\"index\":{\"_id\":\"1\"}}\n{\"foo\":\"bar\",\"baz\":[1,2]}\n";
+    private static final String ACTION2 = "{\"delete\":{\"_id\":\"2\"}}\n";
+    private static final String ACTION3 = "{\"index\":{\"_id\":\"3\"}}\n{\"foo\":\"bat\"}\n";
+
+    private static List<String> readChunks(
+            final int maxActions,
+            final int maxSize,
+            final int maxBufferSize,
+            final boolean expectStreamed)
+            throws Exception {
+        final BulkRequestWriter w = new BulkRequestWriter(
+                getActions().iterator(), maxActions, maxSize, maxBufferSize);
+        final List<String> chunks = new ArrayList<>();
+        while (w.hasNext()) {
+            final HttpEntity entity = w.next();
+            assertThat("incorrect chunked", entity.isChunked(), is(expectStreamed));
+            chunks.add(read(entity, 5));
+        }
+        return chunks;
+    }
+
+    @Test
+    public void chunkByActions() throws Exception {
+        for (final boolean streamed: Arrays.asList(false, true)) {
+            final int buffer = streamed ? 1 : 10000;
+            assertThat("incorrect chunks", readChunks(1, 10000, buffer, streamed),
+                    is(Arrays.asList(ACTION1, ACTION2, ACTION3)));
+            assertThat("incorrect chunks", readChunks(2, 10000, buffer, streamed),
+                    is(Arrays.asList(ACTION1 + ACTION2, ACTION3)));
+            assertThat("incorrect chunks", readChunks(3, 10000, buffer, streamed),
+                    is(Arrays.asList(EXPECTED)));
+        }
+    }
+
+    @Test
+    public void chunkBySize() throws Exception {
+        for (final boolean streamed: Arrays.asList(false, true)) {
+            final int buffer = streamed ? 1 : 10000;
+            // exactly fits the first two actions
+            final int size12 = ACTION1.length() + ACTION2.length();
+            assertThat("incorrect chunks", readChunks(100, size12, buffer, streamed),
+                    is(Arrays.asList(ACTION1 + ACTION2, ACTION3)));
+            assertThat("incorrect chunks", readChunks(100, size12 - 1, buffer, streamed),
+                    is(Arrays.asList(ACTION1, ACTION2 + ACTION3)));
+            // actions larger than the limit are sent alone
+            assertThat("incorrect chunks", readChunks(100, 1, buffer, streamed),
+                    is(Arrays.asList(ACTION1, ACTION2, ACTION3)));
+        }
+    }
+
+    @Test
+    public void nextFail() throws Exception {
+        final BulkRequestWriter w = new BulkRequestWriter(getActions().iterator(), 2, 10000, 1);
+        final HttpEntity e = w.next();
+        try {
+            w.next();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got,
+                    new IllegalStateException("The previous chunk has not been read"));
+        }
+        read(e, 1000);
+        read(w.next(), 1000);
+        assertThat("incorrect has next", w.hasNext(), is(false));
+        try {
+            w.next();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NoSuchElementException());
+        }
+    }
+
+    @Test
+    public void inMemoryChunksAreIndependent() throws Exception {
+        final BulkRequestWriter w = new BulkRequestWriter(
+                getActions().iterator(), 1, 10000, 10000);
+        final HttpEntity e1 = w.next();
+        final HttpEntity e2 = w.next();
+        assertThat("incorrect body", read(e1, 1000), is(ACTION1));
+        assertThat("incorrect body", read(e2, 1000), is(ACTION2));
+    }
+
+    @Test
+    public void constructFail() throws Exception {
+        final Iterator<BulkAction> a = getActions().iterator();
+        failConstruct(null, 1, 1, 1, new NullPointerException("actions"));
+        failConstruct(a, 0, 1, 1,
+                new IllegalArgumentException("maxActions must be at least 1"));
+        failConstruct(a, 1, 0, 1,
+                new IllegalArgumentException("maxSize must be at least 1"));
+        failConstruct(a, 1, 1, 0,
+                new IllegalArgumentException("maxBufferSize must be at least 1"));
+    }
+
+    private void failConstruct(
+            final Iterator<BulkAction> actions,
+            final int maxActions,
+            final int maxSize,
+            final int maxBufferSize,
+            final Exception expected) {
+        try {
+            new BulkRequestWriter(actions, maxActions, maxSize, maxBufferSize);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void toEntityFail() throws Exception {
+        failToEntity(null, 1, new NullPointerException("actions"));
+        failToEntity(getActions().iterator(), 0,
+                new IllegalArgumentException("maxBufferSize must be at least 1"));
+    }
+
+    private void failToEntity(
+            final Iterator<BulkAction> actions,
+            final int maxBufferSize,
+            final Exception expected) {
+        try {
+            BulkRequestWriter.toEntity(actions, maxBufferSize);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void constructActionFail() {
+        try {
+            new BulkAction(null, ImmutableMap.of());
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("action"));
+        }
+    }
+
+    @Test
+    public void actionGetters() {
+        final Map<String, Object> action = ImmutableMap.of("delete", ImmutableMap.of());
+        final BulkAction ba = new BulkAction(action, null);
+        assertThat("incorrect action", ba.getAction(), is(action));
+        assertThat("incorrect source", ba.getSource(), is((Map<String, Object>) null));
+    }
+}
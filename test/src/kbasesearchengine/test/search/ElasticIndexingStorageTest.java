@@ -58,7 +58,9 @@ import kbasesearchengine.search.MatchFilter;
 import kbasesearchengine.search.MatchFilter.Builder;
 import kbasesearchengine.search.MatchValue;
 import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.search.ObjectsToIndex;
 import kbasesearchengine.search.PostProcessing;
+import kbasesearchengine.search.RefreshPolicy;
 import kbasesearchengine.search.SortingRule;
 import kbasesearchengine.search.FoundHits;
 import kbasesearchengine.search.IndexingConflictException;
@@ -711,6 +713,59 @@ public class ElasticIndexingStorageTest {
                 AccessFilter.create().withAccessGroups(2).withAllHistory(true)).size());
     }
 
+    @Test
+    public void testVersionsManySubObjects() throws Exception {
+        // more sub objects per version than the version state loads documents for an object
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("ManySubs", 1), new StorageObjectType("foo", "bar"))
+                .toSubObjectRule("sub", new ObjectJsonPath("subpath"), new ObjectJsonPath("id"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("whee")).build())
+                .build();
+        final SourceData data = SourceData.getBuilder(
+                new UObject(new HashMap<>()), "objname", "creator").build();
+        for (int ver = 1; ver <= 3; ver++) {
+            indexStorage.indexObjects(rule, data, Instant.ofEpochMilli(10000), null,
+                    new GUID("WS:130/1/" + ver), manySubObjects("WS:130/1/" + ver, 1100), false);
+        }
+        // two new versions in one call
+        indexStorage.indexObjects(Arrays.asList(
+                new ObjectsToIndex(rule, data, Instant.ofEpochMilli(10000), null,
+                        new GUID("WS:130/1/4"), manySubObjects("WS:130/1/4", 1100), false),
+                new ObjectsToIndex(rule, data, Instant.ofEpochMilli(10000), null,
+                        new GUID("WS:130/1/5"), manySubObjects("WS:130/1/5", 1100), false)));
+        indexStorage.refreshIndexByType(rule);
+        
+        final String index = refreshIndexName("ManySubs");
+        assertThat("incorrect doc count", countData(index, ImmutableMap.of("match_all",
+                Collections.emptyMap())), is(5500));
+        assertThat("incorrect last version count", countData(index, ImmutableMap.of(
+                "term", ImmutableMap.of("islast", true))), is(1100));
+        assertThat("incorrect last version count", countData(index, ImmutableMap.of(
+                "bool", ImmutableMap.of("filter", Arrays.asList(
+                        ImmutableMap.of("term", ImmutableMap.of("islast", true)),
+                        ImmutableMap.of("term", ImmutableMap.of("version", 5)))))),
+                is(1100));
+    }
+    
+    private Map<GUID, ParsedObject> manySubObjects(final String parentGUID, final int count) {
+        final Map<GUID, ParsedObject> ret = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            ret.put(new GUID(parentGUID + ":sub/" + i), new ParsedObject(
+                    "{\"whee\": \"pony\"}", ImmutableMap.of("whee", Arrays.asList("pony"))));
+        }
+        return ret;
+    }
+    
+    private int countData(final String index, final Map<String, Object> query)
+            throws IOException {
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> count = UObject.getMapper().readValue(
+                indexStorage.makeRequestNoConflict("GET", "/" + index + "/data/_count",
+                        ImmutableMap.of("query", query)).getEntity().getContent(),
+                Map.class);
+        return (Integer) count.get("count");
+    }
+
     private Set<GUID> lookupIdsByKey(List<String> objTypes, String keyName, Object value,
             AccessFilter af) throws IOException {
         Set<GUID> ret = indexStorage.searchIds(objTypes, MatchFilter.getBuilder().withLookupInKey(
@@ -911,6 +966,255 @@ public class ElasticIndexingStorageTest {
          */
     }
 
+    @Test
+    public void testDeleteUndeleteBatch() throws Exception {
+        SearchObjectType objType = new SearchObjectType("DelUndelBatch", 1);
+        List<String> type = ImmutableList.of(objType.getType());
+        IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("myprop"))
+                .withFullText().build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        GUID id1 = new GUID("WS:110/2/1");
+        GUID id2 = new GUID("WS:110/2/2");
+        GUID id3 = new GUID("WS:110/3/1");
+        GUID id4 = new GUID("WS:111/1/1");
+        for (final GUID id: Arrays.asList(id1, id2, id3, id4)) {
+            indexObject(id, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(),
+                    null, false);
+        }
+        
+        final AccessFilter filter = AccessFilter.create().withAccessGroups(110, 111);
+
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filter), is(set(id2, id3, id4)));
+
+        // delete objects in two access groups at once
+        indexStorage.deleteAllVersions(set(new GUID("WS:110/2"), id3, id4));
+        indexStorage.refreshIndexByType(rule);
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filter), is(set()));
+
+        // check the last versions are restored after undelete
+        indexStorage.undeleteAllVersions(set(new GUID("WS:110/2"), id4));
+        indexStorage.refreshIndexByType(rule);
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filter), is(set(id2, id4)));
+        
+        // no op
+        indexStorage.deleteAllVersions(set());
+        indexStorage.undeleteAllVersions(set());
+    }
+
+    private ObjectTypeParsingRules refreshRule(final String type) throws Exception {
+        return ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType(type, 1), new StorageObjectType("foo", "bar"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("myprop"))
+                        .withFullText().build())
+                .build();
+    }
+    
+    private String refreshIndexName(final String type) {
+        return (indexStorage.getIndexNamePrefix() + type + "_1").toLowerCase();
+    }
+    
+    private String getRefreshInterval(final String index) throws IOException {
+        @SuppressWarnings("unchecked")
+        final Map<String, Map<String, Map<String, Map<String, Object>>>> settings =
+                UObject.getMapper().readValue(indexStorage.makeRequestNoConflict(
+                        "GET", "/" + index + "/_settings", null).getEntity().getContent(),
+                        Map.class);
+        return (String) settings.get(index).get("settings").get("index").get("refresh_interval");
+    }
+    
+    private void resetRefreshPolicy() throws IOException {
+        indexStorage.flushIndexing();
+        indexStorage.setRefreshPolicy(RefreshPolicy.IMMEDIATE, 0);
+    }
+    
+    @Test
+    public void refreshPolicyImmediate() throws Exception {
+        assertThat("incorrect policy", indexStorage.getRefreshPolicy(),
+                is(RefreshPolicy.IMMEDIATE));
+        final ObjectTypeParsingRules rule = refreshRule("RefreshImmediate");
+        final GUID id = new GUID("WS:120/1/1");
+        
+        indexObject(id, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(), null,
+                false);
+        
+        assertThat("incorrect unrefreshed", indexStorage.getUnrefreshedIndexes(), is(set()));
+        assertThat("incorrect ids returned", lookupIdsByKey(
+                ImmutableList.of("RefreshImmediate"), "myprop", "some",
+                AccessFilter.create().withAccessGroups(120)), is(set(id)));
+    }
+    
+    @Test
+    public void refreshPolicyNone() throws Exception {
+        final ObjectTypeParsingRules rule = refreshRule("RefreshNone");
+        final String index = refreshIndexName("RefreshNone");
+        final List<String> type = ImmutableList.of("RefreshNone");
+        final AccessFilter filter = AccessFilter.create().withAccessGroups(121);
+        final GUID id1 = new GUID("WS:121/1/1");
+        final GUID id2 = new GUID("WS:121/2/1");
+        final GUID id3 = new GUID("WS:121/3/1");
+        // create the index before deferring refreshes
+        indexObject(id1, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(), null,
+                false);
+        
+        indexStorage.setRefreshPolicy(RefreshPolicy.NONE, 0);
+        try {
+            assertThat("incorrect policy", indexStorage.getRefreshPolicy(),
+                    is(RefreshPolicy.NONE));
+            indexObject(id2, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(),
+                    null, false);
+            assertThat("incorrect unrefreshed", indexStorage.getUnrefreshedIndexes(),
+                    is(set(index)));
+            // the automatic refresh is turned off for the changed index
+            assertThat("incorrect refresh interval", getRefreshInterval(index), is("-1"));
+            
+            // reading an object without unrefreshed changes doesn't refresh the index
+            assertThat("incorrect exists", indexStorage.checkParentGuidsExist(set(id1)),
+                    is(ImmutableMap.of(id1, true)));
+            assertThat("incorrect unrefreshed", indexStorage.getUnrefreshedIndexes(),
+                    is(set(index)));
+            
+            // reading an object with unrefreshed changes refreshes the index first
+            assertThat("incorrect exists", indexStorage.checkParentGuidsExist(set(id2)),
+                    is(ImmutableMap.of(id2, true)));
+            assertThat("incorrect unrefreshed", indexStorage.getUnrefreshedIndexes(),
+                    is(set()));
+            assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some", filter),
+                    is(set(id1, id2)));
+            
+            // flushing refreshes all the changed indexes
+            indexObject(id3, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(),
+                    null, false);
+            assertThat("incorrect unrefreshed", indexStorage.getUnrefreshedIndexes(),
+                    is(set(index)));
+            indexStorage.flushIndexing();
+            assertThat("incorrect unrefreshed", indexStorage.getUnrefreshedIndexes(),
+                    is(set()));
+            assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some", filter),
+                    is(set(id1, id2, id3)));
+            // flushing turns the automatic refresh back on
+            assertThat("incorrect refresh interval", getRefreshInterval(index), is((String) null));
+        } finally {
+            resetRefreshPolicy();
+        }
+    }
+    
+    @Test
+    public void refreshPolicyWaitFor() throws Exception {
+        final ObjectTypeParsingRules rule = refreshRule("RefreshWaitFor");
+        final GUID id1 = new GUID("WS:122/1/1");
+        final GUID id2 = new GUID("WS:122/2/1");
+        indexObject(id1, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(), null,
+                false);
+        
+        indexStorage.setRefreshPolicy(RefreshPolicy.WAIT_FOR, 0);
+        try {
+            assertThat("incorrect policy", indexStorage.getRefreshPolicy(),
+                    is(RefreshPolicy.WAIT_FOR));
+            indexObject(id2, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(),
+                    null, false);
+            // the indexing request returns once the object is visible
+            assertThat("incorrect ids returned", lookupIdsByKey(
+                    ImmutableList.of("RefreshWaitFor"), "myprop", "some",
+                    AccessFilter.create().withAccessGroups(122)), is(set(id1, id2)));
+        } finally {
+            resetRefreshPolicy();
+        }
+    }
+    
+    @Test
+    public void refreshPolicyPeriodic() throws Exception {
+        final ObjectTypeParsingRules rule = refreshRule("RefreshPeriodic");
+        final GUID id1 = new GUID("WS:123/1/1");
+        final GUID id2 = new GUID("WS:123/2/1");
+        indexObject(id1, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(), null,
+                false);
+        
+        indexStorage.setRefreshPolicy(RefreshPolicy.PERIODIC, 100);
+        try {
+            assertThat("incorrect policy", indexStorage.getRefreshPolicy(),
+                    is(RefreshPolicy.PERIODIC));
+            indexObject(id2, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(),
+                    null, false);
+            // the background thread refreshes the index without any further calls
+            final long end = System.currentTimeMillis() + 10_000;
+            while (!indexStorage.getUnrefreshedIndexes().isEmpty() &&
+                    System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            assertThat("incorrect unrefreshed", indexStorage.getUnrefreshedIndexes(),
+                    is(set()));
+            assertThat("incorrect ids returned", lookupIdsByKey(
+                    ImmutableList.of("RefreshPeriodic"), "myprop", "some",
+                    AccessFilter.create().withAccessGroups(123)), is(set(id1, id2)));
+        } finally {
+            resetRefreshPolicy();
+        }
+    }
+    
+    @Test
+    public void setRefreshPolicyFail() throws Exception {
+        final ElasticIndexingStorage s = new ElasticIndexingStorage(
+                new HttpHost("localhost", es.getServerPort()), tempDir);
+        failSetRefreshPolicy(s, null, 1, new NullPointerException("policy"));
+        failSetRefreshPolicy(s, RefreshPolicy.PERIODIC, 0, new IllegalArgumentException(
+                "periodicIntervalMS must be at least 1"));
+        assertThat("incorrect policy", s.getRefreshPolicy(), is(RefreshPolicy.IMMEDIATE));
+    }
+    
+    private void failSetRefreshPolicy(
+            final ElasticIndexingStorage storage,
+            final RefreshPolicy policy,
+            final long intervalMS,
+            final Exception expected) {
+        try {
+            storage.setRefreshPolicy(policy, intervalMS);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void bulkLimits() throws Exception {
+        final ElasticIndexingStorage s = new ElasticIndexingStorage(
+                new HttpHost("localhost", es.getServerPort()), tempDir);
+        // a single request in flight allows streaming the requests
+        assertThat("incorrect max docs", s.getBulkMaxDocuments(), is(1000));
+        assertThat("incorrect max bytes", s.getBulkMaxBytes(), is(10 * 1024 * 1024));
+        assertThat("incorrect concurrency", s.getBulkConcurrency(), is(1));
+        
+        s.setBulkLimits(1, 2, 3);
+        assertThat("incorrect max docs", s.getBulkMaxDocuments(), is(1));
+        assertThat("incorrect max bytes", s.getBulkMaxBytes(), is(2));
+        assertThat("incorrect concurrency", s.getBulkConcurrency(), is(3));
+        
+        failSetBulkLimits(s, 0, 1, 1, new IllegalArgumentException(
+                "maxDocuments must be at least 1"));
+        failSetBulkLimits(s, 1, 0, 1, new IllegalArgumentException(
+                "maxBytes must be at least 1"));
+        failSetBulkLimits(s, 1, 1, 0, new IllegalArgumentException(
+                "concurrency must be at least 1"));
+    }
+    
+    private void failSetBulkLimits(
+            final ElasticIndexingStorage storage,
+            final int maxDocuments,
+            final int maxBytes,
+            final int concurrency,
+            final Exception expected) {
+        try {
+            storage.setBulkLimits(maxDocuments, maxBytes, concurrency);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
     @Test
     public void testPublishAllVersions() throws Exception {
         // tests the all versions method for setting objects public / non-public.
@@ -957,6 +1261,50 @@ public class ElasticIndexingStorageTest {
                 filterPublic), is(set()));
     }
     
+    @Test
+    public void setPublicOnAccessGroup() throws Exception {
+        // tests setting all the objects in an access group public / non-public.
+        SearchObjectType objType = new SearchObjectType("PublishAccessGroup", 1);
+        List<String> type = ImmutableList.of(objType.getType());
+        IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("myprop"))
+                .withFullText().build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        GUID id1 = new GUID("WS:201/1/1");
+        GUID id2 = new GUID("WS:201/2/1");
+        GUID id3 = new GUID("WS:202/1/1");
+        indexObject(id1, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(), null,
+                false);
+        indexObject(id2, rule, "{\"myprop\": \"some other stuff\"}", "myobj", Instant.now(),
+                null, false);
+        indexObject(id3, rule, "{\"myprop\": \"some more stuff\"}", "myobj", Instant.now(),
+                null, false);
+        
+        final AccessFilter filterPublic = AccessFilter.create()
+                .withAllHistory(true).withPublic(true);
+        
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filterPublic), is(set()));
+        
+        // only the objects in the access group are affected
+        assertThat("incorrect count", indexStorage.setPublicOnAccessGroup("WS", 201, true),
+                is(2));
+        indexStorage.refreshIndexByType(rule);
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filterPublic), is(set(id1, id2)));
+        
+        // other storage codes are not affected
+        assertThat("incorrect count", indexStorage.setPublicOnAccessGroup("NOT", 201, false),
+                is(0));
+        
+        assertThat("incorrect count", indexStorage.setPublicOnAccessGroup("WS", 201, false),
+                is(2));
+        indexStorage.refreshIndexByType(rule);
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filterPublic), is(set()));
+    }
+    
     @Test
     public void testTypeVersions() throws Exception {
         /* test that types with incompatible fields but different versions index successfully. */
@@ -0,0 +1,186 @@
+package kbasesearchengine.test.search;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.search.ObjectVersionState;
+import kbasesearchengine.search.ObjectVersionState.AccessDoc;
+import kbasesearchengine.test.common.TestCommon;
+
+public class ObjectVersionStateTest {
+
+    private static final List<Integer> OWNER_ADMIN = Arrays.asList(1, -2);
+
+    private static AccessDoc accessDoc(
+            final String id,
+            final int version,
+            final List<Integer> lastIn,
+            final List<Integer> groups,
+            final List<Integer> extPub) {
+        return new AccessDoc(id, 3, version, lastIn, groups, extPub);
+    }
+
+    private static Map<String, Map<String, Object>> updates(final ObjectVersionState s) {
+        return s.getAccessDocUpdates().entrySet().stream().collect(Collectors.toMap(
+                e -> e.getKey().getId(), e -> e.getValue()));
+    }
+
+    @Test
+    public void firstVersion() {
+        final ObjectVersionState s = new ObjectVersionState(new GUID("WS:1/2/1"), false,
+                Collections.emptyList());
+
+        assertThat("incorrect guid", s.getParentGUID(), is(new GUID("WS:1/2/1")));
+        assertThat("incorrect last", s.getLastVersion(), is(1));
+        assertThat("incorrect is last", s.isLastVersion(1), is(true));
+        assertThat("incorrect parent id", s.getParentDocId(), is("WS:1/2/1"));
+        assertThat("incorrect new doc", s.getNewAccessDoc(), is(Optional.of(
+                (Map<String, Object>) ImmutableMap.<String, Object>builder()
+                        .put("pguid", "WS:1/2/1")
+                        .put("prefix", "WS:1/2")
+                        .put("version", 1)
+                        .put("lastin", set(-2, 1))
+                        .put("groups", set(-2, 1))
+                        .put("extpub", Collections.emptyList())
+                        .build())));
+        assertThat("incorrect updates", updates(s), is(Collections.emptyMap()));
+        assertThat("incorrect replaced", s.getReplacedLastVersion(),
+                is(Optional.<Integer>absent()));
+    }
+
+    private static Collection<Integer> set(final Integer... ints) {
+        return new LinkedHashSet<>(Arrays.asList(ints));
+    }
+
+    @Test
+    public void newLastVersion() {
+        final ObjectVersionState s = new ObjectVersionState(new GUID("WS:1/2/3"), true,
+                Arrays.asList(
+                        accessDoc("a1", 1, Collections.emptyList(), OWNER_ADMIN,
+                                Collections.emptyList()),
+                        accessDoc("a2", 2, Arrays.asList(1, -2, 5), Arrays.asList(1, -2, 5),
+                                Arrays.asList(5))));
+
+        assertThat("incorrect last", s.getLastVersion(), is(3));
+        assertThat("incorrect parent id", s.getParentDocId(), is("WS:1/2/3"));
+        assertThat("incorrect lastin", s.getNewAccessDoc().get().get("lastin"),
+                is(set(-2, 1, -1)));
+        // the public group was never in lastin for version 2, and 5 is not the object's
+        // access group, so neither are touched
+        assertThat("incorrect updates", updates(s), is(ImmutableMap.of(
+                "a2", ImmutableMap.of("lastin", Arrays.asList(5)))));
+        assertThat("incorrect replaced", s.getReplacedLastVersion(), is(Optional.of(2)));
+    }
+
+    @Test
+    public void olderVersion() {
+        final ObjectVersionState s = new ObjectVersionState(new GUID("WS:1/2/1"), false,
+                Arrays.asList(
+                        accessDoc("a2", 2, OWNER_ADMIN, OWNER_ADMIN, Collections.emptyList()),
+                        // an inconsistent older version is fixed
+                        accessDoc("a0", 0, Arrays.asList(1, 7), Arrays.asList(1, 7),
+                                Arrays.asList(1))));
+
+        assertThat("incorrect last", s.getLastVersion(), is(2));
+        assertThat("incorrect is last", s.isLastVersion(1), is(false));
+        assertThat("incorrect lastin", s.getNewAccessDoc().get().get("lastin"),
+                is(Collections.emptySet()));
+        assertThat("incorrect updates", updates(s), is(ImmutableMap.of(
+                "a0", ImmutableMap.of("lastin", Arrays.asList(7), "extpub",
+                        Collections.emptyList()))));
+        assertThat("incorrect replaced", s.getReplacedLastVersion(),
+                is(Optional.<Integer>absent()));
+    }
+
+    @Test
+    public void lastVersionAddsGroup() {
+        final ObjectVersionState s = new ObjectVersionState(new GUID("WS:1/2/1"), false,
+                Arrays.asList(accessDoc("a3", 3, Collections.emptyList(), Arrays.asList(1),
+                        Collections.emptyList())));
+
+        assertThat("incorrect updates", updates(s), is(ImmutableMap.of(
+                "a3", ImmutableMap.of("lastin", OWNER_ADMIN, "groups", OWNER_ADMIN))));
+        assertThat("incorrect version", s.getAccessDocUpdates().keySet().iterator().next()
+                .getESVersion(), is(3L));
+    }
+
+    @Test
+    public void existingVersion() {
+        // access groups are only updated when a version is first indexed
+        final ObjectVersionState s = new ObjectVersionState(new GUID("WS:1/2/2"), false,
+                Arrays.asList(
+                        accessDoc("a1", 1, OWNER_ADMIN, OWNER_ADMIN, Collections.emptyList()),
+                        accessDoc("a2", 2, Collections.emptyList(), OWNER_ADMIN,
+                                Collections.emptyList())));
+
+        assertThat("incorrect last", s.getLastVersion(), is(2));
+        assertThat("incorrect parent id", s.getParentDocId(), is("a2"));
+        assertThat("incorrect new doc", s.getNewAccessDoc(),
+                is(Optional.<Map<String, Object>>absent()));
+        assertThat("incorrect updates", updates(s), is(Collections.emptyMap()));
+        assertThat("incorrect replaced", s.getReplacedLastVersion(),
+                is(Optional.<Integer>absent()));
+    }
+
+    @Test
+    public void constructFail() {
+        final GUID g = new GUID("WS:1/2/3");
+        final List<AccessDoc> a = Collections.emptyList();
+        failConstruct(null, a, new NullPointerException("parentGUID"));
+        failConstruct(g, null, new NullPointerException("accessDocs"));
+        failConstruct(new GUID("WS:1/2"), a, new IllegalArgumentException(
+                "parentGUID must have a version and no subobject: WS:1/2"));
+        failConstruct(new GUID("WS:1/2/3:sub/id"), a, new IllegalArgumentException(
+                "parentGUID must have a version and no subobject: WS:1/2/3:sub/id"));
+    }
+
+    private void failConstruct(
+            final GUID guid,
+            final List<AccessDoc> accessDocs,
+            final Exception expected) {
+        try {
+            new ObjectVersionState(guid, false, accessDocs);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void constructDocFail() {
+        final List<Integer> l = Collections.emptyList();
+        failAccessDoc(null, l, l, l, new NullPointerException("id"));
+        failAccessDoc("i", null, l, l, new NullPointerException("lastIn"));
+        failAccessDoc("i", l, null, l, new NullPointerException("groups"));
+        failAccessDoc("i", l, l, null, new NullPointerException("extPub"));
+    }
+
+    private void failAccessDoc(
+            final String id,
+            final List<Integer> lastIn,
+            final List<Integer> groups,
+            final List<Integer> extPub,
+            final Exception expected) {
+        try {
+            new AccessDoc(id, 1, 1, lastIn, groups, extPub);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package kbasesearchengine.test.tools;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import kbasesearchengine.search.RefreshPolicy;
+import kbasesearchengine.test.common.TestCommon;
+import kbasesearchengine.tools.SearchToolsConfig;
+import kbasesearchengine.tools.SearchToolsConfig.SearchToolsConfigException;
+
+public class SearchToolsConfigTest {
+
+    private static Map<String, String> getRequired() {
+        final Map<String, String> cfg = new HashMap<>();
+        cfg.put("search-mongo-host", "localhost");
+        cfg.put("search-mongo-db", "search");
+        cfg.put("elastic-host", "localhost");
+        cfg.put("elastic-port", "9200");
+        cfg.put("elastic-namespace", "kbase.1");
+        cfg.put("scratch", "/tmp");
+        cfg.put("workspace-url", "https://ws.com");
+        cfg.put("auth-service-url", "https://auth.com");
+        cfg.put("indexer-token", "token");
+        cfg.put("types-dir", "types");
+        cfg.put("type-mappings-dir", "mappings");
+        cfg.put("workspace-mongo-host", "localhost");
+        cfg.put("workspace-mongo-db", "ws");
+        return cfg;
+    }
+
+    @Test
+    public void refreshDefaults() throws Exception {
+        final SearchToolsConfig cfg = SearchToolsConfig.from(getRequired());
+
+        assertThat("incorrect policy", cfg.getElasticRefreshPolicy(),
+                is(RefreshPolicy.IMMEDIATE));
+        assertThat("incorrect interval", cfg.getElasticRefreshIntervalMS(), is(1000));
+    }
+
+    @Test
+    public void refreshPolicies() throws Exception {
+        final Map<String, String> c = getRequired();
+        c.put("elastic-refresh-interval-ms", "  250  ");
+        for (final String s: new String[] {"immediate", "PERIODIC", "Wait_For", " none "}) {
+            c.put("elastic-refresh-policy", s);
+            final SearchToolsConfig cfg = SearchToolsConfig.from(c);
+            assertThat("incorrect policy", cfg.getElasticRefreshPolicy(),
+                    is(RefreshPolicy.valueOf(s.trim().toUpperCase())));
+            assertThat("incorrect interval", cfg.getElasticRefreshIntervalMS(), is(250));
+        }
+        // whitespace only values are treated as missing
+        c.put("elastic-refresh-policy", "   ");
+        assertThat("incorrect policy", SearchToolsConfig.from(c).getElasticRefreshPolicy(),
+                is(RefreshPolicy.IMMEDIATE));
+    }
+
+    @Test
+    public void refreshFail() throws Exception {
+        failRefresh("elastic-refresh-policy", "sometimes", new SearchToolsConfigException(
+                "Invalid value for parameter elastic-refresh-policy (sometimes): must be one " +
+                "of [IMMEDIATE, PERIODIC, WAIT_FOR, NONE]"));
+        failRefresh("elastic-refresh-interval-ms", "0", new SearchToolsConfigException(
+                "Parameter elastic-refresh-interval-ms must be at least 1"));
+        failRefresh("elastic-refresh-interval-ms", "fast", new SearchToolsConfigException(
+                "Invalid value for parameter elastic-refresh-interval-ms (fast): " +
+                "For input string: \"fast\""));
+    }
+
+    private void failRefresh(final String key, final String value, final Exception expected) {
+        final Map<String, String> cfg = getRequired();
+        cfg.put(key, value);
+        try {
+            SearchToolsConfig.from(cfg);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}